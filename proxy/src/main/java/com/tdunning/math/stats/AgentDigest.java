@@ -172,6 +172,131 @@ public class AgentDigest extends AbstractTDigest {
     }
   }
 
+  /**
+   * Adds a batch of weighted values without boxing. Entries with non-positive counts or non-finite means are skipped.
+   *
+   * @param means  values to add.
+   * @param counts weights for the corresponding values.
+   * @param length number of entries to add.
+   */
+  public void add(double[] means, int[] counts, int length) {
+    for (int i = 0; i < length; ++i) {
+      int count = counts[i];
+      double x = means[i];
+      if (count > 0 && Double.isFinite(x)) {
+        addWeighted(x, count);
+      }
+    }
+  }
+
+  /**
+   * Adds all bins of a reporting Histogram. Bins with non-positive counts or non-finite means are skipped.
+   *
+   * @param histogram histogram to add.
+   */
+  public void add(Histogram histogram) {
+    List<Double> means = histogram.getBins();
+    List<Integer> counts = histogram.getCounts();
+    if (means == null || counts == null) {
+      return;
+    }
+    int len = Math.min(means.size(), counts.size());
+    for (int i = 0; i < len; ++i) {
+      Integer count = counts.get(i);
+      Double x = means.get(i);
+      if (count != null && count > 0 && x != null && Double.isFinite(x)) {
+        addWeighted(x, count);
+      }
+    }
+  }
+
+  /**
+   * Merges another digest into this one. Centroids of another AgentDigest are already sorted, so they are merged in
+   * a single pass without allocating or going through the temporary buffer.
+   */
+  @Override
+  public void add(TDigest other) {
+    if (!(other instanceof AgentDigest) || data != null) {
+      super.add(other);
+      return;
+    }
+    AgentDigest digest = (AgentDigest) other;
+    int count = digest.centroidCount();
+    mergeNewValues();
+    mergeSorted(digest.mean, digest.weight, count);
+  }
+
+  private void addWeighted(double x, double w) {
+    if (data != null) {
+      add(x, (int) w);
+      return;
+    }
+    if (tempUsed >= tempWeight.length) {
+      mergeNewValues();
+    }
+    int where = tempUsed++;
+    tempWeight[where] = w;
+    tempMean[where] = x;
+    unmergedWeight += w;
+  }
+
+  /**
+   * Merges centroids sorted by mean into the merged centroids. The temporary buffer needs to be empty.
+   */
+  private void mergeSorted(double[] otherMean, double[] otherWeight, int otherCount) {
+    double otherTotal = 0;
+    for (int i = 0; i < otherCount; ++i) {
+      otherTotal += otherWeight[i];
+    }
+    if (otherTotal <= 0) {
+      return;
+    }
+    double wSoFar = 0;
+    double k1 = 0;
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    if (totalWeight > 0) {
+      n = weight[lastUsedCell] > 0 ? lastUsedCell + 1 : lastUsedCell;
+    }
+    lastUsedCell = 0;
+    totalWeight += otherTotal;
+
+    while (i < otherCount && j < n) {
+      if (otherMean[i] <= mean[j]) {
+        wSoFar += otherWeight[i];
+        k1 = mergeCentroid(wSoFar, k1, otherWeight[i], otherMean[i], null);
+        i++;
+      } else {
+        wSoFar += weight[j];
+        k1 = mergeCentroid(wSoFar, k1, weight[j], mean[j], null);
+        j++;
+      }
+    }
+    while (i < otherCount) {
+      wSoFar += otherWeight[i];
+      k1 = mergeCentroid(wSoFar, k1, otherWeight[i], otherMean[i], null);
+      i++;
+    }
+    while (j < n) {
+      wSoFar += weight[j];
+      k1 = mergeCentroid(wSoFar, k1, weight[j], mean[j], null);
+      j++;
+    }
+    swapMergeBuffers();
+  }
+
+  private void swapMergeBuffers() {
+    double[] z = weight;
+    weight = mergeWeight;
+    mergeWeight = z;
+    Arrays.fill(mergeWeight, 0);
+
+    z = mean;
+    mean = mergeMean;
+    mergeMean = z;
+  }
+
   private void mergeNewValues() {
     if (unmergedWeight > 0) {
       Sort.sort(order, tempMean, tempUsed);
@@ -221,14 +346,7 @@ public class AgentDigest extends AbstractTDigest {
       tempUsed = 0;
 
       // swap pointers for working space and merge space
-      double[] z = weight;
-      weight = mergeWeight;
-      mergeWeight = z;
-      Arrays.fill(mergeWeight, 0);
-
-      z = mean;
-      mean = mergeMean;
-      mergeMean = z;
+      swapMergeBuffers();
 
       if (data != null) {
         data = mergeData;
@@ -313,6 +431,10 @@ public class AgentDigest extends AbstractTDigest {
    * @return The centroid scale value corresponding to q.
    */
   private double integratedLocation(double q) {
+    return integratedLocation(compression, q);
+  }
+
+  private static double integratedLocation(short compression, double q) {
     return compression * (FastMath.asin(2 * q - 1) + Math.PI / 2) / Math.PI;
   }
 
@@ -485,6 +607,34 @@ public class AgentDigest extends AbstractTDigest {
       }
     }
 
+    /**
+     * Merges two digests in the encoded form produced by {@link #write} without deserializing them: centroids of both
+     * digests are already sorted, so they are combined in a single streaming pass. The result has the compression of
+     * the first digest and the earlier of the two dispatch times. Reads and writes use absolute positions, buffers
+     * keep their byte order.
+     *
+     * @param a   first encoded digest, from position to limit.
+     * @param b   second encoded digest, from position to limit.
+     * @param out buffer to write the merged digest to, starting at its position. Needs to have room for the centroids
+     *            of both digests and must not overlap with either of them.
+     * @return size of the merged digest in bytes.
+     */
+    public static int merge(ByteBuffer a, ByteBuffer b, ByteBuffer out) {
+      Preconditions.checkArgument(a.remaining() >= FIXED_SIZE);
+      Preconditions.checkArgument(b.remaining() >= FIXED_SIZE);
+      int offsetA = a.position();
+      int offsetB = b.position();
+      int offsetOut = out.position();
+      short compression = a.getShort(offsetA);
+      out.putShort(offsetOut, compression);
+      out.putLong(offsetOut + 2, Math.min(a.getLong(offsetA + 2), b.getLong(offsetB + 2)));
+      int count = mergeCentroids(compression,
+          a, offsetA + FIXED_SIZE, (a.remaining() - FIXED_SIZE) / PER_CENTROID_SIZE,
+          b, offsetB + FIXED_SIZE, (b.remaining() - FIXED_SIZE) / PER_CENTROID_SIZE,
+          out, offsetOut + FIXED_SIZE);
+      return FIXED_SIZE + count * PER_CENTROID_SIZE;
+    }
+
     @Override
     public AgentDigestMarshaller readResolve() {
       return INSTANCE;
@@ -511,6 +661,107 @@ public class AgentDigest extends AbstractTDigest {
     // Ignore
   }
 
+  /**
+   * Replaces the state of this digest with centroids stored as (float weight, float mean) pairs, the layout
+   * {@link #writeCentroids(ByteBuffer, int)} produces. Uses absolute positions and does not allocate.
+   *
+   * @param in                 buffer to read from.
+   * @param offset             position of the first centroid.
+   * @param count              number of centroids to read.
+   * @param dispatchTimeMillis new dispatch time.
+   */
+  public void readCentroids(ByteBuffer in, int offset, int count, long dispatchTimeMillis) {
+    Preconditions.checkArgument(count <= weight.length, "Too many centroids for compression " + compression);
+    this.dispatchTimeMillis = dispatchTimeMillis;
+    totalWeight = 0D;
+    tempUsed = 0;
+    unmergedWeight = 0D;
+    Arrays.fill(weight, count, weight.length, 0D);
+    for (int i = 0; i < count; ++i) {
+      float w = in.getFloat(offset);
+      weight[i] = w;
+      mean[i] = in.getFloat(offset + 4);
+      totalWeight += w;
+      offset += PER_CENTROID_SIZE;
+    }
+    lastUsedCell = count == 0 ? 0 : count - 1;
+  }
+
+  /**
+   * Writes centroids as (float weight, float mean) pairs (does compress if necessary). Uses absolute positions and does
+   * not allocate.
+   *
+   * @param out    buffer to write to, needs to have room for {@link #centroidCount()} centroids.
+   * @param offset position of the first centroid.
+   * @return number of centroids written.
+   */
+  public int writeCentroids(ByteBuffer out, int offset) {
+    int numCentroids = centroidCount();
+    for (int i = 0; i < numCentroids; ++i) {
+      out.putFloat(offset, (float) weight[i]);
+      out.putFloat(offset + 4, (float) mean[i]);
+      offset += PER_CENTROID_SIZE;
+    }
+    return numCentroids;
+  }
+
+  /**
+   * Merges two arrays of (float weight, float mean) pairs sorted by mean, writing merged centroids in the same layout.
+   * Uses the same merge criteria as {@link #compress()}, and absolute positions.
+   *
+   * @return number of centroids written.
+   */
+  private static int mergeCentroids(short compression, ByteBuffer a, int offsetA, int countA,
+                                    ByteBuffer b, int offsetB, int countB, ByteBuffer out, int offsetOut) {
+    double total = 0;
+    for (int i = 0; i < countA; ++i) {
+      total += a.getFloat(offsetA + i * PER_CENTROID_SIZE);
+    }
+    for (int i = 0; i < countB; ++i) {
+      total += b.getFloat(offsetB + i * PER_CENTROID_SIZE);
+    }
+    int written = 0;
+    double currentWeight = 0;
+    double currentMean = 0;
+    double wSoFar = 0;
+    double k1 = 0;
+    int i = 0;
+    int j = 0;
+    while (i < countA || j < countB) {
+      double w;
+      double m;
+      if (j >= countB || (i < countA &&
+          a.getFloat(offsetA + i * PER_CENTROID_SIZE + 4) <= b.getFloat(offsetB + j * PER_CENTROID_SIZE + 4))) {
+        w = a.getFloat(offsetA + i * PER_CENTROID_SIZE);
+        m = a.getFloat(offsetA + i * PER_CENTROID_SIZE + 4);
+        i++;
+      } else {
+        w = b.getFloat(offsetB + j * PER_CENTROID_SIZE);
+        m = b.getFloat(offsetB + j * PER_CENTROID_SIZE + 4);
+        j++;
+      }
+      wSoFar += w;
+      double k2 = integratedLocation(compression, wSoFar / total);
+      if (k2 - k1 <= 1 || currentWeight == 0) {
+        currentWeight += w;
+        currentMean = currentMean + (m - currentMean) * w / currentWeight;
+      } else {
+        out.putFloat(offsetOut + written * PER_CENTROID_SIZE, (float) currentWeight);
+        out.putFloat(offsetOut + written * PER_CENTROID_SIZE + 4, (float) currentMean);
+        written++;
+        currentWeight = w;
+        currentMean = m;
+        k1 = integratedLocation(compression, (wSoFar - w) / total);
+      }
+    }
+    if (currentWeight > 0) {
+      out.putFloat(offsetOut + written * PER_CENTROID_SIZE, (float) currentWeight);
+      out.putFloat(offsetOut + written * PER_CENTROID_SIZE + 4, (float) currentMean);
+      written++;
+    }
+    return written;
+  }
+
   /**
    * Time at which this digest should be dispatched to wavefront.
    */
@@ -19,17 +19,21 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.wavefront.agent.api.AsyncPushDataClient;
+import com.wavefront.agent.api.NettyPushDataClient;
 import com.wavefront.agent.api.WavefrontV2API;
 import com.wavefront.agent.auth.TokenAuthenticator;
 import com.wavefront.agent.auth.TokenAuthenticatorBuilder;
 import com.wavefront.agent.auth.TokenValidationMethod;
 import com.wavefront.agent.channel.DisableGZIPEncodingInterceptor;
+import com.wavefront.agent.channel.PushDataPayloadAwareGZIPEncodingInterceptor;
 import com.wavefront.agent.config.LogsIngestionConfig;
 import com.wavefront.agent.config.ReportableConfig;
 import com.wavefront.agent.logsharvesting.InteractiveLogsTester;
 import com.wavefront.agent.preprocessor.PointLineBlacklistRegexFilter;
 import com.wavefront.agent.preprocessor.PointLineWhitelistRegexFilter;
 import com.wavefront.agent.preprocessor.PreprocessorConfigManager;
+import com.wavefront.agent.preprocessor.PreprocessorRegex;
 import com.wavefront.agent.preprocessor.PreprocessorRuleMetrics;
 import com.wavefront.api.agent.AgentConfiguration;
 import com.wavefront.api.agent.ValidationConfiguration;
@@ -59,7 +63,6 @@ import org.jboss.resteasy.client.jaxrs.engines.ApacheHttpClient4Engine;
 import org.jboss.resteasy.client.jaxrs.internal.LocalResteasyProviderFactory;
 import org.jboss.resteasy.plugins.interceptors.encoding.AcceptEncodingGZIPFilter;
 import org.jboss.resteasy.plugins.interceptors.encoding.GZIPDecodingInterceptor;
-import org.jboss.resteasy.plugins.interceptors.encoding.GZIPEncodingInterceptor;
 import org.jboss.resteasy.plugins.providers.jackson.ResteasyJackson2Provider;
 import org.jboss.resteasy.spi.ResteasyProviderFactory;
 
@@ -164,6 +167,10 @@ public abstract class AbstractAgent {
       "threads effectively governs the maximum amount of space the proxy will use to buffer points locally", order = 6)
   protected Integer retryThreads = Math.min(16, Math.max(4, Runtime.getRuntime().availableProcessors()));
 
+  @Parameter(names = {"--retryWindowSize"}, description = "Maximum number of concurrent submissions per retry " +
+      "thread when draining the retry buffer. The actual number adapts to submission errors. Defaults to 4.")
+  protected Integer retryWindowSize = 4;
+
   @Parameter(names = {"--flushThreads"}, description = "Number of threads that flush data to the server. Defaults to" +
       "the number of processors (min. 4). Setting this value too large will result in sending batches that are too " +
       "small to the server and wasting connections. This setting is per listening port.", order = 5)
@@ -182,6 +189,23 @@ public abstract class AbstractAgent {
   protected AtomicInteger pushFlushMaxPoints = new AtomicInteger(40000);
   protected int pushFlushMaxPointsInitialValue = 40000; // store initially configured value to revert to
 
+  @Parameter(names = {"--pushFlushAdaptive"}, description = "Adjust flush interval and batch size based on " +
+      "buffer depth, request latency and pushback from the server, within pushFlushMinIntervalMillis.." +
+      "pushFlushMaxIntervalMillis and up to pushFlushMaxPoints. Default: false", arity = 1)
+  protected boolean pushFlushAdaptive = false;
+
+  @Parameter(names = {"--pushFlushTargetLatencyMillis"}, description = "Target request latency when " +
+      "pushFlushAdaptive is enabled: batch size is reduced when requests take longer. Default: 2000")
+  protected Integer pushFlushTargetLatencyMillis = 2000;
+
+  @Parameter(names = {"--pushFlushMinIntervalMillis"}, description = "Min milliseconds between flushes " +
+      "when pushFlushAdaptive is enabled. Default: 100")
+  protected Integer pushFlushMinIntervalMillis = 100;
+
+  @Parameter(names = {"--pushFlushMaxIntervalMillis"}, description = "Max milliseconds between flushes " +
+      "when pushFlushAdaptive is enabled. Default: 5000")
+  protected Integer pushFlushMaxIntervalMillis = 5000;
+
   @Parameter(names = {"--pushRateLimit"}, description = "Limit the outgoing point rate at the proxy. Default: " +
       "do not throttle.")
   protected Integer pushRateLimit = NO_RATE_LIMIT;
@@ -259,6 +283,18 @@ public abstract class AbstractAgent {
           "(Default: no limit)")
   protected Integer histogramAccumulatorFlushMaxBatchSize = -1;
 
+  @Parameter(names = {"--histogramAccumulatorOffHeap"},
+      description = "Keep histogram accumulators in non-persistent off-heap storage instead of " +
+          "a memory-mapped ChronicleMap. Reduces GC pressure for large numbers of bins, " +
+          "accumulator persistence and memory cache settings are ignored. Default: false")
+  protected boolean histogramAccumulatorOffHeap = false;
+
+  @Parameter(names = {"--histogramAccumulatorShards"},
+      description = "Number of partitions for each histogram accumulator. Ripe histograms from " +
+          "different partitions are flushed concurrently. Accumulator metrics are reported per " +
+          "partition when there is more than one. Default: 1 (not partitioned)")
+  protected Integer histogramAccumulatorShards = 1;
+
   @Parameter(names = {"--histogramMaxReceivedLength"},
       description = "Maximum line length for received histogram data (Default: 65536)")
   protected Integer histogramMaxReceivedLength = 64 * 1024;
@@ -437,6 +473,18 @@ public abstract class AbstractAgent {
       "requests on dataDogJsonPorts to. Defaults to none (do not relay incoming requests)")
   protected String dataDogRequestRelayTarget = null;
 
+  @Parameter(names = {"--dataDogRequestRelayMaxInFlight"}, description = "Maximum number of " +
+      "requests concurrently relayed to dataDogRequestRelayTarget per port. Requests over the limit " +
+      "are rejected with HTTP 503 (or not relayed, when dataDogRequestRelayAsyncAck is enabled). " +
+      "Defaults to 16.")
+  protected Integer dataDogRequestRelayMaxInFlight = 16;
+
+  @Parameter(names = {"--dataDogRequestRelayAsyncAck"}, description = "If true, respond to the " +
+      "DataDog agent without waiting for dataDogRequestRelayTarget's response and relay requests " +
+      "in the background. Relay errors are not propagated to the agent. Defaults to false.",
+      arity = 1)
+  protected boolean dataDogRequestRelayAsyncAck = false;
+
   @Parameter(names = {"--dataDogProcessSystemMetrics"}, description = "If true, handle system metrics as reported by " +
       "DataDog collection agent. Defaults to false.")
   protected boolean dataDogProcessSystemMetrics = false;
@@ -466,6 +514,12 @@ public abstract class AbstractAgent {
   @Parameter(names = {"--logsIngestionConfigFile"}, description = "Location of logs ingestions config yaml file.")
   protected String logsIngestionConfigFile = "/etc/wavefront/wavefront-proxy/logsingestion.yaml";
 
+  @Parameter(names = {"--logsIngestionThreads"}, description = "Number of worker threads for " +
+      "matching ingested log lines. Lines from the same source are always processed by the same " +
+      "thread. Lines that don't fit into a worker's queue are dropped and counted as " +
+      "logsharvesting.dropped. Default: 0 (process on the receiving thread)")
+  protected Integer logsIngestionThreads = 0;
+
   @Parameter(names = {"--hostname"}, description = "Hostname for the proxy. Defaults to FQDN of machine.")
   protected String hostname;
 
@@ -583,6 +637,12 @@ public abstract class AbstractAgent {
       "compression for traffic sent to Wavefront (Default: true)")
   protected boolean gzipCompression = true;
 
+  @Parameter(names = {"--binaryRelayFormat"}, arity = 1, description = "If true, points, " +
+      "histograms and spans are sent upstream as LZ4-compressed binary records instead of text, " +
+      "so the receiving proxy doesn't have to parse them again. Only supported when the proxy " +
+      "sends data to another proxy's pushRelayListenerPorts (Default: false)")
+  protected boolean binaryRelayFormat = false;
+
   @Parameter(names = {"--soLingerTime"}, description = "If provided, enables SO_LINGER with the specified linger time in seconds (default: SO_LINGER disabled)")
   protected Integer soLingerTime = -1;
 
@@ -616,9 +676,40 @@ public abstract class AbstractAgent {
   @Parameter(names = {"--httpAutoRetries"}, description = "Number of times to retry http requests before queueing, set to 0 to disable (default: 3)")
   protected Integer httpAutoRetries = 3;
 
+  @Parameter(names = {"--httpAsyncSubmission"}, arity = 1, description = "If true, points, " +
+      "histograms and spans are submitted without blocking sender threads for the duration of " +
+      "the round trip, over a small pool of connections (not supported with proxyHost). " +
+      "Default: false")
+  protected boolean httpAsyncSubmission = false;
+
+  @Parameter(names = {"--httpAsyncMaxConnections"}, description = "Max connections to keep open " +
+      "for asynchronous submission (default: 4)")
+  protected Integer httpAsyncMaxConnections = 4;
+
+  @Parameter(names = {"--httpAsyncMaxInFlightBatches"}, description = "Max batches per sender " +
+      "thread awaiting a response when submitting asynchronously (default: 4)")
+  protected Integer httpAsyncMaxInFlightBatches = 4;
+
   @Parameter(names = {"--preprocessorConfigFile"}, description = "Optional YAML file with additional configuration options for filtering and pre-processing points")
   protected String preprocessorConfigFile = null;
 
+  @Parameter(names = {"--preprocessorRegexEngine"}, description = "Regex engine for preprocessor " +
+      "rules: java (java.util.regex) or re2j (linear-time matching, no back references or " +
+      "look-around; rules that need them fall back to java). Default: java")
+  protected String preprocessorRegexEngine = "java";
+
+  @Parameter(names = {"--preprocessorRegexTimeoutMillis"}, description = "Max time for a single " +
+      "regex evaluation in preprocessor rules. Filter rules that exceed it reject the point " +
+      "(see preprocessorRegexTimeoutFailOpen), other rules are disabled until the rules are " +
+      "reloaded after repeatedly exceeding it. Default: 0 (no limit)")
+  protected Integer preprocessorRegexTimeoutMillis = 0;
+
+  @Parameter(names = {"--preprocessorRegexTimeoutFailOpen"}, description = "Accept points when " +
+      "a filter rule exceeds preprocessorRegexTimeoutMillis, and disable the rule until the " +
+      "rules are reloaded after repeatedly exceeding it. Default: false (reject points)",
+      arity = 1)
+  protected boolean preprocessorRegexTimeoutFailOpen = false;
+
   @Parameter(names = {"--dataBackfillCutoffHours"}, description = "The cut-off point for what is considered a valid timestamp for back-dated points. Default is 8760 (1 year)")
   protected Integer dataBackfillCutoffHours = 8760;
 
@@ -648,6 +739,11 @@ public abstract class AbstractAgent {
       "validation results when token introspection service is unavailable. Default: 86400 seconds (1 day)")
   protected int authResponseMaxTtl = 86400;
 
+  @Parameter(names = {"--authMaxConcurrentRequests"}, description = "Maximum number of concurrent calls to the " +
+      "token introspection service. HTTP requests with tokens that are not cached yet are held until the token " +
+      "is validated. Default: 4")
+  protected int authMaxConcurrentRequests = 4;
+
   @Parameter(names = {"--authStaticToken"}, description = "Static token that is considered valid for all incoming " +
       "HTTP requests. Required when authMethod = STATIC_TOKEN.")
   protected String authStaticToken = null;
@@ -856,6 +952,10 @@ public abstract class AbstractAgent {
   }
 
   private void initPreprocessors() throws IOException {
+    PreprocessorRegex.setDefaultEngine(PreprocessorRegex.Engine.valueOf(
+        preprocessorRegexEngine.trim().toUpperCase()));
+    PreprocessorRegex.setMaxMatchMillis(preprocessorRegexTimeoutMillis);
+    PreprocessorRegex.setFailOpenOnTimeout(preprocessorRegexTimeoutFailOpen);
     try {
       preprocessors = new PreprocessorConfigManager(preprocessorConfigFile);
     } catch (FileNotFoundException ex) {
@@ -864,6 +964,7 @@ public abstract class AbstractAgent {
     }
     if (preprocessorConfigFile != null) {
       logger.info("Preprocessor configuration loaded from " + preprocessorConfigFile);
+      shutdownTasks.add(preprocessors::close);
     }
 
     // convert blacklist/whitelist fields to filters for full backwards compatibility
@@ -939,6 +1040,10 @@ public abstract class AbstractAgent {
           histogramAccumulatorFlushInterval).longValue();
       histogramAccumulatorFlushMaxBatchSize = config.getNumber("histogramAccumulatorFlushMaxBatchSize",
           histogramAccumulatorFlushMaxBatchSize).intValue();
+      histogramAccumulatorOffHeap = config.getBoolean("histogramAccumulatorOffHeap",
+          histogramAccumulatorOffHeap);
+      histogramAccumulatorShards = config.getNumber("histogramAccumulatorShards",
+          histogramAccumulatorShards).intValue();
       histogramMaxReceivedLength = config.getNumber("histogramMaxReceivedLength",
           histogramMaxReceivedLength).intValue();
       histogramHttpBufferSize = config.getNumber("histogramHttpBufferSize",
@@ -1040,11 +1145,16 @@ public abstract class AbstractAgent {
       histogramDistMemoryCache = config.getBoolean("histogramDistMemoryCache", histogramDistMemoryCache);
 
       retryThreads = config.getNumber("retryThreads", retryThreads).intValue();
+      retryWindowSize = config.getNumber("retryWindowSize", retryWindowSize).intValue();
       flushThreads = config.getNumber("flushThreads", flushThreads).intValue();
       jsonListenerPorts = config.getString("jsonListenerPorts", jsonListenerPorts);
       writeHttpJsonListenerPorts = config.getString("writeHttpJsonListenerPorts", writeHttpJsonListenerPorts);
       dataDogJsonPorts = config.getString("dataDogJsonPorts", dataDogJsonPorts);
       dataDogRequestRelayTarget = config.getString("dataDogRequestRelayTarget", dataDogRequestRelayTarget);
+      dataDogRequestRelayMaxInFlight = config.getNumber("dataDogRequestRelayMaxInFlight",
+          dataDogRequestRelayMaxInFlight).intValue();
+      dataDogRequestRelayAsyncAck = config.getBoolean("dataDogRequestRelayAsyncAck",
+          dataDogRequestRelayAsyncAck);
       dataDogProcessSystemMetrics = config.getBoolean("dataDogProcessSystemMetrics", dataDogProcessSystemMetrics);
       dataDogProcessServiceChecks = config.getBoolean("dataDogProcessServiceChecks", dataDogProcessServiceChecks);
       graphitePorts = config.getString("graphitePorts", graphitePorts);
@@ -1068,7 +1178,13 @@ public abstract class AbstractAgent {
       httpMaxConnTotal = Math.min(200, config.getNumber("httpMaxConnTotal", httpMaxConnTotal).intValue());
       httpMaxConnPerRoute = Math.min(100, config.getNumber("httpMaxConnPerRoute", httpMaxConnPerRoute).intValue());
       httpAutoRetries = config.getNumber("httpAutoRetries", httpAutoRetries).intValue();
+      httpAsyncSubmission = config.getBoolean("httpAsyncSubmission", httpAsyncSubmission);
+      httpAsyncMaxConnections = config.getNumber("httpAsyncMaxConnections",
+          httpAsyncMaxConnections).intValue();
+      httpAsyncMaxInFlightBatches = config.getNumber("httpAsyncMaxInFlightBatches",
+          httpAsyncMaxInFlightBatches).intValue();
       gzipCompression = config.getBoolean("gzipCompression", gzipCompression);
+      binaryRelayFormat = config.getBoolean("binaryRelayFormat", binaryRelayFormat);
       soLingerTime = config.getNumber("soLingerTime", soLingerTime).intValue();
       splitPushWhenRateLimited = config.getBoolean("splitPushWhenRateLimited", splitPushWhenRateLimited);
       customSourceTagsProperty = config.getString("customSourceTags", customSourceTagsProperty);
@@ -1102,6 +1218,12 @@ public abstract class AbstractAgent {
               pushRelayHistogramAggregatorCompression).shortValue();
       bufferFile = config.getString("buffer", bufferFile);
       preprocessorConfigFile = config.getString("preprocessorConfigFile", preprocessorConfigFile);
+      preprocessorRegexEngine = config.getString("preprocessorRegexEngine",
+          preprocessorRegexEngine);
+      preprocessorRegexTimeoutMillis = config.getNumber("preprocessorRegexTimeoutMillis",
+          preprocessorRegexTimeoutMillis).intValue();
+      preprocessorRegexTimeoutFailOpen = config.getBoolean("preprocessorRegexTimeoutFailOpen",
+          preprocessorRegexTimeoutFailOpen);
       dataBackfillCutoffHours = config.getNumber("dataBackfillCutoffHours", dataBackfillCutoffHours).intValue();
       dataPrefillCutoffHours = config.getNumber("dataPrefillCutoffHours", dataPrefillCutoffHours).intValue();
       filebeatPort = config.getNumber("filebeatPort", filebeatPort).intValue();
@@ -1109,6 +1231,7 @@ public abstract class AbstractAgent {
       rawLogsMaxReceivedLength = config.getNumber("rawLogsMaxReceivedLength", rawLogsMaxReceivedLength).intValue();
       rawLogsHttpBufferSize = config.getNumber("rawLogsHttpBufferSize", rawLogsHttpBufferSize).intValue();
       logsIngestionConfigFile = config.getString("logsIngestionConfigFile", logsIngestionConfigFile);
+      logsIngestionThreads = config.getNumber("logsIngestionThreads", logsIngestionThreads).intValue();
 
       authMethod = TokenValidationMethod.fromString(config.getString("authMethod", authMethod.toString()));
       authTokenIntrospectionServiceUrl = config.getString("authTokenIntrospectionServiceUrl",
@@ -1118,6 +1241,8 @@ public abstract class AbstractAgent {
       authResponseRefreshInterval = config.getNumber("authResponseRefreshInterval", authResponseRefreshInterval).
           intValue();
       authResponseMaxTtl = config.getNumber("authResponseMaxTtl", authResponseMaxTtl).intValue();
+      authMaxConcurrentRequests = config.getNumber("authMaxConcurrentRequests", authMaxConcurrentRequests).
+          intValue();
       authStaticToken = config.getString("authStaticToken", authStaticToken);
 
       adminApiListenerPort = config.getNumber("adminApiListenerPort", adminApiListenerPort).
@@ -1151,6 +1276,14 @@ public abstract class AbstractAgent {
       pushFlushMaxPoints.set(pushFlushMaxPointsInitialValue);
       config.reportSettingAsGauge(pushFlushMaxPoints, "pushFlushMaxPoints");
 
+      pushFlushAdaptive = config.getBoolean("pushFlushAdaptive", pushFlushAdaptive);
+      pushFlushTargetLatencyMillis = config.getNumber("pushFlushTargetLatencyMillis",
+          pushFlushTargetLatencyMillis).intValue();
+      pushFlushMinIntervalMillis = config.getNumber("pushFlushMinIntervalMillis",
+          pushFlushMinIntervalMillis).intValue();
+      pushFlushMaxIntervalMillis = config.getNumber("pushFlushMaxIntervalMillis",
+          pushFlushMaxIntervalMillis).intValue();
+
       retryBackoffBaseSecondsInitialValue = Double.parseDouble(config.getRawProperty("retryBackoffBaseSeconds",
           String.valueOf(retryBackoffBaseSeconds.get())).trim());
       retryBackoffBaseSeconds.set(retryBackoffBaseSecondsInitialValue);
@@ -1313,6 +1446,17 @@ public abstract class AbstractAgent {
       // Setup queueing.
       WavefrontV2API service = createAgentService(server);
       setupQueueing(service);
+      if (httpAsyncSubmission) {
+        if (proxyHost != null) {
+          logger.warning("httpAsyncSubmission is not supported with proxyHost, ignoring");
+          httpAsyncSubmission = false;
+        } else {
+          AsyncPushDataClient asyncClient = new NettyPushDataClient(server, token, httpUserAgent,
+              httpAsyncMaxConnections, httpConnectTimeout, httpRequestTimeout);
+          agentAPI.setAsyncClient(asyncClient);
+          shutdownTasks.add(asyncClient::shutdown);
+        }
+      }
 
       // Perform initial proxy check-in and schedule regular check-ins (once a minute)
       setupCheckins();
@@ -1405,8 +1549,10 @@ public abstract class AbstractAgent {
         setTokenIntrospectionAuthorizationHeader(authTokenIntrospectionAuthorizationHeader).
         setAuthResponseRefreshInterval(authResponseRefreshInterval).
         setAuthResponseMaxTtl(authResponseMaxTtl).
+        setAuthMaxConcurrentRequests(authMaxConcurrentRequests).
         setStaticToken(authStaticToken).
         build();
+    shutdownTasks.add(tokenAuthenticator::close);
   }
 
   /**
@@ -1415,6 +1561,7 @@ public abstract class AbstractAgent {
   protected WavefrontV2API createAgentService(String serverEndpointUrl) {
     ResteasyProviderFactory factory = new LocalResteasyProviderFactory(ResteasyProviderFactory.getInstance());
     factory.registerProvider(JsonNodeWriter.class);
+    factory.registerProvider(PushDataPayloadWriter.class);
     if (!factory.getClasses().contains(ResteasyJackson2Provider.class)) {
       factory.registerProvider(ResteasyJackson2Provider.class);
     }
@@ -1458,7 +1605,8 @@ public abstract class AbstractAgent {
         httpEngine(httpEngine).
         providerFactory(factory).
         register(GZIPDecodingInterceptor.class).
-        register(gzipCompression ? GZIPEncodingInterceptor.class : DisableGZIPEncodingInterceptor.class).
+        register(gzipCompression ? PushDataPayloadAwareGZIPEncodingInterceptor.class :
+            DisableGZIPEncodingInterceptor.class).
         register(AcceptEncodingGZIPFilter.class).
         register((ClientRequestFilter) context -> {
           if (context.getUri().getPath().contains("/pushdata/") ||
@@ -1474,8 +1622,8 @@ public abstract class AbstractAgent {
 
   protected void setupQueueing(WavefrontV2API service) {
     try {
-      this.agentAPI = new QueuedAgentService(service, bufferFile, retryThreads, queuedAgentExecutor, purgeBuffer,
-          agentId, splitPushWhenRateLimited, pushRateLimiter, token);
+      this.agentAPI = new QueuedAgentService(service, bufferFile, retryThreads, retryWindowSize,
+          queuedAgentExecutor, purgeBuffer, agentId, splitPushWhenRateLimited, pushRateLimiter, token);
     } catch (IOException e) {
       logger.log(Level.SEVERE, "Cannot setup local file for queueing due to IO error", e);
       throw new RuntimeException(e);
@@ -5,6 +5,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
 
 import com.tdunning.math.stats.AgentDigest;
 import com.tdunning.math.stats.AgentDigest.AgentDigestMarshaller;
@@ -37,6 +38,8 @@ import com.wavefront.agent.histogram.Utils.HistogramKeyMarshaller;
 import com.wavefront.agent.histogram.accumulator.AccumulationCache;
 import com.wavefront.agent.histogram.accumulator.Accumulator;
 import com.wavefront.agent.histogram.accumulator.AgentDigestFactory;
+import com.wavefront.agent.histogram.accumulator.OffHeapAccumulator;
+import com.wavefront.agent.histogram.accumulator.ShardedAccumulator;
 import com.wavefront.agent.listeners.AdminPortUnificationHandler;
 import com.wavefront.agent.listeners.ChannelByteArrayHandler;
 import com.wavefront.agent.listeners.DataDogPortUnificationHandler;
@@ -191,8 +194,15 @@ public class PushAgent extends AbstractAgent {
     hostnameResolver = new CachingHostnameLookupResolver(disableRdnsLookup,
         ExpectedAgentMetric.RDNS_CACHE_SIZE.metricName);
     remoteHostAnnotator = new SharedGraphiteHostAnnotator(customSourceTags, hostnameResolver);
-    senderTaskFactory = new SenderTaskFactoryImpl(agentAPI, agentId, pushRateLimiter,
-        pushFlushInterval, pushFlushMaxPoints, pushMemoryBufferLimit);
+    SenderTaskFactoryImpl senderTaskFactoryImpl = new SenderTaskFactoryImpl(agentAPI, agentId,
+        pushRateLimiter, pushFlushInterval, pushFlushMaxPoints, pushMemoryBufferLimit,
+        gzipCompression, binaryRelayFormat, httpAsyncSubmission ? httpAsyncMaxInFlightBatches : 0);
+    if (pushFlushAdaptive) {
+      senderTaskFactoryImpl.enableAdaptiveFlush(pushFlushMinIntervalMillis,
+          Math.max(pushFlushMinIntervalMillis, pushFlushMaxIntervalMillis),
+          pushFlushTargetLatencyMillis);
+    }
+    senderTaskFactory = senderTaskFactoryImpl;
     handlerFactory = new ReportableEntityHandlerFactoryImpl(senderTaskFactory, pushBlockedSamples,
         flushThreads, () -> validationConfiguration, blockedPointsLogger, blockedHistogramsLogger,
         blockedSpansLogger);
@@ -234,7 +244,7 @@ public class PushAgent extends AbstractAgent {
         histogramExecutor = Executors.newScheduledThreadPool(
             1 + activeHistogramAggregationTypes, new NamedThreadFactory("histogram-service"));
         histogramFlushExecutor = Executors.newScheduledThreadPool(
-            Runtime.getRuntime().availableProcessors() / 2,
+            Math.max(Runtime.getRuntime().availableProcessors() / 2, histogramAccumulatorShards),
             new NamedThreadFactory("histogram-flush"));
         managedExecutors.add(histogramExecutor);
         managedExecutors.add(histogramFlushExecutor);
@@ -303,11 +313,17 @@ public class PushAgent extends AbstractAgent {
     portIterator(opentsdbPorts).forEachRemaining(strPort ->
         startOpenTsdbListener(strPort, handlerFactory));
     if (dataDogJsonPorts != null) {
+      // the client is shared by all DataDog ports, each of them may have up to
+      // dataDogRequestRelayMaxInFlight requests in flight to the same relay target
+      int maxConnections = Iterators.size(portIterator(dataDogJsonPorts)) *
+          dataDogRequestRelayMaxInFlight;
       HttpClient httpClient = HttpClientBuilder.create().
           useSystemProperties().
           setUserAgent(httpUserAgent).
           setConnectionTimeToLive(1, TimeUnit.MINUTES).
           setRetryHandler(new DefaultHttpRequestRetryHandler(httpAutoRetries, true)).
+          setMaxConnPerRoute(maxConnections).
+          setMaxConnTotal(maxConnections).
           setDefaultRequestConfig(
               RequestConfig.custom().
                   setContentCompressionEnabled(true).
@@ -371,8 +387,9 @@ public class PushAgent extends AbstractAgent {
         logger.info("Initializing logs ingestion");
         try {
           final LogsIngester logsIngester = new LogsIngester(handlerFactory,
-              this::loadLogsIngestionConfig, prefix);
+              this::loadLogsIngestionConfig, prefix, logsIngestionThreads);
           logsIngester.start();
+          shutdownTasks.add(() -> logsIngester.shutdown(httpRequestTimeout));
 
           if (filebeatPort > 0) {
             startLogsIngestionListener(filebeatPort, logsIngester);
@@ -458,7 +475,8 @@ public class PushAgent extends AbstractAgent {
 
     ChannelHandler channelHandler = new DataDogPortUnificationHandler(strPort, healthCheckManager,
         handlerFactory, dataDogProcessSystemMetrics, dataDogProcessServiceChecks, httpClient,
-        dataDogRequestRelayTarget, preprocessors.get(strPort));
+        dataDogRequestRelayTarget, dataDogRequestRelayMaxInFlight, dataDogRequestRelayAsyncAck,
+        preprocessors.get(strPort));
 
     startAsManagedThread(new TcpIngester(createInitializer(channelHandler, strPort,
         pushListenerMaxReceivedLength, pushListenerHttpBufferSize, listenerIdleConnectionTimeout),
@@ -742,15 +760,15 @@ public class PushAgent extends AbstractAgent {
     logger.info("Health check port enabled: " + port);
   }
 
-  protected void startHistogramListeners(Iterator<String> ports,
-                                         ReportableEntityHandler<ReportPoint> pointHandler,
-                                         SharedGraphiteHostAnnotator hostAnnotator,
-                                         @Nullable Utils.Granularity granularity,
-                                         int flushSecs, boolean memoryCacheEnabled,
-                                         File baseDirectory, Long accumulatorSize, int avgKeyBytes,
-                                         int avgDigestBytes, short compression, boolean persist) {
-    String listenerBinType = Utils.Granularity.granularityToString(granularity);
-    // Accumulator
+  /**
+   * Creates a ChronicleMap-backed accumulator and schedules its maintenance tasks.
+   */
+  private Accumulator createChronicleMapAccumulator(String listenerBinType,
+                                                    AgentDigestFactory agentDigestFactory,
+                                                    boolean memoryCacheEnabled,
+                                                    File baseDirectory, Long accumulatorSize,
+                                                    int avgKeyBytes, int avgDigestBytes,
+                                                    boolean persist) {
     if (persist) {
       // Check directory
       checkArgument(baseDirectory.isDirectory(), baseDirectory.getAbsolutePath() +
@@ -795,11 +813,13 @@ public class PushAgent extends AbstractAgent {
         10,
         TimeUnit.SECONDS);
 
-    AgentDigestFactory agentDigestFactory = new AgentDigestFactory(compression,
-        TimeUnit.SECONDS.toMillis(flushSecs));
-    Accumulator cachedAccumulator = new AccumulationCache(accumulator, agentDigestFactory,
-        (memoryCacheEnabled ? accumulatorSize : 0),
-        "histogram.accumulator." + Utils.Granularity.granularityToString(granularity), null);
+    Accumulator cachedAccumulator = histogramAccumulatorShards > 1 ?
+        ShardedAccumulator.ofAccumulationCaches(accumulator, agentDigestFactory,
+            (memoryCacheEnabled ? accumulatorSize : 0),
+            "histogram.accumulator." + listenerBinType, histogramAccumulatorShards) :
+        new AccumulationCache(accumulator, agentDigestFactory,
+            (memoryCacheEnabled ? accumulatorSize : 0),
+            "histogram.accumulator." + listenerBinType, null);
 
     // Schedule write-backs
     histogramExecutor.scheduleWithFixedDelay(
@@ -808,13 +828,6 @@ public class PushAgent extends AbstractAgent {
         histogramAccumulatorResolveInterval,
         TimeUnit.MILLISECONDS);
 
-    PointHandlerDispatcher dispatcher = new PointHandlerDispatcher(cachedAccumulator, pointHandler,
-        histogramAccumulatorFlushMaxBatchSize < 0 ? null : histogramAccumulatorFlushMaxBatchSize,
-        granularity);
-
-    histogramExecutor.scheduleWithFixedDelay(dispatcher, histogramAccumulatorFlushInterval,
-        histogramAccumulatorFlushInterval, TimeUnit.MILLISECONDS);
-
     // gracefully shutdown persisted accumulator (ChronicleMap) on proxy exit
     shutdownTasks.add(() -> {
       try {
@@ -828,6 +841,39 @@ public class PushAgent extends AbstractAgent {
       }
     });
 
+    return cachedAccumulator;
+  }
+
+  protected void startHistogramListeners(Iterator<String> ports,
+                                         ReportableEntityHandler<ReportPoint> pointHandler,
+                                         SharedGraphiteHostAnnotator hostAnnotator,
+                                         @Nullable Utils.Granularity granularity,
+                                         int flushSecs, boolean memoryCacheEnabled,
+                                         File baseDirectory, Long accumulatorSize, int avgKeyBytes,
+                                         int avgDigestBytes, short compression, boolean persist) {
+    String listenerBinType = Utils.Granularity.granularityToString(granularity);
+    AgentDigestFactory agentDigestFactory = new AgentDigestFactory(compression,
+        TimeUnit.SECONDS.toMillis(flushSecs));
+    Accumulator cachedAccumulator;
+    if (histogramAccumulatorOffHeap) {
+      if (persist) {
+        logger.warning("Histogram " + listenerBinType + " accumulator is kept off-heap and " +
+            "will not be persisted across restarts");
+      }
+      cachedAccumulator = new OffHeapAccumulator(agentDigestFactory,
+          "histogram.accumulator." + listenerBinType);
+    } else {
+      cachedAccumulator = createChronicleMapAccumulator(listenerBinType, agentDigestFactory,
+          memoryCacheEnabled, baseDirectory, accumulatorSize, avgKeyBytes, avgDigestBytes, persist);
+    }
+
+    PointHandlerDispatcher dispatcher = new PointHandlerDispatcher(cachedAccumulator, pointHandler,
+        histogramAccumulatorFlushMaxBatchSize < 0 ? null : histogramAccumulatorFlushMaxBatchSize,
+        granularity, histogramFlushExecutor);
+
+    histogramExecutor.scheduleWithFixedDelay(dispatcher, histogramAccumulatorFlushInterval,
+        histogramAccumulatorFlushInterval, TimeUnit.MILLISECONDS);
+
     ReportableEntityHandlerFactory histogramHandlerFactory = new ReportableEntityHandlerFactory() {
       private Map<HandlerKey, ReportableEntityHandler> handlers = new HashMap<>();
         @Override
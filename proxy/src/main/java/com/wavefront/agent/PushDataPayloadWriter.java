@@ -0,0 +1,37 @@
+package com.wavefront.agent;
+
+import com.wavefront.agent.api.PushDataPayload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+/**
+ * Writer that sends pre-serialized {@link PushDataPayload}s as is.
+ */
+public class PushDataPayloadWriter implements MessageBodyWriter<PushDataPayload> {
+
+  @Override
+  public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+    return PushDataPayload.class.isAssignableFrom(type);
+  }
+
+  @Override
+  public long getSize(PushDataPayload payload, Class<?> type, Type genericType, Annotation[] annotations,
+                      MediaType mediaType) {
+    return payload.getLength();
+  }
+
+  @Override
+  public void writeTo(PushDataPayload payload, Class<?> type, Type genericType, Annotation[] annotations,
+                      MediaType mediaType, MultivaluedMap<String, Object> httpHeaders,
+                      OutputStream entityStream) throws IOException, WebApplicationException {
+    payload.writeTo(entityStream);
+  }
+}
@@ -19,11 +19,18 @@ import com.squareup.tape.FileObjectQueue;
 import com.squareup.tape.ObjectQueue;
 import com.squareup.tape.TaskQueue;
 import com.wavefront.agent.handlers.LineDelimitedUtils;
+import com.wavefront.agent.api.AsyncPushDataClient;
+import com.wavefront.agent.api.BinaryPushDataCodec;
 import com.wavefront.agent.api.ForceQueueEnabledProxyAPI;
+import com.wavefront.agent.api.PushDataPayload;
 import com.wavefront.agent.api.WavefrontV2API;
+import com.wavefront.agent.queueing.AdaptiveDrainPolicy;
+import com.wavefront.agent.queueing.MappedObjectQueue;
+import com.wavefront.agent.queueing.MappedSegmentLog;
 import com.wavefront.api.agent.AgentConfiguration;
 import com.wavefront.common.Clock;
 import com.wavefront.common.NamedThreadFactory;
+import com.wavefront.common.TaggedMetricName;
 import com.wavefront.dto.Event;
 import com.wavefront.metrics.ExpectedAgentMetric;
 import com.yammer.metrics.Metrics;
@@ -34,39 +41,42 @@ import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.MetricsRegistry;
 
-import net.jpountz.lz4.LZ4BlockInputStream;
 import net.jpountz.lz4.LZ4BlockOutputStream;
 
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -92,6 +102,8 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
   private static final String SERVER_ERROR = "Server error";
 
   private WavefrontV2API wrapped;
+  @Nullable
+  private volatile AsyncPushDataClient asyncClient = null;
   private final List<ResubmissionTaskQueue> taskQueues;
   private final List<ResubmissionTaskQueue> sourceTagTaskQueues;
   private final List<ResubmissionTaskQueue> eventTaskQueues;
@@ -105,6 +117,14 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
   private boolean lastKnownEventQueueSizeIsPositive = false;
   private AtomicBoolean isRunning = new AtomicBoolean(false);
   private final ScheduledExecutorService executorService;
+  /**
+   * Maximum number of concurrent submissions per retry queue.
+   */
+  private final int retryWindowSize;
+  /**
+   * Runs retry submissions, so that multiple tasks from the same queue can be in flight.
+   */
+  private final ExecutorService submissionExecutor;
   private final String token;
   private MetricsRegistry metricsRegistry = new MetricsRegistry();
   private Meter resultPostingMeter = metricsRegistry.newMeter(QueuedAgentService.class, "post-result", "results",
@@ -112,11 +132,6 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
   private Counter permitsGranted = Metrics.newCounter(new MetricName("limiter", "", "permits-granted"));
   private Counter permitsDenied = Metrics.newCounter(new MetricName("limiter", "", "permits-denied"));
   private Counter permitsRetried = Metrics.newCounter(new MetricName("limiter", "", "permits-retried"));
-  private final AtomicLong queuePointsCount = new AtomicLong();
-  private final AtomicLong queueSourceTagsCount = new AtomicLong();
-  private final AtomicLong queueEventsCount = new AtomicLong();
-  private Gauge queuedPointsCountGauge = null;
-  private Gauge queuedEventsCountGauge = null;
   /**
    * Biases result sizes to the last 5 minutes heavily. This histogram does not see all result
    * sizes. The executor only ever processes one posting at any given time and drops the rest.
@@ -146,6 +161,7 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
   }
 
   public QueuedAgentService(WavefrontV2API service, String bufferFile, final int retryThreads,
+                            final int retryWindowSize,
                             final ScheduledExecutorService executorService, boolean purge,
                             final UUID agentId, final boolean splitPushWhenRateLimited,
                             @Nullable final RecyclableRateLimiter pushRateLimiter,
@@ -171,21 +187,24 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
     this.eventTaskRunnables = Lists.newArrayListWithExpectedSize(eventTaskQueues.size());
     this.executorService = executorService;
     this.token = token;
+    this.retryWindowSize = Math.max(1, retryWindowSize);
+    this.submissionExecutor = Executors.newCachedThreadPool(
+        new NamedThreadFactory("retry-submission"));
 
     int threadId = 0;
     for (ResubmissionTaskQueue taskQueue : taskQueues) {
       taskRunnables.add(createRunnable(executorService, splitPushWhenRateLimited, threadId++,
-          taskQueue, pushRateLimiter, queuePointsCount));
+          taskQueue, pushRateLimiter));
     }
     threadId = 0;
     for (ResubmissionTaskQueue taskQueue : sourceTagTaskQueues) {
       sourceTagTaskRunnables.add(createRunnable(executorService, splitPushWhenRateLimited,
-          threadId++, taskQueue, pushRateLimiter, queueSourceTagsCount));
+          threadId++, taskQueue, pushRateLimiter));
     }
     threadId = 0;
     for (ResubmissionTaskQueue taskQueue : eventTaskQueues) {
       eventTaskRunnables.add(createRunnable(executorService, splitPushWhenRateLimited,
-          threadId++, taskQueue, pushRateLimiter, queueEventsCount));
+          threadId++, taskQueue, pushRateLimiter));
     }
 
     if (taskQueues.size() > 0) {
@@ -198,21 +217,6 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
                 sizes.get().map(Object::toString).collect(Collectors.joining("/")) + "]");
           } else if (lastKnownQueueSizeIsPositive) {
             lastKnownQueueSizeIsPositive = false;
-            queuePointsCount.set(0);
-            if (queuedPointsCountGauge == null) {
-              // since we don't persist the number of points in the queue between proxy restarts yet, and Tape library
-              // only lets us know the number of tasks in the queue, start reporting ~agent.buffer.points-count
-              // metric only after it's confirmed that the retry queue is empty, as going through the entire queue
-              // to calculate the number of points can be a very costly operation.
-              queuedPointsCountGauge = Metrics.newGauge(new MetricName("buffer", "", "points-count"),
-                  new Gauge<Long>() {
-                    @Override
-                    public Long value() {
-                      return queuePointsCount.get();
-                    }
-                  }
-              );
-            }
             logger.info("retry queue has been cleared");
           }
 
@@ -235,18 +239,7 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
             logger.warning("current event retry queue sizes: [" +
                 eventQueueSizes.get().map(Object::toString).collect(Collectors.joining("/")) + "]");
           } else if (lastKnownEventQueueSizeIsPositive) {
-            if (queuedEventsCountGauge == null) {
-              queuedEventsCountGauge = Metrics.newGauge(new MetricName("buffer", "", "events-count"),
-                  new Gauge<Long>() {
-                    @Override
-                    public Long value() {
-                      return queueEventsCount.get();
-                    }
-                  }
-              );
-            }
             lastKnownEventQueueSizeIsPositive = false;
-            queueEventsCount.set(0);
             logger.warning("event retry queue has been cleared");
           }
 
@@ -269,6 +262,72 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
         return getQueuedTasksCount();
       }
     });
+
+    // point counts are persisted by the queues, so backlog metrics are available right away
+    Metrics.newGauge(new MetricName("buffer", "", "points-count"), new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return getPointCount(taskQueues);
+      }
+    });
+    Metrics.newGauge(new MetricName("buffer", "", "events-count"), new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return getPointCount(eventTaskQueues);
+      }
+    });
+    registerQueueGauges("points", taskQueues, pushRateLimiter);
+    registerQueueGauges("sourceTags", sourceTagTaskQueues, pushRateLimiter);
+    registerQueueGauges("events", eventTaskQueues, pushRateLimiter);
+  }
+
+  private static void registerQueueGauges(String queueName, List<ResubmissionTaskQueue> queues,
+                                          @Nullable RecyclableRateLimiter pushRateLimiter) {
+    Metrics.newGauge(new TaggedMetricName("buffer", "task-count", "queue", queueName),
+        new Gauge<Long>() {
+          @Override
+          public Long value() {
+            return queues.stream().mapToLong(TaskQueue::size).sum();
+          }
+        });
+    Metrics.newGauge(new TaggedMetricName("buffer", "item-count", "queue", queueName),
+        new Gauge<Long>() {
+          @Override
+          public Long value() {
+            return getPointCount(queues);
+          }
+        });
+    Metrics.newGauge(new TaggedMetricName("buffer", "bytes", "queue", queueName),
+        new Gauge<Long>() {
+          @Override
+          public Long value() {
+            return queues.stream().mapToLong(ResubmissionTaskQueue::getByteCount).sum();
+          }
+        });
+    Metrics.newGauge(new TaggedMetricName("buffer", "oldest-task-age-seconds", "queue",
+        queueName), new Gauge<Long>() {
+          @Override
+          public Long value() {
+            long now = System.currentTimeMillis();
+            return queues.stream().map(ResubmissionTaskQueue::getOldestTaskMillis).
+                filter(Objects::nonNull).mapToLong(x -> (now - x) / 1000).max().orElse(0);
+          }
+        });
+    if (pushRateLimiter != null) {
+      Metrics.newGauge(new TaggedMetricName("buffer", "estimated-drain-time-seconds", "queue",
+          queueName), new Gauge<Long>() {
+            @Override
+            public Long value() {
+              double rate = pushRateLimiter.getRate();
+              if (rate <= 0 || rate >= NO_RATE_LIMIT) return null;
+              return (long) (getPointCount(queues) / rate);
+            }
+          });
+    }
+  }
+
+  private static long getPointCount(List<ResubmissionTaskQueue> queues) {
+    return queues.stream().mapToLong(ResubmissionTaskQueue::getPointCount).sum();
   }
 
   public void start() {
@@ -286,10 +345,17 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
                                   final boolean splitPushWhenRateLimited,
                                   final int threadId,
                                   final ResubmissionTaskQueue taskQueue,
-                                  final RecyclableRateLimiter pushRateLimiter,
-                                  final AtomicLong weight) {
+                                  final RecyclableRateLimiter pushRateLimiter) {
+    final AdaptiveDrainPolicy drainPolicy = new AdaptiveDrainPolicy(1, retryWindowSize,
+        () -> retryBackoffBaseSeconds.get());
     return new Runnable() {
-      private int backoffExponent = 1;
+      /**
+       * Whether the tasks at the head of the queue (in queue order) have already been delivered.
+       * When a window is stopped, tasks that have been delivered after a task that hasn't are
+       * left in place, so the queue order doesn't change, and are removed without re-sending
+       * them once they reach the head of the queue.
+       */
+      private List<Boolean> deliveredAtHead = new ArrayList<>();
 
       @Override
       public void run() {
@@ -298,118 +364,189 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
         boolean rateLimiting = false;
         try {
           logger.fine("[RETRY THREAD " + threadId + "] TASK STARTING");
-          while (taskQueue.size() > 0 && taskQueue.size() > failures) {
+          boolean keepGoing = true;
+          while (keepGoing && taskQueue.size() > 0 && taskQueue.size() > failures) {
             if (Thread.currentThread().isInterrupted()) return;
-            ResubmissionTask task = taskQueue.peek();
-            int taskSize = task == null ? 0 : task.size();
-            if (pushRateLimiter != null && !pushRateLimiter.immediatelyAvailable(
-                Math.max((int) pushRateLimiter.getRate(), taskSize))) {
-              // if there's less than 1 second or 1 task size worth of accumulated credits
-              // (whichever is greater), don't process the backlog queue
-              rateLimiting = true;
-              break;
+            List<ResubmissionTask> window = taskQueue.peek(drainPolicy.getWindow());
+            if (window.isEmpty()) break;
+            boolean[] completed = new boolean[window.size()];
+            for (int i = 0; i < window.size() && i < deliveredAtHead.size(); i++) {
+              completed[i] = deliveredAtHead.get(i);
             }
-
-            if (pushRateLimiter != null && taskSize > 0) {
-              pushRateLimiter.acquire(taskSize);
-              permitsGranted.inc(taskSize);
+            List<Future<?>> inFlight = Lists.newArrayListWithExpectedSize(window.size());
+            for (int i = 0; i < window.size(); i++) {
+              if (completed[i]) {
+                inFlight.add(null); // delivered earlier, not sent again
+                continue;
+              }
+              ResubmissionTask task = window.get(i);
+              int taskSize = task.size();
+              if (pushRateLimiter != null && !pushRateLimiter.immediatelyAvailable(
+                  Math.max((int) pushRateLimiter.getRate(), taskSize))) {
+                // if there's less than 1 second or 1 task size worth of accumulated credits
+                // (whichever is greater), don't process the backlog queue
+                rateLimiting = true;
+                break;
+              }
+              if (pushRateLimiter != null && taskSize > 0) {
+                pushRateLimiter.acquire(taskSize);
+                permitsGranted.inc(taskSize);
+              }
+              inFlight.add(submissionExecutor.submit(() -> task.execute(null)));
             }
-
-            boolean removeTask = true;
-            try {
-              if (task != null) {
-                task.execute(null);
-                successes++;
+            // acknowledge submissions in queue order, since we can only ever remove the head
+            int head = 0; // position of the current head of the queue in the window
+            for (int i = 0; i < inFlight.size(); i++) {
+              ResubmissionTask task = window.get(i);
+              if (inFlight.get(i) == null) {
+                if (keepGoing) {
+                  taskQueue.remove();
+                  head++;
+                }
+                continue;
               }
-            } catch (Exception ex) {
-              if (pushRateLimiter != null) {
-                pushRateLimiter.recyclePermits(taskSize);
-                permitsRetried.inc(taskSize);
+              if (!keepGoing) {
+                // wait for the outcome, completed tasks are tracked below so they aren't re-sent
+                try {
+                  inFlight.get(i).get();
+                  completed[i] = true;
+                } catch (ExecutionException ignored) {
+                }
+                continue;
               }
-              failures++;
-              //noinspection ThrowableResultOfMethodCallIgnored
-              if (Throwables.getRootCause(ex) instanceof QueuedPushTooLargeException) {
-                // this should split this task, remove it from the queue, and not try more tasks
-                logger.warning("[RETRY THREAD " + threadId + "] Wavefront server rejected push with " +
-                    "HTTP 413: request too large - splitting data into smaller chunks to retry. ");
-                List<? extends ResubmissionTask> splitTasks = task.splitTask();
-                for (ResubmissionTask smallerTask : splitTasks) {
-                  taskQueue.add(smallerTask);
-                  weight.addAndGet(smallerTask.size());
+              int taskSize = task.size();
+              boolean removeTask = true;
+              try {
+                inFlight.get(i).get();
+                successes++;
+                drainPolicy.onSuccess();
+              } catch (ExecutionException e) {
+                Throwable ex = e.getCause();
+                if (pushRateLimiter != null) {
+                  pushRateLimiter.recyclePermits(taskSize);
+                  permitsRetried.inc(taskSize);
                 }
-                break;
-              } else //noinspection ThrowableResultOfMethodCallIgnored
-                if (Throwables.getRootCause(ex) instanceof RejectedExecutionException) {
-                  // this should either split and remove the original task or keep it at front
-                  // it also should not try any more tasks
-                  logger.warning("[RETRY THREAD " + threadId + "] Wavefront server rejected the submission " +
-                      "(global rate limit exceeded) - will attempt later.");
-                  if (splitPushWhenRateLimited) {
-                    List<? extends ResubmissionTask> splitTasks = task.splitTask();
-                    for (ResubmissionTask smallerTask : splitTasks) {
-                      taskQueue.add(smallerTask);
-                      weight.addAndGet(smallerTask.size());
+                failures++;
+                drainPolicy.onFailure();
+                //noinspection ThrowableResultOfMethodCallIgnored
+                if (Throwables.getRootCause(ex) instanceof QueuedPushTooLargeException) {
+                  // this should split this task, remove it from the queue, and not try more tasks
+                  logger.warning("[RETRY THREAD " + threadId + "] Wavefront server rejected push with " +
+                      "HTTP 413: request too large - splitting data into smaller chunks to retry. ");
+                  List<? extends ResubmissionTask> splitTasks = task.splitTask();
+                  for (ResubmissionTask smallerTask : splitTasks) {
+                    taskQueue.add(smallerTask);
+                  }
+                  keepGoing = false;
+                  continue;
+                } else //noinspection ThrowableResultOfMethodCallIgnored
+                  if (Throwables.getRootCause(ex) instanceof RejectedExecutionException) {
+                    // this should either split and remove the original task or keep it at front
+                    // it also should not try any more tasks
+                    logger.warning("[RETRY THREAD " + threadId + "] Wavefront server rejected the submission " +
+                        "(global rate limit exceeded) - will attempt later.");
+                    if (splitPushWhenRateLimited) {
+                      List<? extends ResubmissionTask> splitTasks = task.splitTask();
+                      for (ResubmissionTask smallerTask : splitTasks) {
+                        taskQueue.add(smallerTask);
+                      }
+                    } else {
+                      removeTask = false;
                     }
+                    keepGoing = false;
+                    continue;
                   } else {
-                    removeTask = false;
+                    logger.log(Level.WARNING, "[RETRY THREAD " + threadId + "] cannot submit data to Wavefront servers. Will " +
+                        "re-attempt later", Throwables.getRootCause(ex));
                   }
-                  break;
-                } else {
-                  logger.log(Level.WARNING, "[RETRY THREAD " + threadId + "] cannot submit data to Wavefront servers. Will " +
-                      "re-attempt later", Throwables.getRootCause(ex));
+                // this can potentially cause a duplicate task to be injected (but since submission is mostly
+                // idempotent it's not really a big deal)
+                task.service = null;
+                task.currentAgentId = null;
+                taskQueue.add(task);
+                if (failures > 10) {
+                  logger.warning("[RETRY THREAD " + threadId + "] saw too many submission errors. Will " +
+                      "re-attempt later");
+                  keepGoing = false;
+                }
+              } finally {
+                if (removeTask) {
+                  taskQueue.remove();
+                  head++;
                 }
-              // this can potentially cause a duplicate task to be injected (but since submission is mostly
-              // idempotent it's not really a big deal)
-              task.service = null;
-              task.currentAgentId = null;
-              taskQueue.add(task);
-              weight.addAndGet(taskSize);
-              if (failures > 10) {
-                logger.warning("[RETRY THREAD " + threadId + "] saw too many submission errors. Will " +
-                    "re-attempt later");
-                break;
-              }
-            } finally {
-              if (removeTask) {
-                taskQueue.remove();
-                weight.addAndGet(-taskSize);
               }
             }
+            deliveredAtHead = remainingDelivered(deliveredAtHead, completed, head);
+            if (rateLimiting) break;
           }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
         } catch (Throwable ex) {
           logger.log(Level.WARNING, "[RETRY THREAD " + threadId + "] unexpected exception", ex);
         } finally {
           logger.fine("[RETRY THREAD " + threadId + "] Successful Batches: " + successes +
-              ", Failed Batches: " + failures);
+              ", Failed Batches: " + failures + ", window size: " + drainPolicy.getWindow());
           if (rateLimiting) {
             logger.fine("[RETRY THREAD " + threadId + "] Rate limit reached, will re-attempt later");
             // if proxy rate limit exceeded, try again in 250..500ms (to introduce some degree of fairness)
             executorService.schedule(this, 250 + (int) (Math.random() * 250), TimeUnit.MILLISECONDS);
           } else {
-            if (successes == 0 && failures != 0) {
-              backoffExponent = Math.min(4, backoffExponent + 1); // caps at 2*base^4
-            } else {
-              backoffExponent = 1;
-            }
-            long next = (long) ((Math.random() + 1.0) *
-                Math.pow(retryBackoffBaseSeconds.get(), backoffExponent));
-            logger.fine("[RETRY THREAD " + threadId + "] RESCHEDULING in " + next);
-            executorService.schedule(this, next, TimeUnit.SECONDS);
+            long next = drainPolicy.nextDelayMillis(successes == 0 && failures != 0);
+            logger.fine("[RETRY THREAD " + threadId + "] RESCHEDULING in " + next + "ms");
+            executorService.schedule(this, next, TimeUnit.MILLISECONDS);
           }
         }
       }
     };
   }
 
+  /**
+   * Track which of the tasks left at the head of the queue after a window have already been
+   * delivered, so they are not re-sent.
+   *
+   * @param delivered previous state, for tasks at the head of the queue when the window started.
+   * @param completed whether the task at the same position in the window has been delivered.
+   * @param head      position in the window of the current head of the queue.
+   * @return whether the tasks at the head of the queue have been delivered, in queue order.
+   */
+  private static List<Boolean> remainingDelivered(List<Boolean> delivered, boolean[] completed,
+                                                  int head) {
+    List<Boolean> remaining = new ArrayList<>();
+    for (int i = head; i < completed.length; i++) {
+      remaining.add(completed[i]);
+    }
+    // the window may have shrunk since the previous one
+    for (int i = Math.max(head, completed.length); i < delivered.size(); i++) {
+      remaining.add(delivered.get(i));
+    }
+    // tasks that haven't been delivered don't need to be tracked after the last one that has
+    while (!remaining.isEmpty() && !remaining.get(remaining.size() - 1)) {
+      remaining.remove(remaining.size() - 1);
+    }
+    return remaining;
+  }
+
   public static ObjectQueue<ResubmissionTask> createTaskQueue(final UUID agentId, File buffer) throws
       IOException {
-    return new FileObjectQueue<>(buffer,
+    MappedObjectQueue<ResubmissionTask> queue = new MappedObjectQueue<>(getQueueDirectory(buffer),
+        new ResubmissionTaskRecordConverter());
+    if (buffer.isFile()) {
+      migrateLegacyTaskQueue(buffer, queue);
+    }
+    return queue;
+  }
+
+  /**
+   * Move all tasks from a legacy Tape buffer file into the new queue and delete the file.
+   */
+  private static void migrateLegacyTaskQueue(File buffer, ObjectQueue<ResubmissionTask> queue)
+      throws IOException {
+    FileObjectQueue<ResubmissionTask> legacyQueue = new FileObjectQueue<>(buffer,
         new FileObjectQueue.Converter<ResubmissionTask>() {
           @Override
           public ResubmissionTask from(byte[] bytes) throws IOException {
             try {
-              ObjectInputStream ois = new ObjectInputStream(new LZ4BlockInputStream(new ByteArrayInputStream(bytes)));
-              return (ResubmissionTask) ois.readObject();
+              return ResubmissionTaskRecordConverter.deserialize(bytes);
             } catch (Throwable t) {
               logger.warning("Failed to read a single retry submission from buffer, ignoring: " + t);
               return null;
@@ -418,13 +555,30 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
 
           @Override
           public void toStream(ResubmissionTask o, OutputStream bytes) throws IOException {
-            LZ4BlockOutputStream lz4BlockOutputStream = new LZ4BlockOutputStream(bytes);
-            ObjectOutputStream oos = new ObjectOutputStream(lz4BlockOutputStream);
-            oos.writeObject(o);
-            oos.close();
-            lz4BlockOutputStream.close();
+            ResubmissionTaskRecordConverter.serialize(o, bytes);
           }
         });
+    int migrated = 0;
+    while (legacyQueue.size() > 0) {
+      ResubmissionTask task = legacyQueue.peek();
+      if (task != null) {
+        queue.add(task);
+        migrated++;
+      }
+      legacyQueue.remove();
+    }
+    legacyQueue.close();
+    if (!buffer.delete()) {
+      logger.warning("Unable to delete legacy retry buffer file " + buffer.getAbsolutePath());
+    }
+    if (migrated > 0) {
+      logger.info("Migrated " + migrated + " tasks from legacy retry buffer file " +
+          buffer.getAbsolutePath());
+    }
+  }
+
+  private static File getQueueDirectory(File buffer) {
+    return new File(buffer.getPath() + ".queue");
   }
 
   public static List<ResubmissionTaskQueue> createResubmissionTasks(WavefrontV2API wrapped, int retryThreads,
@@ -450,7 +604,7 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
     for (int i = 0; i < retryThreads; i++) {
       File buffer = new File(bufferFile + "." + i);
       if (purge) {
-        if (buffer.delete()) {
+        if (buffer.delete() | MappedSegmentLog.purge(getQueueDirectory(buffer))) {
           logger.warning("Retry buffer has been purged: " + buffer.getAbsolutePath());
         }
       }
@@ -478,6 +632,7 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
 
   public void shutdown() {
     executorService.shutdown();
+    submissionExecutor.shutdown();
   }
 
   public static void setRetryBackoffBaseSeconds(AtomicDouble newSecs) {
@@ -574,6 +729,86 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
     }
   }
 
+  @Override
+  public Response proxyReport(UUID agentId, String format, String contentEncoding,
+                              PushDataPayload pushData) {
+    return this.proxyReport(agentId, format, pushData, false);
+  }
+
+  @Override
+  public Response proxyReport(UUID agentId, String format, PushDataPayload pushData,
+                              boolean forceToQueue) {
+    if (forceToQueue) {
+      // bypass the charade of posting to the wrapped agentAPI. Just go straight to the retry queue
+      addTaskToSmallestQueue(new PostPushDataResultTask(agentId, Clock.now(), format, pushData));
+      return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+    } else {
+      try {
+        resultPostingMeter.mark();
+        parsePostingResponse(wrapped.proxyReport(agentId, format, pushData.getContentEncoding(),
+            pushData));
+        if (resultSizingRateLimier.tryAcquire()) {
+          resultPostingSizes.update(pushData.getLength());
+        }
+      } catch (RuntimeException ex) {
+        // payload may be backed by a reusable buffer, so the task gets its own copy of the data
+        PostPushDataResultTask task = new PostPushDataResultTask(agentId, Clock.now(), format,
+            pushData);
+        resubmit(agentId, handleTaskRetry(ex, task));
+        return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+      }
+      return Response.ok().build();
+    }
+  }
+
+  @Override
+  public CompletableFuture<Response> proxyReportAsync(UUID agentId, String format,
+                                                      PushDataPayload pushData) {
+    AsyncPushDataClient client = asyncClient;
+    if (client == null) {
+      return ForceQueueEnabledProxyAPI.super.proxyReportAsync(agentId, format, pushData);
+    }
+    // payload may be backed by a reusable buffer, so the request gets its own copy of the data
+    PushDataPayload payload = pushData.copy();
+    resultPostingMeter.mark();
+    return client.proxyReport(agentId, format, payload).handle((response, throwable) -> {
+      try {
+        if (throwable != null) {
+          throw new RuntimeException(SERVER_ERROR + ": " + throwable.getMessage(), throwable);
+        }
+        parsePostingResponse(response);
+        if (resultSizingRateLimier.tryAcquire()) {
+          resultPostingSizes.update(payload.getLength());
+        }
+      } catch (RuntimeException ex) {
+        resubmit(agentId, handleTaskRetry(ex, new PostPushDataResultTask(agentId, Clock.now(),
+            format, payload)));
+        return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+      }
+      return Response.ok().build();
+    });
+  }
+
+  /**
+   * Use an asynchronous client for {@link #proxyReportAsync(UUID, String, PushDataPayload)}.
+   *
+   * @param asyncClient client to use, or null to submit synchronously.
+   */
+  public void setAsyncClient(@Nullable AsyncPushDataClient asyncClient) {
+    this.asyncClient = asyncClient;
+  }
+
+  private void resubmit(UUID agentId, List<PostPushDataResultTask> splitTasks) {
+    for (PostPushDataResultTask splitTask : splitTasks) {
+      // we need to ensure that we use the latest agent id.
+      if (splitTask.getPayloadBytes() == null) {
+        proxyReport(agentId, splitTask.getFormat(), splitTask.getPushData());
+      } else {
+        proxyReport(agentId, splitTask.getFormat(), splitTask.getPayload(), false);
+      }
+    }
+  }
+
   @Override
   public void proxyConfigProcessed(final UUID proxyId) {
     wrapped.proxyConfigProcessed(proxyId);
@@ -639,7 +874,6 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
     if (queue != null) {
       try {
         queue.add(taskToRetry);
-        queuePointsCount.addAndGet(taskToRetry.size());
       } catch (FileException e) {
         logger.log(Level.SEVERE, "CRITICAL (Losing points!): WF-1: Submission queue is full.", e);
       }
@@ -1011,6 +1245,11 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
     private final String format;
     private final String pushData;
     private final int taskSize;
+    /**
+     * Pre-serialized payload bytes, used instead of pushData when not null.
+     */
+    private final byte[] payload;
+    private final boolean payloadCompressed;
 
     private transient Histogram timeSpentInQueue;
 
@@ -1020,6 +1259,29 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
       this.format = format;
       this.pushData = pushData;
       this.taskSize = LineDelimitedUtils.pushDataSize(pushData);
+      this.payload = null;
+      this.payloadCompressed = false;
+    }
+
+    public PostPushDataResultTask(UUID agentId, Long currentMillis, String format,
+                                  PushDataPayload payload) {
+      this.currentAgentId = agentId;
+      this.currentMillis = currentMillis;
+      this.format = format;
+      this.pushData = null;
+      this.taskSize = payload.getLineCount();
+      this.payload = payload.toByteArray();
+      this.payloadCompressed = payload.isCompressed();
+    }
+
+    PostPushDataResultTask(Long currentMillis, String format, byte[] payload, int taskSize,
+                           boolean payloadCompressed) {
+      this.currentMillis = currentMillis;
+      this.format = format;
+      this.pushData = null;
+      this.taskSize = taskSize;
+      this.payload = payload;
+      this.payloadCompressed = payloadCompressed;
     }
 
     @Override
@@ -1029,14 +1291,37 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
         timeSpentInQueue = Metrics.newHistogram(new MetricName("buffer", "", "queue-time"));
       }
       timeSpentInQueue.update(System.currentTimeMillis() - currentMillis);
-      parsePostingResponse(service.proxyReport(currentAgentId, format, pushData));
+      if (payload == null) {
+        parsePostingResponse(service.proxyReport(currentAgentId, format, pushData));
+      } else {
+        PushDataPayload pushDataPayload = getPayload();
+        parsePostingResponse(service.proxyReport(currentAgentId, format,
+            pushDataPayload.getContentEncoding(), pushDataPayload));
+      }
+    }
+
+    @Nullable
+    byte[] getPayloadBytes() {
+      return payload;
+    }
+
+    boolean isPayloadCompressed() {
+      return payloadCompressed;
+    }
+
+    private PushDataPayload getPayload() {
+      return new PushDataPayload(payload, payload.length, taskSize, payloadCompressed);
     }
 
     @Override
     public List<PostPushDataResultTask> splitTask() {
       // pull the pushdata back apart to split and put back together
       List<PostPushDataResultTask> splitTasks = Lists.newArrayListWithExpectedSize(2);
+      if (payload != null && BinaryPushDataCodec.isBinaryFormat(format)) {
+        return splitBinaryTask(splitTasks);
+      }
 
+      String pushData = getPushData();
       if (taskSize > minSplitBatchSize.get()) {
         // in this case, split the payload in 2 batches approximately in the middle.
         int splitPoint = pushData.indexOf(LineDelimitedUtils.PUSH_DATA_DELIMETER,
@@ -1055,6 +1340,27 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
       return splitTasks;
     }
 
+    private <T extends SpecificRecord> List<PostPushDataResultTask> splitBinaryTask(
+        List<PostPushDataResultTask> splitTasks) {
+      //noinspection unchecked
+      BinaryPushDataCodec<T> codec = (BinaryPushDataCodec<T>) BinaryPushDataCodec.forFormat(format);
+      if (codec != null && taskSize > minSplitBatchSize.get()) {
+        try {
+          List<T> records = codec.decode(getPayload());
+          int splitPoint = records.size() / 2;
+          splitTasks.add(new PostPushDataResultTask(currentAgentId, currentMillis, format,
+              codec.encode(records.subList(0, splitPoint))));
+          splitTasks.add(new PostPushDataResultTask(currentAgentId, currentMillis, format,
+              codec.encode(records.subList(splitPoint, records.size()))));
+          return splitTasks;
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Unable to split binary push data payload", e);
+        }
+      }
+      splitTasks.add(this);
+      return splitTasks;
+    }
+
     @Override
     public int size() {
       return taskSize;
@@ -1077,7 +1383,7 @@ public class QueuedAgentService implements ForceQueueEnabledProxyAPI {
 
     @VisibleForTesting
     public String getPushData() {
-      return pushData;
+      return payload == null ? pushData : getPayload().toPushDataString();
     }
   }
 }
@@ -3,9 +3,14 @@ package com.wavefront.agent;
 import com.squareup.tape.ObjectQueue;
 import com.squareup.tape.TaskInjector;
 import com.squareup.tape.TaskQueue;
+import com.wavefront.agent.queueing.MappedObjectQueue;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nullable;
+
 /**
  * Thread-safe TaskQueue for holding ResubmissionTask objects
  *
@@ -16,8 +21,16 @@ public class ResubmissionTaskQueue extends TaskQueue<ResubmissionTask> {
   // maintain a fair lock on the queue
   private ReentrantLock queueLock = new ReentrantLock(true);
 
+  @Nullable
+  private final MappedObjectQueue<ResubmissionTask> mappedQueue;
+  private final TaskInjector<ResubmissionTask> taskInjector;
+
+  @SuppressWarnings("unchecked")
   public ResubmissionTaskQueue(ObjectQueue<ResubmissionTask> objectQueue, TaskInjector<ResubmissionTask> taskInjector) {
     super(objectQueue, taskInjector);
+    this.taskInjector = taskInjector;
+    this.mappedQueue = objectQueue instanceof MappedObjectQueue ?
+        (MappedObjectQueue<ResubmissionTask>) objectQueue : null;
   }
 
   @Override
@@ -42,6 +55,30 @@ public class ResubmissionTaskQueue extends TaskQueue<ResubmissionTask> {
     return task;
   }
 
+  /**
+   * Get up to {@code maxTasks} tasks from the head of the queue without removing them.
+   *
+   * @param maxTasks maximum number of tasks to return.
+   * @return tasks in queue order.
+   */
+  public List<ResubmissionTask> peek(int maxTasks) {
+    if (mappedQueue == null) {
+      ResubmissionTask task = peek();
+      return task == null ? Collections.emptyList() : Collections.singletonList(task);
+    }
+    List<ResubmissionTask> tasks;
+    queueLock.lock();
+    try {
+      tasks = mappedQueue.peek(maxTasks);
+    } finally {
+      queueLock.unlock();
+    }
+    if (taskInjector != null) {
+      tasks.forEach(taskInjector::injectMembers);
+    }
+    return tasks;
+  }
+
   @Override
   public void remove() {
     queueLock.lock();
@@ -52,5 +89,31 @@ public class ResubmissionTaskQueue extends TaskQueue<ResubmissionTask> {
     }
   }
 
+  /**
+   * @return total number of points (or other items) in all tasks in the queue.
+   */
+  public long getPointCount() {
+    return mappedQueue == null ? size() : mappedQueue.getPointCount();
+  }
 
+  /**
+   * @return queue size on disk in bytes (0 if not tracked by the underlying queue).
+   */
+  public long getByteCount() {
+    return mappedQueue == null ? 0 : mappedQueue.getByteCount();
+  }
+
+  /**
+   * @return enqueue timestamp of the oldest task or null if not known.
+   */
+  @Nullable
+  public Long getOldestTaskMillis() {
+    if (mappedQueue == null) return null;
+    queueLock.lock();
+    try {
+      return mappedQueue.getOldestEntryMillis();
+    } finally {
+      queueLock.unlock();
+    }
+  }
 }
@@ -0,0 +1,137 @@
+package com.wavefront.agent;
+
+import com.wavefront.agent.queueing.MappedObjectQueue;
+import com.wavefront.agent.queueing.MappedSegmentLog;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Converts {@link ResubmissionTask}s to and from retry queue records.
+ *
+ * Push data tasks (the vast majority of the retry queue) are stored natively: the record body
+ * is the payload as it goes over the wire, and the number of points and the format are kept in
+ * the record header. All other tasks are stored as LZ4-compressed Java serialized objects.
+ */
+class ResubmissionTaskRecordConverter
+    implements MappedObjectQueue.RecordConverter<ResubmissionTask> {
+  private static final Logger logger =
+      Logger.getLogger(ResubmissionTaskRecordConverter.class.getCanonicalName());
+
+  static final byte TYPE_SERIALIZED = 0;
+  static final byte TYPE_PUSH_DATA = 1;
+
+  /**
+   * Body is a gzip-compressed payload.
+   */
+  static final byte FLAG_GZIP = 1;
+  /**
+   * Body is LZ4-compressed.
+   */
+  static final byte FLAG_LZ4 = 2;
+
+  @Override
+  public MappedSegmentLog.Record toRecord(ResubmissionTask task) throws IOException {
+    if (task instanceof QueuedAgentService.PostPushDataResultTask) {
+      QueuedAgentService.PostPushDataResultTask pushTask =
+          (QueuedAgentService.PostPushDataResultTask) task;
+      byte[] payload = pushTask.getPayloadBytes();
+      long enqueuedMillis = pushTask.getCurrentMillis() == null ? System.currentTimeMillis() :
+          pushTask.getCurrentMillis();
+      if (payload != null) {
+        return new MappedSegmentLog.Record(TYPE_PUSH_DATA,
+            pushTask.isPayloadCompressed() ? FLAG_GZIP : 0, pushTask.size(),
+            enqueuedMillis, pushTask.getFormat(), payload);
+      }
+      return new MappedSegmentLog.Record(TYPE_PUSH_DATA, FLAG_LZ4, pushTask.size(),
+          enqueuedMillis, pushTask.getFormat(),
+          lz4(pushTask.getPushData().getBytes(StandardCharsets.UTF_8)));
+    }
+    return new MappedSegmentLog.Record(TYPE_SERIALIZED, FLAG_LZ4, task.size(),
+        System.currentTimeMillis(), null, serialize(task));
+  }
+
+  @Nullable
+  @Override
+  public ResubmissionTask fromRecord(MappedSegmentLog.Record record) {
+    try {
+      switch (record.getType()) {
+        case TYPE_PUSH_DATA:
+          if ((record.getFlags() & FLAG_LZ4) != 0) {
+            return new QueuedAgentService.PostPushDataResultTask(null,
+                record.getEnqueuedMillis(), record.getFormat(),
+                new String(unlz4(record.getBody()), StandardCharsets.UTF_8));
+          }
+          return new QueuedAgentService.PostPushDataResultTask(record.getEnqueuedMillis(),
+              record.getFormat(), record.getBody(), record.getPointCount(),
+              (record.getFlags() & FLAG_GZIP) != 0);
+        case TYPE_SERIALIZED:
+          return deserialize(record.getBody());
+        default:
+          logger.warning("Unknown retry queue record type: " + record.getType());
+          return null;
+      }
+    } catch (Throwable t) {
+      logger.warning("Failed to read a single retry submission from buffer, ignoring: " + t);
+      return null;
+    }
+  }
+
+  /**
+   * Serialize a task with Java serialization + LZ4 (legacy Tape buffer file format).
+   */
+  static byte[] serialize(ResubmissionTask task) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    serialize(task, bytes);
+    return bytes.toByteArray();
+  }
+
+  static void serialize(ResubmissionTask task, OutputStream bytes) throws IOException {
+    LZ4BlockOutputStream lz4BlockOutputStream = new LZ4BlockOutputStream(bytes);
+    ObjectOutputStream oos = new ObjectOutputStream(lz4BlockOutputStream);
+    oos.writeObject(task);
+    oos.close();
+    lz4BlockOutputStream.close();
+  }
+
+  /**
+   * Deserialize a task from Java serialization + LZ4 (legacy Tape buffer file format).
+   */
+  static ResubmissionTask deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+    ObjectInputStream ois = new ObjectInputStream(new LZ4BlockInputStream(
+        new ByteArrayInputStream(bytes)));
+    return (ResubmissionTask) ois.readObject();
+  }
+
+  private static byte[] lz4(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 64);
+    try (OutputStream outputStream = new LZ4BlockOutputStream(bytes)) {
+      outputStream.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] unlz4(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length * 3);
+    try (InputStream inputStream = new LZ4BlockInputStream(new ByteArrayInputStream(data))) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
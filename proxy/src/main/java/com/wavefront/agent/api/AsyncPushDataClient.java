@@ -0,0 +1,31 @@
+package com.wavefront.agent.api;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Non-blocking counterpart of {@link WavefrontV2API#proxyReport(UUID, String, String,
+ * PushDataPayload)}: submits push data batches without tying up the calling thread for the
+ * duration of the round trip.
+ */
+public interface AsyncPushDataClient {
+
+  /**
+   * Report a pre-serialized batch of data (metrics, histograms, spans, etc) to Wavefront servers.
+   * Completion callbacks are never invoked on I/O threads, so it's safe to block in them.
+   *
+   * @param proxyId  Proxy Id reporting the result.
+   * @param format   The format of the data (wavefront, histogram, trace, spanLogs)
+   * @param pushData Push data batch. Must not be modified until the returned future completes.
+   * @return future that completes with the server response, or exceptionally if the request
+   *         could not be completed.
+   */
+  CompletableFuture<Response> proxyReport(UUID proxyId, String format, PushDataPayload pushData);
+
+  /**
+   * Close all connections and release resources.
+   */
+  void shutdown();
+}
@@ -0,0 +1,412 @@
+package com.wavefront.agent.api;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.CountingInputStream;
+import com.wavefront.api.agent.Constants;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.avro.util.Utf8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import javax.annotation.Nullable;
+
+import wavefront.report.ReportPoint;
+import wavefront.report.Span;
+
+/**
+ * Compact binary framing for push data relayed between proxies: instead of newline-delimited
+ * text, the payload carries Avro-encoded {@link ReportPoint} or {@link Span} records, so the
+ * receiving proxy doesn't have to parse them again.
+ *
+ * Frame layout: 4-byte magic ("WFB" + version), record count (int), writer schema fingerprint
+ * (long), followed by an LZ4 block stream with the writer schema (int length + JSON) and the
+ * records in Avro binary encoding. Writer schema is included with every payload so proxies with
+ * different versions of the record classes can still talk to each other.
+ *
+ * @param <T> record type.
+ */
+public final class BinaryPushDataCodec<T extends SpecificRecord> {
+  private static final String BINARY_FORMAT_SUFFIX = "-binary";
+  private static final int MAGIC = ('W' << 24) | ('F' << 16) | ('B' << 8) | 1;
+  /**
+   * LZ4 can't expand data by more than that, so it bounds the uncompressed size of a payload.
+   */
+  private static final int MAX_COMPRESSION_RATIO = 255;
+  private static final int MAX_SCHEMA_LENGTH = 1 << 20;
+  private static final int MAX_RECORD_COUNT = 1 << 22;
+  private static final int MAX_CACHED_SCHEMAS = 16;
+
+  public static final BinaryPushDataCodec<ReportPoint> POINTS =
+      new BinaryPushDataCodec<>(ReportPoint.getClassSchema());
+  public static final BinaryPushDataCodec<Span> SPANS =
+      new BinaryPushDataCodec<>(Span.getClassSchema());
+
+  private final Schema schema;
+  private final long fingerprint;
+  private final byte[] schemaBytes;
+  private final SpecificDatumWriter<T> writer;
+  /**
+   * Readers for writer schemas we've seen so far, by schema fingerprint.
+   */
+  private final Map<Long, CachedReader<T>> readers = new ConcurrentHashMap<>();
+
+  private BinaryPushDataCodec(Schema schema) {
+    this.schema = schema;
+    this.fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+    this.schemaBytes = schema.toString().getBytes(StandardCharsets.UTF_8);
+    this.writer = new SpecificDatumWriter<>(schema);
+    this.readers.put(fingerprint, new CachedReader<>(schemaBytes,
+        new SpecificDatumReader<>(schema)));
+  }
+
+  /**
+   * @param format text push format (i.e. "wavefront").
+   * @return push format name to use for the binary version of the same data.
+   */
+  public static String binaryFormat(String format) {
+    return format + BINARY_FORMAT_SUFFIX;
+  }
+
+  /**
+   * @param format push format.
+   * @return true if the format denotes binary-framed data.
+   */
+  public static boolean isBinaryFormat(@Nullable String format) {
+    return format != null && format.endsWith(BINARY_FORMAT_SUFFIX);
+  }
+
+  /**
+   * @param format binary push format (i.e. "wavefront-binary").
+   * @return push format of the same data in text form.
+   */
+  public static String textFormat(String format) {
+    return isBinaryFormat(format) ?
+        format.substring(0, format.length() - BINARY_FORMAT_SUFFIX.length()) : format;
+  }
+
+  /**
+   * @param format push format (text or binary).
+   * @return codec for the data type that corresponds to the format, or null if the format has no
+   *         binary representation.
+   */
+  @Nullable
+  public static BinaryPushDataCodec<?> forFormat(String format) {
+    switch (textFormat(format)) {
+      case Constants.PUSH_FORMAT_WAVEFRONT:
+      case Constants.PUSH_FORMAT_HISTOGRAM:
+        return POINTS;
+      case Constants.PUSH_FORMAT_TRACING:
+        return SPANS;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Encode records into a binary payload.
+   *
+   * @param records records to encode.
+   * @return payload.
+   */
+  public PushDataPayload encode(List<T> records) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 + records.size() * 64);
+    try {
+      DataOutputStream header = new DataOutputStream(outputStream);
+      header.writeInt(MAGIC);
+      header.writeInt(records.size());
+      header.writeLong(fingerprint);
+      header.flush();
+      LZ4BlockOutputStream lz4OutputStream = new LZ4BlockOutputStream(outputStream);
+      DataOutputStream body = new DataOutputStream(lz4OutputStream);
+      body.writeInt(schemaBytes.length);
+      body.write(schemaBytes);
+      BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(body, null);
+      for (T record : records) {
+        writer.write(record, encoder);
+      }
+      encoder.flush();
+      lz4OutputStream.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    byte[] data = outputStream.toByteArray();
+    return new PushDataPayload(data, data.length, records.size(), false);
+  }
+
+  /**
+   * Decode records from a binary payload. Every length and count in the payload (record count,
+   * schema length, string and byte lengths, array and map sizes) is checked against the number
+   * of bytes that can still remain in the payload before anything is allocated based on it, so
+   * a malformed or malicious payload can't make the decoder allocate more than the maximum LZ4
+   * expansion of its size.
+   *
+   * @param inputStream stream to read the payload from.
+   * @param payloadSize payload size in bytes.
+   * @param consumer    consumer for decoded records.
+   * @return number of records decoded.
+   * @throws IOException if the payload is malformed.
+   */
+  public int decode(InputStream inputStream, int payloadSize, Consumer<T> consumer)
+      throws IOException {
+    // every record takes at least one byte
+    long maxUncompressedSize = (long) payloadSize * MAX_COMPRESSION_RATIO;
+    DataInputStream header = new DataInputStream(inputStream);
+    if (header.readInt() != MAGIC) {
+      throw new IOException("Not a binary push data payload or unsupported version");
+    }
+    int count = header.readInt();
+    if (count < 0 || count > MAX_RECORD_COUNT || count > maxUncompressedSize) {
+      throw new IOException("Invalid record count: " + count);
+    }
+    long writerFingerprint = header.readLong();
+    DataInputStream body = new DataInputStream(new LZ4BlockInputStream(inputStream));
+    int schemaLength = body.readInt();
+    if (schemaLength < 0 || schemaLength > MAX_SCHEMA_LENGTH ||
+        schemaLength > maxUncompressedSize) {
+      throw new IOException("Invalid writer schema length: " + schemaLength);
+    }
+    byte[] writerSchemaBytes = new byte[schemaLength];
+    body.readFully(writerSchemaBytes);
+    SpecificDatumReader<T> reader = getReader(writerFingerprint, writerSchemaBytes);
+    Decoder decoder = new BoundedDecoder(body, maxUncompressedSize - 4 - schemaLength);
+    for (int i = 0; i < count; i++) {
+      consumer.accept(reader.read(null, decoder));
+    }
+    return count;
+  }
+
+  /**
+   * Get a reader for the writer schema, making sure that the schema matches its fingerprint
+   * before it's cached.
+   */
+  private SpecificDatumReader<T> getReader(long writerFingerprint, byte[] writerSchemaBytes)
+      throws IOException {
+    CachedReader<T> cached = readers.get(writerFingerprint);
+    if (cached != null && Arrays.equals(cached.schemaBytes, writerSchemaBytes)) {
+      return cached.reader;
+    }
+    Schema writerSchema;
+    try {
+      writerSchema = new Schema.Parser().parse(
+          new String(writerSchemaBytes, StandardCharsets.UTF_8));
+    } catch (RuntimeException e) {
+      throw new IOException("Invalid writer schema", e);
+    }
+    if (SchemaNormalization.parsingFingerprint64(writerSchema) != writerFingerprint) {
+      throw new IOException("Writer schema doesn't match its fingerprint");
+    }
+    if (cached != null) {
+      // same schema, formatted differently
+      return cached.reader;
+    }
+    SpecificDatumReader<T> reader = new SpecificDatumReader<>(writerSchema, schema);
+    if (readers.size() < MAX_CACHED_SCHEMAS) {
+      readers.putIfAbsent(writerFingerprint, new CachedReader<>(writerSchemaBytes, reader));
+    }
+    return reader;
+  }
+
+  /**
+   * Decode all records from a binary payload.
+   *
+   * @param payload payload to decode.
+   * @return decoded records.
+   * @throws IOException if the payload is malformed.
+   */
+  public List<T> decode(PushDataPayload payload) throws IOException {
+    List<T> records = new ArrayList<>(payload.getLineCount());
+    decode(new ByteArrayInputStream(payload.toByteArray()), payload.getLength(), records::add);
+    return records;
+  }
+
+  /**
+   * Binary decoder that makes sure that string and byte lengths and array and map block sizes
+   * don't exceed the number of bytes that can remain in the payload, before the reader allocates
+   * anything based on them (array and map elements of the record types we decode take at least
+   * one byte each).
+   */
+  @VisibleForTesting
+  static final class BoundedDecoder extends Decoder {
+    private final CountingInputStream inputStream;
+    private final BinaryDecoder decoder;
+    private final long maxSize;
+
+    /**
+     * @param inputStream stream to decode.
+     * @param maxSize     maximum number of bytes that can be read from the stream.
+     */
+    BoundedDecoder(InputStream inputStream, long maxSize) {
+      this.inputStream = new CountingInputStream(inputStream);
+      // no read-ahead, so that the number of bytes read from the stream is exact
+      this.decoder = DecoderFactory.get().directBinaryDecoder(this.inputStream, null);
+      this.maxSize = maxSize;
+    }
+
+    private long check(long length, String what) throws IOException {
+      long remaining = maxSize - inputStream.getCount();
+      if (length < 0 || length > remaining) {
+        throw new IOException("Invalid " + what + ": " + length + " (at most " + remaining +
+            " bytes left in the payload)");
+      }
+      return length;
+    }
+
+    @Override
+    public void readNull() throws IOException {
+      decoder.readNull();
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+      return decoder.readBoolean();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+      return decoder.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+      return decoder.readLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+      return decoder.readFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+      return decoder.readDouble();
+    }
+
+    @Override
+    public Utf8 readString(Utf8 old) throws IOException {
+      int length = (int) check(decoder.readInt(), "string length");
+      Utf8 result = old == null ? new Utf8() : old;
+      result.setByteLength(length);
+      decoder.readFixed(result.getBytes(), 0, length);
+      return result;
+    }
+
+    @Override
+    public String readString() throws IOException {
+      byte[] bytes = new byte[(int) check(decoder.readInt(), "string length")];
+      decoder.readFixed(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void skipString() throws IOException {
+      decoder.skipString();
+    }
+
+    @Override
+    public ByteBuffer readBytes(ByteBuffer old) throws IOException {
+      int length = (int) check(decoder.readInt(), "bytes length");
+      ByteBuffer result;
+      if (old != null && length <= old.capacity()) {
+        result = old;
+        result.clear();
+      } else {
+        result = ByteBuffer.allocate(length);
+      }
+      decoder.readFixed(result.array(), result.position(), length);
+      result.limit(length);
+      return result;
+    }
+
+    @Override
+    public void skipBytes() throws IOException {
+      decoder.skipBytes();
+    }
+
+    @Override
+    public void readFixed(byte[] bytes, int start, int length) throws IOException {
+      decoder.readFixed(bytes, start, length);
+    }
+
+    @Override
+    public void skipFixed(int length) throws IOException {
+      decoder.skipFixed(length);
+    }
+
+    @Override
+    public int readEnum() throws IOException {
+      return decoder.readEnum();
+    }
+
+    @Override
+    public long readArrayStart() throws IOException {
+      return check(decoder.readArrayStart(), "array size");
+    }
+
+    @Override
+    public long arrayNext() throws IOException {
+      return check(decoder.arrayNext(), "array size");
+    }
+
+    @Override
+    public long skipArray() throws IOException {
+      return decoder.skipArray();
+    }
+
+    @Override
+    public long readMapStart() throws IOException {
+      return check(decoder.readMapStart(), "map size");
+    }
+
+    @Override
+    public long mapNext() throws IOException {
+      return check(decoder.mapNext(), "map size");
+    }
+
+    @Override
+    public long skipMap() throws IOException {
+      return decoder.skipMap();
+    }
+
+    @Override
+    public int readIndex() throws IOException {
+      return decoder.readIndex();
+    }
+  }
+
+  private static final class CachedReader<T> {
+    final byte[] schemaBytes;
+    final SpecificDatumReader<T> reader;
+
+    CachedReader(byte[] schemaBytes, SpecificDatumReader<T> reader) {
+      this.schemaBytes = schemaBytes;
+      this.reader = reader;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package com.wavefront.agent.api;
+
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.AbstractMultivaluedMap;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+
+/**
+ * Inbound {@link Response} with a fully buffered body, for responses received by clients that
+ * don't go through the JAX-RS client API. Unlike responses created with
+ * {@link Response#status(int)}, which are outbound and can't be read, the body can be read with
+ * {@link #readEntity(Class)} as a {@code String} or a {@code byte[]}.
+ */
+final class BufferedResponse extends Response {
+  private final int status;
+  private final MultivaluedMap<String, String> headers;
+  private final byte[] body;
+  private boolean closed = false;
+
+  /**
+   * @param status  HTTP status code.
+   * @param headers response headers.
+   * @param body    response body.
+   */
+  BufferedResponse(int status, Iterable<Map.Entry<String, String>> headers, byte[] body) {
+    this.status = status;
+    // header names are case-insensitive
+    this.headers = new AbstractMultivaluedMap<String, String>(
+        new TreeMap<>(String.CASE_INSENSITIVE_ORDER)) {};
+    for (Map.Entry<String, String> header : headers) {
+      this.headers.add(header.getKey(), header.getValue());
+    }
+    this.body = body;
+  }
+
+  @Override
+  public int getStatus() {
+    return status;
+  }
+
+  @Override
+  public StatusType getStatusInfo() {
+    Status knownStatus = Status.fromStatusCode(status);
+    if (knownStatus != null) return knownStatus;
+    return new StatusType() {
+      @Override
+      public int getStatusCode() {
+        return status;
+      }
+
+      @Override
+      public Status.Family getFamily() {
+        return Status.Family.familyOf(status);
+      }
+
+      @Override
+      public String getReasonPhrase() {
+        return "";
+      }
+    };
+  }
+
+  /**
+   * @return null, as with any inbound response, the body has to be read with
+   *         {@link #readEntity(Class)}.
+   */
+  @Override
+  public Object getEntity() {
+    checkNotClosed();
+    return null;
+  }
+
+  @Override
+  public <T> T readEntity(Class<T> entityType) {
+    checkNotClosed();
+    if (entityType == String.class) {
+      return entityType.cast(new String(body, StandardCharsets.UTF_8));
+    } else if (entityType == byte[].class) {
+      return entityType.cast(body.clone());
+    }
+    throw new ProcessingException("Unsupported entity type: " + entityType.getName());
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T readEntity(GenericType<T> entityType) {
+    return (T) readEntity(entityType.getRawType());
+  }
+
+  @Override
+  public <T> T readEntity(Class<T> entityType, Annotation[] annotations) {
+    return readEntity(entityType);
+  }
+
+  @Override
+  public <T> T readEntity(GenericType<T> entityType, Annotation[] annotations) {
+    return readEntity(entityType);
+  }
+
+  @Override
+  public boolean hasEntity() {
+    checkNotClosed();
+    return body.length > 0;
+  }
+
+  @Override
+  public boolean bufferEntity() {
+    checkNotClosed();
+    return true;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  @Nullable
+  @Override
+  public MediaType getMediaType() {
+    String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+    return contentType == null ? null : MediaType.valueOf(contentType);
+  }
+
+  @Nullable
+  @Override
+  public Locale getLanguage() {
+    return null;
+  }
+
+  @Override
+  public int getLength() {
+    return body.length;
+  }
+
+  @Override
+  public Set<String> getAllowedMethods() {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public Map<String, NewCookie> getCookies() {
+    return Collections.emptyMap();
+  }
+
+  @Nullable
+  @Override
+  public EntityTag getEntityTag() {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public Date getDate() {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public Date getLastModified() {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public URI getLocation() {
+    String location = headers.getFirst(HttpHeaders.LOCATION);
+    return location == null ? null : URI.create(location);
+  }
+
+  @Override
+  public Set<Link> getLinks() {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public boolean hasLink(String relation) {
+    return false;
+  }
+
+  @Nullable
+  @Override
+  public Link getLink(String relation) {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public Link.Builder getLinkBuilder(String relation) {
+    return null;
+  }
+
+  @Override
+  public MultivaluedMap<String, Object> getMetadata() {
+    MultivaluedMap<String, Object> metadata = new MultivaluedHashMap<>();
+    headers.forEach((name, values) -> metadata.addAll(name, values.toArray()));
+    return metadata;
+  }
+
+  @Override
+  public MultivaluedMap<String, String> getStringHeaders() {
+    return headers;
+  }
+
+  @Nullable
+  @Override
+  public String getHeaderString(String name) {
+    return headers.containsKey(name) ? String.join(",", headers.get(name)) : null;
+  }
+
+  private void checkNotClosed() {
+    if (closed) throw new IllegalStateException("Response has been closed");
+  }
+}
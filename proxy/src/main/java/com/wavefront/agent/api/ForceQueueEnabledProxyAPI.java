@@ -4,6 +4,7 @@ import com.wavefront.dto.Event;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import javax.ws.rs.HeaderParam;
 import javax.ws.rs.QueryParam;
@@ -30,6 +31,32 @@ public interface ForceQueueEnabledProxyAPI extends WavefrontV2API {
                        final String pushData,
                        boolean forceToQueue);
 
+  /**
+   * Report a pre-serialized batch of data (metrics, histograms, spans, etc) to Wavefront servers.
+   *
+   * @param proxyId       Proxy Id reporting the result.
+   * @param format        The format of the data (wavefront, histogram, trace, spanLogs)
+   * @param pushData      Push data batch. Copied if it needs to be queued.
+   * @param forceToQueue  Whether to bypass posting data to the API and write to queue instead.
+   */
+  Response proxyReport(final UUID proxyId, final String format, final PushDataPayload pushData,
+                       boolean forceToQueue);
+
+  /**
+   * Report a pre-serialized batch of data (metrics, histograms, spans, etc) to Wavefront servers
+   * without waiting for the round trip, if supported. Failed batches are queued, same as with
+   * {@link #proxyReport(UUID, String, PushDataPayload, boolean)}.
+   *
+   * @param proxyId       Proxy Id reporting the result.
+   * @param format        The format of the data (wavefront, histogram, trace, spanLogs)
+   * @param pushData      Push data batch. Only has to remain valid until the method returns.
+   * @return future that completes with the same response proxyReport would return.
+   */
+  default CompletableFuture<Response> proxyReportAsync(final UUID proxyId, final String format,
+                                                       final PushDataPayload pushData) {
+    return CompletableFuture.completedFuture(proxyReport(proxyId, format, pushData, false));
+  }
+
   /**
    * Add a single tag to a source.
    *
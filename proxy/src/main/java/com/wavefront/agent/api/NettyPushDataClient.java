@@ -0,0 +1,307 @@
+package com.wavefront.agent.api;
+
+import com.wavefront.common.NamedThreadFactory;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLException;
+import javax.ws.rs.core.Response;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringEncoder;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * {@link AsyncPushDataClient} implementation on top of Netty: requests are sent over a small,
+ * fixed-size pool of HTTP/1.1 keep-alive connections served by a couple of I/O threads, one
+ * request at a time per connection. Requests that can't get a connection right away wait in the
+ * pool's queue rather than on a thread. Completion callbacks run on a fixed-size pool of
+ * {@code maxConnections} threads.
+ *
+ * Does not support outbound HTTP proxies.
+ */
+public class NettyPushDataClient implements AsyncPushDataClient {
+  private static final Logger logger = Logger.getLogger(
+      NettyPushDataClient.class.getCanonicalName());
+
+  private static final String PROXY_REPORT_PATH = "v2/wfproxy/report";
+  private static final int MAX_RESPONSE_LENGTH = 1024 * 1024;
+  private static final AttributeKey<PendingRequest> PENDING_REQUEST =
+      AttributeKey.valueOf("pendingRequest");
+
+  private final String host;
+  private final String path;
+  @Nullable
+  private final String token;
+  private final String userAgent;
+  private final int requestTimeoutMillis;
+  private final EventLoopGroup eventLoopGroup;
+  private final ChannelPool channelPool;
+  private final ExecutorService callbackExecutor;
+
+  private final AtomicInteger requestsInFlight = new AtomicInteger();
+  private final Histogram requestLatency;
+  private final Counter requestErrors;
+
+  /**
+   * @param serverEndpointUrl    API endpoint URL (i.e. https://wavefront.example.com/api/).
+   * @param token                API token (optional).
+   * @param userAgent            User-Agent header value.
+   * @param maxConnections       max connections to keep open.
+   * @param connectTimeoutMillis connect timeout in milliseconds.
+   * @param requestTimeoutMillis request timeout in milliseconds, including time spent waiting
+   *                             for a connection.
+   */
+  public NettyPushDataClient(String serverEndpointUrl, @Nullable String token, String userAgent,
+                             int maxConnections, int connectTimeoutMillis,
+                             int requestTimeoutMillis) {
+    URI uri = URI.create(serverEndpointUrl);
+    boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+    int port = uri.getPort() == -1 ? (secure ? 443 : 80) : uri.getPort();
+    this.host = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + port;
+    String basePath = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" :
+        uri.getRawPath();
+    this.path = (basePath.endsWith("/") ? basePath : basePath + "/") + PROXY_REPORT_PATH;
+    this.token = token;
+    this.userAgent = userAgent;
+    this.requestTimeoutMillis = requestTimeoutMillis;
+    this.eventLoopGroup = new NioEventLoopGroup(Math.min(maxConnections, 2),
+        new NamedThreadFactory("submission-io"));
+    // callbacks may block (i.e. when resubmitting synchronously), so they get their own threads,
+    // but no more than there can be requests completing at the same time
+    this.callbackExecutor = Executors.newFixedThreadPool(Math.max(1, maxConnections),
+        new NamedThreadFactory("submission-callback"));
+
+    SslContext sslContext;
+    try {
+      sslContext = secure ? SslContextBuilder.forClient().build() : null;
+    } catch (SSLException e) {
+      throw new IllegalStateException("Unable to initialize SSL context", e);
+    }
+    Bootstrap bootstrap = new Bootstrap().
+        group(eventLoopGroup).
+        channel(NioSocketChannel.class).
+        remoteAddress(uri.getHost(), port).
+        option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis).
+        option(ChannelOption.TCP_NODELAY, true);
+    this.channelPool = new FixedChannelPool(bootstrap, new AbstractChannelPoolHandler() {
+      @Override
+      public void channelCreated(Channel channel) {
+        ChannelPipeline pipeline = channel.pipeline();
+        if (sslContext != null) {
+          pipeline.addLast(sslContext.newHandler(channel.alloc(), uri.getHost(), port));
+        }
+        pipeline.addLast(new HttpClientCodec(),
+            new HttpContentDecompressor(),
+            new HttpObjectAggregator(MAX_RESPONSE_LENGTH),
+            new ResponseHandler());
+      }
+    }, ChannelHealthChecker.ACTIVE, FixedChannelPool.AcquireTimeoutAction.FAIL,
+        requestTimeoutMillis, maxConnections, Integer.MAX_VALUE);
+
+    this.requestLatency = Metrics.newHistogram(
+        new MetricName("submission", "", "latency-millis"));
+    this.requestErrors = Metrics.newCounter(new MetricName("submission", "", "errors"));
+    Metrics.newGauge(new MetricName("submission", "", "requests-in-flight"), new Gauge<Integer>() {
+      @Override
+      public Integer value() {
+        return requestsInFlight.get();
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Response> proxyReport(UUID proxyId, String format,
+                                                 PushDataPayload pushData) {
+    CompletableFuture<Response> result = new CompletableFuture<>();
+    PendingRequest pendingRequest = new PendingRequest(result, System.nanoTime());
+    requestsInFlight.incrementAndGet();
+    // a single deadline for both waiting for a connection and the round trip
+    pendingRequest.timeout = eventLoopGroup.schedule(() -> timeout(pendingRequest),
+        requestTimeoutMillis, TimeUnit.MILLISECONDS);
+    QueryStringEncoder uri = new QueryStringEncoder(path);
+    uri.addParam("format", format);
+    FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        uri.toString(), Unpooled.wrappedBuffer(pushData.array(), 0, pushData.getLength()));
+    HttpHeaders headers = request.headers();
+    headers.set(HttpHeaderNames.HOST, host);
+    headers.set(HttpHeaderNames.USER_AGENT, userAgent);
+    headers.set(HttpHeaderNames.CONTENT_TYPE, BinaryPushDataCodec.isBinaryFormat(format) ?
+        HttpHeaderValues.APPLICATION_OCTET_STREAM : HttpHeaderValues.TEXT_PLAIN);
+    headers.set(HttpHeaderNames.CONTENT_LENGTH, pushData.getLength());
+    headers.set(HttpHeaderNames.ACCEPT_ENCODING, HttpHeaderValues.GZIP);
+    headers.set("X-WF-PROXY-ID", proxyId.toString());
+    if (pushData.getContentEncoding() != null) {
+      headers.set(HttpHeaderNames.CONTENT_ENCODING, pushData.getContentEncoding());
+    }
+    if (token != null) {
+      headers.set(HttpHeaderNames.AUTHORIZATION, "Bearer " + token);
+    }
+    channelPool.acquire().addListener((Future<Channel> future) -> {
+      if (!future.isSuccess()) {
+        request.release();
+        complete(pendingRequest, null, future.cause());
+        return;
+      }
+      Channel channel = future.getNow();
+      channel.attr(PENDING_REQUEST).set(pendingRequest);
+      pendingRequest.channel = channel;
+      if (pendingRequest.completed.get()) {
+        // timed out while waiting for the connection
+        request.release();
+        if (channel.attr(PENDING_REQUEST).compareAndSet(pendingRequest, null)) {
+          channelPool.release(channel);
+        }
+        return;
+      }
+      channel.writeAndFlush(request).addListener(writeFuture -> {
+        if (!writeFuture.isSuccess()) {
+          fail(channel, writeFuture.cause());
+        }
+      });
+    });
+    return result;
+  }
+
+  @Override
+  public void shutdown() {
+    channelPool.close();
+    eventLoopGroup.shutdownGracefully(0, requestTimeoutMillis, TimeUnit.MILLISECONDS);
+    callbackExecutor.shutdown();
+  }
+
+  /**
+   * Fail a request that hasn't completed within {@code requestTimeoutMillis} since it has been
+   * submitted, whether it's still waiting for a connection or already in progress.
+   */
+  private void timeout(PendingRequest pendingRequest) {
+    TimeoutException cause = new TimeoutException("Request timed out after " +
+        requestTimeoutMillis + "ms");
+    Channel channel = pendingRequest.channel;
+    if (channel != null && channel.attr(PENDING_REQUEST).get() == pendingRequest) {
+      fail(channel, cause);
+    } else {
+      // the connection, if acquired later, is released by the acquire listener
+      complete(pendingRequest, null, cause);
+    }
+  }
+
+  /**
+   * Fail the request in progress on a channel (if any) and discard the connection.
+   */
+  private void fail(Channel channel, Throwable cause) {
+    PendingRequest pendingRequest = channel.attr(PENDING_REQUEST).getAndSet(null);
+    if (pendingRequest == null) return;
+    channel.close();
+    channelPool.release(channel);
+    complete(pendingRequest, null, cause);
+  }
+
+  private void complete(PendingRequest pendingRequest, @Nullable Response response,
+                        @Nullable Throwable cause) {
+    if (!pendingRequest.completed.compareAndSet(false, true)) return;
+    if (pendingRequest.timeout != null) {
+      pendingRequest.timeout.cancel(false);
+    }
+    requestsInFlight.decrementAndGet();
+    requestLatency.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() -
+        pendingRequest.startNanos));
+    if (cause != null) {
+      requestErrors.inc();
+      callbackExecutor.execute(() -> pendingRequest.result.completeExceptionally(cause));
+    } else {
+      callbackExecutor.execute(() -> pendingRequest.result.complete(response));
+    }
+  }
+
+  private class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse httpResponse) {
+      Channel channel = ctx.channel();
+      PendingRequest pendingRequest = channel.attr(PENDING_REQUEST).getAndSet(null);
+      if (pendingRequest == null) {
+        logger.fine("Unexpected response from " + host + ": " + httpResponse.status());
+        channel.close();
+        return;
+      }
+      Response response = new BufferedResponse(httpResponse.status().code(),
+          httpResponse.headers(), ByteBufUtil.getBytes(httpResponse.content()));
+      if (!HttpUtil.isKeepAlive(httpResponse)) {
+        channel.close();
+      }
+      channelPool.release(channel);
+      complete(pendingRequest, response, null);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      fail(ctx.channel(), new IOException("Connection to " + host + " closed"));
+      super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      fail(ctx.channel(), cause);
+      ctx.close();
+    }
+  }
+
+  private static class PendingRequest {
+    final CompletableFuture<Response> result;
+    final long startNanos;
+    final AtomicBoolean completed = new AtomicBoolean();
+    volatile ScheduledFuture<?> timeout;
+    volatile Channel channel;
+
+    PendingRequest(CompletableFuture<Response> result, long startNanos) {
+      this.result = result;
+      this.startNanos = startNanos;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package com.wavefront.agent.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Newline-delimited push data (metrics, histograms, spans, etc) that has already been serialized
+ * to UTF-8 bytes, and optionally gzip-compressed, so it can be used as a request entity as-is.
+ *
+ * The payload may be backed by a reusable buffer, so it is only valid until the buffer is reused
+ * by its owner. Use {@link #toByteArray()} to obtain a copy that can outlive the buffer.
+ */
+public class PushDataPayload {
+  private final byte[] data;
+  private final int length;
+  private final int lineCount;
+  private final boolean compressed;
+
+  /**
+   * @param data       backing array.
+   * @param length     payload length (number of bytes in the backing array used).
+   * @param lineCount  number of lines (points) in the payload.
+   * @param compressed whether the payload is gzip-compressed.
+   */
+  public PushDataPayload(byte[] data, int length, int lineCount, boolean compressed) {
+    this.data = data;
+    this.length = length;
+    this.lineCount = lineCount;
+    this.compressed = compressed;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * @return value for the Content-Encoding header.
+   */
+  @Nullable
+  public String getContentEncoding() {
+    return compressed ? "gzip" : null;
+  }
+
+  /**
+   * @return backing array, only the first {@link #getLength()} bytes of which are used. Not a
+   *         copy, so it's only valid as long as the payload is.
+   */
+  byte[] array() {
+    return data;
+  }
+
+  /**
+   * Write the payload bytes (as is) to a stream.
+   *
+   * @param outputStream stream to write to.
+   */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    outputStream.write(data, 0, length);
+  }
+
+  /**
+   * @return copy of the payload bytes, which stays valid when the buffer this payload was built in
+   *         is reused.
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(data, length);
+  }
+
+  /**
+   * @return payload backed by its own copy of the data, which stays valid when the buffer this
+   *         payload was built in is reused.
+   */
+  public PushDataPayload copy() {
+    return new PushDataPayload(Arrays.copyOf(data, length), length, lineCount, compressed);
+  }
+
+  /**
+   * Decode (and decompress, if necessary) payload as a newline-delimited string.
+   *
+   * @return payload as string.
+   */
+  public String toPushDataString() {
+    if (!compressed) {
+      return new String(data, 0, length, StandardCharsets.UTF_8);
+    }
+    try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(data, 0, length))) {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream(length * 4);
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1) {
+        outputStream.write(buffer, 0, read);
+      }
+      return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -4,10 +4,37 @@ import com.wavefront.api.EventAPI;
 import com.wavefront.api.ProxyV2API;
 import com.wavefront.api.SourceTagAPI;
 
+import java.util.UUID;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
 /**
  * Consolidated interface for proxy APIs.
  *
  * @author vasily@wavefront.com
  */
 public interface WavefrontV2API extends ProxyV2API, SourceTagAPI, EventAPI {
+
+  /**
+   * Report batched data (metrics, histograms, spans, etc) to Wavefront servers, using a
+   * pre-serialized (and possibly pre-compressed) payload as the request body.
+   *
+   * @param proxyId         Proxy Id reporting the result.
+   * @param format          The format of the data (wavefront, histogram, trace, spanLogs)
+   * @param contentEncoding Content-Encoding header value, should match the payload.
+   * @param pushData        Push data batch.
+   */
+  @POST
+  @Consumes(MediaType.TEXT_PLAIN)
+  @Path("v2/wfproxy/report")
+  Response proxyReport(@HeaderParam("X-WF-PROXY-ID") final UUID proxyId,
+                       @QueryParam("format") final String format,
+                       @HeaderParam("Content-Encoding") final String contentEncoding,
+                       final PushDataPayload pushData);
 }
@@ -36,9 +36,10 @@ class HttpGetTokenIntrospectionAuthenticator extends TokenIntrospectionAuthentic
 
   HttpGetTokenIntrospectionAuthenticator(@Nonnull HttpClient httpClient, @Nonnull String tokenIntrospectionServiceUrl,
                                          @Nullable String tokenIntrospectionServiceAuthorizationHeader,
-                                         int authResponseRefreshInterval, int authResponseMaxTtl) {
+                                         int authResponseRefreshInterval, int authResponseMaxTtl,
+                                         int maxConcurrentRequests) {
     this(httpClient, tokenIntrospectionServiceUrl, tokenIntrospectionServiceAuthorizationHeader,
-        authResponseRefreshInterval, authResponseMaxTtl, System::currentTimeMillis);
+        authResponseRefreshInterval, authResponseMaxTtl, maxConcurrentRequests, System::currentTimeMillis);
 
   }
 
@@ -46,8 +47,8 @@ class HttpGetTokenIntrospectionAuthenticator extends TokenIntrospectionAuthentic
   HttpGetTokenIntrospectionAuthenticator(@Nonnull HttpClient httpClient, @Nonnull String tokenIntrospectionServiceUrl,
                                          @Nullable String tokenIntrospectionServiceAuthorizationHeader,
                                          int authResponseRefreshInterval, int authResponseMaxTtl,
-                                         @Nonnull Supplier<Long> timeSupplier) {
-    super(authResponseRefreshInterval, authResponseMaxTtl, timeSupplier);
+                                         int maxConcurrentRequests, @Nonnull Supplier<Long> timeSupplier) {
+    super(authResponseRefreshInterval, authResponseMaxTtl, maxConcurrentRequests, timeSupplier);
     Preconditions.checkNotNull(httpClient, "httpClient must be set");
     Preconditions.checkNotNull(tokenIntrospectionServiceUrl, "tokenIntrospectionServiceUrl parameter must be set");
     this.httpClient = httpClient;
@@ -44,17 +44,18 @@ class Oauth2TokenIntrospectionAuthenticator extends TokenIntrospectionAuthentica
 
   Oauth2TokenIntrospectionAuthenticator(@Nonnull HttpClient httpClient, @Nonnull String tokenIntrospectionServiceUrl,
                                         @Nullable String tokenIntrospectionAuthorizationHeader,
-                                        int authResponseRefreshInterval, int authResponseMaxTtl) {
+                                        int authResponseRefreshInterval, int authResponseMaxTtl,
+                                        int maxConcurrentRequests) {
     this(httpClient, tokenIntrospectionServiceUrl, tokenIntrospectionAuthorizationHeader, authResponseRefreshInterval,
-        authResponseMaxTtl, System::currentTimeMillis);
+        authResponseMaxTtl, maxConcurrentRequests, System::currentTimeMillis);
   }
 
   @VisibleForTesting
   Oauth2TokenIntrospectionAuthenticator(@Nonnull HttpClient httpClient, @Nonnull String tokenIntrospectionServiceUrl,
                                         @Nullable String tokenIntrospectionAuthorizationHeader,
                                         int authResponseRefreshInterval, int authResponseMaxTtl,
-                                        @Nonnull Supplier<Long> timeSupplier) {
-    super(authResponseRefreshInterval, authResponseMaxTtl, timeSupplier);
+                                        int maxConcurrentRequests, @Nonnull Supplier<Long> timeSupplier) {
+    super(authResponseRefreshInterval, authResponseMaxTtl, maxConcurrentRequests, timeSupplier);
     Preconditions.checkNotNull(httpClient, "httpClient must be set");
     Preconditions.checkNotNull(tokenIntrospectionServiceUrl, "tokenIntrospectionServiceUrl parameter must be set");
     this.httpClient = httpClient;
@@ -1,5 +1,7 @@
 package com.wavefront.agent.auth;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.annotation.Nullable;
 
 /**
@@ -17,10 +19,28 @@ public interface TokenAuthenticator {
    */
   boolean authorize(@Nullable String token);
 
+  /**
+   * Validate a token without blocking the caller. Implementations that need to call external
+   * services should override this method, by default the token is validated synchronously.
+   *
+   * @param token token to validate.
+   * @return future that completes with true if the token is considered valid.
+   */
+  default CompletableFuture<Boolean> authorizeAsync(@Nullable String token) {
+    return CompletableFuture.completedFuture(authorize(token));
+  }
+
   /**
    * Check whether authentication is required (i.e. "true" authenticator)
    *
    * @return true if authentication is required.
    */
   boolean authRequired();
+
+  /**
+   * Release resources held by this authenticator (i.e. threads used for calling external
+   * services). By default there is nothing to release.
+   */
+  default void close() {
+  }
 }
@@ -14,6 +14,7 @@ public class TokenAuthenticatorBuilder {
   private String tokenIntrospectionAuthorizationHeader;
   private int authResponseRefreshInterval;
   private int authResponseMaxTtl;
+  private int authMaxConcurrentRequests;
   private String staticToken;
 
   public static TokenAuthenticatorBuilder create() {
@@ -27,6 +28,7 @@ public class TokenAuthenticatorBuilder {
     this.tokenIntrospectionAuthorizationHeader = null;
     this.authResponseRefreshInterval = 600; // 10 min
     this.authResponseMaxTtl = 24 * 60 * 60; // 1 day
+    this.authMaxConcurrentRequests = 4;
     this.staticToken = null;
   }
 
@@ -61,6 +63,11 @@ public class TokenAuthenticatorBuilder {
     return this;
   }
 
+  public TokenAuthenticatorBuilder setAuthMaxConcurrentRequests(int authMaxConcurrentRequests) {
+    this.authMaxConcurrentRequests = authMaxConcurrentRequests;
+    return this;
+  }
+
   public TokenAuthenticatorBuilder setStaticToken(String staticToken) {
     this.staticToken = staticToken;
     return this;
@@ -77,10 +84,12 @@ public class TokenAuthenticatorBuilder {
         return new StaticTokenAuthenticator(staticToken);
       case HTTP_GET:
         return new HttpGetTokenIntrospectionAuthenticator(httpClient, tokenIntrospectionServiceUrl,
-            tokenIntrospectionAuthorizationHeader, authResponseRefreshInterval, authResponseMaxTtl);
+            tokenIntrospectionAuthorizationHeader, authResponseRefreshInterval, authResponseMaxTtl,
+            authMaxConcurrentRequests);
       case OAUTH2:
         return new Oauth2TokenIntrospectionAuthenticator(httpClient, tokenIntrospectionServiceUrl,
-            tokenIntrospectionAuthorizationHeader, authResponseRefreshInterval, authResponseMaxTtl);
+            tokenIntrospectionAuthorizationHeader, authResponseRefreshInterval, authResponseMaxTtl,
+            authMaxConcurrentRequests);
       default:
         throw new IllegalStateException("Unknown token validation method!");
     }
@@ -1,13 +1,23 @@
 package com.wavefront.agent.auth;
 
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.common.annotations.VisibleForTesting;
+import com.wavefront.common.NamedThreadFactory;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.MetricName;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -19,6 +29,8 @@ import javax.annotation.Nullable;
  * {@link TokenAuthenticator} that uses an external webservice for validating tokens.
  * Responses are cached and re-validated every {@code authResponseRefreshInterval} seconds; if the service is not
  * available, a cached last valid response may be used until {@code authResponseMaxTtl} expires.
+ * Calls to the service are made from a dedicated pool of {@code maxConcurrentRequests} threads, concurrent
+ * validations of the same token share a single call. The pool is shut down by {@link #close()}.
  *
  * @author vasily@wavefront.com
  */
@@ -31,22 +43,53 @@ abstract class TokenIntrospectionAuthenticator implements TokenAuthenticator {
 
   private final Counter serviceCalls = Metrics.newCounter(new MetricName("auth", "", "api-calls"));
   private final Counter errorCount = Metrics.newCounter(new MetricName("auth", "", "api-errors"));
+  private final Histogram serviceLatency = Metrics.newHistogram(new MetricName("auth", "",
+      "api-latency-millis"));
+  private final AtomicInteger pendingCalls = new AtomicInteger();
 
-  private final LoadingCache<String, Boolean> tokenValidityCache;
+  private final ExecutorService executor;
+  private final AsyncLoadingCache<String, Boolean> tokenValidityCache;
 
   TokenIntrospectionAuthenticator(int authResponseRefreshInterval, int authResponseMaxTtl,
-                                  @Nonnull Supplier<Long> timeSupplier) {
+                                  int maxConcurrentRequests, @Nonnull Supplier<Long> timeSupplier) {
     this.authResponseMaxTtlMillis = TimeUnit.MILLISECONDS.convert(authResponseMaxTtl, TimeUnit.SECONDS);
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests,
+        1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), new NamedThreadFactory("auth-introspection"));
+    executor.allowCoreThreadTimeOut(true);
+    this.executor = executor;
+    Metrics.newGauge(new MetricName("auth", "", "api-calls-pending"), new Gauge<Integer>() {
+      @Override
+      public Integer value() {
+        return pendingCalls.get();
+      }
+    });
 
     this.tokenValidityCache = Caffeine.newBuilder()
         .maximumSize(50_000)
         .refreshAfterWrite(Math.min(authResponseRefreshInterval, authResponseMaxTtl), TimeUnit.SECONDS)
         .ticker(() -> timeSupplier.get() * 1_000_000) // millisecond precision is fine
-        .build(new CacheLoader<String, Boolean>() {
+        .executor(executor)
+        .buildAsync(new CacheLoader<String, Boolean>() {
+          @Nonnull
+          @Override
+          public CompletableFuture<Boolean> asyncLoad(@Nonnull String key,
+                                                      @Nonnull Executor executor) {
+            return trackPending(() -> load(key), executor);
+          }
+
+          @Nonnull
+          @Override
+          public CompletableFuture<Boolean> asyncReload(@Nonnull String key,
+                                                        @Nonnull Boolean oldValue,
+                                                        @Nonnull Executor executor) {
+            return trackPending(() -> reload(key, oldValue), executor);
+          }
+
           @Override
           public Boolean load(@Nonnull String key) {
             serviceCalls.inc();
             boolean result;
+            long startMillis = System.currentTimeMillis();
             try {
               result = callAuthService(key);
               lastSuccessfulCallTs = timeSupplier.get();
@@ -54,6 +97,8 @@ abstract class TokenIntrospectionAuthenticator implements TokenAuthenticator {
               errorCount.inc();
               logger.log(Level.WARNING, "Error during Token Introspection Service call", e);
               return null;
+            } finally {
+              serviceLatency.update(System.currentTimeMillis() - startMillis);
             }
             return result;
           }
@@ -63,6 +108,7 @@ abstract class TokenIntrospectionAuthenticator implements TokenAuthenticator {
                                 @Nonnull Boolean oldValue) {
             serviceCalls.inc();
             boolean result;
+            long startMillis = System.currentTimeMillis();
             try {
               result = callAuthService(key);
               lastSuccessfulCallTs = timeSupplier.get();
@@ -74,25 +120,56 @@ abstract class TokenIntrospectionAuthenticator implements TokenAuthenticator {
                 return null;
               }
               return oldValue;
+            } finally {
+              serviceLatency.update(System.currentTimeMillis() - startMillis);
             }
             return result;
           }
         });
   }
 
+  /**
+   * Schedule a service call, counting it as pending until it completes. Only service calls are
+   * counted, not the cache's own maintenance tasks that share the executor.
+   */
+  private <V> CompletableFuture<V> trackPending(Supplier<V> call, Executor executor) {
+    pendingCalls.incrementAndGet();
+    try {
+      return CompletableFuture.supplyAsync(call, executor).
+          whenComplete((result, throwable) -> pendingCalls.decrementAndGet());
+    } catch (RuntimeException e) {
+      pendingCalls.decrementAndGet();
+      throw e;
+    }
+  }
+
+  @VisibleForTesting
+  int getPendingCalls() {
+    return pendingCalls.get();
+  }
+
   abstract boolean callAuthService(@Nonnull String token) throws Exception;
 
   @Override
   public boolean authorize(@Nullable String token) {
+    return authorizeAsync(token).join();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> authorizeAsync(@Nullable String token) {
     if (token == null) {
-      return false;
+      return CompletableFuture.completedFuture(false);
     }
-    Boolean tokenResult = tokenValidityCache.get(token);
-    return tokenResult == null ? false : tokenResult;
+    return tokenValidityCache.get(token).thenApply(tokenResult -> tokenResult == null ? false : tokenResult);
   }
 
   @Override
   public boolean authRequired() {
     return true;
   }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
 }
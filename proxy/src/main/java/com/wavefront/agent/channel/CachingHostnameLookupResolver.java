@@ -1,14 +1,23 @@
 package com.wavefront.agent.channel;
 
+import com.google.common.annotations.VisibleForTesting;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.wavefront.common.NamedThreadFactory;
 import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.MetricName;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 
 import javax.annotation.Nullable;
@@ -19,12 +28,22 @@ import io.netty.channel.ChannelHandlerContext;
  * Convert {@link InetAddress} to {@link String}, either by performing reverse DNS lookups (cached, as
  * the name implies), or by converting IP addresses into their string representation.
  *
+ * Lookups are performed asynchronously on a dedicated thread pool, so that a slow DNS server never
+ * stalls the calling (usually event loop) thread: until the lookup for an address completes, its
+ * string representation is returned instead. Failed lookups are cached for a shorter period of time.
+ *
  * @author vasily@wavefront.com
  */
 public class CachingHostnameLookupResolver implements Function<InetAddress, String> {
+  private static final int LOOKUP_THREADS = 4;
 
-  private final LoadingCache<InetAddress, String> rdnsCache;
+  private final AsyncLoadingCache<InetAddress, String> rdnsCache;
   private final boolean disableRdnsLookup;
+  private final Function<InetAddress, String> lookupFunction;
+  private final Counter pendingCounter = Metrics.newCounter(new MetricName("rdns", "", "pending"));
+  private final Counter failedCounter = Metrics.newCounter(new MetricName("rdns", "", "failed"));
+  private final Histogram lookupTime = Metrics.newHistogram(new MetricName("rdns", "",
+      "lookup-time-millis"));
 
   /**
    * Create a new instance with all default settings:
@@ -33,6 +52,7 @@ public class CachingHostnameLookupResolver implements Function<InetAddress, Stri
    * - max 5000 elements in the cache
    * - 5 minutes refresh TTL
    * - 1 hour expiry TTL
+   * - 1 minute expiry TTL for failed lookups
    */
   public CachingHostnameLookupResolver() {
     this(false, null);
@@ -43,12 +63,14 @@ public class CachingHostnameLookupResolver implements Function<InetAddress, Stri
    * - max 5000 elements in the cache
    * - 5 minutes refresh TTL
    * - 1 hour expiry TTL
+   * - 1 minute expiry TTL for failed lookups
    *
    * @param disableRdnsLookup if true, simply return a string representation of the IP address
    * @param metricName        if specified, use this metric for the cache size gauge.
    */
   public CachingHostnameLookupResolver(boolean disableRdnsLookup, @Nullable MetricName metricName) {
-    this(disableRdnsLookup, metricName, 5000, Duration.ofMinutes(5), Duration.ofHours(1));
+    this(disableRdnsLookup, metricName, 5000, Duration.ofMinutes(5), Duration.ofHours(1),
+        Duration.ofMinutes(1));
   }
 
   /**
@@ -59,21 +81,53 @@ public class CachingHostnameLookupResolver implements Function<InetAddress, Stri
    * @param maxSize           max cache size.
    * @param cacheRefreshTtl   trigger cache refresh after specified duration
    * @param cacheExpiryTtl    expire items after specified duration
+   * @param negativeCacheTtl  expire failed lookups after specified duration
    */
   public CachingHostnameLookupResolver(boolean disableRdnsLookup, @Nullable MetricName metricName,
-                                       int maxSize, Duration cacheRefreshTtl, Duration cacheExpiryTtl) {
+                                       int maxSize, Duration cacheRefreshTtl, Duration cacheExpiryTtl,
+                                       Duration negativeCacheTtl) {
+    this(disableRdnsLookup, metricName, maxSize, cacheRefreshTtl, cacheExpiryTtl, negativeCacheTtl,
+        InetAddress::getHostName, Executors.newFixedThreadPool(LOOKUP_THREADS,
+            new NamedThreadFactory("rdns-lookup")));
+  }
+
+  @VisibleForTesting
+  CachingHostnameLookupResolver(boolean disableRdnsLookup, @Nullable MetricName metricName,
+                                int maxSize, Duration cacheRefreshTtl, Duration cacheExpiryTtl,
+                                Duration negativeCacheTtl, Function<InetAddress, String> lookup,
+                                Executor executor) {
     this.disableRdnsLookup = disableRdnsLookup;
+    this.lookupFunction = lookup;
     this.rdnsCache = disableRdnsLookup ? null : Caffeine.newBuilder().
         maximumSize(maxSize).
         refreshAfterWrite(cacheRefreshTtl).
-        expireAfterAccess(cacheExpiryTtl).
-        build(InetAddress::getHostName);
+        expireAfter(new Expiry<InetAddress, String>() {
+          @Override
+          public long expireAfterCreate(InetAddress key, String value, long currentTime) {
+            return isResolved(key, value) ? cacheExpiryTtl.toNanos() : negativeCacheTtl.toNanos();
+          }
+
+          @Override
+          public long expireAfterUpdate(InetAddress key, String value, long currentTime,
+                                        long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+          }
+
+          @Override
+          public long expireAfterRead(InetAddress key, String value, long currentTime,
+                                      long currentDuration) {
+            // failed lookups are not extended on access, so that they are retried eventually
+            return isResolved(key, value) ? cacheExpiryTtl.toNanos() : currentDuration;
+          }
+        }).
+        executor(executor).
+        buildAsync(this::lookup);
 
     if (metricName != null) {
       Metrics.newGauge(metricName, new Gauge<Long>() {
         @Override
         public Long value() {
-          return disableRdnsLookup ? 0 : rdnsCache.estimatedSize();
+          return disableRdnsLookup ? 0 : rdnsCache.synchronous().estimatedSize();
         }
       });
     }
@@ -81,7 +135,38 @@ public class CachingHostnameLookupResolver implements Function<InetAddress, Stri
 
   @Override
   public String apply(InetAddress addr) {
-    return disableRdnsLookup ? addr.getHostAddress() : rdnsCache.get(addr);
+    if (disableRdnsLookup) {
+      return addr.getHostAddress();
+    }
+    CompletableFuture<String> hostname = rdnsCache.get(addr);
+    if (hostname.isDone() && !hostname.isCompletedExceptionally()) {
+      return hostname.join();
+    }
+    // don't wait for the lookup to complete
+    pendingCounter.inc();
+    return addr.getHostAddress();
+  }
+
+  private String lookup(InetAddress addr) {
+    long startTime = System.nanoTime();
+    String hostname;
+    try {
+      hostname = lookupFunction.apply(addr);
+    } catch (RuntimeException e) {
+      hostname = null;
+    }
+    lookupTime.update((System.nanoTime() - startTime) / 1_000_000);
+    if (!isResolved(addr, hostname)) {
+      failedCounter.inc();
+      return addr.getHostAddress();
+    }
+    return hostname;
+  }
+
+  private static boolean isResolved(InetAddress addr, @Nullable String hostname) {
+    // InetAddress.getHostName() returns the textual representation of the IP address if the lookup
+    // fails
+    return hostname != null && !hostname.equals(addr.getHostAddress());
   }
 
   public static InetAddress getRemoteAddress(ChannelHandlerContext ctx) {
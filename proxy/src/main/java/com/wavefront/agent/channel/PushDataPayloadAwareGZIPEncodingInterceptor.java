@@ -0,0 +1,31 @@
+package com.wavefront.agent.channel;
+
+import com.wavefront.agent.api.PushDataPayload;
+
+import org.jboss.resteasy.plugins.interceptors.encoding.GZIPEncodingInterceptor;
+
+import java.io.IOException;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * This RESTEasy interceptor works just like {@link GZIPEncodingInterceptor}, except that it doesn't
+ * compress {@link PushDataPayload} entities that have been gzip-compressed already (these are
+ * sent with "Content-Encoding: gzip" header as well).
+ */
+@Priority(Priorities.ENTITY_CODER)
+public class PushDataPayloadAwareGZIPEncodingInterceptor extends GZIPEncodingInterceptor {
+
+  @Override
+  public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+    Object entity = context.getEntity();
+    if (entity instanceof PushDataPayload && ((PushDataPayload) entity).isCompressed()) {
+      context.proceed();
+    } else {
+      super.aroundWriteTo(context);
+    }
+  }
+}
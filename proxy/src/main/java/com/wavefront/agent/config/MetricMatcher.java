@@ -1,22 +1,30 @@
 package com.wavefront.agent.config;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.wavefront.agent.logsharvesting.LogsMessage;
+import com.wavefront.common.TaggedMetricName;
 import com.wavefront.data.Validation;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
 
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 import oi.thekraken.grok.api.Grok;
 import oi.thekraken.grok.api.Match;
 import oi.thekraken.grok.api.exception.GrokException;
@@ -29,6 +37,8 @@ import wavefront.report.TimeSeries;
  */
 public class MetricMatcher extends Configuration {
   protected static final Logger logger = Logger.getLogger(MetricMatcher.class.getCanonicalName());
+  private static final Pattern PLACEHOLDER = Pattern.compile("%\\{(.*?)}");
+  private static final int MIN_REQUIRED_LITERAL_LENGTH = 2;
   private final Object grokLock = new Object();
 
   /**
@@ -89,6 +99,16 @@ public class MetricMatcher extends Configuration {
   private String valueLabel = "value";
   private Grok grok = null;
   private Map<String, String> additionalPatterns = Maps.newHashMap();
+  // initialized in verifyAndInit()
+  private Template metricNameTemplate = null;
+  private Template hostNameTemplate = null;
+  private List<Template> tagValueTemplates = null;
+  @Nullable
+  private String requiredLiteral = null;
+  private Counter hits = null;
+  private Counter misses = null;
+  private Counter prefiltered = null;
+  private Histogram matchTime = null;
 
   public String getValueLabel() {
     return valueLabel;
@@ -131,27 +151,6 @@ public class MetricMatcher extends Configuration {
     }
   }
 
-  private static String expandTemplate(String template, Map<String, Object> replacements) {
-    if (template.contains("%{")) {
-      StringBuffer result = new StringBuffer();
-      Matcher placeholders = Pattern.compile("%\\{(.*?)}").matcher(template);
-      while (placeholders.find()) {
-        if (placeholders.group(1).isEmpty()) {
-          placeholders.appendReplacement(result, placeholders.group(0));
-        } else {
-          if (replacements.get(placeholders.group(1)) != null) {
-            placeholders.appendReplacement(result, (String)replacements.get(placeholders.group(1)));
-          } else {
-            placeholders.appendReplacement(result, placeholders.group(0));
-          }
-        }
-      }
-      placeholders.appendTail(result);
-      return result.toString();
-    }
-    return template;
-  }
-
   /**
    * Convert the given message to a timeSeries and a telemetry datum.
    *
@@ -159,9 +158,24 @@ public class MetricMatcher extends Configuration {
    * @param output          The telemetry parsed from the filebeat message.
    */
   public TimeSeries timeSeries(LogsMessage logsMessage, Double[] output) throws NumberFormatException {
-    Match match = grok().match(logsMessage.getLogLine());
+    if (metricNameTemplate == null) {
+      compileTemplates();
+    }
+    String logLine = logsMessage.getLogLine();
+    // a line that doesn't contain the pattern's literal text can't match, no need to run grok
+    if (requiredLiteral != null && !logLine.contains(requiredLiteral)) {
+      if (prefiltered != null) prefiltered.inc();
+      return null;
+    }
+    long startNanos = System.nanoTime();
+    Match match = grok().match(logLine);
     match.captures();
-    if (match.getEnd() == 0) return null;
+    if (matchTime != null) matchTime.update((System.nanoTime() - startNanos) / 1000);
+    if (match.getEnd() == 0) {
+      if (misses != null) misses.inc();
+      return null;
+    }
+    if (hits != null) hits.inc();
     Map<String, Object> matches = match.toMap();
     if (output != null) {
       if (matches.containsKey(valueLabel)) {
@@ -171,17 +185,17 @@ public class MetricMatcher extends Configuration {
       }
     }
     TimeSeries.Builder builder = TimeSeries.newBuilder();
-    String dynamicName = expandTemplate(metricName, matches);
+    String dynamicName = metricNameTemplate.expand(matches);
     String sourceName = StringUtils.isBlank(hostName) ?
         logsMessage.hostOrDefault("parsed-logs") :
-        expandTemplate(hostName, matches);
+        hostNameTemplate.expand(matches);
     // Important to use a tree map for tags, since we need a stable ordering for the serialization
     // into the LogsIngester.metricsCache.
     Map<String, String> tags = Maps.newTreeMap();
     for (int i = 0; i < tagKeys.size(); i++) {
       String tagKey = tagKeys.get(i);
       if (tagValues.size() > 0) {
-        tags.put(tagKey, expandTemplate(tagValues.get(i), matches));
+        tags.put(tagKey, tagValueTemplates.get(i).expand(matches));
       } else {
         String tagValueLabel = tagValueLabels.get(i);
         if (!matches.containsKey(tagValueLabel)) {
@@ -210,5 +224,178 @@ public class MetricMatcher extends Configuration {
     ensure(!(tagValues.size() > 0 && tagValueLabels.size() > 0), "tagValues and tagValueLabels can't be used together");
     ensure(tagKeys.size() == Math.max(tagValueLabels.size(), tagValues.size()),
         "tagKeys and tagValues/tagValueLabels must be parallel arrays.");
+    compileTemplates();
+    requiredLiteral = requiredLiteral(pattern);
+    hits = Metrics.newCounter(new TaggedMetricName("logsharvesting", "matcher-hits",
+        "matcher", metricName));
+    misses = Metrics.newCounter(new TaggedMetricName("logsharvesting", "matcher-misses",
+        "matcher", metricName));
+    prefiltered = Metrics.newCounter(new TaggedMetricName("logsharvesting", "matcher-prefiltered",
+        "matcher", metricName));
+    matchTime = Metrics.newHistogram(new TaggedMetricName("logsharvesting", "matcher-time-micros",
+        "matcher", metricName));
+  }
+
+  private void compileTemplates() {
+    List<Template> compiledTagValues = new ArrayList<>(tagValues.size());
+    for (String tagValue : tagValues) {
+      compiledTagValues.add(new Template(tagValue));
+    }
+    tagValueTemplates = compiledTagValues;
+    hostNameTemplate = new Template(hostName);
+    metricNameTemplate = new Template(metricName);
+  }
+
+  /**
+   * Finds the longest run of literal text that any line matching the specified grok pattern must
+   * contain. Only text outside of %{...} references, groups and character classes is considered,
+   * characters made optional by a quantifier are excluded.
+   *
+   * @param pattern grok pattern.
+   * @return required literal or null if the pattern doesn't have one.
+   */
+  @VisibleForTesting
+  @Nullable
+  static String requiredLiteral(String pattern) {
+    if (pattern.contains("\\Q")) return null;
+    String best = "";
+    StringBuilder run = new StringBuilder();
+    int depth = 0;
+    int i = 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '%' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '{') {
+        int end = pattern.indexOf('}', i);
+        if (end < 0) return null;
+        best = longest(best, run);
+        i = end + 1;
+        continue;
+      }
+      switch (c) {
+        case '\\':
+          if (i + 1 >= pattern.length()) return null;
+          char escaped = pattern.charAt(i + 1);
+          if (Character.isLetterOrDigit(escaped)) {
+            // character class, anchor or back reference
+            best = longest(best, run);
+          } else if (depth == 0) {
+            run.append(escaped);
+          }
+          i += 2;
+          continue;
+        case '?':
+        case '*':
+        case '{':
+          // the preceding character is optional
+          if (run.length() > 0) run.setLength(run.length() - 1);
+          best = longest(best, run);
+          if (c == '{') {
+            int end = pattern.indexOf('}', i);
+            if (end < 0) return null;
+            i = end;
+          }
+          break;
+        case '(':
+          if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '?' &&
+              (i + 2 >= pattern.length() || pattern.charAt(i + 2) != ':')) {
+            // inline flags or lookarounds
+            return null;
+          }
+          best = longest(best, run);
+          depth++;
+          break;
+        case ')':
+          best = longest(best, run);
+          depth--;
+          break;
+        case '[':
+          best = longest(best, run);
+          i = skipCharacterClass(pattern, i);
+          if (i < 0) return null;
+          break;
+        case '|':
+          if (depth <= 0) return null;
+          best = longest(best, run);
+          break;
+        case '.':
+        case '^':
+        case '$':
+        case '+':
+          best = longest(best, run);
+          break;
+        default:
+          if (depth == 0) {
+            run.append(c);
+          }
+      }
+      i++;
+    }
+    best = longest(best, run);
+    return best.length() >= MIN_REQUIRED_LITERAL_LENGTH ? best : null;
+  }
+
+  private static String longest(String best, StringBuilder run) {
+    String result = run.length() > best.length() ? run.toString() : best;
+    run.setLength(0);
+    return result;
+  }
+
+  private static int skipCharacterClass(String pattern, int start) {
+    int i = start + 1;
+    if (i < pattern.length() && pattern.charAt(i) == '^') i++;
+    if (i < pattern.length() && pattern.charAt(i) == ']') i++;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == ']') return i;
+      i++;
+    }
+    return -1;
+  }
+
+  /**
+   * Template with %{...} placeholders, parsed once.
+   */
+  private static final class Template {
+    private final String template;
+    // literal text between placeholders, one more than the number of placeholders
+    private final String[] literals;
+    private final String[] labels;
+    private final String[] placeholders;
+
+    Template(String template) {
+      this.template = template;
+      List<String> literalList = new ArrayList<>();
+      List<String> labelList = new ArrayList<>();
+      List<String> placeholderList = new ArrayList<>();
+      if (template.contains("%{")) {
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        int position = 0;
+        while (matcher.find()) {
+          literalList.add(template.substring(position, matcher.start()));
+          labelList.add(matcher.group(1));
+          placeholderList.add(matcher.group(0));
+          position = matcher.end();
+        }
+        literalList.add(template.substring(position));
+      }
+      this.literals = literalList.toArray(new String[0]);
+      this.labels = labelList.toArray(new String[0]);
+      this.placeholders = placeholderList.toArray(new String[0]);
+    }
+
+    String expand(Map<String, Object> replacements) {
+      if (labels.length == 0) return template;
+      StringBuilder result = new StringBuilder(literals[0]);
+      for (int i = 0; i < labels.length; i++) {
+        Object replacement = labels[i].isEmpty() ? null : replacements.get(labels[i]);
+        result.append(replacement == null ? placeholders[i] : (String) replacement);
+        result.append(literals[i + 1]);
+      }
+      return result.toString();
+    }
   }
 }
@@ -59,6 +59,10 @@ abstract class AbstractReportableEntityHandler<T> implements ReportableEntityHan
   final RateLimiter blockedItemsLimiter;
   final Function<T, String> serializer;
   final List<SenderTask<T>> senderTasks;
+  /**
+   * Whether validated items are handed over to sender tasks as is, instead of serializing them.
+   */
+  final boolean sendRecords;
   final Supplier<ValidationConfiguration> validationConfig;
   final String rateUnit;
 
@@ -116,6 +120,8 @@ abstract class AbstractReportableEntityHandler<T> implements ReportableEntityHan
         this.senderTasks.add((SenderTask<T>) task);
       }
     }
+    this.sendRecords = !this.senderTasks.isEmpty() &&
+        this.senderTasks.stream().allMatch(SenderTask::acceptsRecords);
     this.validationConfig = validationConfig == null ? () -> null : validationConfig;
     this.rateUnit = rateUnit == null ? "rps" : rateUnit;
 
@@ -224,6 +230,40 @@ abstract class AbstractReportableEntityHandler<T> implements ReportableEntityHan
 
   abstract void reportInternal(T item);
 
+  /**
+   * Apply a validating function to an item that is part of a batch. Failures are handled the same way as
+   * in {@link #report(Object)}.
+   *
+   * @param item      item to validate.
+   * @param validator function that validates the item and converts it into the form accepted by sender tasks,
+   *                  throws {@link IllegalArgumentException} if the item is not valid.
+   * @return converted item or null if it has been rejected.
+   */
+  @Nullable
+  <R> R validateBatchItem(T item, Function<T, R> validator) {
+    try {
+      return validator.apply(item);
+    } catch (IllegalArgumentException e) {
+      this.reject(item, e.getMessage() + " (" + serializerFunc.apply(item) + ")");
+    } catch (Exception ex) {
+      logger.log(Level.SEVERE, "WF-500 Uncaught exception when handling input (" +
+          serializerFunc.apply(item) + ")", ex);
+    }
+    return null;
+  }
+
+  /**
+   * Hand over validated items to a single sender task and update the received counter once.
+   *
+   * @param items items to send.
+   */
+  @SuppressWarnings("unchecked")
+  void sendBatch(List<?> items) {
+    if (items.isEmpty()) return;
+    getTask().add(items);
+    getReceivedCounter().inc(items.size());
+  }
+
   protected Counter getReceivedCounter() {
     return receivedCounter;
   }
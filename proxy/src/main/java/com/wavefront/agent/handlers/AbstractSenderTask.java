@@ -8,7 +8,7 @@ import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.MetricName;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -33,8 +33,7 @@ import javax.annotation.Nullable;
 abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
   private static final Logger logger = Logger.getLogger(AbstractSenderTask.class.getCanonicalName());
 
-  List<T> datum = new ArrayList<>();
-  final Object mutex = new Object();
+  final SenderTaskBuffer<T> buffer;
   final ScheduledExecutorService scheduler;
   private final ExecutorService flushExecutor;
 
@@ -79,6 +78,9 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
     this.threadId = threadId;
     this.itemsPerBatch = itemsPerBatch == null ? new AtomicInteger(40000) : itemsPerBatch;
     this.memoryBufferLimit = memoryBufferLimit == null ? new AtomicInteger(32 * 40000) : memoryBufferLimit;
+    // size the ring to absorb a few batches worth of data, anything beyond that spills over
+    this.buffer = new SenderTaskBuffer<>(Math.min(this.memoryBufferLimit.get(),
+        4 * this.itemsPerBatch.get()));
     this.scheduler = Executors.newScheduledThreadPool(1,
         new NamedThreadFactory("submitter-" + entityType + "-" + handle + "-" + threadId));
     this.flushExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.MINUTES,
@@ -110,14 +112,24 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
 
   @Override
   public void add(T metricString) {
-    synchronized (mutex) {
-      this.datum.add(metricString);
+    this.buffer.add(metricString);
+    this.enforceBufferLimits();
+  }
+
+  @Override
+  public void add(Iterable<T> items) {
+    if (items instanceof Collection) {
+      this.buffer.addAll((Collection<T>) items);
+    } else {
+      for (T item : items) {
+        this.buffer.add(item);
+      }
     }
     this.enforceBufferLimits();
   }
 
   void enforceBufferLimits() {
-    if (datum.size() >= memoryBufferLimit.get() && !isBuffering.get() && drainBuffersRateLimiter.tryAcquire()) {
+    if (buffer.size() >= memoryBufferLimit.get() && !isBuffering.get() && drainBuffersRateLimiter.tryAcquire()) {
       try {
         flushExecutor.submit(drainBuffersToQueueTask);
       } catch (RejectedExecutionException e) {
@@ -127,33 +139,46 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
   }
 
   List<T> createBatch() {
-    List<T> current;
-    int blockSize;
-    synchronized (mutex) {
-      blockSize = Math.min(datum.size(), itemsPerBatch.get());
-      current = datum.subList(0, blockSize);
-      datum = new ArrayList<>(datum.subList(blockSize, datum.size()));
-    }
+    return createBatch(itemsPerBatch.get());
+  }
+
+  /**
+   * Drain up to the specified number of items from the buffer.
+   *
+   * @param batchSize max number of items in the batch.
+   * @return batch to send.
+   */
+  List<T> createBatch(int batchSize) {
+    List<T> current = buffer.drain(batchSize);
     logger.fine("[" + handle + "] (DETAILED): sending " + current.size() + " valid " + entityType +
-        "; in memory: " + this.datum.size() +
+        "; in memory: " + this.buffer.size() +
         "; total attempted: " + this.attemptedCounter.count() +
         "; total blocked: " + this.blockedCounter.count() +
         "; total queued: " + this.queuedCounter.count());
     return current;
   }
 
+  /**
+   * Return a batch that could not be sent to the beginning of the queue.
+   *
+   * @param batch items to return.
+   */
+  void returnBatch(List<T> batch) {
+    buffer.pushBack(batch);
+  }
+
   private Runnable drainBuffersToQueueTask = new Runnable() {
     @Override
     public void run() {
-      if (datum.size() > memoryBufferLimit.get()) {
+      if (buffer.size() > memoryBufferLimit.get()) {
         // there are going to be too many points to be able to flush w/o the agent blowing up
         // drain the leftovers straight to the retry queue (i.e. to disk)
         // don't let anyone add any more to points while we're draining it.
         logger.warning("[" + handle + " thread " + threadId + "]: WF-3 Too many pending " + entityType +
-            " (" + datum.size() + "), block size: " + itemsPerBatch.get() + ". flushing to retry queue");
+            " (" + buffer.size() + "), block size: " + itemsPerBatch.get() + ". flushing to retry queue");
         drainBuffersToQueue();
         logger.info("[" + handle + " thread " + threadId + "]: flushing to retry queue complete. " +
-            "Pending " + entityType + ": " + datum.size());
+            "Pending " + entityType + ": " + buffer.size());
       }
     }
   };
@@ -174,7 +199,7 @@ abstract class AbstractSenderTask<T> implements SenderTask<T>, Runnable {
 
   @Override
   public long getTaskRelativeScore() {
-    return datum.size() + (isBuffering.get() ?
+    return buffer.size() + (isBuffering.get() ?
         memoryBufferLimit.get() :
         (isSending ? itemsPerBatch.get() / 2 : 0));
   }
@@ -0,0 +1,119 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Adjusts flush cadence and batch size of a single sender task, instead of flushing at a fixed
+ * interval with a fixed batch size.
+ *
+ * Flush interval: when there's at least another full batch left in the buffer after a flush, the
+ * next flush happens after the minimum interval. When flushes come up nearly empty, the interval
+ * grows (up to the maximum) so points get sent in fewer, larger requests. Otherwise it converges
+ * back to the configured flush interval. Pushback (HTTP 406) doubles the interval.
+ *
+ * Batch size is a fraction of the configured max batch size: it's cut in half on pushback,
+ * shrinks when requests take longer than the target latency and grows back additively when
+ * requests complete in less than half the target latency.
+ *
+ * Thread-safe: responses may be reported from a different thread when batches are submitted
+ * asynchronously.
+ */
+class AdaptiveFlushController {
+  private static final double MIN_BATCH_SCALE = 0.05;
+
+  private final int minIntervalMillis;
+  private final int maxIntervalMillis;
+  private final long targetLatencyMillis;
+
+  private double batchScale = 1.0;
+  private boolean pushback = false;
+  private long intervalMillis = -1;
+
+  private volatile int currentBatchSize = 0;
+  private volatile long currentIntervalMillis = 0;
+
+  /**
+   * @param minIntervalMillis   min delay between flushes, used when there is a backlog.
+   * @param maxIntervalMillis   max delay between flushes, used at low load or under pushback.
+   * @param targetLatencyMillis target request latency. Batch size is reduced when exceeded.
+   */
+  AdaptiveFlushController(int minIntervalMillis, int maxIntervalMillis, long targetLatencyMillis) {
+    Preconditions.checkArgument(minIntervalMillis >= 0, "minIntervalMillis can't be negative");
+    Preconditions.checkArgument(maxIntervalMillis >= minIntervalMillis,
+        "maxIntervalMillis can't be less than minIntervalMillis");
+    Preconditions.checkArgument(targetLatencyMillis > 0, "targetLatencyMillis must be positive");
+    this.minIntervalMillis = minIntervalMillis;
+    this.maxIntervalMillis = maxIntervalMillis;
+    this.targetLatencyMillis = targetLatencyMillis;
+  }
+
+  /**
+   * @param maxBatchSize configured max batch size.
+   * @return number of items to put in the next batch.
+   */
+  synchronized int getBatchSize(int maxBatchSize) {
+    currentBatchSize = Math.max(1, (int) (maxBatchSize * batchScale));
+    return currentBatchSize;
+  }
+
+  /**
+   * Record the outcome of a submitted batch.
+   *
+   * @param latencyMillis request latency.
+   * @param pushback      whether the batch was not accepted (HTTP 406).
+   */
+  synchronized void onResponse(long latencyMillis, boolean pushback) {
+    if (pushback) {
+      this.pushback = true;
+      batchScale = Math.max(MIN_BATCH_SCALE, batchScale / 2);
+    } else if (latencyMillis > targetLatencyMillis) {
+      batchScale = Math.max(MIN_BATCH_SCALE, batchScale * 0.75);
+    } else if (latencyMillis < targetLatencyMillis / 2) {
+      batchScale = Math.min(1.0, batchScale + 0.1);
+    }
+  }
+
+  /**
+   * Calculate the delay before the next flush.
+   *
+   * @param baseIntervalMillis configured flush interval.
+   * @param batchSize          batch size used for the last flush.
+   * @param drained            number of items in the last batch.
+   * @param remaining          number of items left in the buffer.
+   * @return delay in milliseconds.
+   */
+  synchronized long nextFlushDelay(int baseIntervalMillis, int batchSize, int drained,
+                                   int remaining) {
+    long baseMillis = Math.max(minIntervalMillis, Math.min(maxIntervalMillis, baseIntervalMillis));
+    if (intervalMillis < 0) {
+      intervalMillis = baseMillis;
+    }
+    if (pushback) {
+      pushback = false;
+      intervalMillis = Math.max(intervalMillis, baseMillis) * 2;
+    } else if (remaining >= batchSize) {
+      intervalMillis = minIntervalMillis;
+    } else if (drained < batchSize / 10) {
+      intervalMillis = Math.max(intervalMillis, baseMillis) * 3 / 2;
+    } else {
+      intervalMillis = (intervalMillis + baseMillis) / 2;
+    }
+    intervalMillis = Math.max(minIntervalMillis, Math.min(maxIntervalMillis, intervalMillis));
+    currentIntervalMillis = intervalMillis;
+    return intervalMillis;
+  }
+
+  /**
+   * @return last calculated batch size (for metrics).
+   */
+  int getCurrentBatchSize() {
+    return currentBatchSize;
+  }
+
+  /**
+   * @return last calculated flush interval (for metrics).
+   */
+  long getCurrentIntervalMillis() {
+    return currentIntervalMillis;
+  }
+}
@@ -0,0 +1,138 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.collect.ImmutableList;
+
+import com.wavefront.agent.api.BinaryPushDataCodec;
+import com.wavefront.agent.api.PushDataPayload;
+import com.wavefront.ingester.GraphiteDecoder;
+import com.wavefront.ingester.HistogramDecoder;
+import com.wavefront.ingester.ReportPointDecoderWrapper;
+import com.wavefront.ingester.ReportPointSerializer;
+import com.wavefront.ingester.ReportableEntityDecoder;
+import com.wavefront.ingester.SpanDecoder;
+import com.wavefront.ingester.SpanSerializer;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
+import org.apache.avro.specific.SpecificRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import wavefront.report.ReportPoint;
+import wavefront.report.Span;
+
+/**
+ * Builds {@link BinaryPushDataCodec binary} payloads for proxy-to-proxy relaying. Handlers hand
+ * over validated records as is (see {@link SenderTask#acceptsRecords()}), so they are encoded
+ * without being serialized or parsed. Items that only exist as serialized lines (i.e. delta
+ * counters) are decoded on the flush thread (off the ingestion path).
+ *
+ * Thread-safe, can be shared between the flush thread and buffer draining.
+ *
+ * @param <T> record type.
+ */
+final class BinaryPushDataPayloadBuilder<T extends SpecificRecord> {
+  private static final Logger logger = Logger.getLogger(
+      BinaryPushDataPayloadBuilder.class.getCanonicalName());
+
+  private final Class<T> recordType;
+  private final Function<T, String> serializer;
+  private final ReportableEntityDecoder<String, T> decoder;
+  private final BinaryPushDataCodec<T> codec;
+  private final Counter fallbacks;
+
+  /**
+   * @param recordType record class.
+   * @param serializer serializer for records, for batches that have to be sent as text.
+   * @param decoder    decoder for serialized lines.
+   * @param codec      binary codec.
+   */
+  BinaryPushDataPayloadBuilder(Class<T> recordType, Function<T, String> serializer,
+                               ReportableEntityDecoder<String, T> decoder,
+                               BinaryPushDataCodec<T> codec) {
+    this.recordType = recordType;
+    this.serializer = serializer;
+    this.decoder = decoder;
+    this.codec = codec;
+    this.fallbacks = Metrics.newCounter(new MetricName("push", "", "binary-fallbacks"));
+  }
+
+  /**
+   * @return payload builder for points (metrics and delta counters).
+   */
+  static BinaryPushDataPayloadBuilder<ReportPoint> forPoints() {
+    return new BinaryPushDataPayloadBuilder<>(ReportPoint.class, new ReportPointSerializer(),
+        new ReportPointDecoderWrapper(new GraphiteDecoder("unknown", ImmutableList.of())),
+        BinaryPushDataCodec.POINTS);
+  }
+
+  /**
+   * @return payload builder for histograms.
+   */
+  static BinaryPushDataPayloadBuilder<ReportPoint> forHistograms() {
+    return new BinaryPushDataPayloadBuilder<>(ReportPoint.class, new ReportPointSerializer(),
+        new ReportPointDecoderWrapper(new HistogramDecoder("unknown")), BinaryPushDataCodec.POINTS);
+  }
+
+  /**
+   * @return payload builder for spans.
+   */
+  static BinaryPushDataPayloadBuilder<Span> forSpans() {
+    return new BinaryPushDataPayloadBuilder<>(Span.class, new SpanSerializer(),
+        new SpanDecoder("unknown"), BinaryPushDataCodec.SPANS);
+  }
+
+  /**
+   * Encode records (and serialized lines, if any) as a binary payload.
+   *
+   * @param items records or serialized lines.
+   * @return binary payload, or null if any of the lines can't be decoded (so the batch has to be
+   *         sent as text).
+   */
+  @Nullable
+  PushDataPayload build(List<?> items) {
+    List<T> records = new ArrayList<>(items.size());
+    for (Object item : items) {
+      if (recordType.isInstance(item)) {
+        records.add(recordType.cast(item));
+        continue;
+      }
+      String line = item.toString();
+      int decoded = records.size();
+      try {
+        decoder.decode(line, records, "dummy");
+      } catch (RuntimeException e) {
+        logger.log(Level.FINE, "Unable to decode \"" + line + "\", sending batch as text", e);
+        fallbacks.inc();
+        return null;
+      }
+      if (records.size() != decoded + 1) {
+        fallbacks.inc();
+        return null;
+      }
+    }
+    return codec.encode(records);
+  }
+
+  /**
+   * Convert records (and serialized lines, if any) into lines, for batches sent as text.
+   *
+   * @param items records or serialized lines.
+   * @return serialized lines.
+   */
+  List<String> toLines(List<?> items) {
+    List<String> lines = new ArrayList<>(items.size());
+    for (Object item : items) {
+      lines.add(recordType.isInstance(item) ? serializer.apply(recordType.cast(item)) :
+          item.toString());
+    }
+    return lines;
+  }
+}
@@ -114,11 +114,9 @@ class EventSenderTask extends AbstractSenderTask<ReportEvent> {
         nextRunMillis = 250 + (int) (Math.random() * 250);
         if (warningMessageRateLimiter.tryAcquire()) {
           logger.warning("[" + handle + " thread " + threadId + "]: WF-4 Proxy rate limiter active " +
-              "(pending " + entityType + ": " + datum.size() + "), will retry");
-        }
-        synchronized (mutex) { // return the batch to the beginning of the queue
-          datum.addAll(0, current);
+              "(pending " + entityType + ": " + buffer.size() + "), will retry");
         }
+        returnBatch(current); // return the batch to the beginning of the queue
       }
     } catch (Throwable t) {
       logger.log(Level.SEVERE, "Unexpected error in flush loop", t);
@@ -133,7 +131,7 @@ class EventSenderTask extends AbstractSenderTask<ReportEvent> {
     int lastBatchSize = Integer.MIN_VALUE;
     // roughly limit number of points to flush to the the current buffer size (+1 blockSize max)
     // if too many points arrive at the proxy while it's draining, they will be taken care of in the next run
-    int toFlush = datum.size();
+    int toFlush = buffer.size();
     while (toFlush > 0) {
       List<ReportEvent> items = createBatch();
       int batchSize = items.size();
@@ -10,6 +10,7 @@ import com.yammer.metrics.core.MetricName;
 
 import org.apache.commons.lang.math.NumberUtils;
 
+import java.util.List;
 import java.util.Random;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
@@ -94,6 +95,14 @@ public class HistogramAccumulationHandlerImpl extends ReportPointHandlerImpl {
         Double.parseDouble(logPointsSampleRateProperty) : 1.0d;
   }
 
+  @Override
+  public void reportBatch(List<ReportPoint> points) {
+    // points are accumulated, not sent
+    for (ReportPoint point : points) {
+      report(point);
+    }
+  }
+
   @Override
   protected void reportInternal(ReportPoint point) {
     if (validationConfig.get() == null) {
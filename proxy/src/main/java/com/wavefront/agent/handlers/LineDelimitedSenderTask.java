@@ -3,9 +3,13 @@ package com.wavefront.agent.handlers;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.RecyclableRateLimiter;
 
+import com.wavefront.agent.api.BinaryPushDataCodec;
 import com.wavefront.agent.api.ForceQueueEnabledProxyAPI;
+import com.wavefront.agent.api.PushDataPayload;
+import com.wavefront.common.TaggedMetricName;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
@@ -21,13 +25,15 @@ import javax.annotation.Nullable;
 import javax.ws.rs.core.Response;
 
 /**
- * SenderTask for newline-delimited data.
+ * SenderTask for newline-delimited data. Items are serialized lines, or, when relaying in binary
+ * format, also records that are encoded directly (see {@link BinaryPushDataPayloadBuilder}).
  *
  * @author vasily@wavefront.com
  */
-class LineDelimitedSenderTask extends AbstractSenderTask<String> {
+class LineDelimitedSenderTask extends AbstractSenderTask<Object> {
 
   private static final Logger logger = Logger.getLogger(LineDelimitedSenderTask.class.getCanonicalName());
+  private static final int IN_FLIGHT_RETRY_MILLIS = 50;
 
   private final String pushFormat;
 
@@ -50,6 +56,27 @@ class LineDelimitedSenderTask extends AbstractSenderTask<String> {
   private ForceQueueEnabledProxyAPI proxyAPI;
   private UUID proxyId;
 
+  private final boolean compressPayloads;
+  /**
+   * Reusable payload buffer, only accessed from the flush thread.
+   */
+  private final PushDataPayloadBuilder payloadBuilder;
+  /**
+   * Builds binary payloads for proxy-to-proxy relaying, if enabled.
+   */
+  @Nullable
+  private final BinaryPushDataPayloadBuilder<?> binaryPayloadBuilder;
+  /**
+   * Max number of batches submitted asynchronously that may be awaiting a response, or 0 to
+   * submit batches synchronously.
+   */
+  private final int maxInFlightBatches;
+  private final AtomicInteger inFlightBatches = new AtomicInteger();
+  /**
+   * Adjusts flush interval and batch size to load and backend latency, if enabled.
+   */
+  @Nullable
+  private final AdaptiveFlushController flushController;
 
   /**
    * Create new LineDelimitedSenderTask instance.
@@ -64,15 +91,29 @@ class LineDelimitedSenderTask extends AbstractSenderTask<String> {
    * @param pushFlushInterval interval between flushes.
    * @param itemsPerBatch     max points per flush.
    * @param memoryBufferLimit max points in task's memory buffer before queueing.
+   * @param compressPayloads  whether to gzip-compress payloads.
+   * @param binaryPayloadBuilder builds binary payloads for relaying to another proxy (optional).
+   * @param maxInFlightBatches max batches awaiting a response when submitting asynchronously,
+   *                           0 to submit synchronously.
+   * @param flushController    adjusts flush interval and batch size (optional).
    */
   LineDelimitedSenderTask(String entityType, String pushFormat, ForceQueueEnabledProxyAPI proxyAPI,
                           UUID proxyId, String handle, int threadId,
                           final RecyclableRateLimiter pushRateLimiter,
                           final AtomicInteger pushFlushInterval,
                           @Nullable final AtomicInteger itemsPerBatch,
-                          @Nullable final AtomicInteger memoryBufferLimit) {
+                          @Nullable final AtomicInteger memoryBufferLimit,
+                          final boolean compressPayloads,
+                          @Nullable final BinaryPushDataPayloadBuilder<?> binaryPayloadBuilder,
+                          final int maxInFlightBatches,
+                          @Nullable final AdaptiveFlushController flushController) {
     super(entityType, handle, threadId, itemsPerBatch, memoryBufferLimit);
     this.pushFormat = pushFormat;
+    this.compressPayloads = compressPayloads;
+    this.payloadBuilder = new PushDataPayloadBuilder(compressPayloads);
+    this.binaryPayloadBuilder = binaryPayloadBuilder;
+    this.maxInFlightBatches = maxInFlightBatches;
+    this.flushController = flushController;
     this.proxyId = proxyId;
     this.pushFlushInterval = pushFlushInterval;
     this.proxyAPI = proxyAPI;
@@ -86,32 +127,79 @@ class LineDelimitedSenderTask extends AbstractSenderTask<String> {
     this.batchesFailed = Metrics.newCounter(new MetricName("push." + handle, "", "batches-errors"));
     this.batchSendTime = Metrics.newTimer(new MetricName("push." + handle, "", "duration"),
         TimeUnit.MILLISECONDS, TimeUnit.MINUTES);
+    if (flushController != null) {
+      Metrics.newGauge(new TaggedMetricName("push", "flush-interval-millis", "port", handle,
+          "thread", String.valueOf(threadId)), new Gauge<Long>() {
+        @Override
+        public Long value() {
+          return flushController.getCurrentIntervalMillis();
+        }
+      });
+      Metrics.newGauge(new TaggedMetricName("push", "batch-size", "port", handle,
+          "thread", String.valueOf(threadId)), new Gauge<Integer>() {
+        @Override
+        public Integer value() {
+          return flushController.getCurrentBatchSize();
+        }
+      });
+    }
 
     this.scheduler.schedule(this, pushFlushInterval.get(), TimeUnit.MILLISECONDS);
   }
 
+  @Override
+  public boolean acceptsRecords() {
+    return binaryPayloadBuilder != null;
+  }
+
   @Override
   public void run() {
     long nextRunMillis = this.pushFlushInterval.get();
     isSending = true;
     try {
-      List<String> current = createBatch();
+      if (maxInFlightBatches > 0 && inFlightBatches.get() >= maxInFlightBatches) {
+        // wait for one of the outstanding requests to complete
+        nextRunMillis = Math.min(nextRunMillis, IN_FLIGHT_RETRY_MILLIS);
+        return;
+      }
+      int batchSize = flushController == null ? itemsPerBatch.get() :
+          flushController.getBatchSize(itemsPerBatch.get());
+      List<Object> current = createBatch(batchSize);
       if (current.size() == 0) {
+        if (flushController != null) {
+          nextRunMillis = flushController.nextFlushDelay(pushFlushInterval.get(), batchSize, 0,
+              buffer.size());
+        }
         return;
       }
       if (pushRateLimiter == null || pushRateLimiter.tryAcquire(current.size())) {
         if (pushRateLimiter != null) this.permitsGranted.inc(current.size());
 
+        if (maxInFlightBatches > 0) {
+          reportAsync(current);
+          if (flushController != null) {
+            nextRunMillis = flushController.nextFlushDelay(pushFlushInterval.get(), batchSize,
+                current.size(), buffer.size());
+          } else if (buffer.size() >= itemsPerBatch.get()) {
+            // don't wait for the next interval if there's enough data for another full batch
+            nextRunMillis = 0;
+          }
+          return;
+        }
         TimerContext timerContext = this.batchSendTime.time();
+        long startNanos = System.nanoTime();
         Response response = null;
         try {
-          response = proxyAPI.proxyReport(
-              proxyId,
-              pushFormat,
-              LineDelimitedUtils.joinPushData(current));
+          response = report(current, payloadBuilder, false);
           int itemsInList = current.size();
           this.attemptedCounter.inc(itemsInList);
-          if (response.getStatus() == Response.Status.NOT_ACCEPTABLE.getStatusCode()) {
+          boolean pushback =
+              response.getStatus() == Response.Status.NOT_ACCEPTABLE.getStatusCode();
+          if (flushController != null) {
+            flushController.onResponse(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() -
+                startNanos), pushback);
+          }
+          if (pushback) {
             if (pushRateLimiter != null) {
               this.pushRateLimiter.recyclePermits(itemsInList);
               this.permitsRetried.inc(itemsInList);
@@ -122,17 +210,19 @@ class LineDelimitedSenderTask extends AbstractSenderTask<String> {
           timerContext.stop();
           if (response != null) response.close();
         }
+        if (flushController != null) {
+          nextRunMillis = flushController.nextFlushDelay(pushFlushInterval.get(), batchSize,
+              current.size(), buffer.size());
+        }
       } else {
         this.permitsDenied.inc(current.size());
         // if proxy rate limit exceeded, try again in 250..500ms (to introduce some degree of fairness)
         nextRunMillis = 250 + (int) (Math.random() * 250);
         if (warningMessageRateLimiter.tryAcquire()) {
           logger.warning("[" + handle + " thread " + threadId + "]: WF-4 Proxy rate limiter active " +
-              "(pending " + entityType + ": " + datum.size() + "), will retry");
-        }
-        synchronized (mutex) { // return the batch to the beginning of the queue
-          datum.addAll(0, current);
+              "(pending " + entityType + ": " + buffer.size() + "), will retry");
         }
+        returnBatch(current); // return the batch to the beginning of the queue
       }
     } catch (Throwable t) {
       logger.log(Level.SEVERE, "Unexpected error in flush loop", t);
@@ -147,12 +237,14 @@ class LineDelimitedSenderTask extends AbstractSenderTask<String> {
     int lastBatchSize = Integer.MIN_VALUE;
     // roughly limit number of points to flush to the the current buffer size (+1 blockSize max)
     // if too many points arrive at the proxy while it's draining, they will be taken care of in the next run
-    int toFlush = datum.size();
+    int toFlush = buffer.size();
+    // not using the flush thread's buffer here, as this may run concurrently with the flush thread
+    PushDataPayloadBuilder drainPayloadBuilder = new PushDataPayloadBuilder(compressPayloads);
     while (toFlush > 0) {
-      List<String> pushData = createBatch();
+      List<Object> pushData = createBatch();
       int pushDataPointCount = pushData.size();
       if (pushDataPointCount > 0) {
-        proxyAPI.proxyReport(proxyId, pushFormat, LineDelimitedUtils.joinPushData(pushData), true);
+        report(pushData, drainPayloadBuilder, true);
 
         // update the counters as if this was a failed call to the API
         this.attemptedCounter.inc(pushDataPointCount);
@@ -169,4 +261,69 @@ class LineDelimitedSenderTask extends AbstractSenderTask<String> {
       }
     }
   }
+
+  /**
+   * Send a batch to the API, as a binary payload if enabled and possible, as text otherwise.
+   */
+  private Response report(List<Object> batch, PushDataPayloadBuilder textPayloadBuilder,
+                          boolean forceToQueue) {
+    if (binaryPayloadBuilder != null) {
+      PushDataPayload payload = binaryPayloadBuilder.build(batch);
+      if (payload != null) {
+        return proxyAPI.proxyReport(proxyId, BinaryPushDataCodec.binaryFormat(pushFormat), payload,
+            forceToQueue);
+      }
+    }
+    return proxyAPI.proxyReport(proxyId, pushFormat, textPayloadBuilder.build(toLines(batch)),
+        forceToQueue);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<String> toLines(List<Object> batch) {
+    // records are only added when binary payloads are enabled
+    return binaryPayloadBuilder == null ? (List<String>) (List<?>) batch :
+        binaryPayloadBuilder.toLines(batch);
+  }
+
+  /**
+   * Submit a batch without waiting for the response.
+   */
+  private void reportAsync(List<Object> batch) {
+    int itemsInList = batch.size();
+    PushDataPayload payload = binaryPayloadBuilder == null ? null :
+        binaryPayloadBuilder.build(batch);
+    String format = payload == null ? pushFormat : BinaryPushDataCodec.binaryFormat(pushFormat);
+    if (payload == null) {
+      payload = payloadBuilder.build(toLines(batch));
+    }
+    TimerContext timerContext = this.batchSendTime.time();
+    long startNanos = System.nanoTime();
+    inFlightBatches.incrementAndGet();
+    proxyAPI.proxyReportAsync(proxyId, format, payload).whenComplete((response, throwable) -> {
+      inFlightBatches.decrementAndGet();
+      timerContext.stop();
+      this.attemptedCounter.inc(itemsInList);
+      if (throwable != null) {
+        logger.log(Level.SEVERE, "Unexpected error submitting batch", throwable);
+        return;
+      }
+      try {
+        boolean pushback =
+            response.getStatus() == Response.Status.NOT_ACCEPTABLE.getStatusCode();
+        if (flushController != null) {
+          flushController.onResponse(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() -
+              startNanos), pushback);
+        }
+        if (pushback) {
+          if (pushRateLimiter != null) {
+            this.pushRateLimiter.recyclePermits(itemsInList);
+            this.permitsRetried.inc(itemsInList);
+          }
+          this.queuedCounter.inc(itemsInList);
+        }
+      } finally {
+        response.close();
+      }
+    });
+  }
 }
@@ -2,7 +2,13 @@ package com.wavefront.agent.handlers;
 
 import org.apache.commons.lang.StringUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
 
 /**
  * A collection of helper methods around plaintext newline-delimited payloads.
@@ -25,6 +31,84 @@ public class LineDelimitedUtils {
     return StringUtils.split(pushData, PUSH_DATA_DELIMETER);
   }
 
+  /**
+   * Lazily split a newline-delimited payload into lines. Lines are decoded from the buffer one at
+   * a time as the iteration progresses, so memory usage is proportional to the line length rather
+   * than to the payload size. Leading and trailing whitespace is trimmed, empty lines are skipped
+   * (same as {@link #splitPushData(String)}, whitespace-only lines are returned as empty strings).
+   * The buffer's reader index is not modified.
+   *
+   * @param pushData UTF-8 encoded payload to split.
+   * @return trimmed lines
+   */
+  public static Iterable<String> splitPushData(ByteBuf pushData) {
+    return splitPushData(pushData, true);
+  }
+
+  /**
+   * Lazily split a newline-delimited payload into lines, see {@link #splitPushData(ByteBuf)}.
+   * When {@code trim} is false, lines are returned exactly as
+   * {@link #splitPushData(String)} would return them.
+   *
+   * @param pushData UTF-8 encoded payload to split.
+   * @param trim     whether to trim leading and trailing whitespace.
+   * @return lines
+   */
+  public static Iterable<String> splitPushData(ByteBuf pushData, boolean trim) {
+    return () -> new Iterator<String>() {
+      private final int end = pushData.writerIndex();
+      private int position = pushData.readerIndex();
+
+      @Override
+      public boolean hasNext() {
+        while (position < end && pushData.getByte(position) == '\n') {
+          position++;
+        }
+        return position < end;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int lineEnd = pushData.forEachByte(position, end - position, ByteProcessor.FIND_LF);
+        if (lineEnd == -1) {
+          lineEnd = end;
+        }
+        int start = position;
+        position = lineEnd;
+        if (!trim) {
+          return pushData.toString(start, lineEnd - start, StandardCharsets.UTF_8);
+        }
+        // same as String.trim(): in UTF-8 bytes <= ' ' are never a part of a multi-byte sequence
+        int last = lineEnd - 1;
+        while (start <= last && (pushData.getByte(start) & 0xff) <= ' ') {
+          start++;
+        }
+        while (last >= start && (pushData.getByte(last) & 0xff) <= ' ') {
+          last--;
+        }
+        return start > last ? "" : pushData.toString(start, last - start + 1,
+            StandardCharsets.UTF_8);
+      }
+    };
+  }
+
+  /**
+   * Count lines in a newline-delimited payload without decoding it. Empty lines are not counted,
+   * so the result is the number of lines {@link #splitPushData(ByteBuf)} would return.
+   * The buffer's reader index is not modified.
+   *
+   * @param pushData UTF-8 encoded payload.
+   * @return number of lines
+   */
+  public static int countLines(ByteBuf pushData) {
+    LineCounter counter = new LineCounter();
+    pushData.forEachByte(counter);
+    return counter.lines;
+  }
+
   /**
    * Join a batch of strings into a payload string.
    *
@@ -47,4 +131,23 @@ public class LineDelimitedUtils {
         ? length + 1
         : (pushData.length() > 0 ? 1 : 0);
   }
+
+  /**
+   * Counts the first byte of every non-empty line.
+   */
+  private static final class LineCounter implements ByteProcessor {
+    private int lines = 0;
+    private boolean inLine = false;
+
+    @Override
+    public boolean process(byte value) {
+      if (value == '\n') {
+        inLine = false;
+      } else if (!inLine) {
+        inLine = true;
+        lines++;
+      }
+      return true;
+    }
+  }
 }
@@ -0,0 +1,57 @@
+package com.wavefront.agent.handlers;
+
+import java.util.List;
+import java.util.function.LongPredicate;
+
+import javax.annotation.Nullable;
+
+/**
+ * Handler that can accept wavefront-format point lines as is, without decoding them into
+ * ReportPoint objects first, as long as they can be validated with a single scan.
+ */
+public interface PointLineHandler {
+
+  /**
+   * Validate and accept a wavefront-format point line.
+   *
+   * @param line            point line.
+   * @param timestampFilter additional check for the point's timestamp in milliseconds (optional).
+   * @return true if the line has been accepted, false if it needs to be decoded and reported
+   *         through the regular path (nothing has been reported in that case).
+   */
+  boolean reportLine(String line, @Nullable LongPredicate timestampFilter);
+
+  /**
+   * Validate a wavefront-format point line without reporting it, so that it can be reported
+   * later as part of a batch with {@link #reportBatchWithLines(List)}.
+   *
+   * @param line            point line.
+   * @param timestampFilter additional check for the point's timestamp in milliseconds (optional).
+   * @return accepted line, or null if the line needs to be decoded and reported through the
+   *         regular path.
+   */
+  @Nullable
+  AcceptedLine acceptLine(String line, @Nullable LongPredicate timestampFilter);
+
+  /**
+   * Report a batch of decoded points and accepted lines, preserving their order. Points are
+   * validated as with {@link ReportableEntityHandler#reportBatch(List)}, lines returned by
+   * {@link #acceptLine} are reported as is.
+   *
+   * @param items decoded points and {@link AcceptedLine}s.
+   */
+  void reportBatchWithLines(List<?> items);
+
+  /**
+   * Point line that has been validated and converted into canonical form.
+   */
+  final class AcceptedLine {
+    final String line;
+    final long timestampMillis;
+
+    AcceptedLine(String line, long timestampMillis) {
+      this.line = line;
+      this.timestampMillis = timestampMillis;
+    }
+  }
+}
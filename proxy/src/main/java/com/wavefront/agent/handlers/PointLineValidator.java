@@ -0,0 +1,227 @@
+package com.wavefront.agent.handlers;
+
+import com.wavefront.api.agent.ValidationConfiguration;
+import com.wavefront.common.Clock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Validates a wavefront-format point line in a single scan and converts it into the canonical
+ * form produced by {@link com.wavefront.ingester.ReportPointSerializer} (except for the value,
+ * which is passed through as is), without decoding it into a {@link wavefront.report.ReportPoint}.
+ *
+ * Only accepts lines that are valid beyond doubt: printable ASCII, no escape sequences,
+ * a plain decimal value, no timestamp or a timestamp in seconds, an explicit non-blank source=
+ * tag and no host= tag, unique point tags, and all lengths within the same limits the full path
+ * applies: {@link ValidationConfiguration} limits when set, legacy
+ * {@link com.wavefront.data.Validation.Level#NUMERIC_ONLY} limits otherwise. Anything else
+ * (including invalid lines) is left to the full decoding and validation path, which also takes
+ * care of reporting the reason a line is rejected.
+ */
+final class PointLineValidator {
+  // Validation.Level.NUMERIC_ONLY limits: metric and source names shorter than 1024 characters,
+  // key=value pairs shorter than 256 characters
+  static final int LEGACY_NAME_LENGTH_LIMIT = 1023;
+  static final int LEGACY_TAG_LENGTH_LIMIT = 254;
+  // lines with more point tags are left to the full path to keep the duplicate tag check cheap
+  static final int MAX_TAGS = 64;
+
+  private static final int TIMESTAMP_SECONDS_DIGITS = 10;
+  private static final int MAX_EXPONENT_DIGITS = 2;
+
+  private PointLineValidator() {
+  }
+
+  /**
+   * Validate a point line and convert it into canonical form.
+   *
+   * @param line            wavefront-format point line.
+   * @param config          validation limits (optional, legacy limits are used if not set).
+   * @param timestampHolder container to store the point's timestamp (in milliseconds).
+   * @return canonical point line, or null if the line needs to go through the full path.
+   */
+  @Nullable
+  static String canonicalize(@Nonnull String line, @Nullable ValidationConfiguration config,
+                             @Nonnull long[] timestampHolder) {
+    int metricLengthLimit = config == null ? LEGACY_NAME_LENGTH_LIMIT :
+        config.getMetricLengthLimit();
+    int hostLengthLimit = config == null ? LEGACY_NAME_LENGTH_LIMIT : config.getHostLengthLimit();
+    int countLimit = config == null ? MAX_TAGS :
+        Math.min(MAX_TAGS, config.getAnnotationsCountLimit());
+    int keyLengthLimit = config == null ? LEGACY_TAG_LENGTH_LIMIT :
+        config.getAnnotationsKeyLengthLimit();
+    int valueLengthLimit = config == null ? LEGACY_TAG_LENGTH_LIMIT :
+        config.getAnnotationsValueLengthLimit();
+    int tagLengthLimit = config == null ? LEGACY_TAG_LENGTH_LIMIT : Integer.MAX_VALUE;
+    int len = line.length();
+    StringBuilder out = new StringBuilder(len + 32);
+
+    // metric name
+    int pos = skipSpaces(line, 0);
+    boolean quoted = pos < len && line.charAt(pos) == '"';
+    if (quoted) pos++;
+    int start = pos;
+    while (pos < len && isMetricNameChar(line.charAt(pos))) pos++;
+    int end = pos;
+    if (quoted && (pos++ >= len || line.charAt(end) != '"')) return null;
+    if (end == start || end - start > metricLengthLimit || pos >= len || line.charAt(pos) != ' ') {
+      return null;
+    }
+    out.append('"').append(line, start, end).append("\" ");
+
+    // value
+    pos = skipSpaces(line, pos);
+    start = pos;
+    pos = scanNumber(line, pos);
+    if (pos == -1 || pos >= len || line.charAt(pos) != ' ') return null;
+    out.append(line, start, pos).append(' ');
+
+    // optional timestamp, only accepted in seconds
+    pos = skipSpaces(line, pos);
+    start = pos;
+    long timestampSeconds = 0;
+    while (pos < len && isDigit(line.charAt(pos))) {
+      timestampSeconds = timestampSeconds * 10 + (line.charAt(pos) - '0');
+      pos++;
+    }
+    if (pos > start && (pos == len || line.charAt(pos) == ' ')) {
+      if (pos - start != TIMESTAMP_SECONDS_DIGITS) return null;
+      timestampHolder[0] = timestampSeconds * 1000;
+      pos = skipSpaces(line, pos);
+    } else {
+      // not a timestamp, must be a point tag
+      pos = start;
+      timestampHolder[0] = Clock.now();
+    }
+    out.append(timestampHolder[0] / 1000);
+
+    // point tags
+    int sourceStart = -1;
+    int sourceEnd = -1;
+    int tagCount = 0;
+    int[] keyOffsets = null;
+    StringBuilder tags = new StringBuilder(len - pos + 16);
+    while (pos < len) {
+      quoted = line.charAt(pos) == '"';
+      if (quoted) pos++;
+      int keyStart = pos;
+      while (pos < len && isTagKeyChar(line.charAt(pos))) pos++;
+      int keyEnd = pos;
+      if (quoted && (pos++ >= len || line.charAt(keyEnd) != '"')) return null;
+      if (keyEnd == keyStart || keyEnd - keyStart > keyLengthLimit || pos >= len ||
+          line.charAt(pos) != '=') {
+        return null;
+      }
+      pos++;
+      int valueStart;
+      int valueEnd;
+      if (pos < len && line.charAt(pos) == '"') {
+        valueStart = ++pos;
+        while (pos < len && isQuotedValueChar(line.charAt(pos))) pos++;
+        valueEnd = pos;
+        if (pos++ >= len || line.charAt(valueEnd) != '"') return null;
+      } else {
+        valueStart = pos;
+        while (pos < len && isUnquotedValueChar(line.charAt(pos))) pos++;
+        valueEnd = pos;
+      }
+      if (isBlank(line, valueStart, valueEnd) || (pos < len && line.charAt(pos) != ' ')) {
+        return null;
+      }
+      int keyLength = keyEnd - keyStart;
+      if (keyLength == 6 && line.regionMatches(true, keyStart, "source", 0, 6)) {
+        // differently cased or repeated source tags are handled by the decoder
+        if (sourceStart != -1 || !line.regionMatches(keyStart, "source", 0, 6) ||
+            valueEnd - valueStart > hostLengthLimit) {
+          return null;
+        }
+        sourceStart = valueStart;
+        sourceEnd = valueEnd;
+      } else {
+        if (keyLength == 4 && line.regionMatches(true, keyStart, "host", 0, 4)) return null;
+        if (tagCount >= countLimit || valueEnd - valueStart > valueLengthLimit ||
+            keyLength + valueEnd - valueStart > tagLengthLimit) {
+          return null;
+        }
+        if (keyOffsets == null) keyOffsets = new int[Math.max(2, countLimit * 2)];
+        for (int i = 0; i < tagCount; i++) {
+          int otherStart = keyOffsets[i * 2];
+          if (keyOffsets[i * 2 + 1] - otherStart == keyLength &&
+              line.regionMatches(otherStart, line, keyStart, keyLength)) {
+            return null;
+          }
+        }
+        keyOffsets[tagCount * 2] = keyStart;
+        keyOffsets[tagCount * 2 + 1] = keyEnd;
+        tagCount++;
+        tags.append(" \"").append(line, keyStart, keyEnd).append("\"=\"").
+            append(line, valueStart, valueEnd).append('"');
+      }
+      pos = skipSpaces(line, pos);
+    }
+    if (sourceStart == -1) return null;
+    return out.append(" source=\"").append(line, sourceStart, sourceEnd).append('"').
+        append(tags).toString();
+  }
+
+  /**
+   * Scan a plain decimal number: optional minus sign, digits, optional fraction and exponent.
+   *
+   * @return position after the number, or -1 if there is no valid number at this position.
+   */
+  private static int scanNumber(String line, int pos) {
+    int len = line.length();
+    if (pos < len && line.charAt(pos) == '-') pos++;
+    int digitsStart = pos;
+    while (pos < len && isDigit(line.charAt(pos))) pos++;
+    if (pos == digitsStart) return -1;
+    if (pos < len && line.charAt(pos) == '.') {
+      digitsStart = ++pos;
+      while (pos < len && isDigit(line.charAt(pos))) pos++;
+      if (pos == digitsStart) return -1;
+    }
+    if (pos < len && (line.charAt(pos) == 'e' || line.charAt(pos) == 'E')) {
+      pos++;
+      if (pos < len && (line.charAt(pos) == '-' || line.charAt(pos) == '+')) pos++;
+      digitsStart = pos;
+      while (pos < len && isDigit(line.charAt(pos))) pos++;
+      if (pos == digitsStart || pos - digitsStart > MAX_EXPONENT_DIGITS) return -1;
+    }
+    return pos;
+  }
+
+  private static int skipSpaces(String line, int pos) {
+    while (pos < line.length() && line.charAt(pos) == ' ') pos++;
+    return pos;
+  }
+
+  private static boolean isBlank(String line, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (line.charAt(i) != ' ') return false;
+    }
+    return true;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isTagKeyChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '-' ||
+        c == '_' || c == '.';
+  }
+
+  private static boolean isMetricNameChar(char c) {
+    return isTagKeyChar(c) || c == '/' || c == ',';
+  }
+
+  private static boolean isQuotedValueChar(char c) {
+    return c >= ' ' && c < 0x7F && c != '"' && c != '\\';
+  }
+
+  private static boolean isUnquotedValueChar(char c) {
+    // anything more exotic is left to the decoder
+    return isMetricNameChar(c);
+  }
+}
@@ -0,0 +1,199 @@
+package com.wavefront.agent.handlers;
+
+import com.wavefront.agent.api.PushDataPayload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams lines straight into a reusable byte buffer as newline-delimited UTF-8, optionally
+ * gzip-compressing them on the fly, so the push data never has to be materialized as a String.
+ *
+ * Not thread-safe: every payload returned by {@link #build(Collection)} is backed by the same
+ * buffer and is only valid until the next call.
+ */
+final class PushDataPayloadBuilder {
+  private static final byte[] GZIP_HEADER = new byte[] {
+      (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+  private static final int INITIAL_CAPACITY = 64 * 1024;
+  /**
+   * Buffers that grew larger than this are not reused for the next batch.
+   */
+  private static final int MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+  private final boolean compress;
+  private final ReusableByteArrayOutputStream buffer =
+      new ReusableByteArrayOutputStream(INITIAL_CAPACITY);
+  private final byte[] scratch = new byte[8192];
+  private final Deflater deflater;
+  private final DeflaterOutputStream deflaterStream;
+  private final CRC32 crc;
+
+  private int scratchPos;
+  private int lineCount;
+  private long uncompressedBytes;
+
+  /**
+   * @param compress whether to gzip-compress payloads.
+   */
+  PushDataPayloadBuilder(boolean compress) {
+    this.compress = compress;
+    if (compress) {
+      this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      this.deflaterStream = new DeflaterOutputStream(buffer, deflater, 8192);
+      this.crc = new CRC32();
+    } else {
+      this.deflater = null;
+      this.deflaterStream = null;
+      this.crc = null;
+    }
+  }
+
+  /**
+   * Serialize a batch of lines into a payload.
+   *
+   * @param lines lines to serialize.
+   * @return payload (valid until the next call).
+   */
+  PushDataPayload build(Collection<String> lines) {
+    try {
+      reset();
+      for (String line : lines) {
+        append(line);
+      }
+      return finish();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void reset() {
+    buffer.reset(MAX_RETAINED_CAPACITY, INITIAL_CAPACITY);
+    scratchPos = 0;
+    lineCount = 0;
+    uncompressedBytes = 0;
+    if (compress) {
+      deflater.reset();
+      crc.reset();
+      buffer.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+    }
+  }
+
+  private void append(String line) throws IOException {
+    if (lineCount > 0) {
+      put((byte) '\n');
+    }
+    for (int i = 0, len = line.length(); i < len; i++) {
+      char c = line.charAt(i);
+      if (c < 0x80) {
+        put((byte) c);
+      } else if (c < 0x800) {
+        put((byte) (0xc0 | (c >> 6)));
+        put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < len &&
+          Character.isLowSurrogate(line.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, line.charAt(++i));
+        put((byte) (0xf0 | (codePoint >> 18)));
+        put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        put((byte) (0x80 | (codePoint & 0x3f)));
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate, same replacement as String.getBytes(UTF_8)
+        put((byte) '?');
+      } else {
+        put((byte) (0xe0 | (c >> 12)));
+        put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+    lineCount++;
+  }
+
+  private void put(byte b) throws IOException {
+    if (scratchPos == scratch.length) {
+      flushScratch();
+    }
+    scratch[scratchPos++] = b;
+  }
+
+  private void flushScratch() throws IOException {
+    if (scratchPos == 0) return;
+    if (compress) {
+      crc.update(scratch, 0, scratchPos);
+      deflaterStream.write(scratch, 0, scratchPos);
+    } else {
+      buffer.write(scratch, 0, scratchPos);
+    }
+    uncompressedBytes += scratchPos;
+    scratchPos = 0;
+  }
+
+  private PushDataPayload finish() throws IOException {
+    flushScratch();
+    if (compress) {
+      deflaterStream.finish();
+      writeIntLE((int) crc.getValue());
+      writeIntLE((int) uncompressedBytes);
+    }
+    return new PushDataPayload(buffer.array(), buffer.size(), lineCount, compress);
+  }
+
+  private void writeIntLE(int value) {
+    buffer.write(value & 0xff);
+    buffer.write((value >> 8) & 0xff);
+    buffer.write((value >> 16) & 0xff);
+    buffer.write((value >> 24) & 0xff);
+  }
+
+  /**
+   * Unsynchronized byte array output stream that exposes its backing array.
+   */
+  private static final class ReusableByteArrayOutputStream extends OutputStream {
+    private byte[] buf;
+    private int count;
+
+    ReusableByteArrayOutputStream(int capacity) {
+      this.buf = new byte[capacity];
+    }
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(count + 1);
+      buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      ensureCapacity(count + len);
+      System.arraycopy(b, off, buf, count, len);
+      count += len;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+      if (minCapacity > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length << 1, minCapacity));
+      }
+    }
+
+    void reset(int maxRetainedCapacity, int initialCapacity) {
+      if (buf.length > maxRetainedCapacity) {
+        buf = new byte[initialCapacity];
+      }
+      count = 0;
+    }
+
+    byte[] array() {
+      return buf;
+    }
+
+    int size() {
+      return count;
+    }
+  }
+}
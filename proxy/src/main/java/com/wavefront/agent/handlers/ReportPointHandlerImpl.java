@@ -12,9 +12,12 @@ import com.yammer.metrics.core.MetricsRegistry;
 
 import org.apache.commons.lang.math.NumberUtils;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongPredicate;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -31,7 +34,8 @@ import static com.wavefront.data.Validation.validatePoint;
  *
  * @author vasily@wavefront.com
  */
-class ReportPointHandlerImpl extends AbstractReportableEntityHandler<ReportPoint> {
+class ReportPointHandlerImpl extends AbstractReportableEntityHandler<ReportPoint>
+    implements PointLineHandler {
 
   private static final Logger logger = Logger.getLogger(
       AbstractReportableEntityHandler.class.getCanonicalName());
@@ -86,27 +90,102 @@ class ReportPointHandlerImpl extends AbstractReportableEntityHandler<ReportPoint
   @Override
   @SuppressWarnings("unchecked")
   void reportInternal(ReportPoint point) {
+    getTask().add(validateAndConvert(point));
+    getReceivedCounter().inc();
+    receivedPointLag.update(Clock.now() - point.getTimestamp());
+  }
+
+  @Override
+  public void reportBatch(List<ReportPoint> points) {
+    reportBatchWithLines(points);
+  }
+
+  @Override
+  public void reportBatchWithLines(List<?> items) {
+    List<Object> batch = new ArrayList<>(items.size());
+    long now = Clock.now();
+    for (Object item : items) {
+      if (item instanceof AcceptedLine) {
+        AcceptedLine accepted = (AcceptedLine) item;
+        logValidPoint(accepted.line);
+        batch.add(accepted.line);
+        receivedPointLag.update(now - accepted.timestampMillis);
+      } else {
+        ReportPoint point = (ReportPoint) item;
+        Object converted = validateBatchItem(point, this::validateAndConvert);
+        if (converted != null) {
+          batch.add(converted);
+          receivedPointLag.update(now - point.getTimestamp());
+        }
+      }
+    }
+    sendBatch(batch);
+  }
+
+  @Override
+  public boolean reportLine(String line, @Nullable LongPredicate timestampFilter) {
+    AcceptedLine accepted = acceptLine(line, timestampFilter);
+    if (accepted == null) return false;
+    logValidPoint(accepted.line);
+    getTask().add(accepted.line);
+    getReceivedCounter().inc();
+    receivedPointLag.update(Clock.now() - accepted.timestampMillis);
+    return true;
+  }
+
+  @Nullable
+  @Override
+  public AcceptedLine acceptLine(String line, @Nullable LongPredicate timestampFilter) {
+    // points are sent as is when relaying in binary format, they need to be decoded anyway
+    if (entityType != ReportableEntityType.POINT || sendRecords) return null;
+    long[] timestampHolder = new long[1];
+    String strPoint = PointLineValidator.canonicalize(line, validationConfig.get(),
+        timestampHolder);
+    if (strPoint == null ||
+        (timestampFilter != null && !timestampFilter.test(timestampHolder[0]))) {
+      return null;
+    }
+    return new AcceptedLine(strPoint, timestampHolder[0]);
+  }
+
+  /**
+   * Validate a point and convert it into the form accepted by sender tasks.
+   *
+   * @param point point to validate.
+   * @return serialized point, or the point itself if sender tasks accept records as is.
+   */
+  private Object validateAndConvert(ReportPoint point) {
     if (validationConfig.get() == null) {
       validatePoint(point, handle, Validation.Level.NUMERIC_ONLY);
     } else {
       validatePoint(point, validationConfig.get());
     }
 
+    if (sendRecords) {
+      if (shouldLogValidPoint()) {
+        validPointsLogger.info(serializer.apply(point));
+      }
+      return point;
+    }
     String strPoint = serializer.apply(point);
+    logValidPoint(strPoint);
+    return strPoint;
+  }
 
-    refreshValidPointsLoggerState();
-
-    if ((logData || logPointsFlag) &&
-        (logSampleRate >= 1.0d || (logSampleRate > 0.0d && RANDOM.nextDouble() < logSampleRate))) {
-      // we log valid points only if system property wavefront.proxy.logpoints is true
-      // or RawValidPoints log level is set to "ALL". this is done to prevent introducing
-      // overhead and accidentally logging points to the main log.
-      // Additionally, honor sample rate limit, if set.
+  private void logValidPoint(String strPoint) {
+    if (shouldLogValidPoint()) {
       validPointsLogger.info(strPoint);
     }
-    getTask().add(strPoint);
-    getReceivedCounter().inc();
-    receivedPointLag.update(Clock.now() - point.getTimestamp());
+  }
+
+  private boolean shouldLogValidPoint() {
+    refreshValidPointsLoggerState();
+    // we log valid points only if system property wavefront.proxy.logpoints is true
+    // or RawValidPoints log level is set to "ALL". this is done to prevent introducing
+    // overhead and accidentally logging points to the main log.
+    // Additionally, honor sample rate limit, if set.
+    return (logData || logPointsFlag) &&
+        (logSampleRate >= 1.0d || (logSampleRate > 0.0d && RANDOM.nextDouble() < logSampleRate));
   }
 
   void refreshValidPointsLoggerState() {
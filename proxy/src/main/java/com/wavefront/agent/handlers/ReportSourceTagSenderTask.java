@@ -122,11 +122,9 @@ class ReportSourceTagSenderTask extends AbstractSenderTask<ReportSourceTag> {
           nextRunMillis = 250 + (int) (Math.random() * 250);
           if (warningMessageRateLimiter.tryAcquire()) {
             logger.warning("[" + handle + " thread " + threadId + "]: WF-4 Proxy rate limiter active " +
-                "(pending " + entityType + ": " + datum.size() + "), will retry");
-          }
-          synchronized (mutex) { // return the batch to the beginning of the queue
-            datum.addAll(0, remainingItems);
+                "(pending " + entityType + ": " + buffer.size() + "), will retry");
           }
+          returnBatch(remainingItems); // return the batch to the beginning of the queue
         }
       }
     } catch (Throwable t) {
@@ -142,7 +140,7 @@ class ReportSourceTagSenderTask extends AbstractSenderTask<ReportSourceTag> {
     int lastBatchSize = Integer.MIN_VALUE;
     // roughly limit number of points to flush to the the current buffer size (+1 blockSize max)
     // if too many points arrive at the proxy while it's draining, they will be taken care of in the next run
-    int toFlush = datum.size();
+    int toFlush = buffer.size();
     while (toFlush > 0) {
       List<ReportSourceTag> items = createBatch();
       int batchSize = items.size();
@@ -1,5 +1,6 @@
 package com.wavefront.agent.handlers;
 
+import java.util.List;
 import java.util.function.Function;
 
 import javax.annotation.Nullable;
@@ -31,6 +32,18 @@ public interface ReportableEntityHandler<T> {
    */
   void report(T t, @Nullable Object messageObject, @NotNull Function<Object, String> messageSerializer);
 
+  /**
+   * Validate and accept multiple input objects. Implementations may hand over all valid objects to a single
+   * {@link SenderTask} at once, so this is preferred over calling {@link #report(Object)} for every object
+   * in a large payload.
+   *
+   * @param items objects to accept.
+   */
+  default void reportBatch(List<T> items) {
+    for (T item : items) {
+      report(item);
+    }
+  }
 
   /**
    * Handle the input object as blocked. Blocked objects are otherwise valid objects that are rejected based on
@@ -29,6 +29,16 @@ public interface SenderTask<T> {
     }
   }
 
+  /**
+   * Whether the task accepts validated records (i.e. {@link wavefront.report.ReportPoint}) as is,
+   * in addition to their serialized form, so handlers don't need to serialize them.
+   *
+   * @return true if records can be added to this task.
+   */
+  default boolean acceptsRecords() {
+    return false;
+  }
+
   /**
    * Calculate a numeric score (the lower the better) that is intended to help the {@link ReportableEntityHandler}
    * to choose the best SenderTask to handle over data to.
@@ -0,0 +1,189 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Memory buffer for {@link AbstractSenderTask}: a bounded multi-producer ring buffer that allows
+ * Netty event loop threads to hand over items without taking a lock.
+ *
+ * Producers claim a slot with a single CAS and never block. When the ring is full, items spill
+ * over into an unbounded lock-free overflow queue (and keep going there until the consumer catches
+ * up, to preserve ordering), so no data is ever dropped - enforcing memory limits is up to the
+ * caller. Consumer-side operations (draining a batch and returning a batch back to the head of the
+ * buffer) are serialized, as the flush thread and the drain-to-queue thread may run concurrently.
+ *
+ * @param <T> the type of buffered items.
+ */
+final class SenderTaskBuffer<T> {
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private final AtomicReferenceArray<T> ring;
+  private final int mask;
+  private final AtomicLong producerIndex = new AtomicLong();
+  private final AtomicLong consumerIndex = new AtomicLong();
+
+  private final Queue<T> overflow = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger overflowSize = new AtomicInteger();
+
+  /**
+   * Items returned by the consumer (i.e. rate-limited batches), served before anything else.
+   */
+  private final Deque<T> pushedBack = new ArrayDeque<>();
+  private volatile int pushedBackSize = 0;
+
+  /**
+   * Create a new buffer.
+   *
+   * @param minCapacity minimum ring size (rounded up to the next power of 2).
+   */
+  SenderTaskBuffer(int minCapacity) {
+    int capacity = 2;
+    while (capacity < minCapacity && capacity < MAX_CAPACITY) {
+      capacity <<= 1;
+    }
+    this.ring = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Add an item to the tail of the buffer. Lock-free, safe to call from multiple threads.
+   *
+   * @param item item to add.
+   */
+  void add(T item) {
+    Preconditions.checkNotNull(item);
+    if (overflowSize.get() == 0 && offerToRing(item)) {
+      return;
+    }
+    overflowSize.incrementAndGet();
+    overflow.add(item);
+  }
+
+  /**
+   * Add multiple items to the tail of the buffer, preserving their order. All items are placed
+   * into the ring with a single CAS if there is enough room. Lock-free, safe to call from multiple
+   * threads.
+   *
+   * @param items items to add.
+   */
+  void addAll(Collection<T> items) {
+    for (T item : items) {
+      Preconditions.checkNotNull(item);
+    }
+    if (items.isEmpty() || (overflowSize.get() == 0 && offerAllToRing(items))) {
+      return;
+    }
+    for (T item : items) {
+      add(item);
+    }
+  }
+
+  private boolean offerAllToRing(Collection<T> items) {
+    int count = items.size();
+    long capacity = mask + 1;
+    while (true) {
+      long index = producerIndex.get();
+      if (index + count - consumerIndex.get() > capacity) {
+        return false;
+      }
+      if (producerIndex.compareAndSet(index, index + count)) {
+        for (T item : items) {
+          ring.lazySet((int) index++ & mask, item);
+        }
+        return true;
+      }
+    }
+  }
+
+  private boolean offerToRing(T item) {
+    long capacity = mask + 1;
+    while (true) {
+      long index = producerIndex.get();
+      if (index - consumerIndex.get() >= capacity) {
+        return false;
+      }
+      if (producerIndex.compareAndSet(index, index + 1)) {
+        ring.lazySet((int) index & mask, item);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Take up to {@code maxItems} items from the head of the buffer.
+   *
+   * @param maxItems max number of items to take.
+   * @return list of items, possibly empty.
+   */
+  synchronized List<T> drain(int maxItems) {
+    List<T> batch = new ArrayList<>(Math.max(Math.min(maxItems, size()), 0));
+    while (batch.size() < maxItems && !pushedBack.isEmpty()) {
+      batch.add(pushedBack.pollFirst());
+    }
+    pushedBackSize = pushedBack.size();
+    long index = consumerIndex.get();
+    while (batch.size() < maxItems) {
+      int offset = (int) index & mask;
+      T item = ring.get(offset);
+      if (item == null) {
+        // either empty or the slot has been claimed by a producer that hasn't written it yet
+        break;
+      }
+      ring.lazySet(offset, null);
+      batch.add(item);
+      index++;
+    }
+    consumerIndex.lazySet(index);
+    while (batch.size() < maxItems) {
+      T item = overflow.poll();
+      if (item == null) break;
+      overflowSize.decrementAndGet();
+      batch.add(item);
+    }
+    return batch;
+  }
+
+  /**
+   * Return items to the head of the buffer (i.e. when a batch could not be sent), so they are
+   * served first on the next {@link #drain(int)} call.
+   *
+   * @param items items to return.
+   */
+  synchronized void pushBack(List<T> items) {
+    ListIterator<T> iterator = items.listIterator(items.size());
+    while (iterator.hasPrevious()) {
+      pushedBack.addFirst(iterator.previous());
+    }
+    pushedBackSize = pushedBack.size();
+  }
+
+  /**
+   * Approximate number of items in the buffer. Constant time, safe to call from any thread.
+   *
+   * @return number of buffered items.
+   */
+  int size() {
+    long ringSize = producerIndex.get() - consumerIndex.get();
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(ringSize, 0) + overflowSize.get() +
+        pushedBackSize);
+  }
+
+  /**
+   * @return ring capacity.
+   */
+  int capacity() {
+    return mask + 1;
+  }
+}
@@ -36,6 +36,14 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
   private final AtomicInteger pushFlushInterval;
   private final AtomicInteger pointsPerBatch;
   private final AtomicInteger memoryBufferLimit;
+  private final boolean compressPayloads;
+  private final boolean binaryRelayFormat;
+  private final int maxInFlightBatches;
+
+  private boolean adaptiveFlush = false;
+  private int adaptiveFlushMinIntervalMillis;
+  private int adaptiveFlushMaxIntervalMillis;
+  private int adaptiveFlushTargetLatencyMillis;
 
   // TODO: sync with backend
   private static final RecyclableRateLimiter SOURCE_TAG_RATE_LIMITER =
@@ -52,41 +60,98 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
    * @param pushFlushInterval interval between flushes.
    * @param itemsPerBatch     max points per flush.
    * @param memoryBufferLimit max points in task's memory buffer before queueing.
+   * @param compressPayloads  whether to gzip-compress line-delimited payloads.
+   */
+  public SenderTaskFactoryImpl(final ForceQueueEnabledProxyAPI proxyAPI,
+                               final UUID proxyId,
+                               final RecyclableRateLimiter globalRateLimiter,
+                               final AtomicInteger pushFlushInterval,
+                               @Nullable final AtomicInteger itemsPerBatch,
+                               @Nullable final AtomicInteger memoryBufferLimit,
+                               final boolean compressPayloads) {
+    this(proxyAPI, proxyId, globalRateLimiter, pushFlushInterval, itemsPerBatch,
+        memoryBufferLimit, compressPayloads, false, 0);
+  }
+
+  /**
+   * Create new instance.
+   *
+   * @param proxyAPI          handles interaction with Wavefront servers as well as queueing.
+   * @param proxyId           proxy ID.
+   * @param globalRateLimiter rate limiter to control outbound point rate.
+   * @param pushFlushInterval interval between flushes.
+   * @param itemsPerBatch     max points per flush.
+   * @param memoryBufferLimit max points in task's memory buffer before queueing.
+   * @param compressPayloads  whether to gzip-compress line-delimited payloads.
+   * @param binaryRelayFormat whether to send points, histograms and spans in binary format
+   *                          (only supported when relaying to another proxy).
+   * @param maxInFlightBatches max batches per sender thread awaiting a response when submitting
+   *                           asynchronously, 0 to submit synchronously.
    */
   public SenderTaskFactoryImpl(final ForceQueueEnabledProxyAPI proxyAPI,
                                final UUID proxyId,
                                final RecyclableRateLimiter globalRateLimiter,
                                final AtomicInteger pushFlushInterval,
                                @Nullable final AtomicInteger itemsPerBatch,
-                               @Nullable final AtomicInteger memoryBufferLimit) {
+                               @Nullable final AtomicInteger memoryBufferLimit,
+                               final boolean compressPayloads,
+                               final boolean binaryRelayFormat,
+                               final int maxInFlightBatches) {
     this.proxyAPI = proxyAPI;
     this.proxyId = proxyId;
     this.globalRateLimiter = globalRateLimiter;
     this.pushFlushInterval = pushFlushInterval;
     this.pointsPerBatch = itemsPerBatch;
     this.memoryBufferLimit = memoryBufferLimit;
+    this.compressPayloads = compressPayloads;
+    this.binaryRelayFormat = binaryRelayFormat;
+    this.maxInFlightBatches = maxInFlightBatches;
+  }
+
+  /**
+   * Enable adaptive flush interval and batch size for line-delimited data. Applies to sender
+   * tasks created after this call.
+   *
+   * @param minIntervalMillis   min delay between flushes, used when there is a backlog.
+   * @param maxIntervalMillis   max delay between flushes, used at low load or under pushback.
+   * @param targetLatencyMillis target request latency. Batch size is reduced when exceeded.
+   */
+  public void enableAdaptiveFlush(int minIntervalMillis, int maxIntervalMillis,
+                                  int targetLatencyMillis) {
+    this.adaptiveFlush = true;
+    this.adaptiveFlushMinIntervalMillis = minIntervalMillis;
+    this.adaptiveFlushMaxIntervalMillis = maxIntervalMillis;
+    this.adaptiveFlushTargetLatencyMillis = targetLatencyMillis;
   }
 
   public Collection<SenderTask> createSenderTasks(@NotNull HandlerKey handlerKey,
                                                   final int numThreads) {
     List<SenderTask> toReturn = new ArrayList<>(numThreads);
+    BinaryPushDataPayloadBuilder<?> binaryPayloadBuilder = binaryRelayFormat ?
+        getBinaryPayloadBuilder(handlerKey.getEntityType()) : null;
     for (int threadNo = 0; threadNo < numThreads; threadNo++) {
       SenderTask senderTask;
       switch (handlerKey.getEntityType()) {
         case POINT:
           senderTask = new LineDelimitedSenderTask(ReportableEntityType.POINT.toString(),
               PUSH_FORMAT_WAVEFRONT, proxyAPI, proxyId, handlerKey.getHandle(), threadNo,
-              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit);
+              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit,
+              compressPayloads, binaryPayloadBuilder, maxInFlightBatches,
+              newFlushController());
           break;
         case DELTA_COUNTER:
           senderTask = new LineDelimitedSenderTask(ReportableEntityType.DELTA_COUNTER.toString(),
               PUSH_FORMAT_WAVEFRONT, proxyAPI, proxyId, handlerKey.getHandle(), threadNo,
-              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit);
+              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit,
+              compressPayloads, binaryPayloadBuilder, maxInFlightBatches,
+              newFlushController());
           break;
         case HISTOGRAM:
           senderTask = new LineDelimitedSenderTask(ReportableEntityType.HISTOGRAM.toString(),
               PUSH_FORMAT_HISTOGRAM, proxyAPI, proxyId, handlerKey.getHandle(), threadNo,
-              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit);
+              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit,
+              compressPayloads, binaryPayloadBuilder, maxInFlightBatches,
+              newFlushController());
           break;
         case SOURCE_TAG:
           senderTask = new ReportSourceTagSenderTask(proxyAPI, handlerKey.getHandle(),
@@ -95,12 +160,15 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
         case TRACE:
           senderTask = new LineDelimitedSenderTask(ReportableEntityType.TRACE.toString(),
               PUSH_FORMAT_TRACING, proxyAPI, proxyId, handlerKey.getHandle(), threadNo,
-              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit);
+              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit,
+              compressPayloads, binaryPayloadBuilder, maxInFlightBatches,
+              newFlushController());
           break;
         case TRACE_SPAN_LOGS:
           senderTask = new LineDelimitedSenderTask(ReportableEntityType.TRACE_SPAN_LOGS.toString(),
               PUSH_FORMAT_TRACING_SPAN_LOGS, proxyAPI, proxyId, handlerKey.getHandle(), threadNo,
-              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit);
+              globalRateLimiter, pushFlushInterval, pointsPerBatch, memoryBufferLimit,
+              compressPayloads, null, maxInFlightBatches, newFlushController());
           break;
         case EVENT:
           senderTask = new EventSenderTask(proxyAPI, proxyId, handlerKey.getHandle(), threadNo,
@@ -116,6 +184,28 @@ public class SenderTaskFactoryImpl implements SenderTaskFactory {
     return toReturn;
   }
 
+  @Nullable
+  private AdaptiveFlushController newFlushController() {
+    return adaptiveFlush ? new AdaptiveFlushController(adaptiveFlushMinIntervalMillis,
+        adaptiveFlushMaxIntervalMillis, adaptiveFlushTargetLatencyMillis) : null;
+  }
+
+  @Nullable
+  private static BinaryPushDataPayloadBuilder<?> getBinaryPayloadBuilder(
+      ReportableEntityType entityType) {
+    switch (entityType) {
+      case POINT:
+      case DELTA_COUNTER:
+        return BinaryPushDataPayloadBuilder.forPoints();
+      case HISTOGRAM:
+        return BinaryPushDataPayloadBuilder.forHistograms();
+      case TRACE:
+        return BinaryPushDataPayloadBuilder.forSpans();
+      default:
+        return null;
+    }
+  }
+
   @Override
   public void shutdown() {
     managedTasks.stream().map(SenderTask::shutdown).forEach(x -> {
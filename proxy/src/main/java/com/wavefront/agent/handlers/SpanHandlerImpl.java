@@ -7,7 +7,9 @@ import com.wavefront.ingester.SpanSerializer;
 
 import org.apache.commons.lang3.math.NumberUtils;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
@@ -62,21 +64,46 @@ public class SpanHandlerImpl extends AbstractReportableEntityHandler<Span> {
   @Override
   @SuppressWarnings("unchecked")
   protected void reportInternal(Span span) {
-    validateSpan(span, validationConfig.get());
+    getTask().add(validateAndConvert(span));
+    getReceivedCounter().inc();
+  }
 
-    String strSpan = serializer.apply(span);
+  @Override
+  public void reportBatch(List<Span> spans) {
+    List<Object> batch = new ArrayList<>(spans.size());
+    for (Span span : spans) {
+      Object converted = validateBatchItem(span, this::validateAndConvert);
+      if (converted != null) {
+        batch.add(converted);
+      }
+    }
+    sendBatch(batch);
+  }
+
+  /**
+   * Validate a span and convert it into the form accepted by sender tasks.
+   *
+   * @param span span to validate.
+   * @return serialized span, or the span itself if sender tasks accept records as is.
+   */
+  private Object validateAndConvert(Span span) {
+    validateSpan(span, validationConfig.get());
 
     refreshValidDataLoggerState();
 
-    if (logData && ((logSampleRate > 0.0d && RANDOM.nextDouble() < logSampleRate) ||
-        logSampleRate >= 1.0d)) {
+    boolean logSpan = logData && ((logSampleRate > 0.0d && RANDOM.nextDouble() < logSampleRate) ||
+        logSampleRate >= 1.0d);
+    if (sendRecords && !logSpan) {
+      return span;
+    }
+    String strSpan = serializer.apply(span);
+    if (logSpan) {
       // we log valid trace data only if RawValidSpans log level is set to "ALL". This is done
       // to prevent introducing overhead and accidentally logging raw data to the main log.
       // Honor sample rate limit, if set.
       validTracesLogger.info(strSpan);
     }
-    getTask().add(strSpan);
-    getReceivedCounter().inc();
+    return sendRecords ? span : strSpan;
   }
 
   private void refreshValidDataLoggerState() {
@@ -10,7 +10,12 @@ import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.MetricName;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -38,12 +43,30 @@ public class PointHandlerDispatcher implements Runnable {
   private final ReportableEntityHandler<ReportPoint> output;
   private final TimeProvider clock;
   private final Integer dispatchLimit;
+  @Nullable
+  private final ExecutorService flushExecutor;
 
   public PointHandlerDispatcher(Accumulator digests,
                                 ReportableEntityHandler<ReportPoint> output,
                                 @Nullable Integer dispatchLimit,
                                 @Nullable Utils.Granularity granularity) {
-    this(digests, output, System::currentTimeMillis, dispatchLimit, granularity);
+    this(digests, output, System::currentTimeMillis, dispatchLimit, granularity, null);
+  }
+
+  /**
+   * @param digests       accumulator to dispatch ripe digests from.
+   * @param output        handler for dispatched points.
+   * @param dispatchLimit max number of digests to dispatch per run.
+   * @param granularity   accumulator granularity.
+   * @param flushExecutor executor for dispatching accumulator partitions concurrently. If null,
+   *                      all partitions are dispatched on the calling thread.
+   */
+  public PointHandlerDispatcher(Accumulator digests,
+                                ReportableEntityHandler<ReportPoint> output,
+                                @Nullable Integer dispatchLimit,
+                                @Nullable Utils.Granularity granularity,
+                                @Nullable ExecutorService flushExecutor) {
+    this(digests, output, System::currentTimeMillis, dispatchLimit, granularity, flushExecutor);
   }
 
   @VisibleForTesting
@@ -52,10 +75,21 @@ public class PointHandlerDispatcher implements Runnable {
                          TimeProvider clock,
                          @Nullable Integer dispatchLimit,
                          @Nullable Utils.Granularity granularity) {
+    this(digests, output, clock, dispatchLimit, granularity, null);
+  }
+
+  @VisibleForTesting
+  PointHandlerDispatcher(Accumulator digests,
+                         ReportableEntityHandler<ReportPoint> output,
+                         TimeProvider clock,
+                         @Nullable Integer dispatchLimit,
+                         @Nullable Utils.Granularity granularity,
+                         @Nullable ExecutorService flushExecutor) {
     this.digests = digests;
     this.output = output;
     this.clock = clock;
     this.dispatchLimit = dispatchLimit;
+    this.flushExecutor = flushExecutor;
 
     String prefix = "histogram.accumulator." + Utils.Granularity.granularityToString(granularity);
     this.dispatchCounter = Metrics.newCounter(new MetricName(prefix, "", "dispatched"));
@@ -73,35 +107,60 @@ public class PointHandlerDispatcher implements Runnable {
   @Override
   public void run() {
     try {
-      AtomicInteger dispatchedCount = new AtomicInteger(0);
+      // shared by all partitions dispatched in parallel, null if there is no limit
+      AtomicInteger budget = dispatchLimit == null ? null : new AtomicInteger(dispatchLimit);
 
       long startMillis = System.currentTimeMillis();
       digestsSize.set(digests.size()); // update size before flushing, so we show a higher value
-      Iterator<Utils.HistogramKey> index = digests.getRipeDigestsIterator(this.clock);
-      while (index.hasNext()) {
-        digests.compute(index.next(), (k, v) -> {
-          if (v == null) {
-            index.remove();
-            return null;
-          }
+      if (flushExecutor == null) {
+        dispatch(digests.getRipeDigestsIterator(this.clock), budget);
+      } else {
+        // partitions are independent, so they can be flushed in parallel
+        List<Future<?>> futures = new ArrayList<>();
+        for (Iterator<Utils.HistogramKey> index : digests.getRipeDigestsIterators(this.clock)) {
+          futures.add(flushExecutor.submit(() -> dispatch(index, budget)));
+        }
+        for (Future<?> future : futures) {
           try {
-            ReportPoint out = Utils.pointFromKeyAndDigest(k, v);
-            output.report(out);
-            dispatchCounter.inc();
-          } catch (Exception e) {
-            dispatchErrorCounter.inc();
-            logger.log(Level.SEVERE, "Failed dispatching entry " + k, e);
+            future.get();
+          } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "PointHandlerDispatcher error", e.getCause());
           }
-          index.remove();
-          dispatchedCount.incrementAndGet();
-          return null;
-        });
-        if (dispatchLimit != null && dispatchedCount.get() >= dispatchLimit)
-          break;
+        }
       }
       dispatchProcessTime.inc(System.currentTimeMillis() - startMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     } catch (Exception e) {
       logger.log(Level.SEVERE, "PointHandlerDispatcher error", e);
     }
   }
+
+  private void dispatch(Iterator<Utils.HistogramKey> index, @Nullable AtomicInteger budget) {
+    // a digest is reserved before checking the iterator, as some accumulators take keys out of
+    // their dispatch index as soon as they are returned
+    while (budget == null || budget.getAndUpdate(x -> x > 0 ? x - 1 : x) > 0) {
+      if (!index.hasNext()) {
+        if (budget != null) budget.incrementAndGet();
+        return;
+      }
+      digests.compute(index.next(), (k, v) -> {
+        if (v == null) {
+          index.remove();
+          if (budget != null) budget.incrementAndGet();
+          return null;
+        }
+        try {
+          ReportPoint out = Utils.pointFromKeyAndDigest(k, v);
+          output.report(out);
+          dispatchCounter.inc();
+        } catch (Exception e) {
+          dispatchErrorCounter.inc();
+          logger.log(Level.SEVERE, "Failed dispatching entry " + k, e);
+        }
+        index.remove();
+        return null;
+      });
+    }
+  }
 }
@@ -144,6 +144,15 @@ public final class Utils {
     );
   }
 
+  /**
+   * Creates a {@link HistogramKey} from its individual components.
+   */
+  public static HistogramKey makeKey(byte granularityOrdinal, int binId, String metric,
+                                     @Nullable String source, @Nullable String[] tags) {
+    Preconditions.checkNotNull(metric);
+    return new HistogramKey(granularityOrdinal, binId, metric, source, tags);
+  }
+
   /**
    * Creates a {@link ReportPoint} from a {@link HistogramKey} - {@link AgentDigest} pair
    *
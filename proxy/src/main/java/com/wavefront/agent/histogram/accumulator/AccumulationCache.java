@@ -9,19 +9,19 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.RemovalCause;
 import com.github.benmanes.caffeine.cache.Ticker;
 import com.tdunning.math.stats.AgentDigest;
-import com.tdunning.math.stats.TDigest;
 import com.wavefront.agent.SharedMetricsRegistry;
 import com.wavefront.agent.TimeProvider;
-import com.wavefront.agent.histogram.Utils;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.MetricName;
 
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.logging.Logger;
 
@@ -53,12 +53,31 @@ public class AccumulationCache implements Accumulator {
   private final Cache<HistogramKey, AgentDigest> cache;
   private final ConcurrentMap<HistogramKey, AgentDigest> backingStore;
   private final AgentDigestFactory agentDigestFactory;
+  private final boolean partition;
 
   /**
    * In-memory index for dispatch timestamps to avoid iterating the backing store map, which is an
    * expensive operation, as it requires value objects to be de-serialized first.
    */
-  private final ConcurrentMap<HistogramKey, Long> keyIndex;
+  private final ConcurrentMap<HistogramKey, IndexEntry> keyIndex;
+
+  /**
+   * Reverse lookup for ids assigned to keys in {@link #keyIndex}.
+   */
+  private final ConcurrentMap<Long, HistogramKey> keysById;
+  private final AtomicLong nextId = new AtomicLong();
+
+  /**
+   * Timer wheel over ids in {@link #keyIndex}, so that finding ripe digests doesn't require
+   * scanning the entire index. Guarded by its own monitor.
+   */
+  private final LongTimerWheel dispatchIndex;
+
+  /**
+   * Keys returned by a ripe digests iterator that haven't been removed through it yet. They have
+   * been taken out of {@link #dispatchIndex} and are put back when the next iterator is created.
+   */
+  private final Set<HistogramKey> inFlight = ConcurrentHashMap.newKeySet();
 
   /**
    * Constructs a new AccumulationCache instance around {@code backingStore} and builds an in-memory
@@ -102,7 +121,32 @@ public class AccumulationCache implements Accumulator {
       String metricPrefix,
       @Nullable Ticker ticker,
       @Nullable Runnable onFailure) {
+    this(backingStore, agentDigestFactory, cacheSize, metricPrefix, ticker, onFailure, false);
+  }
+
+  /**
+   * Constructs a new AccumulationCache instance around {@code backingStore}. A partition only
+   * owns a subset of keys in a shared backing store: its index starts empty and is populated
+   * through {@link #indexEntry}, and its size is the number of keys it owns.
+   *
+   * @param backingStore       a {@code ConcurrentMap} storing {@code AgentDigests}
+   * @param agentDigestFactory a factory that generates {@code AgentDigests} with pre-defined
+   *                           compression level and TTL time
+   * @param cacheSize          maximum size of the cache
+   * @param ticker             a nanosecond-precision time source
+   * @param onFailure          a {@code Runnable} that is invoked when backing store overflows
+   * @param partition          whether this instance is a partition of a shared backing store
+   */
+  AccumulationCache(
+      final ConcurrentMap<HistogramKey, AgentDigest> backingStore,
+      final AgentDigestFactory agentDigestFactory,
+      final long cacheSize,
+      String metricPrefix,
+      @Nullable Ticker ticker,
+      @Nullable Runnable onFailure,
+      boolean partition) {
     this.backingStore = backingStore;
+    this.partition = partition;
     this.agentDigestFactory = agentDigestFactory;
     this.cacheEnabled = cacheSize > 0;
     this.binCreatedCounter = Metrics.newCounter(new MetricName(metricPrefix, "", "bin_created"));
@@ -114,12 +158,14 @@ public class AccumulationCache implements Accumulator {
         "", "bin_merged"));
     this.flushedCounter = Metrics.newCounter(new MetricName(metricPrefix + ".cache", "",
         "flushed"));
-    this.keyIndex = new ConcurrentHashMap<>(backingStore.size());
+    this.keyIndex = new ConcurrentHashMap<>(partition ? 16 : backingStore.size());
+    this.keysById = new ConcurrentHashMap<>(partition ? 16 : backingStore.size());
+    this.dispatchIndex = new LongTimerWheel(metricPrefix);
     final Runnable failureHandler = onFailure == null ? new AccumulationCacheMonitor() : onFailure;
-    if (backingStore.size() > 0) {
+    if (!partition && backingStore.size() > 0) {
       logger.info("Started: Indexing histogram accumulator");
       for (Map.Entry<HistogramKey, AgentDigest> entry : this.backingStore.entrySet()) {
-        keyIndex.put(entry.getKey(), entry.getValue().getDispatchTimeMillis());
+        setDispatchTime(entry.getKey(), entry.getValue().getDispatchTimeMillis());
       }
       logger.info("Finished: Indexing histogram accumulator");
     }
@@ -184,12 +230,11 @@ public class AccumulationCache implements Accumulator {
     cache.asMap().compute(key, (k, v) -> {
       if (v == null) {
         if (cacheEnabled) cacheBinCreatedCounter.inc();
-        keyIndex.put(key, value.getDispatchTimeMillis());
+        setDispatchTime(key, value.getDispatchTimeMillis());
         return value;
       } else {
         if (cacheEnabled) cacheBinMergedCounter.inc();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < v.getDispatchTimeMillis() ? v1 : v.getDispatchTimeMillis()));
+        lowerDispatchTime(key, v.getDispatchTimeMillis());
         v.add(value);
         return v;
       }
@@ -209,16 +254,12 @@ public class AccumulationCache implements Accumulator {
       if (v == null) {
         if (cacheEnabled) cacheBinCreatedCounter.inc();
         AgentDigest t = agentDigestFactory.newDigest();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < t.getDispatchTimeMillis() ? v1 : t.getDispatchTimeMillis()
-        ));
+        lowerDispatchTime(key, t.getDispatchTimeMillis());
         t.add(value);
         return t;
       } else {
         if (cacheEnabled) cacheBinMergedCounter.inc();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < v.getDispatchTimeMillis() ? v1 : v.getDispatchTimeMillis()
-        ));
+        lowerDispatchTime(key, v.getDispatchTimeMillis());
         v.add(value);
         return v;
       }
@@ -239,52 +280,81 @@ public class AccumulationCache implements Accumulator {
       if (v == null) {
         if (cacheEnabled) cacheBinCreatedCounter.inc();
         AgentDigest t = agentDigestFactory.newDigest();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < t.getDispatchTimeMillis() ? v1 : t.getDispatchTimeMillis()));
-        mergeHistogram(t, value);
+        lowerDispatchTime(key, t.getDispatchTimeMillis());
+        t.add(value);
         return t;
       } else {
         if (cacheEnabled) cacheBinMergedCounter.inc();
-        keyIndex.compute(key, (k1, v1) -> (
-            v1 != null && v1 < v.getDispatchTimeMillis() ? v1 : v.getDispatchTimeMillis()));
-        mergeHistogram(v, value);
+        lowerDispatchTime(key, v.getDispatchTimeMillis());
+        v.add(value);
         return v;
       }
     });
   }
 
   /**
-   * Returns an iterator over "ripe" digests ready to be shipped
+   * Returns an iterator over "ripe" digests ready to be shipped. Keys stay in the index until
+   * removed through {@link Iterator#remove()}, keys that haven't been removed are returned again
+   * by the next iterator.
 
    * @param clock a millisecond-precision epoch time source
    * @return an iterator over "ripe" digests ready to be shipped
    */
   @Override
   public Iterator<HistogramKey> getRipeDigestsIterator(TimeProvider clock) {
+    Iterator<HistogramKey> leftovers = inFlight.iterator();
+    while (leftovers.hasNext()) {
+      HistogramKey key = leftovers.next();
+      leftovers.remove();
+      IndexEntry entry = keyIndex.get(key);
+      if (entry != null) {
+        schedule(entry.id, entry.dispatchTimeMillis);
+      }
+    }
+    long now = clock.millisSinceEpoch();
     return new Iterator<HistogramKey>() {
-      private final Iterator<Map.Entry<HistogramKey, Long>> indexIterator = keyIndex.entrySet().iterator();
-      private HistogramKey nextHistogramKey;
+      private HistogramKey nextKey;
+      private HistogramKey currentKey;
 
       @Override
       public boolean hasNext() {
-        while (indexIterator.hasNext()) {
-          Map.Entry<Utils.HistogramKey, Long> entry = indexIterator.next();
-          if (entry.getValue() < clock.millisSinceEpoch()) {
-            nextHistogramKey = entry.getKey();
-            return true;
+        while (nextKey == null) {
+          long id;
+          long dueMillis;
+          synchronized (dispatchIndex) {
+            id = dispatchIndex.poll(now);
+            dueMillis = dispatchIndex.lastPolledDueMillis();
+          }
+          if (id == -1) return false;
+          HistogramKey key = keysById.get(id);
+          if (key == null) continue;
+          IndexEntry entry = keyIndex.get(key);
+          // skip entries superseded by a later schedule() call and keys already handed out
+          if (entry != null && entry.id == id && entry.dispatchTimeMillis == dueMillis &&
+              inFlight.add(key)) {
+            nextKey = key;
           }
         }
-        return false;
+        return true;
       }
 
       @Override
       public HistogramKey next() {
-        return nextHistogramKey;
+        if (!hasNext()) throw new NoSuchElementException();
+        currentKey = nextKey;
+        nextKey = null;
+        return currentKey;
       }
 
       @Override
       public void remove() {
-        indexIterator.remove();
+        if (currentKey == null) throw new IllegalStateException();
+        IndexEntry entry = keyIndex.remove(currentKey);
+        if (entry != null) {
+          keysById.remove(entry.id);
+        }
+        inFlight.remove(currentKey);
+        currentKey = null;
       }
     };
   }
@@ -310,24 +380,47 @@ public class AccumulationCache implements Accumulator {
    */
   @Override
   public long size() {
-    return backingStore.size();
+    return partition ? keyIndex.size() : backingStore.size();
   }
 
-  private static void mergeHistogram(final TDigest target, final Histogram source) {
-    List<Double> means = source.getBins();
-    List<Integer> counts = source.getCounts();
-
-    if (means != null && counts != null) {
-      int len = Math.min(means.size(), counts.size());
+  /**
+   * Add an existing backing store entry to the dispatch time index.
+   *
+   * @param key                histogram key
+   * @param dispatchTimeMillis dispatch time of the stored digest
+   */
+  void indexEntry(HistogramKey key, long dispatchTimeMillis) {
+    setDispatchTime(key, dispatchTimeMillis);
+  }
 
-      for (int i = 0; i < len; ++i) {
-        Integer count = counts.get(i);
-        Double mean = means.get(i);
+  private void setDispatchTime(HistogramKey key, long dispatchTimeMillis) {
+    keyIndex.compute(key, (k, v) -> {
+      IndexEntry entry = new IndexEntry(v == null ? newId(k) : v.id, dispatchTimeMillis);
+      schedule(entry.id, dispatchTimeMillis);
+      return entry;
+    });
+  }
 
-        if (count != null && count > 0 && mean != null && Double.isFinite(mean)) {
-          target.add(mean, count);
-        }
+  private void lowerDispatchTime(HistogramKey key, long dispatchTimeMillis) {
+    keyIndex.compute(key, (k, v) -> {
+      if (v != null && v.dispatchTimeMillis <= dispatchTimeMillis) {
+        return v;
       }
+      IndexEntry entry = new IndexEntry(v == null ? newId(k) : v.id, dispatchTimeMillis);
+      schedule(entry.id, dispatchTimeMillis);
+      return entry;
+    });
+  }
+
+  private long newId(HistogramKey key) {
+    long id = nextId.getAndIncrement();
+    keysById.put(id, key);
+    return id;
+  }
+
+  private void schedule(long id, long dispatchTimeMillis) {
+    synchronized (dispatchIndex) {
+      dispatchIndex.schedule(id, dispatchTimeMillis);
     }
   }
 
@@ -339,6 +432,19 @@ public class AccumulationCache implements Accumulator {
     cache.invalidateAll();
   }
 
+  /**
+   * Dispatch time for a key along with the id the key is scheduled under in the timer wheel.
+   */
+  private static final class IndexEntry {
+    private final long id;
+    private final long dispatchTimeMillis;
+
+    private IndexEntry(long id, long dispatchTimeMillis) {
+      this.id = id;
+      this.dispatchTimeMillis = dispatchTimeMillis;
+    }
+  }
+
   public class AccumulationCacheMonitor implements Runnable {
 
     private Counter failureCounter;
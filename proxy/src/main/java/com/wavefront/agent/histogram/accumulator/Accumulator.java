@@ -4,7 +4,9 @@ import com.tdunning.math.stats.AgentDigest;
 import com.wavefront.agent.TimeProvider;
 import com.wavefront.agent.histogram.Utils;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.function.BiFunction;
 
 import javax.annotation.Nonnull;
@@ -64,6 +66,17 @@ public interface Accumulator {
    */
   Iterator<Utils.HistogramKey> getRipeDigestsIterator(TimeProvider clock);
 
+  /**
+   * Returns iterators over "ripe" digests for independent partitions of the key space, which can
+   * be consumed concurrently.
+   *
+   * @param clock a millisecond-precision epoch time source
+   * @return iterators over "ripe" digests ready to be shipped, one per partition
+   */
+  default List<Iterator<Utils.HistogramKey>> getRipeDigestsIterators(TimeProvider clock) {
+    return Collections.singletonList(getRipeDigestsIterator(clock));
+  }
+
   /**
    * Returns the number of items in the storage behind the cache
    *
@@ -27,6 +27,17 @@ public class AgentDigestFactory {
   }
 
   public AgentDigest newDigest() {
-    return new AgentDigest(compression, timeProvider.millisSinceEpoch() + ttlMillis);
+    return new AgentDigest(compression, getDispatchTimeMillis());
+  }
+
+  public short getCompression() {
+    return compression;
+  }
+
+  /**
+   * @return dispatch time for a digest created right now.
+   */
+  public long getDispatchTimeMillis() {
+    return timeProvider.millisSinceEpoch() + ttlMillis;
   }
 }
@@ -0,0 +1,269 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Arrays;
+
+/**
+ * Two-level timer wheel for primitive {@code long} ids, so that finding the ids that are due only
+ * requires looking at the ids that are due (or nearly due), instead of scanning all of them.
+ *
+ * With the default settings, ids due within the next ~34 minutes are kept in a fine wheel with 1
+ * second buckets, ids due later are kept in a coarse wheel with ~17 minute buckets and cascade
+ * into the fine wheel as their time approaches, so they are only looked at once per coarse bucket
+ * rather than on every rotation of the fine wheel. Ids due further out than a full rotation of
+ * the coarse wheel (~6 days) share buckets with earlier ones and are skipped until their round
+ * comes up.
+ *
+ * Ids and due times are stored in primitive arrays, scheduling and polling do not allocate once
+ * the buckets have grown to their working size. Rescheduling an id does not remove the previous
+ * entry, so callers are expected to validate polled ids against their own state, e.g. by
+ * comparing {@link #lastPolledDueMillis()} with the id's current due time.
+ *
+ * Not thread-safe.
+ */
+final class LongTimerWheel {
+  private static final long UNSET = Long.MIN_VALUE;
+  private static final long TICK_MILLIS = 1000;
+  private static final int FINE_WHEEL_SIZE = 4096;
+  private static final int TICKS_PER_COARSE_TICK = 1024;
+  private static final int COARSE_WHEEL_SIZE = 512;
+
+  private final long tickMillis;
+  private final int fineWheelSize;
+  private final int fineHorizonTicks;
+  private final int ticksPerCoarseTick;
+  private final int coarseWheelSize;
+  private final Bucket[] fineWheel;
+  private final Bucket[] coarseWheel;
+  // ids scheduled before the first poll, when the wheel doesn't know the current time yet
+  private final Bucket pending = new Bucket();
+  private long currentTick = UNSET;
+  private long cascadedThroughCoarseTick = UNSET;
+  // position within the current bucket, only valid while polling with the same time
+  private int cursor = 0;
+  private long cursorNowMillis = UNSET;
+  private int fineSize = 0;
+  private int size = 0;
+  private long lastPolledDueMillis = UNSET;
+
+  private final Counter scannedCounter;
+  private final Counter cascadedCounter;
+
+  /**
+   * @param metricPrefix prefix for index metrics, wheels with the same prefix share them.
+   */
+  LongTimerWheel(String metricPrefix) {
+    this(TICK_MILLIS, FINE_WHEEL_SIZE, TICKS_PER_COARSE_TICK, COARSE_WHEEL_SIZE, metricPrefix);
+  }
+
+  /**
+   * @param tickMillis         resolution of the fine wheel in milliseconds.
+   * @param fineWheelSize      number of buckets in the fine wheel.
+   * @param ticksPerCoarseTick number of fine ticks covered by one coarse bucket, must not exceed
+   *                           half of the fine wheel.
+   * @param coarseWheelSize    number of buckets in the coarse wheel.
+   * @param metricPrefix       prefix for index metrics, wheels with the same prefix share them.
+   */
+  @VisibleForTesting
+  LongTimerWheel(long tickMillis, int fineWheelSize, int ticksPerCoarseTick, int coarseWheelSize,
+                 String metricPrefix) {
+    Preconditions.checkArgument(tickMillis > 0, "tickMillis must be positive");
+    Preconditions.checkArgument(coarseWheelSize > 0, "coarseWheelSize must be positive");
+    Preconditions.checkArgument(ticksPerCoarseTick > 0 && ticksPerCoarseTick <= fineWheelSize / 2,
+        "ticksPerCoarseTick must be positive and not exceed half of fineWheelSize");
+    this.tickMillis = tickMillis;
+    this.fineWheelSize = fineWheelSize;
+    // ids are cascaded from the coarse wheel once they are due within this many ticks
+    this.fineHorizonTicks = fineWheelSize / 2;
+    this.ticksPerCoarseTick = ticksPerCoarseTick;
+    this.coarseWheelSize = coarseWheelSize;
+    this.fineWheel = new Bucket[fineWheelSize];
+    this.coarseWheel = new Bucket[coarseWheelSize];
+    String group = metricPrefix + ".ripe_index";
+    this.scannedCounter = Metrics.newCounter(new MetricName(group, "", "scanned"));
+    this.cascadedCounter = Metrics.newCounter(new MetricName(group, "", "cascaded"));
+  }
+
+  /**
+   * Schedule an id.
+   *
+   * @param id        id to schedule.
+   * @param dueMillis time at which the id becomes due.
+   */
+  void schedule(long id, long dueMillis) {
+    size++;
+    if (currentTick == UNSET) {
+      pending.add(id, dueMillis);
+    } else {
+      place(id, dueMillis);
+    }
+  }
+
+  /**
+   * Remove and return an id that is due strictly before the specified time.
+   *
+   * @param nowMillis current time.
+   * @return id or -1 if there are no more due ids.
+   */
+  long poll(long nowMillis) {
+    long nowTick = Math.floorDiv(nowMillis, tickMillis);
+    advance(nowTick);
+    if (nowMillis != cursorNowMillis) {
+      // entries skipped earlier in the current bucket may be due by now
+      cursor = 0;
+      cursorNowMillis = nowMillis;
+    }
+    if (nowTick - currentTick >= fineWheelSize) {
+      // a full rotation covers every bucket once
+      currentTick = nowTick - fineWheelSize + 1;
+      cursor = 0;
+    }
+    long scanned = 0;
+    try {
+      while (fineSize > 0) {
+        Bucket bucket = fineWheel[fineIndex(currentTick)];
+        if (bucket != null) {
+          while (cursor < bucket.count) {
+            scanned++;
+            if (bucket.dueTimes[cursor] < nowMillis) {
+              long id = bucket.ids[cursor];
+              lastPolledDueMillis = bucket.dueTimes[cursor];
+              bucket.removeAt(cursor);
+              fineSize--;
+              size--;
+              return id;
+            }
+            cursor++;
+          }
+        }
+        cursor = 0;
+        if (currentTick >= nowTick) {
+          return -1;
+        }
+        currentTick++;
+      }
+      currentTick = Math.max(currentTick, nowTick);
+      cursor = 0;
+      return -1;
+    } finally {
+      if (scanned > 0) scannedCounter.inc(scanned);
+    }
+  }
+
+  /**
+   * @return due time the id returned by the last successful {@link #poll} was scheduled with.
+   */
+  long lastPolledDueMillis() {
+    return lastPolledDueMillis;
+  }
+
+  /**
+   * @return number of scheduled entries, including superseded ones.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Start the wheel on the first poll and cascade coarse buckets that are now within the fine
+   * wheel's horizon.
+   */
+  private void advance(long nowTick) {
+    long cascadeThrough = Math.floorDiv(nowTick + fineHorizonTicks, ticksPerCoarseTick) - 1;
+    if (currentTick == UNSET) {
+      currentTick = nowTick;
+      // nothing could have been placed into coarse buckets that are already within the horizon
+      cascadedThroughCoarseTick = cascadeThrough;
+      for (int i = 0; i < pending.count; i++) {
+        place(pending.ids[i], pending.dueTimes[i]);
+      }
+      pending.clear();
+      return;
+    }
+    if (cascadeThrough <= cascadedThroughCoarseTick) return;
+    long from = Math.max(cascadedThroughCoarseTick + 1, cascadeThrough - coarseWheelSize + 1);
+    cascadedThroughCoarseTick = cascadeThrough;
+    for (long coarseTick = from; coarseTick <= cascadeThrough; coarseTick++) {
+      Bucket bucket = coarseWheel[coarseIndex(coarseTick)];
+      if (bucket == null) continue;
+      int i = 0;
+      while (i < bucket.count) {
+        long dueMillis = bucket.dueTimes[i];
+        if (coarseTickOf(dueMillis) > cascadeThrough) {
+          i++; // due in one of the later rounds
+          continue;
+        }
+        long id = bucket.ids[i];
+        bucket.removeAt(i);
+        place(id, dueMillis);
+        cascadedCounter.inc();
+      }
+    }
+  }
+
+  private void place(long id, long dueMillis) {
+    long dueTick = Math.floorDiv(dueMillis, tickMillis);
+    long coarseTick = Math.floorDiv(dueTick, ticksPerCoarseTick);
+    if (coarseTick > cascadedThroughCoarseTick) {
+      int index = coarseIndex(coarseTick);
+      if (coarseWheel[index] == null) {
+        coarseWheel[index] = new Bucket();
+      }
+      coarseWheel[index].add(id, dueMillis);
+    } else {
+      int index = fineIndex(Math.max(dueTick, currentTick));
+      if (fineWheel[index] == null) {
+        fineWheel[index] = new Bucket();
+      }
+      fineWheel[index].add(id, dueMillis);
+      fineSize++;
+    }
+  }
+
+  private long coarseTickOf(long dueMillis) {
+    return Math.floorDiv(Math.floorDiv(dueMillis, tickMillis), ticksPerCoarseTick);
+  }
+
+  private int fineIndex(long tick) {
+    return (int) Math.floorMod(tick, (long) fineWheelSize);
+  }
+
+  private int coarseIndex(long coarseTick) {
+    return (int) Math.floorMod(coarseTick, (long) coarseWheelSize);
+  }
+
+  /**
+   * Unordered list of ids with their due times.
+   */
+  private static final class Bucket {
+    private long[] ids = new long[4];
+    private long[] dueTimes = new long[4];
+    private int count = 0;
+
+    void add(long id, long dueMillis) {
+      if (count == ids.length) {
+        ids = Arrays.copyOf(ids, count * 2);
+        dueTimes = Arrays.copyOf(dueTimes, count * 2);
+      }
+      ids[count] = id;
+      dueTimes[count] = dueMillis;
+      count++;
+    }
+
+    void removeAt(int index) {
+      int last = --count;
+      ids[index] = ids[last];
+      dueTimes[index] = dueTimes[last];
+    }
+
+    void clear() {
+      count = 0;
+    }
+  }
+}
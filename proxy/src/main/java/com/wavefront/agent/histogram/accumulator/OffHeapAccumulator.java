@@ -0,0 +1,758 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import com.tdunning.math.stats.AgentDigest;
+import com.wavefront.agent.TimeProvider;
+import com.wavefront.agent.histogram.Utils;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import wavefront.report.Histogram;
+
+import static com.wavefront.agent.histogram.Utils.HistogramKey;
+
+/**
+ * Non-persistent accumulator that keeps histogram keys and digests off-heap, so that large
+ * numbers of bins don't put pressure on the garbage collector.
+ *
+ * The accumulator is split into stripes by key hash, each stripe guarded by its own lock. Within a
+ * stripe, keys are serialized into a compact binary form and interned into an open-addressing
+ * dictionary that maps them to a primitive {@code long} entry id. Keys and digests are stored in
+ * blocks provided by a {@link SlabAllocator}, digests as raw centroids plus a small buffer of
+ * unmerged values, so that adding a value to an existing bin usually doesn't decode the digest
+ * at all. Dispatch times are tracked by a {@link LongTimerWheel} of entry ids, so finding ripe
+ * digests only touches the bins that are actually due.
+ *
+ * Unlike {@link AccumulationCache} backed by a ChronicleMap, the contents are lost on restart.
+ */
+public class OffHeapAccumulator implements Accumulator {
+  private static final int DEFAULT_STRIPES = 64;
+  private static final int SLAB_SIZE = 64 * 1024;
+  private static final int INITIAL_ENTRIES = 256;
+
+  // entry layout: key address, digest address, dispatch time, key length, key hash, generation,
+  // flags
+  private static final int ENTRY_KEY_ADDRESS = 0;
+  private static final int ENTRY_DIGEST_ADDRESS = 8;
+  private static final int ENTRY_DISPATCH_TIME = 16;
+  private static final int ENTRY_KEY_LENGTH = 24;
+  private static final int ENTRY_KEY_HASH = 28;
+  private static final int ENTRY_GENERATION = 32;
+  private static final int ENTRY_FLAGS = 36;
+  private static final int ENTRY_SIZE = 40;
+
+  // set while a ripe key is handed out to the caller and not scheduled in the dispatch index
+  private static final int FLAG_POLLED = 1;
+
+  // digest layout: centroid count, buffered value count, (weight, mean) float pairs
+  private static final int DIGEST_CENTROIDS = 0;
+  private static final int DIGEST_BUFFERED = 4;
+  private static final int DIGEST_HEADER_SIZE = 8;
+  private static final int CENTROID_SIZE = 8;
+  private static final int BUFFERED_VALUES = 16;
+
+  private final AgentDigestFactory agentDigestFactory;
+  private final String metricPrefix;
+  private final short compression;
+  private final Stripe[] stripes;
+  private final int stripeBits;
+  private final AtomicLong size = new AtomicLong();
+  private final Counter binCreatedCounter;
+  private final Counter binMergedCounter;
+
+  /**
+   * @param agentDigestFactory a factory that generates {@code AgentDigests} with pre-defined
+   *                           compression level and TTL time
+   * @param metricPrefix       prefix for accumulator metrics
+   */
+  public OffHeapAccumulator(AgentDigestFactory agentDigestFactory, String metricPrefix) {
+    this(agentDigestFactory, DEFAULT_STRIPES, metricPrefix);
+  }
+
+  /**
+   * @param agentDigestFactory a factory that generates {@code AgentDigests} with pre-defined
+   *                           compression level and TTL time
+   * @param stripes            number of independently locked stripes, must be a power of two
+   * @param metricPrefix       prefix for accumulator metrics
+   */
+  @VisibleForTesting
+  OffHeapAccumulator(AgentDigestFactory agentDigestFactory, int stripes, String metricPrefix) {
+    Preconditions.checkArgument(stripes > 0 && Integer.bitCount(stripes) == 1,
+        "stripes must be a power of two");
+    this.agentDigestFactory = agentDigestFactory;
+    this.metricPrefix = metricPrefix;
+    this.compression = agentDigestFactory.getCompression();
+    this.stripeBits = Integer.numberOfTrailingZeros(stripes);
+    this.stripes = new Stripe[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.binCreatedCounter = Metrics.newCounter(new MetricName(metricPrefix, "", "bin_created"));
+    this.binMergedCounter = Metrics.newCounter(new MetricName(metricPrefix, "", "bin_merged"));
+    Metrics.newGauge(new MetricName(metricPrefix, "", "offheap_bytes_allocated"),
+        new Gauge<Long>() {
+          @Override
+          public Long value() {
+            long total = 0;
+            for (Stripe stripe : OffHeapAccumulator.this.stripes) {
+              total += stripe.getAllocatedBytes();
+            }
+            return total;
+          }
+        });
+    Metrics.newGauge(new MetricName(metricPrefix, "", "offheap_bytes_used"),
+        new Gauge<Long>() {
+          @Override
+          public Long value() {
+            long total = 0;
+            for (Stripe stripe : OffHeapAccumulator.this.stripes) {
+              total += stripe.getUsedBytes();
+            }
+            return total;
+          }
+        });
+  }
+
+  @Override
+  public void put(HistogramKey key, @Nonnull AgentDigest value) {
+    int hash = hash(key);
+    Stripe stripe = stripeFor(hash);
+    synchronized (stripe) {
+      int slot = stripe.find(key, hash);
+      if (slot < 0) {
+        slot = stripe.insert(hash, value.getDispatchTimeMillis());
+        binCreatedCounter.inc();
+      } else {
+        binMergedCounter.inc();
+        stripe.lowerDispatchTime(slot, value.getDispatchTimeMillis());
+      }
+      AgentDigest digest = stripe.load(slot, stripe.scratch);
+      digest.add(value);
+      stripe.store(slot, digest);
+    }
+  }
+
+  @Override
+  public void put(HistogramKey key, double value) {
+    int hash = hash(key);
+    Stripe stripe = stripeFor(hash);
+    synchronized (stripe) {
+      int slot = stripe.find(key, hash);
+      if (slot < 0) {
+        slot = stripe.insert(hash, agentDigestFactory.getDispatchTimeMillis());
+        binCreatedCounter.inc();
+      } else {
+        binMergedCounter.inc();
+      }
+      if (!stripe.tryBuffer(slot, value, 1)) {
+        AgentDigest digest = stripe.load(slot, stripe.scratch);
+        digest.add(value);
+        stripe.store(slot, digest);
+      }
+    }
+  }
+
+  @Override
+  public void put(HistogramKey key, Histogram value) {
+    List<Double> means = value.getBins();
+    List<Integer> counts = value.getCounts();
+    if (means == null || counts == null) {
+      return;
+    }
+    int hash = hash(key);
+    Stripe stripe = stripeFor(hash);
+    synchronized (stripe) {
+      int slot = stripe.find(key, hash);
+      if (slot < 0) {
+        slot = stripe.insert(hash, agentDigestFactory.getDispatchTimeMillis());
+        binCreatedCounter.inc();
+      } else {
+        binMergedCounter.inc();
+      }
+      int len = Math.min(means.size(), counts.size());
+      AgentDigest digest = null;
+      for (int i = 0; i < len; ++i) {
+        Integer count = counts.get(i);
+        Double mean = means.get(i);
+        if (count != null && count > 0 && mean != null && Double.isFinite(mean)) {
+          if (digest != null) {
+            digest.add(mean, count);
+          } else if (!stripe.tryBuffer(slot, mean, count)) {
+            digest = stripe.load(slot, stripe.scratch);
+            digest.add(mean, count);
+          }
+        }
+      }
+      if (digest != null) {
+        stripe.store(slot, digest);
+      }
+    }
+  }
+
+  @Override
+  public AgentDigest compute(HistogramKey key, BiFunction<? super HistogramKey,
+      ? super AgentDigest, ? extends AgentDigest> remappingFunction) {
+    int hash = hash(key);
+    Stripe stripe = stripeFor(hash);
+    synchronized (stripe) {
+      int slot = stripe.find(key, hash);
+      AgentDigest current = slot < 0 ? null :
+          stripe.load(slot, new AgentDigest(compression, stripe.getDispatchTime(slot)));
+      AgentDigest result;
+      try {
+        result = remappingFunction.apply(key, current);
+      } catch (RuntimeException | Error e) {
+        if (slot >= 0) {
+          stripe.retryLater(slot);
+        }
+        throw e;
+      }
+      if (result == null) {
+        if (slot >= 0) {
+          stripe.remove(slot);
+        }
+      } else {
+        if (slot < 0) {
+          slot = stripe.insert(hash, result.getDispatchTimeMillis());
+        } else {
+          stripe.setDispatchTime(slot, result.getDispatchTimeMillis());
+        }
+        stripe.store(slot, result);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Returns an iterator over "ripe" digests ready to be shipped. Keys are taken out of the
+   * dispatch index as they are returned, so callers are expected to {@link #compute} every key
+   * they get from the iterator. Keys that failed to compute are returned again by the next
+   * iterator.
+   *
+   * @param clock a millisecond-precision epoch time source
+   * @return an iterator over "ripe" digests ready to be shipped
+   */
+  @Override
+  public Iterator<HistogramKey> getRipeDigestsIterator(TimeProvider clock) {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        stripe.rescheduleFailed();
+      }
+    }
+    return ripeDigestsIterator(0, stripes.length, clock.millisSinceEpoch());
+  }
+
+  /**
+   * Returns one iterator per stripe, keys are taken out of the dispatch index as they are
+   * returned.
+   *
+   * @param clock a millisecond-precision epoch time source
+   * @return iterators over "ripe" digests ready to be shipped, one per stripe
+   */
+  @Override
+  public List<Iterator<HistogramKey>> getRipeDigestsIterators(TimeProvider clock) {
+    long now = clock.millisSinceEpoch();
+    List<Iterator<HistogramKey>> iterators = new ArrayList<>(stripes.length);
+    for (int i = 0; i < stripes.length; i++) {
+      synchronized (stripes[i]) {
+        stripes[i].rescheduleFailed();
+      }
+      iterators.add(ripeDigestsIterator(i, i + 1, now));
+    }
+    return iterators;
+  }
+
+  private Iterator<HistogramKey> ripeDigestsIterator(int fromStripe, int toStripe, long now) {
+    return new Iterator<HistogramKey>() {
+      private int stripeIndex = fromStripe;
+      private HistogramKey nextKey = null;
+
+      @Override
+      public boolean hasNext() {
+        while (nextKey == null && stripeIndex < toStripe) {
+          Stripe stripe = stripes[stripeIndex];
+          synchronized (stripe) {
+            nextKey = stripe.pollRipe(now);
+          }
+          if (nextKey == null) {
+            stripeIndex++;
+          }
+        }
+        return nextKey != null;
+      }
+
+      @Override
+      public HistogramKey next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        HistogramKey key = nextKey;
+        nextKey = null;
+        return key;
+      }
+
+      @Override
+      public void remove() {
+        // already removed from the dispatch index
+      }
+    };
+  }
+
+  @Override
+  public long size() {
+    return size.get();
+  }
+
+  /**
+   * Nothing to flush, all data is kept in the off-heap store.
+   */
+  @Override
+  public void flush() {
+  }
+
+  private Stripe stripeFor(int hash) {
+    return stripes[hash & (stripes.length - 1)];
+  }
+
+  private static int hash(HistogramKey key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  /**
+   * Independently locked part of the accumulator. All methods must be called while holding the
+   * stripe's monitor.
+   */
+  private final class Stripe {
+    private final SlabAllocator allocator = new SlabAllocator(SLAB_SIZE);
+    private final LongTimerWheel dispatchIndex = new LongTimerWheel(metricPrefix);
+    private final AgentDigest scratch = new AgentDigest(compression, 0);
+    private ByteBuffer entries = allocate(INITIAL_ENTRIES * ENTRY_SIZE);
+    private int entryCount = 0;
+    private int slotsUsed = 0;
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount = 0;
+    private long[] failedIds = new long[16];
+    private int failedCount = 0;
+    // open-addressing dictionary of slot + 1, 0 means empty
+    private ByteBuffer table = allocate(INITIAL_ENTRIES * 2 * 4);
+    private int tableMask = INITIAL_ENTRIES * 2 - 1;
+    private byte[] keyBytes = new byte[256];
+    private int keyLength;
+
+    int find(HistogramKey key, int hash) {
+      encodeKey(key);
+      int pos = homePosition(hash);
+      while (true) {
+        int value = table.getInt(pos << 2);
+        if (value == 0) {
+          return -1;
+        }
+        int slot = value - 1;
+        if (entries.getInt(slot * ENTRY_SIZE + ENTRY_KEY_HASH) == hash && keyMatches(slot)) {
+          return slot;
+        }
+        pos = (pos + 1) & tableMask;
+      }
+    }
+
+    /**
+     * Add a new entry for the key that has been encoded by the last {@link #find} call.
+     */
+    int insert(int hash, long dispatchTimeMillis) {
+      int slot;
+      if (freeSlotCount > 0) {
+        slot = freeSlots[--freeSlotCount];
+      } else {
+        if ((slotsUsed + 1) * ENTRY_SIZE > entries.capacity()) {
+          entries = grow(entries, entries.capacity() * 2);
+        }
+        slot = slotsUsed++;
+      }
+      int base = slot * ENTRY_SIZE;
+      long keyAddress = allocator.allocate(keyLength);
+      ByteBuffer keyBuffer = allocator.buffer(keyAddress);
+      int keyOffset = SlabAllocator.offset(keyAddress);
+      for (int i = 0; i < keyLength; i++) {
+        keyBuffer.put(keyOffset + i, keyBytes[i]);
+      }
+      long digestAddress = allocator.allocate(DIGEST_HEADER_SIZE +
+          BUFFERED_VALUES * CENTROID_SIZE);
+      ByteBuffer digestBuffer = allocator.buffer(digestAddress);
+      digestBuffer.putInt(SlabAllocator.offset(digestAddress) + DIGEST_CENTROIDS, 0);
+      digestBuffer.putInt(SlabAllocator.offset(digestAddress) + DIGEST_BUFFERED, 0);
+      entries.putLong(base + ENTRY_KEY_ADDRESS, keyAddress);
+      entries.putLong(base + ENTRY_DIGEST_ADDRESS, digestAddress);
+      entries.putLong(base + ENTRY_DISPATCH_TIME, dispatchTimeMillis);
+      entries.putInt(base + ENTRY_KEY_LENGTH, keyLength);
+      entries.putInt(base + ENTRY_KEY_HASH, hash);
+      entries.putInt(base + ENTRY_FLAGS, 0);
+      if (++entryCount * 3 > (tableMask + 1) * 2) {
+        resizeTable();
+      }
+      int pos = homePosition(hash);
+      while (table.getInt(pos << 2) != 0) {
+        pos = (pos + 1) & tableMask;
+      }
+      table.putInt(pos << 2, slot + 1);
+      dispatchIndex.schedule(id(slot), dispatchTimeMillis);
+      size.incrementAndGet();
+      return slot;
+    }
+
+    void remove(int slot) {
+      int base = slot * ENTRY_SIZE;
+      int pos = homePosition(entries.getInt(base + ENTRY_KEY_HASH));
+      while (table.getInt(pos << 2) != slot + 1) {
+        pos = (pos + 1) & tableMask;
+      }
+      // backward shift deletion keeps probe sequences intact without tombstones
+      int next = pos;
+      while (true) {
+        next = (next + 1) & tableMask;
+        int value = table.getInt(next << 2);
+        if (value == 0) {
+          break;
+        }
+        int home = homePosition(entries.getInt((value - 1) * ENTRY_SIZE + ENTRY_KEY_HASH));
+        boolean movable = next > pos ? (home <= pos || home > next) : (home <= pos && home > next);
+        if (movable) {
+          table.putInt(pos << 2, value);
+          pos = next;
+        }
+      }
+      table.putInt(pos << 2, 0);
+      allocator.free(entries.getLong(base + ENTRY_KEY_ADDRESS));
+      allocator.free(entries.getLong(base + ENTRY_DIGEST_ADDRESS));
+      entries.putLong(base + ENTRY_KEY_ADDRESS, 0);
+      entries.putLong(base + ENTRY_DIGEST_ADDRESS, 0);
+      entries.putInt(base + ENTRY_GENERATION, entries.getInt(base + ENTRY_GENERATION) + 1);
+      if (freeSlotCount == freeSlots.length) {
+        freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+      }
+      freeSlots[freeSlotCount++] = slot;
+      entryCount--;
+      size.decrementAndGet();
+    }
+
+    long getDispatchTime(int slot) {
+      return entries.getLong(slot * ENTRY_SIZE + ENTRY_DISPATCH_TIME);
+    }
+
+    void setDispatchTime(int slot, long dispatchTimeMillis) {
+      int base = slot * ENTRY_SIZE;
+      if (getDispatchTime(slot) != dispatchTimeMillis ||
+          entries.getInt(base + ENTRY_FLAGS) == FLAG_POLLED) {
+        entries.putLong(base + ENTRY_DISPATCH_TIME, dispatchTimeMillis);
+        entries.putInt(base + ENTRY_FLAGS, 0);
+        // the previous schedule becomes stale and is filtered out in pollRipe()
+        dispatchIndex.schedule(id(slot), dispatchTimeMillis);
+      }
+    }
+
+    void lowerDispatchTime(int slot, long dispatchTimeMillis) {
+      if (dispatchTimeMillis < getDispatchTime(slot)) {
+        setDispatchTime(slot, dispatchTimeMillis);
+      }
+    }
+
+    /**
+     * Append a value to the digest's buffer of unmerged values, if there is room for it.
+     */
+    boolean tryBuffer(int slot, double mean, int count) {
+      long digestAddress = entries.getLong(slot * ENTRY_SIZE + ENTRY_DIGEST_ADDRESS);
+      ByteBuffer buffer = allocator.buffer(digestAddress);
+      int offset = SlabAllocator.offset(digestAddress);
+      int centroids = buffer.getInt(offset + DIGEST_CENTROIDS);
+      int buffered = buffer.getInt(offset + DIGEST_BUFFERED);
+      int capacity = (SlabAllocator.blockSize(digestAddress) - DIGEST_HEADER_SIZE) / CENTROID_SIZE;
+      if (buffered >= BUFFERED_VALUES || centroids + buffered >= capacity) {
+        return false;
+      }
+      int position = offset + DIGEST_HEADER_SIZE + (centroids + buffered) * CENTROID_SIZE;
+      buffer.putFloat(position, count);
+      buffer.putFloat(position + 4, (float) mean);
+      buffer.putInt(offset + DIGEST_BUFFERED, buffered + 1);
+      return true;
+    }
+
+    /**
+     * Decode the digest stored for the specified slot, including buffered values.
+     */
+    AgentDigest load(int slot, AgentDigest digest) {
+      long digestAddress = entries.getLong(slot * ENTRY_SIZE + ENTRY_DIGEST_ADDRESS);
+      ByteBuffer buffer = allocator.buffer(digestAddress);
+      int offset = SlabAllocator.offset(digestAddress);
+      int centroids = buffer.getInt(offset + DIGEST_CENTROIDS);
+      int buffered = buffer.getInt(offset + DIGEST_BUFFERED);
+      digest.readCentroids(buffer, offset + DIGEST_HEADER_SIZE, centroids, getDispatchTime(slot));
+      int position = offset + DIGEST_HEADER_SIZE + centroids * CENTROID_SIZE;
+      for (int i = 0; i < buffered; i++) {
+        digest.add(buffer.getFloat(position + 4), (int) buffer.getFloat(position));
+        position += CENTROID_SIZE;
+      }
+      return digest;
+    }
+
+    /**
+     * Replace the digest stored for the specified slot, growing its block if necessary.
+     */
+    void store(int slot, AgentDigest digest) {
+      int base = slot * ENTRY_SIZE;
+      long digestAddress = entries.getLong(base + ENTRY_DIGEST_ADDRESS);
+      int centroids = digest.centroidCount();
+      int required = DIGEST_HEADER_SIZE + (centroids + BUFFERED_VALUES) * CENTROID_SIZE;
+      if (SlabAllocator.blockSize(digestAddress) < required) {
+        allocator.free(digestAddress);
+        digestAddress = allocator.allocate(required);
+        entries.putLong(base + ENTRY_DIGEST_ADDRESS, digestAddress);
+      }
+      ByteBuffer buffer = allocator.buffer(digestAddress);
+      int offset = SlabAllocator.offset(digestAddress);
+      digest.writeCentroids(buffer, offset + DIGEST_HEADER_SIZE);
+      buffer.putInt(offset + DIGEST_CENTROIDS, centroids);
+      buffer.putInt(offset + DIGEST_BUFFERED, 0);
+    }
+
+    /**
+     * Take the next ripe key out of the dispatch index. Schedule entries that have been
+     * superseded by a later {@link #setDispatchTime} call, or that belong to a key that has
+     * already been handed out, are discarded.
+     *
+     * @return key or null if there are no ripe keys left.
+     */
+    @Nullable
+    HistogramKey pollRipe(long now) {
+      long id;
+      while ((id = dispatchIndex.poll(now)) != -1) {
+        int slot = (int) id;
+        int base = slot * ENTRY_SIZE;
+        if (entries.getInt(base + ENTRY_GENERATION) == (int) (id >>> 32) &&
+            entries.getLong(base + ENTRY_KEY_ADDRESS) != 0 &&
+            entries.getInt(base + ENTRY_FLAGS) != FLAG_POLLED &&
+            entries.getLong(base + ENTRY_DISPATCH_TIME) == dispatchIndex.lastPolledDueMillis()) {
+          entries.putInt(base + ENTRY_FLAGS, FLAG_POLLED);
+          return decodeKey(slot);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Remember a key that has been handed out by {@link #pollRipe} but failed to compute, so that
+     * it's put back into the dispatch index by the next {@link #rescheduleFailed} call. Putting it
+     * back right away would make the current iterator return it over and over again.
+     */
+    void retryLater(int slot) {
+      if (entries.getInt(slot * ENTRY_SIZE + ENTRY_FLAGS) != FLAG_POLLED) {
+        return;
+      }
+      if (failedCount == failedIds.length) {
+        failedIds = Arrays.copyOf(failedIds, failedIds.length * 2);
+      }
+      failedIds[failedCount++] = id(slot);
+    }
+
+    void rescheduleFailed() {
+      for (int i = 0; i < failedCount; i++) {
+        long id = failedIds[i];
+        int slot = (int) id;
+        int base = slot * ENTRY_SIZE;
+        if (entries.getInt(base + ENTRY_GENERATION) == (int) (id >>> 32) &&
+            entries.getLong(base + ENTRY_KEY_ADDRESS) != 0 &&
+            entries.getInt(base + ENTRY_FLAGS) == FLAG_POLLED) {
+          entries.putInt(base + ENTRY_FLAGS, 0);
+          dispatchIndex.schedule(id, getDispatchTime(slot));
+        }
+      }
+      failedCount = 0;
+    }
+
+    long getAllocatedBytes() {
+      return allocator.getAllocatedBytes() + entries.capacity() + table.capacity();
+    }
+
+    long getUsedBytes() {
+      return allocator.getUsedBytes() + (long) entryCount * ENTRY_SIZE;
+    }
+
+    private long id(int slot) {
+      return ((long) entries.getInt(slot * ENTRY_SIZE + ENTRY_GENERATION) << 32) |
+          (slot & 0xFFFFFFFFL);
+    }
+
+    private int homePosition(int hash) {
+      return (hash >>> stripeBits) & tableMask;
+    }
+
+    private boolean keyMatches(int slot) {
+      int base = slot * ENTRY_SIZE;
+      if (entries.getInt(base + ENTRY_KEY_LENGTH) != keyLength) {
+        return false;
+      }
+      long keyAddress = entries.getLong(base + ENTRY_KEY_ADDRESS);
+      ByteBuffer buffer = allocator.buffer(keyAddress);
+      int offset = SlabAllocator.offset(keyAddress);
+      for (int i = 0; i < keyLength; i++) {
+        if (buffer.get(offset + i) != keyBytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void resizeTable() {
+      ByteBuffer oldTable = table;
+      int oldCapacity = tableMask + 1;
+      table = allocate(oldCapacity * 2 * 4);
+      tableMask = oldCapacity * 2 - 1;
+      for (int i = 0; i < oldCapacity; i++) {
+        int value = oldTable.getInt(i << 2);
+        if (value != 0) {
+          int pos = homePosition(entries.getInt((value - 1) * ENTRY_SIZE + ENTRY_KEY_HASH));
+          while (table.getInt(pos << 2) != 0) {
+            pos = (pos + 1) & tableMask;
+          }
+          table.putInt(pos << 2, value);
+        }
+      }
+    }
+
+    /**
+     * Serialize the key into {@link #keyBytes}: granularity, bin id, metric, source and tags,
+     * strings prefixed with their length in bytes (-1 for null).
+     */
+    private void encodeKey(HistogramKey key) {
+      keyLength = 0;
+      ensureKeyCapacity(5);
+      keyBytes[keyLength++] = key.getGranularityOrdinal();
+      int binId = key.getBinId();
+      keyBytes[keyLength++] = (byte) (binId >>> 24);
+      keyBytes[keyLength++] = (byte) (binId >>> 16);
+      keyBytes[keyLength++] = (byte) (binId >>> 8);
+      keyBytes[keyLength++] = (byte) binId;
+      encodeString(key.getMetric());
+      encodeString(key.getSource());
+      String[] tags = key.getTags();
+      int numTags = tags == null ? 0 : tags.length;
+      ensureKeyCapacity(2);
+      keyBytes[keyLength++] = (byte) (numTags >>> 8);
+      keyBytes[keyLength++] = (byte) numTags;
+      for (int i = 0; i < numTags; i++) {
+        encodeString(tags[i]);
+      }
+    }
+
+    private void encodeString(@Nullable String s) {
+      ensureKeyCapacity(2);
+      if (s == null) {
+        keyBytes[keyLength++] = (byte) 0xFF;
+        keyBytes[keyLength++] = (byte) 0xFF;
+        return;
+      }
+      int lengthPosition = keyLength;
+      keyLength += 2;
+      int length = s.length();
+      ensureKeyCapacity(length);
+      int i = 0;
+      // fast path for ASCII, which is what virtually all keys consist of
+      while (i < length) {
+        char c = s.charAt(i);
+        if (c >= 0x80) {
+          break;
+        }
+        keyBytes[keyLength++] = (byte) c;
+        i++;
+      }
+      if (i < length) {
+        byte[] remaining = s.substring(i).getBytes(StandardCharsets.UTF_8);
+        ensureKeyCapacity(remaining.length);
+        System.arraycopy(remaining, 0, keyBytes, keyLength, remaining.length);
+        keyLength += remaining.length;
+      }
+      int encodedLength = keyLength - lengthPosition - 2;
+      Preconditions.checkArgument(encodedLength <= Short.MAX_VALUE,
+          "String too long (more than 32K)");
+      keyBytes[lengthPosition] = (byte) (encodedLength >>> 8);
+      keyBytes[lengthPosition + 1] = (byte) encodedLength;
+    }
+
+    private void ensureKeyCapacity(int bytes) {
+      if (keyLength + bytes > keyBytes.length) {
+        keyBytes = Arrays.copyOf(keyBytes, Math.max(keyBytes.length * 2, keyLength + bytes));
+      }
+    }
+
+    private HistogramKey decodeKey(int slot) {
+      int base = slot * ENTRY_SIZE;
+      long keyAddress = entries.getLong(base + ENTRY_KEY_ADDRESS);
+      ByteBuffer buffer = allocator.buffer(keyAddress);
+      int offset = SlabAllocator.offset(keyAddress);
+      byte granularityOrdinal = buffer.get(offset);
+      int binId = buffer.getInt(offset + 1);
+      int[] position = {offset + 5};
+      String metric = decodeString(buffer, position);
+      String source = decodeString(buffer, position);
+      int numTags = buffer.getShort(position[0]);
+      position[0] += 2;
+      String[] tags = numTags == 0 ? null : new String[numTags];
+      for (int i = 0; i < numTags; i++) {
+        tags[i] = decodeString(buffer, position);
+      }
+      return Utils.makeKey(granularityOrdinal, binId, metric, source, tags);
+    }
+
+    @Nullable
+    private String decodeString(ByteBuffer buffer, int[] position) {
+      int length = buffer.getShort(position[0]);
+      position[0] += 2;
+      if (length < 0) {
+        return null;
+      }
+      if (keyBytes.length < length) {
+        keyBytes = new byte[length];
+      }
+      for (int i = 0; i < length; i++) {
+        keyBytes[i] = buffer.get(position[0] + i);
+      }
+      position[0] += length;
+      return new String(keyBytes, 0, length, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static ByteBuffer allocate(int capacity) {
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+  }
+
+  private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+    ByteBuffer source = buffer.duplicate();
+    source.clear();
+    ByteBuffer result = allocate(capacity);
+    result.put(source);
+    result.clear();
+    return result;
+  }
+}
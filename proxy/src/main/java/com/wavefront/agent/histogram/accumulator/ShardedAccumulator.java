@@ -0,0 +1,156 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+
+import com.tdunning.math.stats.AgentDigest;
+import com.wavefront.agent.TimeProvider;
+import com.wavefront.agent.histogram.Utils.HistogramKey;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+
+import wavefront.report.Histogram;
+
+/**
+ * Accumulator partitioned by key hash into a number of independent shards, so that ripe digests
+ * from different shards can be dispatched concurrently.
+ */
+public class ShardedAccumulator implements Accumulator {
+  private static final Logger logger = Logger.getLogger(ShardedAccumulator.class.getCanonicalName());
+
+  private final List<Accumulator> shards;
+
+  /**
+   * @param shards accumulators for individual shards, every key is routed to the shard
+   *               determined by {@link #shardIndex}.
+   */
+  public ShardedAccumulator(List<Accumulator> shards) {
+    Preconditions.checkArgument(!shards.isEmpty(), "At least one shard is required");
+    this.shards = ImmutableList.copyOf(shards);
+  }
+
+  /**
+   * Creates {@link AccumulationCache} shards sharing the same backing store, with dispatch time
+   * indexes built in a single pass over the backing store.
+   *
+   * @param backingStore       a {@code ConcurrentMap} storing {@code AgentDigests}
+   * @param agentDigestFactory a factory that generates {@code AgentDigests} with pre-defined
+   *                           compression level and TTL time
+   * @param cacheSize          maximum size of the cache, split evenly between shards
+   * @param metricPrefix       prefix for accumulator metrics, suffixed with ".shard" and the
+   *                           shard index for every shard
+   * @param shardCount         number of shards
+   * @return sharded accumulator
+   */
+  public static ShardedAccumulator ofAccumulationCaches(
+      ConcurrentMap<HistogramKey, AgentDigest> backingStore,
+      AgentDigestFactory agentDigestFactory, long cacheSize, String metricPrefix,
+      int shardCount) {
+    Preconditions.checkArgument(shardCount > 0, "shardCount must be positive");
+    List<AccumulationCache> caches = new ArrayList<>(shardCount);
+    long shardCacheSize = cacheSize == 0 ? 0 : Math.max(1, cacheSize / shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      caches.add(new AccumulationCache(backingStore, agentDigestFactory, shardCacheSize,
+          metricPrefix + ".shard" + i, null, null, true));
+    }
+    if (backingStore.size() > 0) {
+      logger.info("Started: Indexing histogram accumulator");
+      for (Map.Entry<HistogramKey, AgentDigest> entry : backingStore.entrySet()) {
+        caches.get(shardIndex(entry.getKey(), shardCount)).indexEntry(entry.getKey(),
+            entry.getValue().getDispatchTimeMillis());
+      }
+      logger.info("Finished: Indexing histogram accumulator");
+    }
+    return new ShardedAccumulator(ImmutableList.<Accumulator>copyOf(caches));
+  }
+
+  /**
+   * Determines which shard a key belongs to.
+   *
+   * @param key        histogram key
+   * @param shardCount number of shards
+   * @return shard index
+   */
+  public static int shardIndex(HistogramKey key, int shardCount) {
+    int hash = key.hashCode();
+    return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+  }
+
+  @Override
+  public void put(HistogramKey key, @Nonnull AgentDigest value) {
+    shardFor(key).put(key, value);
+  }
+
+  @Override
+  public void put(HistogramKey key, double value) {
+    shardFor(key).put(key, value);
+  }
+
+  @Override
+  public void put(HistogramKey key, Histogram value) {
+    shardFor(key).put(key, value);
+  }
+
+  @Override
+  public AgentDigest compute(HistogramKey key, BiFunction<? super HistogramKey,
+      ? super AgentDigest, ? extends AgentDigest> remappingFunction) {
+    return shardFor(key).compute(key, remappingFunction);
+  }
+
+  @Override
+  public Iterator<HistogramKey> getRipeDigestsIterator(TimeProvider clock) {
+    return Iterators.concat(getRipeDigestsIterators(clock).iterator());
+  }
+
+  /**
+   * Returns one iterator per shard.
+   *
+   * @param clock a millisecond-precision epoch time source
+   * @return iterators over "ripe" digests ready to be shipped, one per shard
+   */
+  @Override
+  public List<Iterator<HistogramKey>> getRipeDigestsIterators(TimeProvider clock) {
+    long now = clock.millisSinceEpoch();
+    List<Iterator<HistogramKey>> iterators = new ArrayList<>(shards.size());
+    for (Accumulator shard : shards) {
+      iterators.add(shard.getRipeDigestsIterator(() -> now));
+    }
+    return iterators;
+  }
+
+  @Override
+  public long size() {
+    long size = 0;
+    for (Accumulator shard : shards) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  @Override
+  public void flush() {
+    for (Accumulator shard : shards) {
+      shard.flush();
+    }
+  }
+
+  /**
+   * @return accumulators for individual shards.
+   */
+  public List<Accumulator> getShards() {
+    return shards;
+  }
+
+  private Accumulator shardFor(HistogramKey key) {
+    return shards.get(shardIndex(key, shards.size()));
+  }
+}
@@ -0,0 +1,147 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Allocates variable-sized blocks of off-heap memory from slabs of direct byte buffers. Block
+ * sizes are rounded up to the next power of two, every size class has its own slabs and its own
+ * free list, so freed blocks are reused without fragmenting the slabs.
+ *
+ * A block is identified by a single {@code long} address, which encodes the size class, the slab
+ * and the offset within the slab, so callers don't need to keep any on-heap objects per block.
+ * Address 0 is never returned and can be used as a null value.
+ *
+ * Not thread-safe.
+ */
+final class SlabAllocator {
+  static final int MIN_BLOCK_SIZE = 16;
+  private static final int MIN_BLOCK_SHIFT = 4;
+  private static final int MAX_BLOCK_SHIFT = 30;
+
+  private final int slabSize;
+  private final SizeClass[] sizeClasses = new SizeClass[MAX_BLOCK_SHIFT - MIN_BLOCK_SHIFT + 1];
+  private long allocatedBytes = 0;
+  private long usedBytes = 0;
+
+  /**
+   * @param slabSize size of a single slab in bytes, blocks larger than that get their own slab.
+   */
+  SlabAllocator(int slabSize) {
+    Preconditions.checkArgument(slabSize >= MIN_BLOCK_SIZE, "slabSize is too small");
+    this.slabSize = slabSize;
+  }
+
+  /**
+   * Allocate a block of at least the specified size.
+   *
+   * @param size requested size in bytes.
+   * @return block address.
+   */
+  long allocate(int size) {
+    int sizeClass = sizeClassFor(size);
+    SizeClass slabs = sizeClasses[sizeClass];
+    if (slabs == null) {
+      slabs = new SizeClass(MIN_BLOCK_SIZE << sizeClass);
+      sizeClasses[sizeClass] = slabs;
+    }
+    usedBytes += slabs.blockSize;
+    if (slabs.freeCount > 0) {
+      return slabs.freeList[--slabs.freeCount];
+    }
+    if (slabs.slabs.isEmpty() || slabs.nextOffset + slabs.blockSize > slabs.currentSlabSize) {
+      slabs.currentSlabSize = Math.max(slabSize, slabs.blockSize);
+      slabs.currentSlabSize -= slabs.currentSlabSize % slabs.blockSize;
+      slabs.slabs.add(ByteBuffer.allocateDirect(slabs.currentSlabSize));
+      slabs.nextOffset = 0;
+      allocatedBytes += slabs.currentSlabSize;
+    }
+    long address = address(sizeClass, slabs.slabs.size() - 1, slabs.nextOffset);
+    slabs.nextOffset += slabs.blockSize;
+    return address;
+  }
+
+  /**
+   * Return a block to its size class's free list.
+   *
+   * @param address block address.
+   */
+  void free(long address) {
+    SizeClass slabs = sizeClasses[sizeClass(address)];
+    if (slabs.freeCount == slabs.freeList.length) {
+      slabs.freeList = Arrays.copyOf(slabs.freeList, slabs.freeList.length * 2);
+    }
+    slabs.freeList[slabs.freeCount++] = address;
+    usedBytes -= slabs.blockSize;
+  }
+
+  /**
+   * @param address block address.
+   * @return slab that contains the block, to be used with absolute get/put methods.
+   */
+  ByteBuffer buffer(long address) {
+    return sizeClasses[sizeClass(address)].slabs.get((int) (address >>> 32) & 0xFFFFFF);
+  }
+
+  /**
+   * @param address block address.
+   * @return offset of the block within its slab.
+   */
+  static int offset(long address) {
+    return (int) address;
+  }
+
+  /**
+   * @param address block address.
+   * @return usable size of the block.
+   */
+  static int blockSize(long address) {
+    return MIN_BLOCK_SIZE << sizeClass(address);
+  }
+
+  /**
+   * @return total off-heap memory reserved by slabs.
+   */
+  long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * @return off-heap memory occupied by allocated blocks.
+   */
+  long getUsedBytes() {
+    return usedBytes;
+  }
+
+  private static int sizeClassFor(int size) {
+    Preconditions.checkArgument(size > 0 && size <= 1 << MAX_BLOCK_SHIFT, "Invalid block size");
+    int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+    return Math.max(0, shift - MIN_BLOCK_SHIFT);
+  }
+
+  private static int sizeClass(long address) {
+    return (int) (address >>> 56) - 1;
+  }
+
+  private static long address(int sizeClass, int slab, int offset) {
+    // size class is stored off by one so that a valid address is never 0
+    return ((long) (sizeClass + 1) << 56) | ((long) slab << 32) | (offset & 0xFFFFFFFFL);
+  }
+
+  private static final class SizeClass {
+    final int blockSize;
+    final List<ByteBuffer> slabs = new ArrayList<>();
+    int currentSlabSize = 0;
+    int nextOffset = 0;
+    long[] freeList = new long[16];
+    int freeCount = 0;
+
+    SizeClass(int blockSize) {
+      this.blockSize = blockSize;
+    }
+  }
+}
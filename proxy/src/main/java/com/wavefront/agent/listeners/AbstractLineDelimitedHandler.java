@@ -12,7 +12,6 @@ import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
 
 import static com.wavefront.agent.channel.ChannelUtils.writeExceptionText;
 import static com.wavefront.agent.channel.ChannelUtils.writeHttpResponse;
@@ -43,22 +42,27 @@ public abstract class AbstractLineDelimitedHandler extends AbstractPortUnificati
   }
 
   /**
-   * Handles an incoming HTTP message. Accepts HTTP POST on all paths
+   * Handles an incoming HTTP message. Accepts HTTP POST on all paths. Items reported to handlers
+   * wrapped with {@link #batching} are handed over in bounded batches as the payload is
+   * processed, and the rest once the whole payload has been processed.
    */
   @Override
   protected void handleHttpMessage(final ChannelHandlerContext ctx,
                                    final FullHttpRequest request) {
     StringBuilder output = new StringBuilder();
     HttpResponseStatus status;
+    startBatch();
     try {
-      for (String line : splitPushData(request.content().toString(CharsetUtil.UTF_8))) {
-        processLine(ctx, line.trim());
+      for (String line : splitPushData(request.content())) {
+        processLine(ctx, line);
       }
       status = HttpResponseStatus.ACCEPTED;
     } catch (Exception e) {
       status = HttpResponseStatus.BAD_REQUEST;
       writeExceptionText(e, output);
       logWarning("WF-300: Failed to handle HTTP POST", e, ctx);
+    } finally {
+      flushBatch();
     }
     writeHttpResponse(ctx, status, output, request);
   }
@@ -4,6 +4,7 @@ import com.wavefront.agent.auth.TokenAuthenticator;
 import com.wavefront.agent.channel.ChannelUtils;
 import com.wavefront.agent.channel.HealthCheckManager;
 import com.wavefront.agent.channel.NoopHealthCheckManager;
+import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.common.TaggedMetricName;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
@@ -16,7 +17,12 @@ import org.apache.http.client.utils.URLEncodedUtils;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.logging.Level;
@@ -36,7 +42,9 @@ import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.AttributeKey;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 
 import static com.wavefront.agent.Utils.lazySupplier;
 import static com.wavefront.agent.channel.ChannelUtils.formatErrorMessage;
@@ -55,6 +63,8 @@ import static org.apache.commons.lang3.ObjectUtils.firstNonNull;
 public abstract class AbstractPortUnificationHandler extends SimpleChannelInboundHandler<Object> {
   private static final Logger logger = Logger.getLogger(
       AbstractPortUnificationHandler.class.getCanonicalName());
+  private static final AttributeKey<Queue<Object>> PENDING_MESSAGES =
+      AttributeKey.valueOf("pendingMessages");
 
   protected final Supplier<Histogram> httpRequestHandleDuration;
   protected final Supplier<Counter> requestsDiscarded;
@@ -66,6 +76,8 @@ public abstract class AbstractPortUnificationHandler extends SimpleChannelInboun
   protected final TokenAuthenticator tokenAuthenticator;
   protected final HealthCheckManager healthCheck;
 
+  private final List<BatchingEntityHandler<?>> batchingHandlers = new CopyOnWriteArrayList<>();
+
   /**
    * Create new instance.
    *
@@ -119,6 +131,42 @@ public abstract class AbstractPortUnificationHandler extends SimpleChannelInboun
   protected abstract void handlePlainTextMessage(final ChannelHandlerContext ctx,
                                                  final String message) throws Exception;
 
+  /**
+   * Wrap a handler, so that items reported to it between {@link #startBatch()} and
+   * {@link #flushBatch()} calls (i.e. while processing a single HTTP request) are handed over
+   * with {@link ReportableEntityHandler#reportBatch(List)} calls, in batches of up to
+   * {@link BatchingEntityHandler#DEFAULT_MAX_BATCH_SIZE} items.
+   *
+   * @param handler handler to wrap.
+   * @return wrapped handler, or null if handler is null.
+   */
+  @Nullable
+  protected <T> ReportableEntityHandler<T> batching(@Nullable ReportableEntityHandler<T> handler) {
+    if (handler == null) return null;
+    BatchingEntityHandler<T> batchingHandler = new BatchingEntityHandler<>(handler);
+    batchingHandlers.add(batchingHandler);
+    return batchingHandler;
+  }
+
+  /**
+   * Start collecting items reported from the current thread to handlers wrapped with
+   * {@link #batching(ReportableEntityHandler)}.
+   */
+  protected void startBatch() {
+    for (BatchingEntityHandler<?> handler : batchingHandlers) {
+      handler.startBatch();
+    }
+  }
+
+  /**
+   * Hand over items collected since {@link #startBatch()} to the underlying handlers.
+   */
+  protected void flushBatch() {
+    for (BatchingEntityHandler<?> handler : batchingHandlers) {
+      handler.flushBatch();
+    }
+  }
+
   @Override
   public void channelReadComplete(ChannelHandlerContext ctx) {
     ctx.flush();
@@ -159,19 +207,51 @@ public abstract class AbstractPortUnificationHandler extends SimpleChannelInboun
     return token;
   }
 
-  protected boolean authorized(final ChannelHandlerContext ctx, final FullHttpRequest request) {
-    if (tokenAuthenticator.authRequired()) {
-      String token = extractToken(ctx, request);
-      if (!tokenAuthenticator.authorize(token)) { // 401 if no token or auth fails
-        writeHttpResponse(ctx, HttpResponseStatus.UNAUTHORIZED, "401 Unauthorized\n");
-        return false;
-      }
+  private void handleAuthorizationResult(final ChannelHandlerContext ctx,
+                                         final FullHttpRequest request,
+                                         boolean authorized) {
+    if (authorized) {
+      handleAuthorizedHttpMessage(ctx, request);
+    } else { // 401 if no token or auth fails
+      writeHttpResponse(ctx, HttpResponseStatus.UNAUTHORIZED, "401 Unauthorized\n");
     }
-    return true;
+  }
+
+  private void handleAuthorizedHttpMessage(final ChannelHandlerContext ctx,
+                                           final FullHttpRequest request) {
+    httpRequestsInFlightGauge.get();
+    httpRequestsInFlight.incrementAndGet();
+    long startTime = System.nanoTime();
+    try {
+      handleHttpMessage(ctx, request);
+    } finally {
+      httpRequestsInFlight.decrementAndGet();
+    }
+    httpRequestHandleDuration.get().update(System.nanoTime() - startTime);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    Queue<Object> pendingMessages = ctx.channel().attr(PENDING_MESSAGES).getAndSet(null);
+    if (pendingMessages != null) {
+      pendingMessages.forEach(ReferenceCountUtil::release);
+    }
+    super.channelInactive(ctx);
   }
 
   @Override
   protected void channelRead0(final ChannelHandlerContext ctx, final Object message) {
+    Queue<Object> pendingMessages = ctx.channel().attr(PENDING_MESSAGES).get();
+    if (pendingMessages != null) {
+      // a token is being validated for an earlier request on this connection: messages that
+      // have already been decoded have to wait for it, to be handled (and answered) in order.
+      pendingMessages.add(ReferenceCountUtil.retain(message));
+      return;
+    }
+    handleMessage(ctx, message);
+  }
+
+  private void handleMessage(final ChannelHandlerContext ctx, final Object message) {
     try {
       if (message != null) {
         if (message instanceof String) {
@@ -198,17 +278,31 @@ public abstract class AbstractPortUnificationHandler extends SimpleChannelInboun
             logger.warning("Inbound HTTP request discarded: HTTP disabled on port " + handle);
             return;
           }
-          if (authorized(ctx, request)) {
-            httpRequestsInFlightGauge.get();
-            httpRequestsInFlight.incrementAndGet();
-            long startTime = System.nanoTime();
+          if (!tokenAuthenticator.authRequired()) {
+            handleAuthorizedHttpMessage(ctx, request);
+            return;
+          }
+          CompletableFuture<Boolean> authorized =
+              tokenAuthenticator.authorizeAsync(extractToken(ctx, request));
+          if (authorized.isDone() && !authorized.isCompletedExceptionally()) {
+            handleAuthorizationResult(ctx, request, authorized.join());
+            return;
+          }
+          // the token has to be validated remotely: hold on to the request, and to anything
+          // that arrives on this connection in the meantime, instead of blocking the event loop.
+          request.retain();
+          ctx.channel().attr(PENDING_MESSAGES).set(new ArrayDeque<>());
+          ctx.channel().config().setAutoRead(false);
+          authorized.whenComplete((result, throwable) -> ctx.executor().execute(() -> {
             try {
-              handleHttpMessage(ctx, request);
+              handleAuthorizationResult(ctx, request, throwable == null && result);
+            } catch (final Exception e) {
+              logWarning("Failed to handle message", e, ctx);
             } finally {
-              httpRequestsInFlight.decrementAndGet();
+              request.release();
             }
-            httpRequestHandleDuration.get().update(System.nanoTime() - startTime);
-          }
+            replayPendingMessages(ctx);
+          }));
         } else {
           logWarning("Received unexpected message type " + message.getClass().getName(), null, ctx);
         }
@@ -219,6 +313,37 @@ public abstract class AbstractPortUnificationHandler extends SimpleChannelInboun
     }
   }
 
+  /**
+   * Handle messages that were received while a token was being validated, in the order they
+   * were received. Stops as soon as one of them needs its own token to be validated remotely.
+   */
+  private void replayPendingMessages(final ChannelHandlerContext ctx) {
+    try {
+      Queue<Object> pendingMessages = ctx.channel().attr(PENDING_MESSAGES).getAndSet(null);
+      if (pendingMessages == null) return; // channel closed, messages already released
+      Object message;
+      while ((message = pendingMessages.poll()) != null) {
+        try {
+          if (ctx.channel().isActive()) {
+            handleMessage(ctx, message);
+          }
+        } finally {
+          ReferenceCountUtil.release(message);
+        }
+        Queue<Object> newPendingMessages = ctx.channel().attr(PENDING_MESSAGES).get();
+        if (newPendingMessages != null) {
+          // another token is being validated: the rest has to keep waiting
+          newPendingMessages.addAll(pendingMessages);
+          return;
+        }
+      }
+      ctx.channel().config().setAutoRead(true);
+    } finally {
+      // not called from channelRead0, so responses have to be flushed explicitly
+      ctx.flush();
+    }
+  }
+
   protected boolean getHttpEnabled() {
     return true;
   }
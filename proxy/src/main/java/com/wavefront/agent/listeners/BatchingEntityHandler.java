@@ -0,0 +1,185 @@
+package com.wavefront.agent.listeners;
+
+import com.wavefront.agent.handlers.PointLineHandler;
+import com.wavefront.agent.handlers.PointLineHandler.AcceptedLine;
+import com.wavefront.agent.handlers.ReportableEntityHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+/**
+ * {@link ReportableEntityHandler} wrapper that collects reported items while a batch is open on the
+ * current thread and hands them over to the delegate with a single
+ * {@link ReportableEntityHandler#reportBatch(List)} call when the batch is flushed. Point lines
+ * accepted by a {@link PointLineHandler} delegate are collected into the same batch, so that they
+ * keep their order relative to decoded points. Outside of a batch (and for blocked and rejected
+ * items), calls are passed to the delegate as is. Once a batch collects {@code maxBatchSize}
+ * items, they are handed over right away, so large payloads are still processed as a stream.
+ *
+ * @param <T> the type of input objects handled.
+ */
+class BatchingEntityHandler<T> implements ReportableEntityHandler<T>, PointLineHandler {
+  static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+  private final ReportableEntityHandler<T> delegate;
+  private final int maxBatchSize;
+  private final ThreadLocal<List<Object>> batch = new ThreadLocal<>();
+
+  BatchingEntityHandler(ReportableEntityHandler<T> delegate) {
+    this(delegate, DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * @param delegate     handler to hand over collected items to.
+   * @param maxBatchSize maximum number of items to hold on to before handing them over.
+   */
+  BatchingEntityHandler(ReportableEntityHandler<T> delegate, int maxBatchSize) {
+    this.delegate = delegate;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Start collecting items reported from the current thread.
+   */
+  void startBatch() {
+    batch.set(new ArrayList<>());
+  }
+
+  /**
+   * Hand over items collected on the current thread to the delegate and close the batch.
+   */
+  void flushBatch() {
+    List<Object> items = batch.get();
+    batch.remove();
+    if (items != null && !items.isEmpty()) {
+      reportToDelegate(items);
+    }
+  }
+
+  @Override
+  public void report(T t) {
+    List<Object> items = batch.get();
+    if (items == null) {
+      delegate.report(t);
+    } else {
+      add(items, t);
+    }
+  }
+
+  @Override
+  public void report(T t, @Nullable Object messageObject,
+                     @NotNull Function<Object, String> messageSerializer) {
+    delegate.report(t, messageObject, messageSerializer);
+  }
+
+  @Override
+  public void reportBatch(List<T> items) {
+    List<Object> current = batch.get();
+    if (current == null) {
+      delegate.reportBatch(items);
+    } else {
+      addAll(current, items);
+    }
+  }
+
+  @Override
+  public boolean reportLine(String line, @Nullable LongPredicate timestampFilter) {
+    if (!(delegate instanceof PointLineHandler)) return false;
+    List<Object> items = batch.get();
+    if (items == null) {
+      return ((PointLineHandler) delegate).reportLine(line, timestampFilter);
+    }
+    AcceptedLine accepted = ((PointLineHandler) delegate).acceptLine(line, timestampFilter);
+    if (accepted == null) return false;
+    add(items, accepted);
+    return true;
+  }
+
+  @Nullable
+  @Override
+  public AcceptedLine acceptLine(String line, @Nullable LongPredicate timestampFilter) {
+    return delegate instanceof PointLineHandler ?
+        ((PointLineHandler) delegate).acceptLine(line, timestampFilter) : null;
+  }
+
+  @Override
+  public void reportBatchWithLines(List<?> items) {
+    List<Object> current = batch.get();
+    if (current == null) {
+      reportToDelegate(items);
+    } else {
+      addAll(current, items);
+    }
+  }
+
+  @Override
+  public void block(T t) {
+    delegate.block(t);
+  }
+
+  @Override
+  public void block(@Nullable T t, @Nullable String message) {
+    delegate.block(t, message);
+  }
+
+  @Override
+  public void reject(T t) {
+    delegate.reject(t);
+  }
+
+  @Override
+  public void reject(@Nullable T t, @Nullable String message) {
+    delegate.reject(t, message);
+  }
+
+  @Override
+  public void reject(@NotNull String t, @Nullable String message) {
+    delegate.reject(t, message);
+  }
+
+  private void add(List<Object> current, Object item) {
+    current.add(item);
+    if (current.size() >= maxBatchSize) {
+      flush(current);
+    }
+  }
+
+  private void addAll(List<Object> current, List<?> items) {
+    if (current.size() + items.size() < maxBatchSize) {
+      current.addAll(items);
+      return;
+    }
+    // keep the order: whatever has been collected so far goes first
+    flush(current);
+    if (items.size() >= maxBatchSize) {
+      reportToDelegate(items);
+    } else {
+      current.addAll(items);
+    }
+  }
+
+  private void flush(List<Object> current) {
+    if (current.isEmpty()) return;
+    try {
+      reportToDelegate(current);
+    } finally {
+      // delegates don't hold on to the list
+      current.clear();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void reportToDelegate(List<?> items) {
+    if (delegate instanceof PointLineHandler) {
+      ((PointLineHandler) delegate).reportBatchWithLines(items);
+    } else {
+      // lines are only accepted by PointLineHandler delegates, everything else is a T
+      delegate.reportBatch((List<T>) items);
+    }
+  }
+}
@@ -2,9 +2,13 @@ package com.wavefront.agent.listeners;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.wavefront.agent.auth.TokenAuthenticatorBuilder;
@@ -19,19 +23,19 @@ import com.wavefront.common.TaggedMetricName;
 import com.wavefront.data.ReportableEntityType;
 import com.wavefront.ingester.ReportPointSerializer;
 import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Histogram;
 
-import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
@@ -41,11 +45,13 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.util.CharsetUtil;
+import io.netty.handler.codec.http.HttpUtil;
 import wavefront.report.ReportPoint;
 
 import static com.wavefront.agent.channel.ChannelUtils.writeExceptionText;
@@ -65,8 +71,34 @@ public class DataDogPortUnificationHandler extends AbstractHttpOnlyHandler {
   private static final Logger blockedPointsLogger = Logger.getLogger("RawBlockedPoints");
   private static final Pattern INVALID_METRIC_CHARACTERS = Pattern.compile("[^-_\\.\\dA-Za-z]");
   private static final Pattern INVALID_TAG_CHARACTERS = Pattern.compile("[^-_:\\.\\\\/\\dA-Za-z]");
+  private static final Set<String> SYSTEM_PAYLOAD_FIELDS = ImmutableSet.of("collection_timestamp",
+      "internalHostname", "host-tags", "ioStats");
+  private static final Map<String, String> SYSTEM_METRICS = ImmutableMap.<String, String>builder().
+      put("cpuGuest", "system.cpu.guest").
+      put("cpuIdle", "system.cpu.idle").
+      put("cpuStolen", "system.cpu.stolen").
+      put("cpuSystem", "system.cpu.system").
+      put("cpuUser", "system.cpu.user").
+      put("cpuWait", "system.cpu.wait").
+      put("memBuffers", "system.mem.buffers").
+      put("memCached", "system.mem.cached").
+      put("memPageTables", "system.mem.page_tables").
+      put("memShared", "system.mem.shared").
+      put("memSlab", "system.mem.slab").
+      put("memPhysFree", "system.mem.free").
+      put("memPhysPctUsable", "system.mem.pct_usable").
+      put("memPhysTotal", "system.mem.total").
+      put("memPhysUsable", "system.mem.usable").
+      put("memPhysUsed", "system.mem.used").
+      put("memSwapCached", "system.swap.cached").
+      put("memSwapFree", "system.swap.free").
+      put("memSwapPctFree", "system.swap.pct_free").
+      put("memSwapTotal", "system.swap.total").
+      put("memSwapUsed", "system.swap.used").
+      build();
 
-  private volatile Histogram httpRequestSize;
+  private final Histogram httpRequestSize;
+  private final Counter ignoredRequests;
 
   /**
    * The point handler that takes report metrics one data point at a time and handles batching and
@@ -76,9 +108,8 @@ public class DataDogPortUnificationHandler extends AbstractHttpOnlyHandler {
   private final boolean processSystemMetrics;
   private final boolean processServiceChecks;
   @Nullable
-  private final HttpClient requestRelayClient;
-  @Nullable
-  private final String requestRelayTarget;
+  private final HttpRequestRelay requestRelay;
+  private final boolean requestRelayAsyncAck;
 
   @Nullable
   private final Supplier<ReportableEntityPreprocessor> preprocessorSupplier;
@@ -95,30 +126,36 @@ public class DataDogPortUnificationHandler extends AbstractHttpOnlyHandler {
       final String handle, final HealthCheckManager healthCheckManager,
       final ReportableEntityHandlerFactory handlerFactory, final boolean processSystemMetrics,
       final boolean processServiceChecks, @Nullable final HttpClient requestRelayClient,
-      @Nullable final String requestRelayTarget,
+      @Nullable final String requestRelayTarget, final int requestRelayMaxInFlight,
+      final boolean requestRelayAsyncAck,
       @Nullable final Supplier<ReportableEntityPreprocessor> preprocessor) {
     this(handle, healthCheckManager, handlerFactory.getHandler(HandlerKey.of(
         ReportableEntityType.POINT, handle)), processSystemMetrics, processServiceChecks,
-        requestRelayClient, requestRelayTarget, preprocessor);
+        requestRelayClient == null || requestRelayTarget == null ? null :
+            new HttpRequestRelay(requestRelayClient, requestRelayTarget, requestRelayMaxInFlight,
+                handle),
+        requestRelayAsyncAck, preprocessor);
   }
 
   @VisibleForTesting
   protected DataDogPortUnificationHandler(
       final String handle, final HealthCheckManager healthCheckManager,
       final ReportableEntityHandler<ReportPoint> pointHandler, final boolean processSystemMetrics,
-      final boolean processServiceChecks, @Nullable final HttpClient requestRelayClient,
-      @Nullable final String requestRelayTarget,
+      final boolean processServiceChecks, @Nullable final HttpRequestRelay requestRelay,
+      final boolean requestRelayAsyncAck,
       @Nullable final Supplier<ReportableEntityPreprocessor> preprocessor) {
     super(TokenAuthenticatorBuilder.create().build(), healthCheckManager, handle);
     this.pointHandler = pointHandler;
     this.processSystemMetrics = processSystemMetrics;
     this.processServiceChecks = processServiceChecks;
-    this.requestRelayClient = requestRelayClient;
-    this.requestRelayTarget = requestRelayTarget;
+    this.requestRelay = requestRelay;
+    this.requestRelayAsyncAck = requestRelayAsyncAck;
     this.preprocessorSupplier = preprocessor;
     this.jsonParser = new ObjectMapper();
     this.httpRequestSize = Metrics.newHistogram(new TaggedMetricName("listeners",
         "http-requests.payload-points", "port", handle));
+    this.ignoredRequests = Metrics.newCounter(new TaggedMetricName("listeners",
+        "http-requests.ignored", "port", handle));
 
     Metrics.newGauge(new TaggedMetricName("listeners", "tags-cache-size",
         "port", handle), new Gauge<Long>() {
@@ -132,58 +169,65 @@ public class DataDogPortUnificationHandler extends AbstractHttpOnlyHandler {
   @Override
   protected void handleHttpMessage(final ChannelHandlerContext ctx,
                                    final FullHttpRequest incomingRequest) {
-    StringBuilder output = new StringBuilder();
-    AtomicInteger pointsPerRequest = new AtomicInteger();
-
     URI uri = ChannelUtils.parseUri(ctx, incomingRequest);
     if (uri == null) return;
 
-    HttpResponseStatus status = HttpResponseStatus.ACCEPTED;
-    String requestBody = incomingRequest.content().toString(CharsetUtil.UTF_8);
-
-    if (requestRelayClient != null && requestRelayTarget != null &&
-        incomingRequest.method() == POST) {
-      Histogram requestRelayDuration = Metrics.newHistogram(new TaggedMetricName("listeners",
-          "http-relay.duration-nanos", "port", handle));
-      Long startNanos = System.nanoTime();
-      try {
-        String outgoingUrl = requestRelayTarget.replaceFirst("/*$", "") + incomingRequest.uri();
-        HttpPost outgoingRequest = new HttpPost(outgoingUrl);
-        if (incomingRequest.headers().contains("Content-Type")) {
-          outgoingRequest.addHeader("Content-Type", incomingRequest.headers().get("Content-Type"));
-        }
-        outgoingRequest.setEntity(new StringEntity(requestBody));
-        logger.info("Relaying incoming HTTP request to " + outgoingUrl);
-        HttpResponse response = requestRelayClient.execute(outgoingRequest);
-        int httpStatusCode = response.getStatusLine().getStatusCode();
-        Metrics.newCounter(new TaggedMetricName("listeners", "http-relay.status." + httpStatusCode +
-            ".count", "port", handle)).inc();
-
-        if (httpStatusCode < 200 || httpStatusCode >= 300) {
-          // anything that is not 2xx is relayed as is to the client, don't process the payload
-          writeHttpResponse(ctx, HttpResponseStatus.valueOf(httpStatusCode),
-              EntityUtils.toString(response.getEntity(), "UTF-8"), incomingRequest);
-          return;
-        }
-        EntityUtils.consumeQuietly(response.getEntity());
-
-      } catch (IOException e) {
-        logger.warning("Unable to relay request to " + requestRelayTarget + ": " + e.getMessage());
-        Metrics.newCounter(new TaggedMetricName("listeners", "http-relay.failed",
-            "port", handle)).inc();
-        writeHttpResponse(ctx, HttpResponseStatus.BAD_GATEWAY, "Unable to relay request: " +
-                e.getMessage(), incomingRequest);
+    String path = uri.getPath().endsWith("/") ? uri.getPath() : uri.getPath() + "/";
+    String requestUri = incomingRequest.uri();
+    ByteBuf content = incomingRequest.content();
+    boolean keepAlive = HttpUtil.isKeepAlive(incomingRequest);
+
+    CompletableFuture<HttpRequestRelay.Response> relayFuture = null;
+    if (requestRelay != null && incomingRequest.method() == POST) {
+      relayFuture = requestRelay.relay(requestUri,
+          incomingRequest.headers().get("Content-Type"), content);
+      if (relayFuture == null && !requestRelayAsyncAck) {
+        writeHttpResponse(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE,
+            "Too many requests in flight to the relay target", keepAlive);
         return;
-      } finally {
-        requestRelayDuration.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
       }
     }
 
-    String path = uri.getPath().endsWith("/") ? uri.getPath() : uri.getPath() + "/";
+    // the payload is processed while the relay request is in flight, only the response has to
+    // wait for the relay target
+    StringBuilder output = new StringBuilder();
+    HttpResponseStatus status = processRequest(ctx, path, requestUri, content, output);
+    if (relayFuture == null || requestRelayAsyncAck) {
+      writeHttpResponse(ctx, status, output, keepAlive);
+      return;
+    }
+    relayFuture.whenComplete((response, throwable) -> {
+      if (throwable != null) {
+        writeHttpResponse(ctx, HttpResponseStatus.BAD_GATEWAY, "Unable to relay request: " +
+            HttpRequestRelay.getMessage(throwable), keepAlive);
+      } else if (!response.isSuccessful()) {
+        // anything that is not 2xx is relayed as is to the client
+        writeHttpResponse(ctx, HttpResponseStatus.valueOf(response.statusCode), response.body,
+            keepAlive);
+      } else {
+        writeHttpResponse(ctx, status, output, keepAlive);
+      }
+      // completed outside of the channel read cycle, so channelReadComplete won't flush it
+      ctx.flush();
+    });
+  }
+
+  /**
+   * Report the payload of a request.
+   *
+   * @param output buffer for the response body.
+   * @return response status.
+   */
+  private HttpResponseStatus processRequest(final ChannelHandlerContext ctx, final String path,
+                                            final String requestUri, final ByteBuf content,
+                                            final StringBuilder output) {
+    AtomicInteger pointsPerRequest = new AtomicInteger();
+    HttpResponseStatus status = HttpResponseStatus.ACCEPTED;
+
     switch (path) {
       case "/api/v1/series/":
         try {
-          if (!reportMetrics(jsonParser.readTree(requestBody), pointsPerRequest)) {
+          if (!reportPayload(path, content, pointsPerRequest)) {
             status = HttpResponseStatus.BAD_REQUEST;
             output.append("At least one data point had error.");
           }
@@ -193,18 +237,15 @@ public class DataDogPortUnificationHandler extends AbstractHttpOnlyHandler {
           logWarning("WF-300: Failed to handle /api/v1/series request", e, ctx);
         }
         httpRequestSize.update(pointsPerRequest.intValue());
-        writeHttpResponse(ctx, status, output, incomingRequest);
-        break;
+        return status;
 
       case "/api/v1/check_run/":
         if (!processServiceChecks) {
-          Metrics.newCounter(new TaggedMetricName("listeners", "http-requests.ignored", "port",
-              handle)).inc();
-          writeHttpResponse(ctx, HttpResponseStatus.ACCEPTED, output, incomingRequest);
-          return;
+          ignoredRequests.inc();
+          return HttpResponseStatus.ACCEPTED;
         }
         try {
-          if (!reportChecks(jsonParser.readTree(requestBody), pointsPerRequest)) {
+          if (!reportPayload(path, content, pointsPerRequest)) {
             output.append("One or more checks were not valid.");
           }
         } catch (Exception e) {
@@ -212,22 +253,18 @@ public class DataDogPortUnificationHandler extends AbstractHttpOnlyHandler {
           writeExceptionText(e, output);
           logWarning("WF-300: Failed to handle /api/v1/check_run request", e, ctx);
         }
-        writeHttpResponse(ctx, status, output, incomingRequest);
-        break;
+        return status;
 
       case "/api/v1/validate/":
-        writeHttpResponse(ctx, HttpResponseStatus.OK, output, incomingRequest);
-        break;
+        return HttpResponseStatus.OK;
 
       case "/intake/":
         if (!processSystemMetrics) {
-          Metrics.newCounter(new TaggedMetricName("listeners", "http-requests.ignored", "port",
-              handle)).inc();
-          writeHttpResponse(ctx, HttpResponseStatus.ACCEPTED, output, incomingRequest);
-          return;
+          ignoredRequests.inc();
+          return HttpResponseStatus.ACCEPTED;
         }
         try {
-          if (!reportSystemMetrics(jsonParser.readTree(requestBody), pointsPerRequest)) {
+          if (!reportPayload(path, content, pointsPerRequest)) {
             output.append("At least one data point had error.");
           }
         } catch (Exception e) {
@@ -236,15 +273,132 @@ public class DataDogPortUnificationHandler extends AbstractHttpOnlyHandler {
           logWarning("WF-300: Failed to handle /intake request", e, ctx);
         }
         httpRequestSize.update(pointsPerRequest.intValue());
-        writeHttpResponse(ctx, status, output, incomingRequest);
-        break;
+        return status;
 
       default:
-        writeHttpResponse(ctx, HttpResponseStatus.NO_CONTENT, output, incomingRequest);
-        logWarning("WF-300: Unexpected path '" + incomingRequest.uri() + "', returning HTTP 204",
+        logWarning("WF-300: Unexpected path '" + requestUri + "', returning HTTP 204",
             null, ctx);
-        break;
+        return HttpResponseStatus.NO_CONTENT;
+    }
+  }
+
+  /**
+   * Decode a DataDog payload straight from the request buffer and report points as they are
+   * parsed. Only one element of the payload (a series, a check or a top-level field of a system
+   * metrics payload) is materialized at a time, fields that don't produce metrics are skipped.
+   *
+   * @param path         request path (with a trailing slash).
+   * @param content      request body, the buffer's reader index is not changed.
+   * @param pointCounter counter to track the number of points processed in one request.
+   * @return true if all metrics added successfully; false o/w
+   * @throws IOException if the payload is not a valid JSON document.
+   */
+  @VisibleForTesting
+  boolean reportPayload(final String path, final ByteBuf content,
+                        @Nullable final AtomicInteger pointCounter) throws IOException {
+    try (JsonParser parser = jsonParser.getFactory().createParser(
+        (InputStream) new ByteBufInputStream(content.duplicate()))) {
+      switch (path) {
+        case "/api/v1/series/":
+          return reportMetrics(parser, pointCounter);
+        case "/api/v1/check_run/":
+          return reportChecks(parser, pointCounter);
+        case "/intake/":
+          return reportSystemMetrics(parser, pointCounter);
+        default:
+          throw new IllegalArgumentException("Unsupported path: " + path);
+      }
+    }
+  }
+
+  /**
+   * Tree model equivalent of {@link #reportPayload(String, ByteBuf, AtomicInteger)} that reads
+   * the whole payload into memory first.
+   *
+   * @param path         request path (with a trailing slash).
+   * @param payload      parsed request body.
+   * @param pointCounter counter to track the number of points processed in one request.
+   * @return true if all metrics added successfully; false o/w
+   */
+  @VisibleForTesting
+  boolean reportPayload(final String path, @Nullable final JsonNode payload,
+                        @Nullable final AtomicInteger pointCounter) {
+    switch (path) {
+      case "/api/v1/series/":
+        return reportMetrics(payload, pointCounter);
+      case "/api/v1/check_run/":
+        return reportChecks(payload, pointCounter);
+      case "/intake/":
+        return reportSystemMetrics(payload, pointCounter);
+      default:
+        throw new IllegalArgumentException("Unsupported path: " + path);
+    }
+  }
+
+  private boolean reportMetrics(final JsonParser parser,
+                                @Nullable final AtomicInteger pointCounter) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      return reportMetrics((JsonNode) null, pointCounter);
+    }
+    boolean hasSeries = false;
+    boolean successful = true;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (!"series".equals(fieldName)) {
+        parser.skipChildren();
+        continue;
+      }
+      hasSeries = true;
+      if (token != JsonToken.START_ARRAY) {
+        pointHandler.reject((ReportPoint) null, "WF-300: 'series' field must be an array");
+        return false;
+      }
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        if (!reportMetric(parser.readValueAsTree(), pointCounter)) {
+          successful = false;
+        }
+      }
+    }
+    if (!hasSeries) {
+      pointHandler.reject((ReportPoint) null, "WF-300: Payload missing 'series' field");
+      return false;
+    }
+    return successful;
+  }
+
+  private boolean reportChecks(final JsonParser parser,
+                               @Nullable final AtomicInteger pointCounter) throws IOException {
+    JsonToken token = parser.nextToken();
+    if (token != JsonToken.START_ARRAY) {
+      return reportChecks(token == null ? null : parser.<JsonNode>readValueAsTree(), pointCounter);
+    }
+    boolean result = true;
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      result &= reportCheck(parser.readValueAsTree(), pointCounter);
+    }
+    return result;
+  }
+
+  private boolean reportSystemMetrics(final JsonParser parser,
+                                      @Nullable final AtomicInteger pointCounter)
+      throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      return reportSystemMetrics((JsonNode) null, pointCounter);
+    }
+    // host name and timestamp may come after the metrics, so collect relevant fields first
+    ObjectNode metrics = jsonParser.createObjectNode();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      parser.nextToken();
+      if (SYSTEM_PAYLOAD_FIELDS.contains(fieldName) || SYSTEM_METRICS.containsKey(fieldName) ||
+          fieldName.startsWith("system.")) {
+        metrics.set(fieldName, parser.readValueAsTree());
+      } else {
+        parser.skipChildren();
+      }
     }
+    return reportSystemMetrics(metrics, pointCounter);
   }
 
   /**
@@ -434,27 +588,8 @@ public class DataDogPortUnificationHandler extends AbstractHttpOnlyHandler {
     });
 
     // Report CPU and memory metrics
-    reportValue("system.cpu.guest", hostName, systemTags, metrics.get("cpuGuest"), timestamp, pointCounter);
-    reportValue("system.cpu.idle", hostName, systemTags, metrics.get("cpuIdle"), timestamp, pointCounter);
-    reportValue("system.cpu.stolen", hostName, systemTags, metrics.get("cpuStolen"), timestamp, pointCounter);
-    reportValue("system.cpu.system", hostName, systemTags, metrics.get("cpuSystem"), timestamp, pointCounter);
-    reportValue("system.cpu.user", hostName, systemTags, metrics.get("cpuUser"), timestamp, pointCounter);
-    reportValue("system.cpu.wait", hostName, systemTags, metrics.get("cpuWait"), timestamp, pointCounter);
-    reportValue("system.mem.buffers", hostName, systemTags, metrics.get("memBuffers"), timestamp, pointCounter);
-    reportValue("system.mem.cached", hostName, systemTags, metrics.get("memCached"), timestamp, pointCounter);
-    reportValue("system.mem.page_tables", hostName, systemTags, metrics.get("memPageTables"), timestamp, pointCounter);
-    reportValue("system.mem.shared", hostName, systemTags, metrics.get("memShared"), timestamp, pointCounter);
-    reportValue("system.mem.slab", hostName, systemTags, metrics.get("memSlab"), timestamp, pointCounter);
-    reportValue("system.mem.free", hostName, systemTags, metrics.get("memPhysFree"), timestamp, pointCounter);
-    reportValue("system.mem.pct_usable", hostName, systemTags, metrics.get("memPhysPctUsable"), timestamp, pointCounter);
-    reportValue("system.mem.total", hostName, systemTags, metrics.get("memPhysTotal"), timestamp, pointCounter);
-    reportValue("system.mem.usable", hostName, systemTags, metrics.get("memPhysUsable"), timestamp, pointCounter);
-    reportValue("system.mem.used", hostName, systemTags, metrics.get("memPhysUsed"), timestamp, pointCounter);
-    reportValue("system.swap.cached", hostName, systemTags, metrics.get("memSwapCached"), timestamp, pointCounter);
-    reportValue("system.swap.free", hostName, systemTags, metrics.get("memSwapFree"), timestamp, pointCounter);
-    reportValue("system.swap.pct_free", hostName, systemTags, metrics.get("memSwapPctFree"), timestamp, pointCounter);
-    reportValue("system.swap.total", hostName, systemTags, metrics.get("memSwapTotal"), timestamp, pointCounter);
-    reportValue("system.swap.used", hostName, systemTags, metrics.get("memSwapUsed"), timestamp, pointCounter);
+    SYSTEM_METRICS.forEach((fieldName, metric) ->
+        reportValue(metric, hostName, systemTags, metrics.get(fieldName), timestamp, pointCounter));
     return true;
   }
 
@@ -0,0 +1,223 @@
+package com.wavefront.agent.listeners;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+
+import com.wavefront.common.NamedThreadFactory;
+import com.wavefront.common.TaggedMetricName;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+
+/**
+ * Relays incoming HTTP requests to a remote target without blocking the calling thread. Requests
+ * are executed on a dedicated pool, the number of requests in flight is bounded: when the limit
+ * is reached, new requests are rejected right away instead of being queued.
+ */
+class HttpRequestRelay {
+  private static final Logger logger = Logger.getLogger(HttpRequestRelay.class.getCanonicalName());
+
+  private final HttpClient httpClient;
+  private final String target;
+  private final String handle;
+  private final Executor executor;
+  private final Semaphore inFlight;
+  private final Histogram duration;
+  private final Counter failed;
+  private final Counter rejected;
+  private final ConcurrentMap<Integer, Counter> statusCounters = new ConcurrentHashMap<>();
+
+  /**
+   * @param httpClient  HTTP client to use.
+   * @param target      HTTP/HTTPS target (scheme, host, port and optional path prefix).
+   * @param maxInFlight maximum number of concurrently relayed requests.
+   * @param handle      port/handle, used for metrics.
+   */
+  HttpRequestRelay(HttpClient httpClient, String target, int maxInFlight, String handle) {
+    this(httpClient, target, maxInFlight, handle, createExecutor(maxInFlight, handle));
+  }
+
+  @VisibleForTesting
+  HttpRequestRelay(HttpClient httpClient, String target, int maxInFlight, String handle,
+                   Executor executor) {
+    this.httpClient = httpClient;
+    this.target = target.replaceFirst("/*$", "");
+    this.handle = handle;
+    this.executor = executor;
+    this.inFlight = new Semaphore(maxInFlight);
+    this.duration = Metrics.newHistogram(new TaggedMetricName("listeners",
+        "http-relay.duration-nanos", "port", handle));
+    this.failed = Metrics.newCounter(new TaggedMetricName("listeners", "http-relay.failed",
+        "port", handle));
+    this.rejected = Metrics.newCounter(new TaggedMetricName("listeners", "http-relay.rejected",
+        "port", handle));
+    Metrics.newGauge(new TaggedMetricName("listeners", "http-relay.in-flight", "port", handle),
+        new Gauge<Integer>() {
+          @Override
+          public Integer value() {
+            return maxInFlight - inFlight.availablePermits();
+          }
+        });
+  }
+
+  /**
+   * Relays a POST request to the target asynchronously. The request body is sent straight from
+   * the buffer, which is retained until the request completes.
+   *
+   * @param requestUri  request URI (path and query string) to append to the target.
+   * @param contentType Content-Type header value of the incoming request, if any.
+   * @param body        request body.
+   * @return future that completes with the remote response, or completes exceptionally if the
+   *         request could not be relayed. null if there are too many requests in flight.
+   */
+  @Nullable
+  CompletableFuture<Response> relay(String requestUri, @Nullable String contentType, ByteBuf body) {
+    if (!inFlight.tryAcquire()) {
+      rejected.inc();
+      return null;
+    }
+    long startNanos = System.nanoTime();
+    String outgoingUrl = target + requestUri;
+    ByteBuf payload = body.retainedDuplicate();
+    CompletableFuture<Response> future;
+    try {
+      future = CompletableFuture.supplyAsync(() -> execute(outgoingUrl, contentType, payload),
+          executor);
+    } catch (RuntimeException e) {
+      payload.release();
+      inFlight.release();
+      throw e;
+    }
+    return future.whenComplete((response, throwable) -> {
+      payload.release();
+      inFlight.release();
+      duration.update(System.nanoTime() - startNanos);
+      if (throwable != null) {
+        failed.inc();
+        logger.warning("Unable to relay request to " + target + ": " + getMessage(throwable));
+      }
+    });
+  }
+
+  /**
+   * Extract a meaningful error message from the exception a relay future completed with.
+   *
+   * @param throwable exception.
+   * @return error message.
+   */
+  static String getMessage(Throwable throwable) {
+    return Throwables.getRootCause(throwable).getMessage();
+  }
+
+  private Response execute(String outgoingUrl, @Nullable String contentType, ByteBuf body) {
+    HttpPost outgoingRequest = new HttpPost(outgoingUrl);
+    if (contentType != null) {
+      outgoingRequest.addHeader("Content-Type", contentType);
+    }
+    outgoingRequest.setEntity(new ByteBufEntity(body));
+    try {
+      logger.fine("Relaying incoming HTTP request to " + outgoingUrl);
+      HttpResponse response = httpClient.execute(outgoingRequest);
+      int httpStatusCode = response.getStatusLine().getStatusCode();
+      statusCounters.computeIfAbsent(httpStatusCode, x -> Metrics.newCounter(
+          new TaggedMetricName("listeners", "http-relay.status." + x + ".count", "port", handle))).
+          inc();
+      if (httpStatusCode < 200 || httpStatusCode >= 300) {
+        return new Response(httpStatusCode, EntityUtils.toString(response.getEntity(), "UTF-8"));
+      }
+      EntityUtils.consumeQuietly(response.getEntity());
+      return new Response(httpStatusCode, "");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Executor createExecutor(int maxInFlight, String handle) {
+    // the number of queued tasks never exceeds maxInFlight, since requests over the limit are
+    // rejected before submitting.
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 1,
+        TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+        new NamedThreadFactory("http-relay-" + handle));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Repeatable entity backed by a {@link ByteBuf}, doesn't change the buffer's indexes.
+   */
+  private static final class ByteBufEntity extends AbstractHttpEntity {
+    private final ByteBuf content;
+
+    ByteBufEntity(ByteBuf content) {
+      this.content = content;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public long getContentLength() {
+      return content.readableBytes();
+    }
+
+    @Override
+    public InputStream getContent() {
+      return new ByteBufInputStream(content.duplicate());
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+      content.getBytes(content.readerIndex(), outStream, content.readableBytes());
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return false;
+    }
+  }
+
+  /**
+   * Status code and body of the remote response.
+   */
+  static final class Response {
+    final int statusCode;
+    final String body;
+
+    Response(int statusCode, String body) {
+      this.statusCode = statusCode;
+      this.body = body;
+    }
+
+    boolean isSuccessful() {
+      return statusCode >= 200 && statusCode < 300;
+    }
+  }
+}
@@ -1,6 +1,5 @@
 package com.wavefront.agent.listeners;
 
-import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.RateLimiter;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -8,6 +7,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.wavefront.agent.Utils;
+import com.wavefront.agent.api.BinaryPushDataCodec;
 import com.wavefront.agent.auth.TokenAuthenticator;
 import com.wavefront.agent.channel.ChannelUtils;
 import com.wavefront.agent.channel.HealthCheckManager;
@@ -28,8 +28,9 @@ import com.yammer.metrics.core.MetricName;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 
+import java.io.InputStream;
 import java.net.URI;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -38,11 +39,14 @@ import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.util.CharsetUtil;
+import wavefront.report.Histogram;
 import wavefront.report.ReportPoint;
 import wavefront.report.Span;
 import wavefront.report.SpanLogs;
@@ -50,8 +54,10 @@ import wavefront.report.SpanLogs;
 import static com.wavefront.agent.channel.ChannelUtils.formatErrorMessage;
 import static com.wavefront.agent.channel.ChannelUtils.writeExceptionText;
 import static com.wavefront.agent.channel.ChannelUtils.writeHttpResponse;
+import static com.wavefront.agent.handlers.LineDelimitedUtils.countLines;
 import static com.wavefront.agent.handlers.LineDelimitedUtils.splitPushData;
 import static com.wavefront.agent.listeners.WavefrontPortUnificationHandler.preprocessAndHandlePoint;
+import static com.wavefront.agent.listeners.WavefrontPortUnificationHandler.preprocessAndReportPoint;
 
 /**
  * A unified HTTP endpoint for mixed format data. Can serve as a proxy endpoint and process
@@ -59,6 +65,8 @@ import static com.wavefront.agent.listeners.WavefrontPortUnificationHandler.prep
  * serve as a DDI (Direct Data Ingestion) endpoint.
  * All the data received on this endpoint will register as originating from this proxy.
  * Supports metric, histogram and distributed trace data (no source tag support at this moment).
+ * Metric, histogram and span data can also be received in binary format (see
+ * {@link BinaryPushDataCodec}), in which case point line-level preprocessor rules don't apply.
  * Intended for internal use.
  *
  * @author vasily@wavefront.com
@@ -122,10 +130,10 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
     super(tokenAuthenticator, healthCheckManager, handle);
     this.decoders = decoders;
     this.wavefrontDecoder = decoders.get(ReportableEntityType.POINT);
-    this.wavefrontHandler = handlerFactory.getHandler(HandlerKey.of(ReportableEntityType.POINT,
-        handle));
-    this.histogramHandlerSupplier = Utils.lazySupplier(() -> handlerFactory.getHandler(
-        HandlerKey.of(ReportableEntityType.HISTOGRAM, handle)));
+    this.wavefrontHandler = batching(handlerFactory.getHandler(HandlerKey.of(
+        ReportableEntityType.POINT, handle)));
+    this.histogramHandlerSupplier = Utils.lazySupplier(() -> batching(handlerFactory.getHandler(
+        HandlerKey.of(ReportableEntityType.HISTOGRAM, handle))));
     this.spanHandlerSupplier = Utils.lazySupplier(() -> handlerFactory.getHandler(HandlerKey.of(
         ReportableEntityType.TRACE, handle)));
     this.spanLogsHandlerSupplier = Utils.lazySupplier(() -> handlerFactory.getHandler(HandlerKey.of(
@@ -176,13 +184,20 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
         filter(x -> x.getName().equals("format") || x.getName().equals("f")).
         map(NameValuePair::getValue).findFirst().orElse(Constants.PUSH_FORMAT_WAVEFRONT);
 
-    String[] lines = splitPushData(request.content().toString(CharsetUtil.UTF_8));
+    if (BinaryPushDataCodec.isBinaryFormat(format)) {
+      HttpResponseStatus status = handleBinaryPayload(ctx, request,
+          BinaryPushDataCodec.textFormat(format), okStatus, output);
+      writeHttpResponse(ctx, status, output, request);
+      return;
+    }
+
+    ByteBuf content = request.content();
     HttpResponseStatus status;
 
     switch (format) {
       case Constants.PUSH_FORMAT_HISTOGRAM:
         if (histogramDisabled.get()) {
-          discardedHistograms.get().inc(lines.length);
+          discardedHistograms.get().inc(countLines(content));
           status = HttpResponseStatus.FORBIDDEN;
           if (warningLoggerRateLimiter.tryAcquire()) {
             logger.info(ERROR_HISTO_DISABLED);
@@ -190,15 +205,17 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
           output.append(ERROR_HISTO_DISABLED);
           break;
         }
+        // fall through - histograms are handled the same way as points
       case Constants.PUSH_FORMAT_WAVEFRONT:
       case Constants.PUSH_FORMAT_GRAPHITE_V2:
         AtomicBoolean hasSuccessfulPoints = new AtomicBoolean(false);
+        startBatch();
         try {
           //noinspection unchecked
           ReportableEntityDecoder<String, ReportPoint> histogramDecoder = decoders.get(
               ReportableEntityType.HISTOGRAM);
-          Arrays.stream(lines).forEach(line -> {
-            String message = line.trim();
+          splitPushData(content).forEach(line -> {
+            String message = line;
             if (message.isEmpty()) return;
             DataFormat dataFormat = DataFormat.autodetect(message);
             switch (dataFormat) {
@@ -208,7 +225,7 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
                 break;
               case HISTOGRAM:
                 if (histogramDisabled.get()) {
-                  discardedHistograms.get().inc(lines.length);
+                  discardedHistograms.get().inc();
                   if (warningLoggerRateLimiter.tryAcquire()) {
                     logger.info(ERROR_HISTO_DISABLED);
                   }
@@ -234,11 +251,13 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
           status = HttpResponseStatus.BAD_REQUEST;
           writeExceptionText(e, output);
           logWarning("WF-300: Failed to handle HTTP POST", e, ctx);
+        } finally {
+          flushBatch();
         }
         break;
       case Constants.PUSH_FORMAT_TRACING:
         if (traceDisabled.get()) {
-          discardedSpans.get().inc(lines.length);
+          discardedSpans.get().inc(countLines(content));
           status = HttpResponseStatus.FORBIDDEN;
           if (warningLoggerRateLimiter.tryAcquire()) {
             logger.info(ERROR_SPAN_DISABLED);
@@ -246,24 +265,25 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
           output.append(ERROR_SPAN_DISABLED);
           break;
         }
-        List<Span> spans = Lists.newArrayListWithCapacity(lines.length);
+        List<Span> spans = new ArrayList<>();
         //noinspection unchecked
         ReportableEntityDecoder<String, Span> spanDecoder = decoders.get(
             ReportableEntityType.TRACE);
         ReportableEntityHandler<Span> spanHandler = spanHandlerSupplier.get();
-        Arrays.stream(lines).forEach(line -> {
+        // span and span log lines are decoded as is, without trimming
+        splitPushData(content, false).forEach(line -> {
           try {
             spanDecoder.decode(line, spans, "dummy");
           } catch (Exception e) {
             spanHandler.reject(line, formatErrorMessage(line, e, ctx));
           }
         });
-        spans.forEach(spanHandler::report);
+        spanHandler.reportBatch(spans);
         status = okStatus;
         break;
       case Constants.PUSH_FORMAT_TRACING_SPAN_LOGS:
         if (spanLogsDisabled.get()) {
-          discardedSpanLogs.get().inc(lines.length);
+          discardedSpanLogs.get().inc(countLines(content));
           status = HttpResponseStatus.FORBIDDEN;
           if (warningLoggerRateLimiter.tryAcquire()) {
             logger.info(ERROR_SPANLOGS_DISABLED);
@@ -271,19 +291,19 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
           output.append(ERROR_SPANLOGS_DISABLED);
           break;
         }
-        List<SpanLogs> spanLogs = Lists.newArrayListWithCapacity(lines.length);
+        List<SpanLogs> spanLogs = new ArrayList<>();
         //noinspection unchecked
         ReportableEntityDecoder<JsonNode, SpanLogs> spanLogDecoder = decoders.get(
             ReportableEntityType.TRACE_SPAN_LOGS);
         ReportableEntityHandler<SpanLogs> spanLogsHandler = spanLogsHandlerSupplier.get();
-        Arrays.stream(lines).forEach(line -> {
+        splitPushData(content, false).forEach(line -> {
           try {
             spanLogDecoder.decode(JSON_PARSER.readTree(line), spanLogs, "dummy");
           } catch (Exception e) {
             spanLogsHandler.reject(line, formatErrorMessage(line, e, ctx));
           }
         });
-        spanLogs.forEach(spanLogsHandler::report);
+        spanLogsHandler.reportBatch(spanLogs);
         status = okStatus;
         break;
       default:
@@ -292,4 +312,70 @@ public class RelayPortUnificationHandler extends AbstractHttpOnlyHandler {
     }
     writeHttpResponse(ctx, status, output, request);
   }
+
+  /**
+   * Process a payload with records in binary format, no text parsing involved.
+   */
+  private HttpResponseStatus handleBinaryPayload(final ChannelHandlerContext ctx,
+                                                 final FullHttpRequest request,
+                                                 final String format,
+                                                 final HttpResponseStatus okStatus,
+                                                 final StringBuilder output) {
+    int payloadSize = request.content().readableBytes();
+    try (InputStream stream = new ByteBufInputStream(request.content())) {
+      switch (format) {
+        case Constants.PUSH_FORMAT_HISTOGRAM:
+          if (histogramDisabled.get()) {
+            discardedHistograms.get().inc(BinaryPushDataCodec.POINTS.decode(stream, payloadSize,
+                x -> {}));
+            return forbidden(ERROR_HISTO_DISABLED, output);
+          }
+          // fall through - histograms and points share the same payload format
+        case Constants.PUSH_FORMAT_WAVEFRONT:
+          ReportableEntityPreprocessor preprocessor = preprocessorSupplier == null ?
+              null : preprocessorSupplier.get();
+          startBatch();
+          try {
+            BinaryPushDataCodec.POINTS.decode(stream, payloadSize, point -> {
+              if (!(point.getValue() instanceof Histogram)) {
+                preprocessAndReportPoint(point, wavefrontHandler, preprocessor, new String[1]);
+              } else if (histogramDisabled.get()) {
+                discardedHistograms.get().inc();
+              } else {
+                preprocessAndReportPoint(point, histogramHandlerSupplier.get(), preprocessor,
+                    new String[1]);
+              }
+            });
+          } finally {
+            flushBatch();
+          }
+          return okStatus;
+        case Constants.PUSH_FORMAT_TRACING:
+          if (traceDisabled.get()) {
+            discardedSpans.get().inc(BinaryPushDataCodec.SPANS.decode(stream, payloadSize,
+                x -> {}));
+            return forbidden(ERROR_SPAN_DISABLED, output);
+          }
+          List<Span> spans = new ArrayList<>();
+          BinaryPushDataCodec.SPANS.decode(stream, payloadSize, spans::add);
+          spanHandlerSupplier.get().reportBatch(spans);
+          return okStatus;
+        default:
+          logger.warning("Unexpected format for incoming HTTP request: " + format + " (binary)");
+          return HttpResponseStatus.BAD_REQUEST;
+      }
+    } catch (Exception e) {
+      writeExceptionText(e, output);
+      logWarning("WF-300: Failed to handle binary HTTP POST", e, ctx);
+      return HttpResponseStatus.BAD_REQUEST;
+    }
+  }
+
+  private HttpResponseStatus forbidden(String message, StringBuilder output) {
+    if (warningLoggerRateLimiter.tryAcquire()) {
+      logger.info(message);
+    }
+    output.append(message);
+    return HttpResponseStatus.FORBIDDEN;
+  }
 }
@@ -8,6 +8,7 @@ import com.wavefront.agent.channel.HealthCheckManager;
 import com.wavefront.agent.channel.SharedGraphiteHostAnnotator;
 import com.wavefront.agent.formatter.DataFormat;
 import com.wavefront.agent.handlers.HandlerKey;
+import com.wavefront.agent.handlers.PointLineHandler;
 import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.handlers.ReportableEntityHandlerFactory;
 import com.wavefront.agent.preprocessor.ReportableEntityPreprocessor;
@@ -54,6 +55,11 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
   private final ReportableEntityDecoder<String, ReportEvent> eventDecoder;
   private final ReportableEntityDecoder<String, ReportPoint> histogramDecoder;
   private final ReportableEntityHandler<ReportPoint> wavefrontHandler;
+  /**
+   * Accepts wavefront-format point lines without decoding them (if supported by the handler).
+   */
+  @Nullable
+  private final PointLineHandler passThroughHandler;
   private final Supplier<ReportableEntityHandler<ReportPoint>> histogramHandlerSupplier;
   private final Supplier<ReportableEntityHandler<ReportSourceTag>> sourceTagHandlerSupplier;
   private final Supplier<ReportableEntityHandler<ReportEvent>> eventHandlerSupplier;
@@ -81,12 +87,15 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
     this.wavefrontDecoder = decoders.get(ReportableEntityType.POINT);
     this.annotator = annotator;
     this.preprocessorSupplier = preprocessor;
-    this.wavefrontHandler = handlerFactory.getHandler(HandlerKey.of(ReportableEntityType.POINT, handle));
+    this.wavefrontHandler = batching(handlerFactory.getHandler(HandlerKey.of(
+        ReportableEntityType.POINT, handle)));
+    this.passThroughHandler = wavefrontHandler instanceof PointLineHandler ?
+        (PointLineHandler) wavefrontHandler : null;
     this.histogramDecoder = decoders.get(ReportableEntityType.HISTOGRAM);
     this.sourceTagDecoder = decoders.get(ReportableEntityType.SOURCE_TAG);
     this.eventDecoder = decoders.get(ReportableEntityType.EVENT);
-    this.histogramHandlerSupplier = Utils.lazySupplier(() -> handlerFactory.getHandler(
-        HandlerKey.of(ReportableEntityType.HISTOGRAM, handle)));
+    this.histogramHandlerSupplier = Utils.lazySupplier(() -> batching(handlerFactory.getHandler(
+        HandlerKey.of(ReportableEntityType.HISTOGRAM, handle))));
     this.sourceTagHandlerSupplier = Utils.lazySupplier(() -> handlerFactory.getHandler(
         HandlerKey.of(ReportableEntityType.SOURCE_TAG, handle)));
     this.eventHandlerSupplier = Utils.lazySupplier(() -> handlerFactory.getHandler(
@@ -153,7 +162,7 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
       default:
         message = annotator == null ? message : annotator.apply(ctx, message);
         preprocessAndHandlePoint(message, wavefrontDecoder, wavefrontHandler, preprocessorSupplier,
-            ctx);
+            ctx, passThroughHandler);
     }
   }
 
@@ -162,6 +171,26 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
       ReportableEntityHandler<ReportPoint> handler,
       @Nullable Supplier<ReportableEntityPreprocessor> preprocessorSupplier,
       @Nullable ChannelHandlerContext ctx) {
+    preprocessAndHandlePoint(message, decoder, handler, preprocessorSupplier, ctx, null);
+  }
+
+  /**
+   * Apply preprocessor rules to a point line, decode it and report the resulting points.
+   *
+   * @param message              point line.
+   * @param decoder              decoder for the point line.
+   * @param handler              handler to report points to.
+   * @param preprocessorSupplier preprocessor (optional).
+   * @param ctx                  channel context (optional, for error messages).
+   * @param passThroughHandler   handler that accepts wavefront-format point lines without
+   *                             decoding them, when there are no point-level rules to apply
+   *                             (optional).
+   */
+  static void preprocessAndHandlePoint(
+      String message, ReportableEntityDecoder<String, ReportPoint> decoder,
+      ReportableEntityHandler<ReportPoint> handler,
+      @Nullable Supplier<ReportableEntityPreprocessor> preprocessorSupplier,
+      @Nullable ChannelHandlerContext ctx, @Nullable PointLineHandler passThroughHandler) {
     ReportableEntityPreprocessor preprocessor = preprocessorSupplier == null ?
         null : preprocessorSupplier.get();
     String[] messageHolder = new String[1];
@@ -180,6 +209,15 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
       }
     }
 
+    if (passThroughHandler != null) {
+      if (preprocessor == null) {
+        if (passThroughHandler.reportLine(message, null)) return;
+      } else if (preprocessor.isPointPassThroughAllowed() &&
+          passThroughHandler.reportLine(message, preprocessor::isTimestampAllowed)) {
+        return;
+      }
+    }
+
     List<ReportPoint> output = Lists.newArrayListWithCapacity(1);
     try {
       decoder.decode(message, output, "dummy");
@@ -190,18 +228,37 @@ public class WavefrontPortUnificationHandler extends AbstractLineDelimitedHandle
     }
 
     for (ReportPoint object : output) {
-      if (preprocessor != null) {
-        preprocessor.forReportPoint().transform(object);
-        if (!preprocessor.forReportPoint().filter(object, messageHolder)) {
-          if (messageHolder[0] != null) {
-            handler.reject(object, messageHolder[0]);
-          } else {
-            handler.block(object);
-          }
-          return;
+      if (!preprocessAndReportPoint(object, handler, preprocessor, messageHolder)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Apply point-level preprocessor rules to an already decoded point and report it.
+   *
+   * @param point         point to process.
+   * @param handler       handler to report the point to.
+   * @param preprocessor  preprocessor (optional).
+   * @param messageHolder holder for the rejection message.
+   * @return false if the point has been blocked or rejected.
+   */
+  static boolean preprocessAndReportPoint(ReportPoint point,
+                                          ReportableEntityHandler<ReportPoint> handler,
+                                          @Nullable ReportableEntityPreprocessor preprocessor,
+                                          String[] messageHolder) {
+    if (preprocessor != null) {
+      preprocessor.forReportPoint().transform(point);
+      if (!preprocessor.forReportPoint().filter(point, messageHolder)) {
+        if (messageHolder[0] != null) {
+          handler.reject(point, messageHolder[0]);
+        } else {
+          handler.block(point);
         }
+        return false;
       }
-      handler.report(object);
     }
+    handler.report(point);
+    return true;
   }
 }
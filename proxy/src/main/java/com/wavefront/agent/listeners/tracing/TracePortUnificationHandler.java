@@ -96,8 +96,8 @@ public class TracePortUnificationHandler extends AbstractLineDelimitedHandler {
     super(tokenAuthenticator, healthCheckManager, handle);
     this.decoder = traceDecoder;
     this.spanLogsDecoder = spanLogsDecoder;
-    this.handler = handler;
-    this.spanLogsHandler = spanLogsHandler;
+    this.handler = batching(handler);
+    this.spanLogsHandler = batching(spanLogsHandler);
     this.preprocessorSupplier = preprocessor;
     this.sampler = sampler;
     this.alwaysSampleErrors = alwaysSampleErrors;
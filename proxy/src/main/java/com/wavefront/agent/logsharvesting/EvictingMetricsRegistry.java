@@ -1,7 +1,5 @@
 package com.wavefront.agent.logsharvesting;
 
-import com.google.common.collect.Sets;
-
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.CacheWriter;
 import com.github.benmanes.caffeine.cache.Caffeine;
@@ -19,6 +17,7 @@ import com.yammer.metrics.core.MetricsRegistry;
 import com.yammer.metrics.core.WavefrontHistogram;
 
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -32,16 +31,19 @@ import javax.annotation.Nullable;
  * regarding automatic removal of metrics.
  *
  * With the introduction of Delta Counter for Yammer metrics, this class now treats Counters as
- * Delta Counters. So anybody using this {@link #getCounter(MetricName, MetricMatcher)} method
+ * Delta Counters. So anybody using this {@link #getCounter(TimeSeriesKey, MetricMatcher)} method
  * will get an instance of Delta counter.
  *
+ * Metrics are keyed by {@link TimeSeriesKey}, a {@link MetricName} is only created when a metric is
+ * registered for a new series.
+ *
  * @author Mori Bellamy (mori@wavefront.com)
  */
 public class EvictingMetricsRegistry {
   protected static final Logger logger = Logger.getLogger(EvictingMetricsRegistry.class.getCanonicalName());
   private final MetricsRegistry metricsRegistry;
-  private final Cache<MetricName, Metric> metricCache;
-  private final LoadingCache<MetricMatcher, Set<MetricName>> metricNamesForMetricMatchers;
+  private final Cache<TimeSeriesKey, RegisteredMetric> metricCache;
+  private final LoadingCache<MetricMatcher, Set<TimeSeriesKey>> metricNamesForMetricMatchers;
   private final boolean wavefrontHistograms;
   private final boolean useDeltaCounters;
   private final Supplier<Long> nowMillis;
@@ -56,50 +58,48 @@ public class EvictingMetricsRegistry {
     this.metricCache = Caffeine.newBuilder()
         .expireAfterAccess(expiryMillis, TimeUnit.MILLISECONDS)
         .ticker(ticker)
-        .writer(new CacheWriter<MetricName, Metric>() {
+        .writer(new CacheWriter<TimeSeriesKey, RegisteredMetric>() {
           @Override
-          public void write(@Nonnull MetricName key, @Nonnull Metric value) {
+          public void write(@Nonnull TimeSeriesKey key, @Nonnull RegisteredMetric value) {
           }
 
           @Override
-          public void delete(@Nonnull MetricName key, @Nullable Metric value,
+          public void delete(@Nonnull TimeSeriesKey key, @Nullable RegisteredMetric value,
                              @Nonnull RemovalCause cause) {
             if ((cause == RemovalCause.EXPIRED || cause == RemovalCause.EXPLICIT) &&
-                metricsRegistry.allMetrics().get(key) == value) {
-              metricsRegistry.removeMetric(key);
+                value != null && metricsRegistry.allMetrics().get(value.name) == value.metric) {
+              metricsRegistry.removeMetric(value.name);
             }
           }
         })
         .build();
-    this.metricNamesForMetricMatchers = Caffeine.<MetricMatcher, Set<MetricName>>newBuilder()
-        .build((metricMatcher) -> Sets.newHashSet());
+    this.metricNamesForMetricMatchers = Caffeine.<MetricMatcher, Set<TimeSeriesKey>>newBuilder()
+        .build((metricMatcher) -> ConcurrentHashMap.newKeySet());
   }
 
-  public Counter getCounter(MetricName metricName, MetricMatcher metricMatcher) {
+  public Counter getCounter(TimeSeriesKey key, MetricMatcher metricMatcher) {
     if (useDeltaCounters) {
       // use delta counters instead of regular counters. It helps with load balancers present in
       // front of proxy (PUB-125)
-      MetricName newMetricName = DeltaCounter.getDeltaCounterMetricName(metricName);
-      return put(newMetricName, metricMatcher,
-          key -> DeltaCounter.get(metricsRegistry, newMetricName));
+      return put(key.asDelta(), metricMatcher, name -> DeltaCounter.get(metricsRegistry, name));
     } else {
-      return put(metricName, metricMatcher, metricsRegistry::newCounter);
+      return put(key, metricMatcher, metricsRegistry::newCounter);
     }
   }
 
-  public Gauge getGauge(MetricName metricName, MetricMatcher metricMatcher) {
-    return put(metricName, metricMatcher,
-        key -> metricsRegistry.newGauge(key, new ChangeableGauge<Double>()));
+  public Gauge getGauge(TimeSeriesKey key, MetricMatcher metricMatcher) {
+    return put(key, metricMatcher,
+        name -> metricsRegistry.newGauge(name, new ChangeableGauge<Double>()));
   }
 
-  public Histogram getHistogram(MetricName metricName, MetricMatcher metricMatcher) {
-    return put(metricName, metricMatcher, key -> wavefrontHistograms ?
-        WavefrontHistogram.get(metricsRegistry, key, this.nowMillis) :
-        metricsRegistry.newHistogram(metricName, false));
+  public Histogram getHistogram(TimeSeriesKey key, MetricMatcher metricMatcher) {
+    return put(key, metricMatcher, name -> wavefrontHistograms ?
+        WavefrontHistogram.get(metricsRegistry, name, this.nowMillis) :
+        metricsRegistry.newHistogram(name, false));
   }
 
   public synchronized void evict(MetricMatcher evicted) {
-    for (MetricName toRemove : metricNamesForMetricMatchers.get(evicted)) {
+    for (TimeSeriesKey toRemove : metricNamesForMetricMatchers.get(evicted)) {
       metricCache.invalidate(toRemove);
     }
     metricNamesForMetricMatchers.invalidate(evicted);
@@ -110,18 +110,29 @@ public class EvictingMetricsRegistry {
   }
 
   @SuppressWarnings("unchecked")
-  private <M extends Metric> M put(MetricName metricName, MetricMatcher metricMatcher,
+  private <M extends Metric> M put(TimeSeriesKey key, MetricMatcher metricMatcher,
                                    Function<MetricName, M> getter) {
     @Nullable
-    Metric cached = metricCache.getIfPresent(metricName);
-    metricNamesForMetricMatchers.get(metricMatcher).add(metricName);
-    if (cached != null && cached == metricsRegistry.allMetrics().get(metricName)) {
-      return (M) cached;
+    RegisteredMetric cached = metricCache.getIfPresent(key);
+    metricNamesForMetricMatchers.get(metricMatcher).add(key);
+    if (cached != null && cached.metric == metricsRegistry.allMetrics().get(cached.name)) {
+      return (M) cached.metric;
     }
-    return (M) metricCache.asMap().compute(metricName, (name, existing) -> {
+    return (M) metricCache.asMap().compute(key, (k, existing) -> {
+      MetricName name = existing == null ? k.toMetricName() : existing.name;
       @Nullable
       Metric expected = metricsRegistry.allMetrics().get(name);
-      return expected == null ? getter.apply(name) : expected;
-    });
+      return new RegisteredMetric(name, expected == null ? getter.apply(name) : expected);
+    }).metric;
+  }
+
+  private static final class RegisteredMetric {
+    final MetricName name;
+    final Metric metric;
+
+    RegisteredMetric(MetricName name, Metric metric) {
+      this.name = name;
+      this.metric = metric;
+    }
   }
 }
@@ -7,14 +7,19 @@ import com.wavefront.agent.config.ConfigurationException;
 import com.wavefront.agent.config.LogsIngestionConfig;
 import com.wavefront.agent.config.MetricMatcher;
 import com.wavefront.agent.handlers.ReportableEntityHandlerFactory;
+import com.wavefront.common.NamedThreadFactory;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Metric;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.core.MetricsRegistry;
 
-import java.util.Timer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Supplier;
@@ -32,14 +37,19 @@ import wavefront.report.TimeSeries;
 public class LogsIngester {
   protected static final Logger logger = Logger.getLogger(LogsIngester.class.getCanonicalName());
   private static final ReadProcessor readProcessor = new ReadProcessor();
+  private static final int WORKER_QUEUE_SIZE = 10000;
   private final FlushProcessor flushProcessor;
   // A map from "true" to the currently loaded logs ingestion config.
   @VisibleForTesting
   final LogsIngestionConfigManager logsIngestionConfigManager;
-  private final Counter unparsed, parsed;
+  private final Counter unparsed, parsed, dropped;
   private final Supplier<Long> currentMillis;
   private final MetricsReporter metricsReporter;
   private EvictingMetricsRegistry evictingMetricsRegistry;
+  // null when log messages are processed on the calling thread
+  private final ExecutorService[] workers;
+  private final ScheduledExecutorService cleanupExecutor =
+      Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("logs-ingester-cleanup"));
 
   /**
    * Create an instance using system clock.
@@ -53,8 +63,29 @@ public class LogsIngester {
   public LogsIngester(ReportableEntityHandlerFactory handlerFactory,
                       Supplier<LogsIngestionConfig> logsIngestionConfigSupplier,
                       String prefix) throws ConfigurationException {
+    this(handlerFactory, logsIngestionConfigSupplier, prefix, 0);
+  }
+
+  /**
+   * Create an instance using system clock.
+   *
+   * @param handlerFactory              factory for point handlers and histogram handlers
+   * @param logsIngestionConfigSupplier supplied configuration object for logs harvesting.
+   *                                    May be reloaded. Must return "null" on any problems,
+   *                                    as opposed to throwing.
+   * @param prefix                      all harvested metrics start with this prefix
+   * @param ingestionThreads            number of worker threads for matching log lines, messages
+   *                                    from the same source are always processed by the same
+   *                                    worker. 0 to process messages on the calling thread.
+   *                                    Messages that don't fit into a worker's queue are
+   *                                    dropped.
+   * @throws ConfigurationException if the first config from logsIngestionConfigSupplier is null
+   */
+  public LogsIngester(ReportableEntityHandlerFactory handlerFactory,
+                      Supplier<LogsIngestionConfig> logsIngestionConfigSupplier,
+                      String prefix, int ingestionThreads) throws ConfigurationException {
     this(handlerFactory, logsIngestionConfigSupplier, prefix, System::currentTimeMillis,
-        Ticker.systemTicker());
+        Ticker.systemTicker(), ingestionThreads);
   }
 
   /**
@@ -73,6 +104,13 @@ public class LogsIngester {
   LogsIngester(ReportableEntityHandlerFactory handlerFactory,
                Supplier<LogsIngestionConfig> logsIngestionConfigSupplier, String prefix,
                Supplier<Long> currentMillis, Ticker ticker) throws ConfigurationException {
+    this(handlerFactory, logsIngestionConfigSupplier, prefix, currentMillis, ticker, 0);
+  }
+
+  private LogsIngester(ReportableEntityHandlerFactory handlerFactory,
+                       Supplier<LogsIngestionConfig> logsIngestionConfigSupplier, String prefix,
+                       Supplier<Long> currentMillis, Ticker ticker, int ingestionThreads)
+      throws ConfigurationException {
     logsIngestionConfigManager = new LogsIngestionConfigManager(
         logsIngestionConfigSupplier,
         removedMetricMatcher -> evictingMetricsRegistry.evict(removedMetricMatcher));
@@ -86,6 +124,7 @@ public class LogsIngester {
     // Logs harvesting metrics.
     this.unparsed = Metrics.newCounter(new MetricName("logsharvesting", "", "unparsed"));
     this.parsed = Metrics.newCounter(new MetricName("logsharvesting", "", "parsed"));
+    this.dropped = Metrics.newCounter(new MetricName("logsharvesting", "", "dropped"));
     this.currentMillis = currentMillis;
     this.flushProcessor = new FlushProcessor(currentMillis,
         logsIngestionConfig.useWavefrontHistograms, logsIngestionConfig.reportEmptyHistogramStats);
@@ -93,6 +132,20 @@ public class LogsIngester {
     // Continually flush user metrics to Wavefront.
     this.metricsReporter = new MetricsReporter(metricsRegistry, flushProcessor,
         "FilebeatMetricsReporter", handlerFactory, prefix);
+
+    if (ingestionThreads > 0) {
+      this.workers = new ExecutorService[ingestionThreads];
+      // log lines are submitted from network threads, which must never block, so lines that
+      // don't fit into a worker's queue are dropped
+      RejectedExecutionHandler dropPolicy = (r, executor) -> dropped.inc();
+      for (int i = 0; i < ingestionThreads; i++) {
+        workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(WORKER_QUEUE_SIZE),
+            new NamedThreadFactory("logs-ingester-" + i), dropPolicy);
+      }
+    } else {
+      this.workers = null;
+    }
   }
 
   public void start() {
@@ -102,9 +155,34 @@ public class LogsIngester {
     // but no more than once a minute. This is a workaround for the issue that surfaces mostly
     // during testing, when there are no matching log messages at all for more than expiryMillis,
     // which means there is no cache access and no time-based evictions are performed.
-    Executors.newSingleThreadScheduledExecutor().
-        scheduleWithFixedDelay(evictingMetricsRegistry::cleanUp, interval * 3 / 2,
-            Math.max(60, interval * 2), TimeUnit.SECONDS);
+    cleanupExecutor.scheduleWithFixedDelay(evictingMetricsRegistry::cleanUp, interval * 3 / 2,
+        Math.max(60, interval * 2), TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop the background threads. Log lines that have already been queued are processed before
+   * the workers exit, waiting for up to {@code timeoutMillis}.
+   *
+   * @param timeoutMillis maximum time to wait for the workers to finish, in milliseconds
+   */
+  public void shutdown(long timeoutMillis) {
+    cleanupExecutor.shutdownNow();
+    if (workers == null) return;
+    for (ExecutorService worker : workers) {
+      worker.shutdown();
+    }
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    try {
+      for (ExecutorService worker : workers) {
+        if (!worker.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()),
+            TimeUnit.MILLISECONDS)) {
+          logger.warning("Log lines still queued for processing on shutdown are discarded");
+          worker.shutdownNow();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   public void flush() {
@@ -117,6 +195,22 @@ public class LogsIngester {
   }
 
   public void ingestLog(LogsMessage logsMessage) {
+    if (workers == null) {
+      processLog(logsMessage);
+    } else {
+      int worker = Math.floorMod(logsMessage.hostOrDefault("parsed-logs").hashCode(),
+          workers.length);
+      workers[worker].execute(() -> {
+        try {
+          processLog(logsMessage);
+        } catch (Exception e) {
+          logger.log(Level.WARNING, "Could not process log line: " + logsMessage.getLogLine(), e);
+        }
+      });
+    }
+  }
+
+  private void processLog(LogsMessage logsMessage) {
     LogsIngestionConfig logsIngestionConfig = logsIngestionConfigManager.getConfig();
 
     boolean success = false;
@@ -140,17 +234,18 @@ public class LogsIngester {
   }
 
   private boolean maybeIngestLog(
-      BiFunction<MetricName, MetricMatcher, Metric> metricLoader, MetricMatcher metricMatcher,
+      BiFunction<TimeSeriesKey, MetricMatcher, Metric> metricLoader, MetricMatcher metricMatcher,
       LogsMessage logsMessage) {
     Double[] output = {null};
     TimeSeries timeSeries = metricMatcher.timeSeries(logsMessage, output);
     if (timeSeries == null) return false;
-    MetricName metricName = TimeSeriesUtils.toMetricName(timeSeries);
-    Metric metric = metricLoader.apply(metricName, metricMatcher);
+    TimeSeriesKey key = new TimeSeriesKey(timeSeries);
+    Metric metric = metricLoader.apply(key, metricMatcher);
     try {
-      metric.processWith(readProcessor, metricName, new ReadProcessorContext(output[0]));
+      // ReadProcessor doesn't use the metric name
+      metric.processWith(readProcessor, null, new ReadProcessorContext(output[0]));
     } catch (Exception e) {
-      logger.log(Level.SEVERE, "Could not process metric " + metricName.toString(), e);
+      logger.log(Level.SEVERE, "Could not process metric " + key, e);
     }
     return true;
   }
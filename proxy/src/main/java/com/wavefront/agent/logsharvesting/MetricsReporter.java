@@ -53,7 +53,9 @@ public class MetricsReporter extends AbstractPollingReporter {
         MetricName metricName = entry.getKey();
         Metric metric = entry.getValue();
         try {
-          TimeSeries timeSeries = TimeSeriesUtils.fromMetricName(metricName);
+          TimeSeries timeSeries = metricName instanceof TimeSeriesKey.Name ?
+              ((TimeSeriesKey.Name) metricName).getTimeSeries() :
+              TimeSeriesUtils.fromMetricName(metricName);
           metric.processWith(flushProcessor, metricName, new FlushProcessorContext(timeSeries, prefix,
               pointHandlerSupplier, histogramHandlerSupplier));
         } catch (Exception e) {
@@ -0,0 +1,129 @@
+package com.wavefront.agent.logsharvesting;
+
+import com.yammer.metrics.core.DeltaCounter;
+import com.yammer.metrics.core.MetricName;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+
+import javax.annotation.Nullable;
+
+import wavefront.report.TimeSeries;
+
+/**
+ * Compact identity of a harvested time series (metric + host + sorted tags), used for keying
+ * metrics in {@link EvictingMetricsRegistry}. Unlike {@link TimeSeriesUtils#toMetricName}, creating
+ * and comparing keys doesn't involve any serialization: a {@link MetricName} is only built once,
+ * when the metric for a new series is registered, and it carries the original {@link TimeSeries},
+ * so it doesn't have to be parsed back on flush.
+ */
+final class TimeSeriesKey {
+  private static final String[] NO_TAGS = new String[0];
+  private static final char SEPARATOR = '\u0000';
+
+  private final TimeSeries timeSeries;
+  private final String metric;
+  @Nullable
+  private final String host;
+  // sorted tag keys and their values, interleaved
+  private final String[] tags;
+  private final boolean delta;
+  private final int hash;
+
+  TimeSeriesKey(TimeSeries timeSeries) {
+    this(timeSeries, timeSeries.getMetric(), timeSeries.getHost(),
+        sortedTags(timeSeries.getAnnotations()), false);
+  }
+
+  private TimeSeriesKey(TimeSeries timeSeries, String metric, @Nullable String host, String[] tags,
+                        boolean delta) {
+    this.timeSeries = timeSeries;
+    this.metric = metric;
+    this.host = host;
+    this.tags = tags;
+    this.delta = delta;
+    int result = metric.hashCode();
+    result = 31 * result + Objects.hashCode(host);
+    result = 31 * result + Arrays.hashCode(tags);
+    this.hash = 31 * result + (delta ? 1 : 0);
+  }
+
+  /**
+   * @return key for the delta counter version of the same series.
+   */
+  TimeSeriesKey asDelta() {
+    return delta ? this : new TimeSeriesKey(timeSeries, metric, host, tags, true);
+  }
+
+  /**
+   * Creates a metric name for registering this series in a {@link
+   * com.yammer.metrics.core.MetricsRegistry}.
+   *
+   * @return metric name that carries the time series.
+   */
+  MetricName toMetricName() {
+    TimeSeries series = timeSeries;
+    String metricName = metric;
+    if (delta) {
+      metricName = DeltaCounter.getDeltaCounterName(metric);
+      series = TimeSeries.newBuilder(timeSeries).setMetric(metricName).build();
+    }
+    StringBuilder id = new StringBuilder(metricName).append(SEPARATOR).append(host);
+    for (String tag : tags) {
+      id.append(SEPARATOR).append(tag);
+    }
+    return new Name(id.toString(), series);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    TimeSeriesKey that = (TimeSeriesKey) o;
+    return hash == that.hash && delta == that.delta && metric.equals(that.metric) &&
+        Objects.equals(host, that.host) && Arrays.equals(tags, that.tags);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return timeSeries.toString();
+  }
+
+  private static String[] sortedTags(@Nullable Map<String, String> annotations) {
+    if (annotations == null || annotations.isEmpty()) return NO_TAGS;
+    String[] keys = annotations.keySet().toArray(new String[0]);
+    if (!(annotations instanceof SortedMap) ||
+        ((SortedMap<String, String>) annotations).comparator() != null) {
+      Arrays.sort(keys);
+    }
+    String[] tags = new String[keys.length * 2];
+    for (int i = 0; i < keys.length; i++) {
+      tags[i * 2] = keys[i];
+      tags[i * 2 + 1] = annotations.get(keys[i]);
+    }
+    return tags;
+  }
+
+  /**
+   * {@link MetricName} that carries the {@link TimeSeries} it has been created for.
+   */
+  static final class Name extends MetricName {
+    private final TimeSeries timeSeries;
+
+    private Name(String name, TimeSeries timeSeries) {
+      super("group", "type", name);
+      this.timeSeries = timeSeries;
+    }
+
+    TimeSeries getTimeSeries() {
+      return timeSeries;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.wavefront.agent.preprocessor;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Compiles a list of filter rules into an equivalent list where every run of two or more
+ * adjacent blacklist rules on the same scope is replaced with a single filter that matches all
+ * of their patterns at once through a {@link MultiPatternMatcher}, so that filtering cost
+ * doesn't grow with the number of literal-based blacklist rules.
+ *
+ * Per-rule metrics stay the same as if rules were evaluated one by one: the first matching rule
+ * is credited with the rejection, and every rule up to it is counted as checked. CPU time of the
+ * group is attributed to the rule that rejected the item, or to the last rule if none did.
+ */
+public final class BlacklistFilterCompiler {
+
+  private BlacklistFilterCompiler() {
+  }
+
+  /**
+   * Compile filter rules.
+   *
+   * @param filters filter rules, in the order they need to be applied.
+   * @return equivalent list of filters.
+   */
+  public static <T> List<AnnotatedPredicate<T>> compile(List<AnnotatedPredicate<T>> filters) {
+    List<AnnotatedPredicate<T>> result = new ArrayList<>(filters.size());
+    List<MergeableBlacklistFilter<T>> group = new ArrayList<>();
+    for (AnnotatedPredicate<T> filter : filters) {
+      MergeableBlacklistFilter<T> mergeable = filter instanceof MergeableBlacklistFilter ?
+          (MergeableBlacklistFilter<T>) filter : null;
+      if (!group.isEmpty() && !sameGroup(group.get(0), mergeable)) {
+        flush(group, result);
+      }
+      if (mergeable == null) {
+        result.add(filter);
+      } else {
+        group.add(mergeable);
+      }
+    }
+    flush(group, result);
+    return result;
+  }
+
+  private static <T> boolean sameGroup(MergeableBlacklistFilter<T> first,
+                                       @Nullable MergeableBlacklistFilter<T> filter) {
+    return filter != null && first.getClass() == filter.getClass() &&
+        first.getScope().equals(filter.getScope());
+  }
+
+  private static <T> void flush(List<MergeableBlacklistFilter<T>> group,
+                                List<AnnotatedPredicate<T>> result) {
+    if (group.size() == 1) {
+      result.add(group.get(0));
+    } else if (group.size() > 1) {
+      result.add(new MergedBlacklistFilter<>(new ArrayList<>(group)));
+    }
+    group.clear();
+  }
+
+  @VisibleForTesting
+  static final class MergedBlacklistFilter<T> implements AnnotatedPredicate<T> {
+    private final List<MergeableBlacklistFilter<T>> filters;
+    private final MergeableBlacklistFilter<T> first;
+    private final MultiPatternMatcher matcher;
+    private final PreprocessorRuleMetrics[] ruleMetrics;
+
+    MergedBlacklistFilter(List<MergeableBlacklistFilter<T>> filters) {
+      this.filters = filters;
+      this.first = filters.get(0);
+      this.matcher = new MultiPatternMatcher(filters.stream().
+          map(MergeableBlacklistFilter::getPattern).collect(Collectors.toList()));
+      this.ruleMetrics = filters.stream().map(MergeableBlacklistFilter::getRuleMetrics).
+          toArray(PreprocessorRuleMetrics[]::new);
+    }
+
+    @Override
+    public boolean test(@Nonnull T item, @Nullable String[] messageHolder) {
+      long startNanos = System.nanoTime();
+      int match;
+      try {
+        match = first.firstMatch(item, matcher);
+      } catch (PreprocessorRegex.MatchTimeoutException e) {
+        filters.stream().filter(x -> x.getPattern().equals(e.getPattern())).findFirst().
+            ifPresent(e::setRuleIfAbsent);
+        throw e;
+      }
+      int checked = match == -1 ? ruleMetrics.length : match + 1;
+      for (int i = 0; i < checked; i++) {
+        ruleMetrics[i].incrementRuleCheckedCounter();
+      }
+      PreprocessorRuleMetrics decidingRule = ruleMetrics[checked - 1];
+      if (match != -1) {
+        decidingRule.incrementRuleAppliedCounter();
+      }
+      decidingRule.ruleEnd(startNanos);
+      return match == -1;
+    }
+
+    @VisibleForTesting
+    MultiPatternMatcher getMatcher() {
+      return matcher;
+    }
+  }
+}
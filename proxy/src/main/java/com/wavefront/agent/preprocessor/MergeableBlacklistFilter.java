@@ -0,0 +1,32 @@
+package com.wavefront.agent.preprocessor;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Blacklist regex filter that can be evaluated together with adjacent blacklist filters on the
+ * same scope through a single {@link MultiPatternMatcher} (see {@link BlacklistFilterCompiler}).
+ */
+interface MergeableBlacklistFilter<T> extends AnnotatedPredicate<T> {
+
+  /**
+   * @return component of the item the pattern is matched against. Filters with the same scope
+   *         can be merged.
+   */
+  String getScope();
+
+  /**
+   * @return regex pattern.
+   */
+  String getPattern();
+
+  PreprocessorRuleMetrics getRuleMetrics();
+
+  /**
+   * Match this filter's scope of the item against all patterns of the merged group.
+   *
+   * @param item    item to check.
+   * @param matcher matcher built from all patterns of the group.
+   * @return index of the first matching pattern, or -1 if none do.
+   */
+  int firstMatch(@Nonnull T item, @Nonnull MultiPatternMatcher matcher);
+}
@@ -0,0 +1,223 @@
+package com.wavefront.agent.preprocessor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Matches a string against a list of regular expressions at once and finds the first one (in
+ * list order) that matches the entire string, with the same result as trying each pattern in
+ * turn. Patterns that are plain literals, optionally preceded and/or followed by {@code .*}, are
+ * matched through automatons at a cost that doesn't depend on the number of patterns:
+ * <ul>
+ *   <li>{@code literal} - hash lookup</li>
+ *   <li>{@code literal.*} - prefix trie</li>
+ *   <li>{@code .*literal} - suffix trie</li>
+ *   <li>{@code .*literal.*} - Aho-Corasick automaton</li>
+ * </ul>
+ * Any other pattern is evaluated as a regular expression, but only if no pattern before it in
+ * the list has matched already.
+ */
+final class MultiPatternMatcher {
+  private static final String METACHARACTERS = ".[]{}()*+?^$|\\";
+  private static final int NO_MATCH = Integer.MAX_VALUE;
+
+  private final PreprocessorRegex[] patterns;
+  private final Map<String, Integer> literals = new HashMap<>();
+  @Nullable
+  private TrieNode prefixes = null;
+  @Nullable
+  private TrieNode suffixes = null;
+  @Nullable
+  private TrieNode substrings = null;
+  private final int[] regexIndexes;
+
+  /**
+   * @param regexes patterns, in the order they need to be checked.
+   */
+  MultiPatternMatcher(@Nonnull List<String> regexes) {
+    this.patterns = new PreprocessorRegex[regexes.size()];
+    List<Integer> regexIndexes = new ArrayList<>();
+    for (int i = 0; i < regexes.size(); i++) {
+      String regex = regexes.get(i);
+      patterns[i] = PreprocessorRegex.compile(regex);
+      String body = regex;
+      // anchors are implied, since the whole string needs to match
+      if (body.startsWith("^")) body = body.substring(1);
+      if (body.endsWith("$") && !body.endsWith("\\$")) body = body.substring(0, body.length() - 1);
+      boolean anyPrefix = body.startsWith(".*");
+      if (anyPrefix) body = body.substring(2);
+      boolean anySuffix = body.endsWith(".*") && !body.endsWith("\\.*");
+      if (anySuffix) body = body.substring(0, body.length() - 2);
+      String literal = parseLiteral(body);
+      if (literal == null) {
+        regexIndexes.add(i);
+      } else if (anyPrefix && anySuffix && !literal.isEmpty()) {
+        substrings = add(substrings, literal, i);
+      } else if (anySuffix || (anyPrefix && literal.isEmpty())) {
+        prefixes = add(prefixes, literal, i);
+      } else if (anyPrefix) {
+        suffixes = add(suffixes, new StringBuilder(literal).reverse().toString(), i);
+      } else {
+        literals.putIfAbsent(literal, i);
+      }
+    }
+    this.regexIndexes = regexIndexes.stream().mapToInt(Integer::intValue).toArray();
+    if (substrings != null) {
+      buildFailureLinks(substrings);
+    }
+  }
+
+  /**
+   * @param value string to match.
+   * @return index of the first pattern that matches the entire string, or -1 if none do.
+   */
+  int firstMatch(@Nonnull String value) {
+    if (hasLineTerminators(value)) {
+      // .* doesn't match line terminators
+      for (int i = 0; i < patterns.length; i++) {
+        if (patterns[i].matcher(value).matches()) return i;
+      }
+      return -1;
+    }
+    int result = NO_MATCH;
+    Integer literalMatch = literals.get(value);
+    if (literalMatch != null) {
+      result = literalMatch;
+    }
+    if (prefixes != null) {
+      TrieNode node = prefixes;
+      result = Math.min(result, node.index);
+      for (int i = 0; i < value.length() && node != null; i++) {
+        node = node.children.get(value.charAt(i));
+        if (node != null) result = Math.min(result, node.index);
+      }
+    }
+    if (suffixes != null) {
+      TrieNode node = suffixes;
+      for (int i = value.length() - 1; i >= 0 && node != null; i--) {
+        node = node.children.get(value.charAt(i));
+        if (node != null) result = Math.min(result, node.index);
+      }
+    }
+    if (substrings != null) {
+      TrieNode node = substrings;
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        TrieNode next = node.children.get(c);
+        while (next == null && node != substrings) {
+          node = node.failure;
+          next = node.children.get(c);
+        }
+        node = next == null ? substrings : next;
+        result = Math.min(result, node.outputIndex);
+      }
+    }
+    for (int i = 0; i < regexIndexes.length && regexIndexes[i] < result; i++) {
+      if (patterns[regexIndexes[i]].matcher(value).matches()) {
+        result = regexIndexes[i];
+        break;
+      }
+    }
+    return result == NO_MATCH ? -1 : result;
+  }
+
+  /**
+   * @return number of patterns that are evaluated as regular expressions (for testing).
+   */
+  int getRegexCount() {
+    return regexIndexes.length;
+  }
+
+  /**
+   * @return unescaped literal, or null if the regex is not a plain literal.
+   */
+  @Nullable
+  private static String parseLiteral(String regex) {
+    StringBuilder result = new StringBuilder(regex.length());
+    for (int i = 0; i < regex.length(); i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        // escaped punctuation is a literal, escaped letters and digits are character classes,
+        // back references, quotes, etc.
+        if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+          return null;
+        }
+        result.append(regex.charAt(++i));
+      } else if (METACHARACTERS.indexOf(c) >= 0) {
+        return null;
+      } else {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
+
+  private static boolean hasLineTerminators(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static TrieNode add(@Nullable TrieNode root, String literal, int index) {
+    if (root == null) root = new TrieNode();
+    TrieNode node = root;
+    for (int i = 0; i < literal.length(); i++) {
+      node = node.children.computeIfAbsent(literal.charAt(i), x -> new TrieNode());
+    }
+    node.index = Math.min(node.index, index);
+    return root;
+  }
+
+  /**
+   * Turn a trie into an Aho-Corasick automaton: link every node to the node for its longest
+   * proper suffix, and propagate the lowest pattern index along these links.
+   */
+  private static void buildFailureLinks(TrieNode root) {
+    Queue<TrieNode> queue = new ArrayDeque<>();
+    root.failure = root;
+    root.outputIndex = root.index;
+    for (TrieNode child : root.children.values()) {
+      child.failure = root;
+      child.outputIndex = child.index;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      TrieNode node = queue.remove();
+      for (Map.Entry<Character, TrieNode> entry : node.children.entrySet()) {
+        TrieNode child = entry.getValue();
+        TrieNode failure = node.failure;
+        while (failure != root && !failure.children.containsKey(entry.getKey())) {
+          failure = failure.failure;
+        }
+        TrieNode next = failure.children.get(entry.getKey());
+        child.failure = next == null || next == child ? root : next;
+        child.outputIndex = Math.min(child.index, child.failure.outputIndex);
+        queue.add(child);
+      }
+    }
+  }
+
+  private static final class TrieNode {
+    final Map<Character, TrieNode> children = new HashMap<>();
+    /**
+     * Lowest index of a pattern ending at this node.
+     */
+    int index = NO_MATCH;
+    /**
+     * Lowest index of a pattern ending at this node or at any of its suffixes (Aho-Corasick).
+     */
+    int outputIndex = NO_MATCH;
+    TrieNode failure;
+  }
+}
@@ -0,0 +1,150 @@
+package com.wavefront.agent.preprocessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+
+import wavefront.report.Annotation;
+import wavefront.report.ReportPoint;
+import wavefront.report.Span;
+
+/**
+ * A string with {{...}} placeholders, pre-parsed into literal segments and placeholder names
+ * once, so that expanding it for a point or a span is a single pass with no regex matching.
+ * See {@link PreprocessorUtil#expandPlaceholders(String, ReportPoint)} for placeholder semantics.
+ */
+final class PlaceholderTemplate {
+  private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{(.*?)}}");
+
+  private final String template;
+  /**
+   * Literal segments, one more than there are placeholders.
+   */
+  private final String[] literals;
+  private final String[] names;
+  /**
+   * Placeholders as they appear in the template, used as is when they can't be resolved.
+   */
+  private final String[] placeholders;
+
+  private PlaceholderTemplate(String template, String[] literals, String[] names,
+                              String[] placeholders) {
+    this.template = template;
+    this.literals = literals;
+    this.names = names;
+    this.placeholders = placeholders;
+  }
+
+  /**
+   * Parse a template.
+   *
+   * @param template string with {{...}} placeholders.
+   * @return parsed template.
+   */
+  static PlaceholderTemplate compile(@Nonnull String template) {
+    List<String> literals = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<String> placeholders = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    if (template.contains("{{")) {
+      Matcher matcher = PLACEHOLDER.matcher(template);
+      int pos = 0;
+      while (matcher.find()) {
+        literal.append(template, pos, matcher.start());
+        if (matcher.group(1).isEmpty()) {
+          literal.append(matcher.group(0));
+        } else {
+          literals.add(literal.toString());
+          literal.setLength(0);
+          names.add(matcher.group(1));
+          placeholders.add(matcher.group(0));
+        }
+        pos = matcher.end();
+      }
+      literal.append(template, pos, template.length());
+    } else {
+      literal.append(template);
+    }
+    literals.add(literal.toString());
+    return new PlaceholderTemplate(template, literals.toArray(new String[0]),
+        names.toArray(new String[0]), placeholders.toArray(new String[0]));
+  }
+
+  /**
+   * @return true if the template has no placeholders and always expands to itself.
+   */
+  boolean isConstant() {
+    return names.length == 0;
+  }
+
+  /**
+   * Substitute placeholders with corresponding components of the point.
+   *
+   * @param reportPoint ReportPoint object to extract components from.
+   * @return string with substituted placeholders.
+   */
+  String expand(@Nonnull ReportPoint reportPoint) {
+    if (names.length == 0) return template;
+    StringBuilder result = new StringBuilder(template.length() + 32);
+    Map<String, String> annotations = reportPoint.getAnnotations();
+    for (int i = 0; i < names.length; i++) {
+      result.append(literals[i]);
+      String substitution;
+      switch (names[i]) {
+        case "metricName":
+          substitution = reportPoint.getMetric();
+          break;
+        case "sourceName":
+          substitution = reportPoint.getHost();
+          break;
+        default:
+          substitution = annotations == null ? null : annotations.get(names[i]);
+      }
+      result.append(substitution == null ? placeholders[i] : substitution);
+    }
+    return result.append(literals[names.length]).toString();
+  }
+
+  /**
+   * Substitute placeholders with corresponding components of the span.
+   *
+   * @param span Span object to extract components from.
+   * @return string with substituted placeholders.
+   */
+  String expand(@Nonnull Span span) {
+    if (names.length == 0) return template;
+    StringBuilder result = new StringBuilder(template.length() + 32);
+    for (int i = 0; i < names.length; i++) {
+      result.append(literals[i]);
+      String substitution = null;
+      switch (names[i]) {
+        case "spanName":
+          substitution = span.getName();
+          break;
+        case "sourceName":
+          substitution = span.getSource();
+          break;
+        default:
+          if (span.getAnnotations() != null) {
+            for (Annotation annotation : span.getAnnotations()) {
+              if (annotation.getKey().equals(names[i])) {
+                substitution = annotation.getValue();
+                break;
+              }
+            }
+          }
+      }
+      result.append(substitution == null ? placeholders[i] : substitution);
+    }
+    return result.append(literals[names.length]).toString();
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+}
@@ -4,8 +4,7 @@ import com.google.common.base.Preconditions;
 
 import com.yammer.metrics.core.Counter;
 
-import java.util.regex.Pattern;
-
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 /**
@@ -13,9 +12,9 @@ import javax.annotation.Nullable;
  *
  * Created by Vasily on 9/13/16.
  */
-public class PointLineBlacklistRegexFilter implements AnnotatedPredicate<String> {
+public class PointLineBlacklistRegexFilter implements MergeableBlacklistFilter<String> {
 
-  private final Pattern compiledPattern;
+  private final PreprocessorRegex compiledPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -26,7 +25,7 @@ public class PointLineBlacklistRegexFilter implements AnnotatedPredicate<String>
 
   public PointLineBlacklistRegexFilter(final String patternMatch,
                                        final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledPattern = Pattern.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
+    this.compiledPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
     Preconditions.checkArgument(!patternMatch.isEmpty(), "[match] can't be blank");
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
@@ -43,4 +42,24 @@ public class PointLineBlacklistRegexFilter implements AnnotatedPredicate<String>
     ruleMetrics.ruleEnd(startNanos);
     return true;
   }
+
+  @Override
+  public String getScope() {
+    return "pointLine";
+  }
+
+  @Override
+  public String getPattern() {
+    return compiledPattern.pattern();
+  }
+
+  @Override
+  public PreprocessorRuleMetrics getRuleMetrics() {
+    return ruleMetrics;
+  }
+
+  @Override
+  public int firstMatch(@Nonnull String pointLine, @Nonnull MultiPatternMatcher matcher) {
+    return matcher.firstMatch(pointLine);
+  }
 }
@@ -5,9 +5,6 @@ import com.google.common.base.Preconditions;
 
 import com.yammer.metrics.core.Counter;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import javax.annotation.Nullable;
 
 /**
@@ -18,10 +15,10 @@ import javax.annotation.Nullable;
 public class PointLineReplaceRegexTransformer implements Function<String, String> {
 
   private final String patternReplace;
-  private final Pattern compiledSearchPattern;
+  private final PreprocessorRegex compiledSearchPattern;
   private final Integer maxIterations;
   @Nullable
-  private final Pattern compiledMatchPattern;
+  private final PreprocessorRegex compiledMatchPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -38,9 +35,9 @@ public class PointLineReplaceRegexTransformer implements Function<String, String
                                           @Nullable final String patternMatch,
                                           @Nullable final Integer maxIterations,
                                           final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledSearchPattern = Pattern.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
+    this.compiledSearchPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
     Preconditions.checkArgument(!patternSearch.isEmpty(), "[search] can't be blank");
-    this.compiledMatchPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledMatchPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     this.patternReplace = Preconditions.checkNotNull(patternReplace, "[replace] can't be null");
     this.maxIterations = maxIterations != null ? maxIterations : 1;
     Preconditions.checkArgument(this.maxIterations > 0, "[iterations] must be > 0");
@@ -55,7 +52,7 @@ public class PointLineReplaceRegexTransformer implements Function<String, String
       ruleMetrics.ruleEnd(startNanos);
       return pointLine;
     }
-    Matcher patternMatcher = compiledSearchPattern.matcher(pointLine);
+    PreprocessorRegex.Matcher patternMatcher = compiledSearchPattern.matcher(pointLine);
 
     if (!patternMatcher.find()) {
       ruleMetrics.ruleEnd(startNanos);
@@ -4,8 +4,6 @@ import com.google.common.base.Preconditions;
 
 import com.yammer.metrics.core.Counter;
 
-import java.util.regex.Pattern;
-
 import javax.annotation.Nullable;
 
 /**
@@ -15,7 +13,7 @@ import javax.annotation.Nullable;
  */
 public class PointLineWhitelistRegexFilter implements AnnotatedPredicate<String> {
 
-  private final Pattern compiledPattern;
+  private final PreprocessorRegex compiledPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -26,7 +24,7 @@ public class PointLineWhitelistRegexFilter implements AnnotatedPredicate<String>
 
   public PointLineWhitelistRegexFilter(final String patternMatch,
                                        final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledPattern = Pattern.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
+    this.compiledPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
     Preconditions.checkArgument(!patternMatch.isEmpty(), "[match] can't be blank");
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
@@ -2,9 +2,20 @@ package com.wavefront.agent.preprocessor;
 
 import com.google.common.collect.ImmutableList;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.annotation.Nonnull;
@@ -15,17 +26,77 @@ import javax.annotation.Nonnull;
  * Created by Vasily on 9/13/16.
  */
 public class Preprocessor<T> {
+  private static final Logger logger = Logger.getLogger(Preprocessor.class.getCanonicalName());
+  private static final Counter rulesDisabled = Metrics.newCounter(
+      new MetricName("preprocessor", "", "rules-disabled"));
+  private static final Counter regexTimeouts = Metrics.newCounter(
+      new MetricName("preprocessor", "", "regex-timeouts"));
+  /**
+   * A rule is only disabled after exceeding the regex evaluation time limit this many times.
+   */
+  static final int MAX_RULE_TIMEOUTS = 3;
 
   private final List<Function<T, T>> transformers;
   private final List<AnnotatedPredicate<T>> filters;
+  /**
+   * Turns the list of transformation rules into an equivalent, faster to execute list (optional).
+   */
+  @Nullable
+  private final UnaryOperator<List<Function<T, T>>> compiler;
+  @Nullable
+  private volatile List<Function<T, T>> compiledTransformers = null;
+  /**
+   * Turns the list of filter rules into an equivalent, faster to execute list (optional).
+   */
+  @Nullable
+  private final UnaryOperator<List<AnnotatedPredicate<T>>> filterCompiler;
+  @Nullable
+  private volatile List<AnnotatedPredicate<T>> compiledFilters = null;
+  /**
+   * Number of times each rule has exceeded the regex evaluation time limit.
+   */
+  private final Map<Object, AtomicInteger> ruleTimeouts = new ConcurrentHashMap<>();
+  /**
+   * Rules that have exceeded the regex evaluation time limit too many times and are no longer
+   * applied.
+   */
+  private final Set<Object> disabledRules = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
   public Preprocessor() {
     this(new ArrayList<>(), new ArrayList<>());
   }
 
   public Preprocessor(List<Function<T, T>> transformers, List<AnnotatedPredicate<T>> filters) {
+    this(transformers, filters, null, null);
+  }
+
+  /**
+   * @param compiler turns the list of transformation rules into an equivalent, faster to execute
+   *                 list. Invoked once after rules are added, before the first transformation.
+   */
+  public Preprocessor(@Nullable UnaryOperator<List<Function<T, T>>> compiler) {
+    this(compiler, null);
+  }
+
+  /**
+   * @param compiler       turns the list of transformation rules into an equivalent, faster to
+   *                       execute list. Invoked once after rules are added, before the first
+   *                       transformation.
+   * @param filterCompiler turns the list of filter rules into an equivalent, faster to execute
+   *                       list. Invoked once after rules are added, before the first filtering.
+   */
+  public Preprocessor(@Nullable UnaryOperator<List<Function<T, T>>> compiler,
+                      @Nullable UnaryOperator<List<AnnotatedPredicate<T>>> filterCompiler) {
+    this(new ArrayList<>(), new ArrayList<>(), compiler, filterCompiler);
+  }
+
+  private Preprocessor(List<Function<T, T>> transformers, List<AnnotatedPredicate<T>> filters,
+                       @Nullable UnaryOperator<List<Function<T, T>>> compiler,
+                       @Nullable UnaryOperator<List<AnnotatedPredicate<T>>> filterCompiler) {
     this.transformers = transformers;
     this.filters = filters;
+    this.compiler = compiler;
+    this.filterCompiler = filterCompiler;
   }
 
   /**
@@ -34,8 +105,18 @@ public class Preprocessor<T> {
    * @return transformed point
    */
   public T transform(@Nonnull T item) {
-    for (final Function<T, T> func : transformers) {
-      item = func.apply(item);
+    List<Function<T, T>> current = compiledTransformers;
+    if (current == null) {
+      List<Function<T, T>> enabled = enabledRules(transformers);
+      current = compiler == null ? enabled : compiler.apply(enabled);
+      compiledTransformers = current;
+    }
+    for (final Function<T, T> func : current) {
+      try {
+        item = func.apply(item);
+      } catch (PreprocessorRegex.MatchTimeoutException e) {
+        onTimeout(e.getRule() == null ? func : e.getRule(), e);
+      }
     }
     return item;
   }
@@ -50,7 +131,10 @@ public class Preprocessor<T> {
   }
 
   /**
-   * Apply all filter predicates sequentially, stop at the first "false" result
+   * Apply all filter predicates sequentially, stop at the first "false" result. A predicate that
+   * exceeds the regex evaluation time limit rejects the item, unless configured otherwise
+   * (see {@link PreprocessorRegex#setFailOpenOnTimeout(boolean)}).
+   *
    * @param item          item to apply predicates to
    * @param messageHolder container to store additional output from predicate filters
    * @return true if all predicates returned "true"
@@ -60,14 +144,73 @@ public class Preprocessor<T> {
       // empty the container to prevent previous call's results from leaking into the current one
       messageHolder[0] = null;
     }
-    for (final AnnotatedPredicate<T> predicate : filters) {
-      if (!predicate.test(item, messageHolder)) {
-        return false;
+    for (final AnnotatedPredicate<T> predicate : compiledFilters()) {
+      try {
+        if (!predicate.test(item, messageHolder)) {
+          return false;
+        }
+      } catch (PreprocessorRegex.MatchTimeoutException e) {
+        if (!PreprocessorRegex.isFailOpenOnTimeout()) {
+          regexTimeouts.inc();
+          if (messageHolder != null) {
+            messageHolder[0] = e.getMessage();
+          }
+          return false;
+        }
+        onTimeout(e.getRule() == null ? predicate : e.getRule(), e);
       }
     }
     return true;
   }
 
+  /**
+   * @return filter rules in the form they are applied in: compiled, with disabled rules removed.
+   */
+  List<AnnotatedPredicate<T>> compiledFilters() {
+    List<AnnotatedPredicate<T>> current = compiledFilters;
+    if (current == null) {
+      List<AnnotatedPredicate<T>> enabled = enabledRules(filters);
+      current = filterCompiler == null ? enabled : filterCompiler.apply(enabled);
+      compiledFilters = current;
+    }
+    return current;
+  }
+
+  private <R> List<R> enabledRules(List<R> rules) {
+    if (disabledRules.isEmpty()) {
+      return ImmutableList.copyOf(rules);
+    }
+    return rules.stream().filter(x -> !disabledRules.contains(x)).
+        collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Stop applying a rule once it has exceeded the regex evaluation time limit
+   * {@link #MAX_RULE_TIMEOUTS} times. The rule stays disabled until the preprocessor is rebuilt,
+   * i.e. until the rules are reloaded.
+   */
+  private void onTimeout(Object rule, PreprocessorRegex.MatchTimeoutException e) {
+    regexTimeouts.inc();
+    if (ruleTimeouts.computeIfAbsent(rule, x -> new AtomicInteger()).incrementAndGet() <
+        MAX_RULE_TIMEOUTS) {
+      return;
+    }
+    if (disabledRules.add(rule)) {
+      rulesDisabled.inc();
+      logger.warning("Preprocessor rule " + rule.getClass().getSimpleName() +
+          " disabled: " + e.getMessage());
+    }
+    compiledTransformers = null;
+    compiledFilters = null;
+  }
+
+  /**
+   * @return true if there are any transformation rules.
+   */
+  public boolean hasTransformers() {
+    return !transformers.isEmpty();
+  }
+
   /**
    * Check all filter rules as an immutable list
    * @return filter rules
@@ -91,7 +234,7 @@ public class Preprocessor<T> {
    * @return merged preprocessor.
    */
   public Preprocessor<T> merge(Preprocessor<T> other) {
-    Preprocessor<T> result = new Preprocessor<>();
+    Preprocessor<T> result = new Preprocessor<>(compiler, filterCompiler);
     this.getTransformers().forEach(result::addTransformer);
     this.getFilters().forEach(result::addFilter);
     other.getTransformers().forEach(result::addTransformer);
@@ -105,6 +248,7 @@ public class Preprocessor<T> {
    */
   public void addTransformer(Function<T, T> transformer) {
     transformers.add(transformer);
+    compiledTransformers = null;
   }
 
   /**
@@ -113,6 +257,7 @@ public class Preprocessor<T> {
    */
   public void addFilter(AnnotatedPredicate<T> filter) {
     filters.add(filter);
+    compiledFilters = null;
   }
 
   /**
@@ -122,6 +267,7 @@ public class Preprocessor<T> {
    */
   public void addTransformer(int index, Function<T, T> transformer) {
     transformers.add(index, transformer);
+    compiledTransformers = null;
   }
 
   /**
@@ -131,6 +277,7 @@ public class Preprocessor<T> {
    */
   public void addFilter(int index, AnnotatedPredicate<T> filter) {
     filters.add(index, filter);
+    compiledFilters = null;
   }
 
   @Override
@@ -2,60 +2,94 @@ package com.wavefront.agent.preprocessor;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
 import com.wavefront.common.TaggedMetricName;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.MetricName;
 
 import org.apache.commons.lang.StringUtils;
 import org.yaml.snakeyaml.Yaml;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
 /**
  * Parses preprocessor rules (organized by listening port)
  *
+ * Each port gets a pre-merged (system + user rules) preprocessor snapshot, which is swapped
+ * atomically when rules change, so looking up the current preprocessor for a port is a single
+ * volatile read. The rules file is watched for changes and reloaded once writes to its
+ * directory settle down. Reloads that don't change the file's contents are skipped.
+ * {@link #close()} stops watching the file.
+ *
  * Created by Vasily on 9/15/16.
  */
-public class PreprocessorConfigManager {
+public class PreprocessorConfigManager implements Closeable {
   private static final Logger logger = Logger.getLogger(
       PreprocessorConfigManager.class.getCanonicalName());
   private static final Counter configReloads = Metrics.newCounter(
       new MetricName("preprocessor", "", "config-reloads.successful"));
   private static final Counter failedConfigReloads = Metrics.newCounter(
       new MetricName("preprocessor", "", "config-reloads.failed"));
+  private static final Counter unchangedConfigReloads = Metrics.newCounter(
+      new MetricName("preprocessor", "", "config-reloads.unchanged"));
+  private static final Histogram configReloadLatency = Metrics.newHistogram(
+      new MetricName("preprocessor", "", "config-reloads.latency-millis"));
+
+  /**
+   * Wait for this long after the last change in the rules file's directory before reloading.
+   */
+  private static final long RELOAD_DEBOUNCE_MILLIS = 250;
 
   private final Supplier<Long> timeSupplier;
   private final Map<String, ReportableEntityPreprocessor> systemPreprocessors = new HashMap<>();
+  private final Map<String, PortPreprocessor> portPreprocessors = new ConcurrentHashMap<>();
+
+  @Nullable
+  private volatile WatchService watchService = null;
+  @Nullable
+  private Thread watcher = null;
 
-  private Map<String, ReportableEntityPreprocessor> userPreprocessors;
-  private Map<String, ReportableEntityPreprocessor> preprocessors = null;
-  private volatile long systemPreprocessorsTs = Long.MIN_VALUE;
-  private volatile long userPreprocessorsTs;
-  private volatile long lastBuild = Long.MIN_VALUE;
+  private Map<String, ReportableEntityPreprocessor> userPreprocessors = Collections.emptyMap();
+  @Nullable
+  private HashCode userPreprocessorsHash = null;
 
   @VisibleForTesting
   int totalInvalidRules = 0;
   @VisibleForTesting
   int totalValidRules = 0;
+  @VisibleForTesting
+  int totalBacktrackingRules = 0;
 
   public PreprocessorConfigManager() {
     this(null, null, System::currentTimeMillis);
@@ -75,64 +109,188 @@ public class PreprocessorConfigManager {
     if (inputStream != null) {
       // if input stream is specified, perform initial load from the stream
       try {
-        userPreprocessorsTs = timeSupplier.get();
-        userPreprocessors = loadFromStream(inputStream);
-      } catch (RuntimeException ex) {
+        byte[] content = ByteStreams.toByteArray(inputStream);
+        userPreprocessors = loadFromStream(new ByteArrayInputStream(content));
+        userPreprocessorsHash = Hashing.murmur3_128().hashBytes(content);
+      } catch (IOException | RuntimeException ex) {
         throw new RuntimeException(ex.getMessage() + " - aborting start-up");
       }
     }
     if (fileName != null) {
-      // if there is a file name with preprocessor rules, load it and schedule periodic reloads
-      new Timer().schedule(new TimerTask() {
-        @Override
-        public void run() {
-          try {
-            File file = new File(fileName);
-            long lastModified = file.lastModified();
-            if (lastModified > userPreprocessorsTs) {
-              logger.info("File " + file +
-                  " has been modified on disk, reloading preprocessor rules");
-              userPreprocessorsTs = timeSupplier.get();
-              userPreprocessors = loadFromStream(new FileInputStream(file));
-              configReloads.inc();
-            }
-          } catch (Exception e) {
-            logger.log(Level.SEVERE, "Unable to load preprocessor rules", e);
-            failedConfigReloads.inc();
-          }
-        }
-      }, 5, 5);
-    } else if (inputStream == null){
-      userPreprocessorsTs = timeSupplier.get();
-      userPreprocessors = Collections.emptyMap();
+      // if there is a file name with preprocessor rules, watch it for changes
+      Path path = Paths.get(fileName).toAbsolutePath();
+      if (inputStream == null) {
+        reload(path, timeSupplier.get());
+      }
+      watch(path);
     }
   }
 
-  public ReportableEntityPreprocessor getSystemPreprocessor(String key) {
-    systemPreprocessorsTs = timeSupplier.get();
+  public synchronized ReportableEntityPreprocessor getSystemPreprocessor(String key) {
+    // system rules are added to the returned preprocessor, so the snapshot needs to be rebuilt
+    PortPreprocessor portPreprocessor = portPreprocessors.get(key);
+    if (portPreprocessor != null) {
+      portPreprocessor.preprocessor = null;
+    }
     return systemPreprocessors.computeIfAbsent(key, x -> new ReportableEntityPreprocessor());
   }
 
   public Supplier<ReportableEntityPreprocessor> get(String handle) {
-    return () -> getPreprocessor(handle);
+    return portPreprocessors.computeIfAbsent(handle, PortPreprocessor::new);
+  }
+
+  /**
+   * Merge system and user rules for a port. Must be called while holding the lock.
+   */
+  private ReportableEntityPreprocessor build(String key) {
+    ReportableEntityPreprocessor systemPreprocessor = systemPreprocessors.get(key);
+    ReportableEntityPreprocessor userPreprocessor = userPreprocessors.get(key);
+    if (systemPreprocessor == null) {
+      return userPreprocessor == null ? new ReportableEntityPreprocessor() : userPreprocessor;
+    }
+    return userPreprocessor == null ? systemPreprocessor :
+        systemPreprocessor.merge(userPreprocessor);
   }
 
-  private ReportableEntityPreprocessor getPreprocessor(String key) {
-    if ((lastBuild < userPreprocessorsTs || lastBuild < systemPreprocessorsTs) &&
-        userPreprocessors != null) {
+  /**
+   * Reload user rules from a file, unless its contents haven't changed since the last load.
+   *
+   * @param path                 rules file.
+   * @param changeDetectedMillis when the change has been detected, for latency tracking.
+   */
+  private void reload(Path path, long changeDetectedMillis) {
+    try {
+      byte[] content = Files.readAllBytes(path);
+      HashCode hash = Hashing.murmur3_128().hashBytes(content);
       synchronized (this) {
-        if ((lastBuild < userPreprocessorsTs || lastBuild < systemPreprocessorsTs) &&
-            userPreprocessors != null) {
-          this.preprocessors = Stream.of(this.systemPreprocessors, this.userPreprocessors).
-              flatMap(x -> x.entrySet().stream()).
-              collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                  ReportableEntityPreprocessor::merge));
-          this.lastBuild = timeSupplier.get();
+        if (hash.equals(userPreprocessorsHash)) {
+          unchangedConfigReloads.inc();
+          return;
+        }
+      }
+      logger.info("File " + path + " has been modified on disk, reloading preprocessor rules");
+      Map<String, ReportableEntityPreprocessor> loaded =
+          loadFromStream(new ByteArrayInputStream(content));
+      synchronized (this) {
+        userPreprocessors = loaded;
+        userPreprocessorsHash = hash;
+        for (Map.Entry<String, PortPreprocessor> entry : portPreprocessors.entrySet()) {
+          entry.getValue().preprocessor = build(entry.getKey());
+        }
+      }
+      configReloads.inc();
+      configReloadLatency.update(timeSupplier.get() - changeDetectedMillis);
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Unable to load preprocessor rules", e);
+      failedConfigReloads.inc();
+    }
+  }
+
+  /**
+   * Start a background thread that reloads the rules file when it changes. The whole directory
+   * is watched, since files are often replaced rather than modified in place (i.e. by editors or
+   * through symlink swaps on mounted config volumes).
+   */
+  private void watch(Path path) {
+    WatchService watchService;
+    try {
+      watchService = path.getFileSystem().newWatchService();
+      try {
+        path.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+      } catch (IOException e) {
+        closeQuietly(watchService);
+        throw e;
+      }
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "Unable to watch " + path + " for changes, preprocessor rules " +
+          "will not be reloaded", e);
+      return;
+    }
+    Thread watcher = new Thread(() -> {
+      try {
+        while (true) {
+          WatchKey key = watchService.take();
+          long changeDetectedMillis = timeSupplier.get();
+          // wait until there are no more changes for a while
+          do {
+            key.pollEvents();
+            if (!key.reset()) {
+              if (this.watchService == null) return; // closed
+              logger.warning("Directory " + path.getParent() + " is no longer accessible, " +
+                  "preprocessor rules will not be reloaded");
+              return;
+            }
+          } while ((key = watchService.poll(RELOAD_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+          reload(path, changeDetectedMillis);
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        // shutting down
+      }
+    }, "preprocessor-config-watcher");
+    watcher.setDaemon(true);
+    this.watchService = watchService;
+    this.watcher = watcher;
+    watcher.start();
+  }
+
+  /**
+   * Stop watching the rules file for changes. Rules that are already loaded remain in effect.
+   */
+  @Override
+  public void close() {
+    WatchService watchService;
+    Thread watcher;
+    synchronized (this) {
+      watchService = this.watchService;
+      watcher = this.watcher;
+      this.watchService = null;
+      this.watcher = null;
+    }
+    if (watchService == null) return;
+    // unblocks the watcher thread
+    closeQuietly(watchService);
+    try {
+      watcher.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void closeQuietly(WatchService watchService) {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to close preprocessor rules watch service", e);
+    }
+  }
+
+  /**
+   * Current preprocessor snapshot for a port, rebuilt lazily if invalidated.
+   */
+  private class PortPreprocessor implements Supplier<ReportableEntityPreprocessor> {
+    private final String handle;
+    private volatile ReportableEntityPreprocessor preprocessor;
+
+    PortPreprocessor(String handle) {
+      this.handle = handle;
+    }
+
+    @Override
+    public ReportableEntityPreprocessor get() {
+      ReportableEntityPreprocessor result = preprocessor;
+      if (result == null) {
+        synchronized (PreprocessorConfigManager.this) {
+          result = preprocessor;
+          if (result == null) {
+            result = build(handle);
+            preprocessor = result;
+          }
         }
       }
+      return result;
     }
-    return this.preprocessors.computeIfAbsent(key, x -> new ReportableEntityPreprocessor());
   }
+
   private void requireArguments(@Nonnull Map<String, String> rule, String... arguments) {
     if (rule == null)
       throw new IllegalArgumentException("Rule is empty");
@@ -151,10 +309,33 @@ public class PreprocessorConfigManager {
     }
   }
 
+  /**
+   * When the linear-time regex engine is enabled, report rules with patterns it doesn't support,
+   * as these are evaluated with java.util.regex instead.
+   */
+  private void checkLinearTimeRegexes(@Nonnull Map<String, String> rule, String port) {
+    if (PreprocessorRegex.getDefaultEngine() != PreprocessorRegex.Engine.RE2J) return;
+    boolean backtracking = false;
+    for (String argument : new String[] {"search", "match", "tag", "key"}) {
+      // tag and key are only patterns for drop rules
+      if ((argument.equals("tag") || argument.equals("key")) &&
+          !rule.get("action").toLowerCase().contains("drop")) continue;
+      String regex = rule.get(argument);
+      String error = regex == null ? null : PreprocessorRegex.checkLinearTime(regex);
+      if (error != null) {
+        logger.warning("Rule " + rule.get("rule") + " (port " + port + "): [" + argument +
+            "] can't be evaluated in linear time, using java.util.regex instead: " + error);
+        backtracking = true;
+      }
+    }
+    if (backtracking) totalBacktrackingRules++;
+  }
+
   @VisibleForTesting
   Map<String, ReportableEntityPreprocessor> loadFromStream(InputStream stream) {
     totalValidRules = 0;
     totalInvalidRules = 0;
+    totalBacktrackingRules = 0;
     Yaml yaml = new Yaml();
     Map<String, ReportableEntityPreprocessor> portMap = new HashMap<>();
     try {
@@ -184,6 +365,7 @@ public class PreprocessorConfigManager {
                     "cpu_nanos", "port", strPort)),
                 Metrics.newCounter(new TaggedMetricName("preprocessor." + ruleName,
                     "checked-count", "port", strPort)));
+            checkLinearTimeRegexes(rule, strPort);
 
             if (rule.get("scope") != null && rule.get("scope").equals("pointLine")) {
               switch (rule.get("action")) {
@@ -398,6 +580,10 @@ public class PreprocessorConfigManager {
         totalValidRules += validRules;
       }
       logger.info("Total " + totalValidRules + " rules loaded");
+      if (totalBacktrackingRules > 0) {
+        logger.warning("Total " + totalBacktrackingRules + " rules can't use the linear-time " +
+            "regex engine and are evaluated with java.util.regex");
+      }
       if (totalInvalidRules > 0) {
         throw new RuntimeException("Total " + totalInvalidRules + " invalid rules detected");
       }
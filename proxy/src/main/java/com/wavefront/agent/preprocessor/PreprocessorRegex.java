@@ -0,0 +1,298 @@
+package com.wavefront.agent.preprocessor;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Compiled regular expression used by preprocessor rules. Backed either by {@code java.util.regex}
+ * (default), or by re2j, which guarantees linear-time matching, but doesn't support back
+ * references and look-around assertions. Patterns that re2j can't compile always fall back to
+ * {@code java.util.regex}.
+ *
+ * Optionally, every match operation can be given a time limit: once it's exceeded,
+ * {@link MatchTimeoutException} is thrown and handled by {@link Preprocessor} (see
+ * {@link #setFailOpenOnTimeout(boolean)}). Since the wall clock deadline can be crossed because of
+ * a GC pause or the thread being descheduled, a match is only stopped after it has also used up
+ * the time limit worth of CPU time past the deadline.
+ */
+public abstract class PreprocessorRegex {
+
+  public enum Engine {
+    JAVA, RE2J
+  }
+
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+  private static final boolean CPU_TIME_SUPPORTED =
+      THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported();
+
+  private static volatile Engine defaultEngine = Engine.JAVA;
+  private static volatile long maxMatchNanos = 0;
+  private static volatile boolean failOpenOnTimeout = false;
+
+  private final String pattern;
+
+  private PreprocessorRegex(String pattern) {
+    this.pattern = pattern;
+  }
+
+  /**
+   * Set the engine used for all patterns compiled after this call.
+   *
+   * @param engine regex engine.
+   */
+  public static void setDefaultEngine(@Nonnull Engine engine) {
+    defaultEngine = Preconditions.checkNotNull(engine);
+  }
+
+  public static Engine getDefaultEngine() {
+    return defaultEngine;
+  }
+
+  /**
+   * Set the time limit for a single match operation.
+   *
+   * @param maxMatchMillis time limit in milliseconds, 0 to disable.
+   */
+  public static void setMaxMatchMillis(long maxMatchMillis) {
+    Preconditions.checkArgument(maxMatchMillis >= 0, "maxMatchMillis can't be negative");
+    maxMatchNanos = TimeUnit.MILLISECONDS.toNanos(maxMatchMillis);
+  }
+
+  /**
+   * Set how filter rules that exceed the time limit are handled.
+   *
+   * @param failOpen false to reject the item being filtered (default), true to accept it and
+   *                 stop applying the rule if it keeps exceeding the time limit.
+   */
+  public static void setFailOpenOnTimeout(boolean failOpen) {
+    failOpenOnTimeout = failOpen;
+  }
+
+  public static boolean isFailOpenOnTimeout() {
+    return failOpenOnTimeout;
+  }
+
+  /**
+   * Compile a pattern with the default engine.
+   *
+   * @param regex pattern.
+   * @return compiled pattern.
+   */
+  public static PreprocessorRegex compile(@Nonnull String regex) {
+    if (defaultEngine == Engine.RE2J) {
+      try {
+        return new Re2jRegex(regex, com.google.re2j.Pattern.compile(regex));
+      } catch (RuntimeException e) {
+        // not supported by re2j, reported when the rules are loaded
+      }
+    }
+    return new JavaRegex(regex, java.util.regex.Pattern.compile(regex));
+  }
+
+  /**
+   * Check whether a pattern can be evaluated in linear time.
+   *
+   * @param regex pattern.
+   * @return null if the pattern is supported by re2j, otherwise the reason it's not.
+   */
+  @Nullable
+  public static String checkLinearTime(@Nonnull String regex) {
+    try {
+      com.google.re2j.Pattern.compile(regex);
+      return null;
+    } catch (RuntimeException e) {
+      return e.getMessage();
+    }
+  }
+
+  /**
+   * @return source pattern.
+   */
+  public String pattern() {
+    return pattern;
+  }
+
+  /**
+   * Create a matcher for the input, subject to the match time limit (if set).
+   *
+   * @param input input to match.
+   * @return matcher.
+   */
+  public Matcher matcher(@Nonnull CharSequence input) {
+    long timeLimit = maxMatchNanos;
+    return newMatcher(timeLimit > 0 ?
+        new DeadlineCharSequence(input, timeLimit, pattern) : input);
+  }
+
+  abstract Matcher newMatcher(CharSequence input);
+
+  /**
+   * The subset of {@link java.util.regex.Matcher} operations used by preprocessor rules.
+   */
+  public interface Matcher {
+    boolean matches();
+
+    boolean find();
+
+    String replaceAll(String replacement);
+  }
+
+  /**
+   * Thrown when a match operation exceeds the time limit.
+   */
+  public static final class MatchTimeoutException extends RuntimeException {
+    private final String pattern;
+    @Nullable
+    private Object rule = null;
+
+    MatchTimeoutException(String pattern) {
+      super("Regex evaluation time limit exceeded for pattern: " + pattern, null, false, false);
+      this.pattern = pattern;
+    }
+
+    public String getPattern() {
+      return pattern;
+    }
+
+    /**
+     * @return the rule that has exceeded the time limit, if known.
+     */
+    @Nullable
+    public Object getRule() {
+      return rule;
+    }
+
+    /**
+     * Attribute the timeout to a rule, unless a more specific rule has been set already.
+     *
+     * @param rule rule being evaluated.
+     */
+    void setRuleIfAbsent(Object rule) {
+      if (this.rule == null) {
+        this.rule = rule;
+      }
+    }
+  }
+
+  private static final class JavaRegex extends PreprocessorRegex {
+    private final java.util.regex.Pattern compiled;
+
+    JavaRegex(String pattern, java.util.regex.Pattern compiled) {
+      super(pattern);
+      this.compiled = compiled;
+    }
+
+    @Override
+    Matcher newMatcher(CharSequence input) {
+      java.util.regex.Matcher matcher = compiled.matcher(input);
+      return new Matcher() {
+        @Override
+        public boolean matches() {
+          return matcher.matches();
+        }
+
+        @Override
+        public boolean find() {
+          return matcher.find();
+        }
+
+        @Override
+        public String replaceAll(String replacement) {
+          return matcher.replaceAll(replacement);
+        }
+      };
+    }
+  }
+
+  private static final class Re2jRegex extends PreprocessorRegex {
+    private final com.google.re2j.Pattern compiled;
+
+    Re2jRegex(String pattern, com.google.re2j.Pattern compiled) {
+      super(pattern);
+      this.compiled = compiled;
+    }
+
+    @Override
+    Matcher newMatcher(CharSequence input) {
+      com.google.re2j.Matcher matcher = compiled.matcher(input);
+      return new Matcher() {
+        @Override
+        public boolean matches() {
+          return matcher.matches();
+        }
+
+        @Override
+        public boolean find() {
+          return matcher.find();
+        }
+
+        @Override
+        public String replaceAll(String replacement) {
+          return matcher.replaceAll(replacement);
+        }
+      };
+    }
+  }
+
+  /**
+   * Checks the deadline every 256 character reads, which is frequent enough to stop a
+   * backtracking regex shortly after it runs out of time. Thread CPU time is only checked once
+   * the wall clock deadline is crossed, so it adds no overhead to regular matches.
+   */
+  private static final class DeadlineCharSequence implements CharSequence {
+    private final CharSequence delegate;
+    private final long timeLimitNanos;
+    private final long deadlineNanos;
+    private final String pattern;
+    private int reads = 0;
+    private long cpuDeadlineNanos = 0;
+
+    DeadlineCharSequence(CharSequence delegate, long timeLimitNanos, String pattern) {
+      this.delegate = delegate;
+      this.timeLimitNanos = timeLimitNanos;
+      this.deadlineNanos = System.nanoTime() + timeLimitNanos;
+      this.pattern = pattern;
+    }
+
+    @Override
+    public int length() {
+      return delegate.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+      if ((++reads & 0xFF) == 0 && System.nanoTime() - deadlineNanos > 0) {
+        checkCpuTime();
+      }
+      return delegate.charAt(index);
+    }
+
+    private void checkCpuTime() {
+      if (!CPU_TIME_SUPPORTED) {
+        throw new MatchTimeoutException(pattern);
+      }
+      long cpuTimeNanos = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+      if (cpuDeadlineNanos == 0) {
+        cpuDeadlineNanos = cpuTimeNanos + timeLimitNanos;
+      } else if (cpuTimeNanos - cpuDeadlineNanos > 0) {
+        throw new MatchTimeoutException(pattern);
+      }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return delegate.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+      return delegate.toString();
+    }
+  }
+}
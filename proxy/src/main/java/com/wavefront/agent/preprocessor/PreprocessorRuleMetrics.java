@@ -45,6 +45,16 @@ public class PreprocessorRuleMetrics {
     }
   }
 
+  /**
+   * Increment ruleCheckedCounter (if available) by 1, for rules that are evaluated as part of a
+   * group and don't track their own execution time.
+   */
+  public void incrementRuleCheckedCounter() {
+    if (this.ruleCheckedCounter != null) {
+      this.ruleCheckedCounter.inc();
+    }
+  }
+
   /**
    * Increment ruleCpuTimeNanosCounter (if available) by {@code n}
    *
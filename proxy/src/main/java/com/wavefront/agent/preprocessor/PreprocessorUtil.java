@@ -1,11 +1,7 @@
 package com.wavefront.agent.preprocessor;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import javax.annotation.Nonnull;
 
-import wavefront.report.Annotation;
 import wavefront.report.ReportPoint;
 import wavefront.report.Span;
 
@@ -21,40 +17,14 @@ public abstract class PreprocessorUtil {
    * {{metricName}} {{sourceName}} are replaced with the metric name and source respectively
    * {{anyTagK}} is replaced with the value of the anyTagK point tag
    *
+   * Parses the input on every call, rules pre-parse their templates once instead.
+   *
    * @param input        input string with {{...}} placeholders
    * @param reportPoint  ReportPoint object to extract components from
    * @return string with substituted placeholders
    */
   public static String expandPlaceholders(String input, @Nonnull ReportPoint reportPoint) {
-    if (input.contains("{{")) {
-      StringBuffer result = new StringBuffer();
-      Matcher placeholders = Pattern.compile("\\{\\{(.*?)}}").matcher(input);
-      while (placeholders.find()) {
-        if (placeholders.group(1).isEmpty()) {
-          placeholders.appendReplacement(result, placeholders.group(0));
-        } else {
-          String substitution;
-          switch (placeholders.group(1)) {
-            case "metricName":
-              substitution = reportPoint.getMetric();
-              break;
-            case "sourceName":
-              substitution = reportPoint.getHost();
-              break;
-            default:
-              substitution = reportPoint.getAnnotations().get(placeholders.group(1));
-          }
-          if (substitution != null) {
-            placeholders.appendReplacement(result, substitution);
-          } else {
-            placeholders.appendReplacement(result, placeholders.group(0));
-          }
-        }
-      }
-      placeholders.appendTail(result);
-      return result.toString();
-    }
-    return input;
+    return input.contains("{{") ? PlaceholderTemplate.compile(input).expand(reportPoint) : input;
   }
 
   /**
@@ -67,35 +37,6 @@ public abstract class PreprocessorUtil {
    * @return string with substituted placeholders
    */
   public static String expandPlaceholders(String input, @Nonnull Span span) {
-    if (input.contains("{{")) {
-      StringBuffer result = new StringBuffer();
-      Matcher placeholders = Pattern.compile("\\{\\{(.*?)}}").matcher(input);
-      while (placeholders.find()) {
-        if (placeholders.group(1).isEmpty()) {
-          placeholders.appendReplacement(result, placeholders.group(0));
-        } else {
-          String substitution;
-          switch (placeholders.group(1)) {
-            case "spanName":
-              substitution = span.getName();
-              break;
-            case "sourceName":
-              substitution = span.getSource();
-              break;
-            default:
-              substitution = span.getAnnotations().stream().filter(a -> a.getKey().equals(placeholders.group(1))).
-                  map(Annotation::getValue).findFirst().orElse(null);
-          }
-          if (substitution != null) {
-            placeholders.appendReplacement(result, substitution);
-          } else {
-            placeholders.appendReplacement(result, placeholders.group(0));
-          }
-        }
-      }
-      placeholders.appendTail(result);
-      return result.toString();
-    }
-    return input;
+    return input.contains("{{") ? PlaceholderTemplate.compile(input).expand(span) : input;
   }
 }
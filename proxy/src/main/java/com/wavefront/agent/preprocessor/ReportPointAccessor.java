@@ -0,0 +1,103 @@
+package com.wavefront.agent.preprocessor;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import wavefront.report.ReportPoint;
+
+/**
+ * Reads and writes the component of a point a rule is scoped to (metric name, source name or a
+ * point tag value), resolved once when the rule is created rather than for every point.
+ */
+abstract class ReportPointAccessor {
+
+  private static final ReportPointAccessor METRIC_NAME = new ReportPointAccessor() {
+    @Override
+    String get(@Nonnull ReportPoint reportPoint) {
+      return reportPoint.getMetric();
+    }
+
+    @Override
+    void set(@Nonnull ReportPoint reportPoint, @Nonnull String value) {
+      reportPoint.setMetric(value);
+    }
+  };
+
+  private static final ReportPointAccessor SOURCE_NAME = new ReportPointAccessor() {
+    @Override
+    String get(@Nonnull ReportPoint reportPoint) {
+      return reportPoint.getHost();
+    }
+
+    @Override
+    void set(@Nonnull ReportPoint reportPoint, @Nonnull String value) {
+      reportPoint.setHost(value);
+    }
+  };
+
+  /**
+   * @param scope "metricName", "sourceName" or a point tag key.
+   * @return accessor for the specified scope.
+   */
+  static ReportPointAccessor forScope(@Nonnull String scope) {
+    switch (scope) {
+      case "metricName":
+        return METRIC_NAME;
+      case "sourceName":
+        return SOURCE_NAME;
+      default:
+        return new TagAccessor(scope);
+    }
+  }
+
+  /**
+   * @return the value in scope, or null if the point doesn't have the point tag.
+   */
+  @Nullable
+  abstract String get(@Nonnull ReportPoint reportPoint);
+
+  /**
+   * Update the value in scope.
+   */
+  abstract void set(@Nonnull ReportPoint reportPoint, @Nonnull String value);
+
+  /**
+   * @return point tag key for point tag scopes, null for metric and source names.
+   */
+  @Nullable
+  String getTagKey() {
+    return null;
+  }
+
+  private static final class TagAccessor extends ReportPointAccessor {
+    private final String tagKey;
+
+    TagAccessor(String tagKey) {
+      this.tagKey = tagKey;
+    }
+
+    @Nullable
+    @Override
+    String get(@Nonnull ReportPoint reportPoint) {
+      Map<String, String> annotations = reportPoint.getAnnotations();
+      return annotations == null ? null : annotations.get(tagKey);
+    }
+
+    @Override
+    void set(@Nonnull ReportPoint reportPoint, @Nonnull String value) {
+      if (reportPoint.getAnnotations() == null) {
+        reportPoint.setAnnotations(Maps.newHashMap());
+      }
+      reportPoint.getAnnotations().put(tagKey, value);
+    }
+
+    @Override
+    String getTagKey() {
+      return tagKey;
+    }
+  }
+}
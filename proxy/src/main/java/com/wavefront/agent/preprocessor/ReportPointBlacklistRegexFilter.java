@@ -4,8 +4,6 @@ import com.google.common.base.Preconditions;
 
 import com.yammer.metrics.core.Counter;
 
-import java.util.regex.Pattern;
-
 import javax.annotation.Nullable;
 import javax.annotation.Nonnull;
 
@@ -17,10 +15,11 @@ import wavefront.report.ReportPoint;
  *
  * Created by Vasily on 9/13/16.
  */
-public class ReportPointBlacklistRegexFilter implements AnnotatedPredicate<ReportPoint> {
+public class ReportPointBlacklistRegexFilter implements MergeableBlacklistFilter<ReportPoint> {
 
   private final String scope;
-  private final Pattern compiledPattern;
+  private final ReportPointAccessor accessor;
+  private final PreprocessorRegex compiledPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -33,10 +32,12 @@ public class ReportPointBlacklistRegexFilter implements AnnotatedPredicate<Repor
   public ReportPointBlacklistRegexFilter(final String scope,
                                          final String patternMatch,
                                          final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledPattern = Pattern.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
+    this.compiledPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
     Preconditions.checkArgument(!patternMatch.isEmpty(), "[match] can't be blank");
-    this.scope = Preconditions.checkNotNull(scope, "[scope] can't be null");
+    Preconditions.checkNotNull(scope, "[scope] can't be null");
     Preconditions.checkArgument(!scope.isEmpty(), "[scope] can't be blank");
+    this.scope = scope;
+    this.accessor = ReportPointAccessor.forScope(scope);
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
   }
@@ -44,34 +45,34 @@ public class ReportPointBlacklistRegexFilter implements AnnotatedPredicate<Repor
   @Override
   public boolean test(@Nonnull ReportPoint reportPoint, @Nullable String[] messageHolder) {
     long startNanos = ruleMetrics.ruleStart();
-    switch (scope) {
-      case "metricName":
-        if (compiledPattern.matcher(reportPoint.getMetric()).matches()) {
-          ruleMetrics.incrementRuleAppliedCounter();
-          ruleMetrics.ruleEnd(startNanos);
-          return false;
-        }
-        break;
-      case "sourceName":
-        if (compiledPattern.matcher(reportPoint.getHost()).matches()) {
-          ruleMetrics.incrementRuleAppliedCounter();
-          ruleMetrics.ruleEnd(startNanos);
-          return false;
-        }
-        break;
-      default:
-        if (reportPoint.getAnnotations() != null) {
-          String tagValue = reportPoint.getAnnotations().get(scope);
-          if (tagValue != null) {
-            if (compiledPattern.matcher(tagValue).matches()) {
-              ruleMetrics.incrementRuleAppliedCounter();
-              ruleMetrics.ruleEnd(startNanos);
-              return false;
-            }
-          }
-        }
+    String value = accessor.get(reportPoint);
+    if (value != null && compiledPattern.matcher(value).matches()) {
+      ruleMetrics.incrementRuleAppliedCounter();
+      ruleMetrics.ruleEnd(startNanos);
+      return false;
     }
     ruleMetrics.ruleEnd(startNanos);
     return true;
   }
+
+  @Override
+  public String getScope() {
+    return scope;
+  }
+
+  @Override
+  public String getPattern() {
+    return compiledPattern.pattern();
+  }
+
+  @Override
+  public PreprocessorRuleMetrics getRuleMetrics() {
+    return ruleMetrics;
+  }
+
+  @Override
+  public int firstMatch(@Nonnull ReportPoint reportPoint, @Nonnull MultiPatternMatcher matcher) {
+    String value = accessor.get(reportPoint);
+    return value == null ? -1 : matcher.firstMatch(value);
+  }
 }
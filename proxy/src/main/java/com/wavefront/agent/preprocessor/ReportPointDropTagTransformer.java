@@ -7,7 +7,6 @@ import com.yammer.metrics.core.Counter;
 
 import java.util.Iterator;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 import javax.annotation.Nonnull;
@@ -22,9 +21,9 @@ import wavefront.report.ReportPoint;
 public class ReportPointDropTagTransformer implements Function<ReportPoint, ReportPoint> {
 
   @Nullable
-  private final Pattern compiledTagPattern;
+  private final PreprocessorRegex compiledTagPattern;
   @Nullable
-  private final Pattern compiledValuePattern;
+  private final PreprocessorRegex compiledValuePattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -37,9 +36,9 @@ public class ReportPointDropTagTransformer implements Function<ReportPoint, Repo
   public ReportPointDropTagTransformer(final String tag,
                                        @Nullable final String patternMatch,
                                        final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledTagPattern = Pattern.compile(Preconditions.checkNotNull(tag, "[tag] can't be null"));
+    this.compiledTagPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(tag, "[tag] can't be null"));
     Preconditions.checkArgument(!tag.isEmpty(), "[tag] can't be blank");
-    this.compiledValuePattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledValuePattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
   }
@@ -6,9 +6,6 @@ import com.google.common.collect.Maps;
 
 import com.yammer.metrics.core.Counter;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import javax.annotation.Nullable;
 import javax.annotation.Nonnull;
 
@@ -23,12 +20,16 @@ public class ReportPointExtractTagTransformer implements Function<ReportPoint, R
 
   protected final String tag;
   protected final String source;
+  private final ReportPointAccessor sourceAccessor;
   protected final String patternReplace;
-  protected final Pattern compiledSearchPattern;
+  private final PlaceholderTemplate replaceTemplate;
+  protected final PreprocessorRegex compiledSearchPattern;
   @Nullable
-  protected final Pattern compiledMatchPattern;
+  protected final PreprocessorRegex compiledMatchPattern;
   @Nullable
   protected final String patternReplaceSource;
+  @Nullable
+  private final PlaceholderTemplate replaceSourceTemplate;
   protected final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -51,19 +52,23 @@ public class ReportPointExtractTagTransformer implements Function<ReportPoint, R
                                           final PreprocessorRuleMetrics ruleMetrics) {
     this.tag = Preconditions.checkNotNull(tag, "[tag] can't be null");
     this.source = Preconditions.checkNotNull(source, "[source] can't be null");
-    this.compiledSearchPattern = Pattern.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
+    this.compiledSearchPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
     this.patternReplace = Preconditions.checkNotNull(patternReplace, "[replace] can't be null");
     Preconditions.checkArgument(!tag.isEmpty(), "[tag] can't be blank");
     Preconditions.checkArgument(!source.isEmpty(), "[source] can't be blank");
     Preconditions.checkArgument(!patternSearch.isEmpty(), "[search] can't be blank");
-    this.compiledMatchPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledMatchPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     this.patternReplaceSource = replaceSource;
+    this.sourceAccessor = ReportPointAccessor.forScope(source);
+    this.replaceTemplate = PlaceholderTemplate.compile(patternReplace);
+    this.replaceSourceTemplate = replaceSource == null ? null :
+        PlaceholderTemplate.compile(replaceSource);
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
   }
 
   protected boolean extractTag(@Nonnull ReportPoint reportPoint, final String extractFrom) {
-    Matcher patternMatcher;
+    PreprocessorRegex.Matcher patternMatcher;
     if (extractFrom == null || (compiledMatchPattern != null && !compiledMatchPattern.matcher(extractFrom).matches())) {
       return false;
     }
@@ -74,7 +79,7 @@ public class ReportPointExtractTagTransformer implements Function<ReportPoint, R
     if (reportPoint.getAnnotations() == null) {
       reportPoint.setAnnotations(Maps.<String, String>newHashMap());
     }
-    String value = patternMatcher.replaceAll(PreprocessorUtil.expandPlaceholders(patternReplace, reportPoint));
+    String value = patternMatcher.replaceAll(replaceTemplate.expand(reportPoint));
     if (!value.isEmpty()) {
       reportPoint.getAnnotations().put(tag, value);
       ruleMetrics.incrementRuleAppliedCounter();
@@ -83,27 +88,9 @@ public class ReportPointExtractTagTransformer implements Function<ReportPoint, R
   }
 
   protected void internalApply(@Nonnull ReportPoint reportPoint) {
-    switch (source) {
-      case "metricName":
-        if (extractTag(reportPoint, reportPoint.getMetric()) && patternReplaceSource != null) {
-          reportPoint.setMetric(compiledSearchPattern.matcher(reportPoint.getMetric()).
-              replaceAll(PreprocessorUtil.expandPlaceholders(patternReplaceSource, reportPoint)));
-        }
-        break;
-      case "sourceName":
-        if (extractTag(reportPoint, reportPoint.getHost()) && patternReplaceSource != null) {
-          reportPoint.setHost(compiledSearchPattern.matcher(reportPoint.getHost()).
-              replaceAll(PreprocessorUtil.expandPlaceholders(patternReplaceSource, reportPoint)));
-        }
-        break;
-      default:
-        if (reportPoint.getAnnotations() != null && reportPoint.getAnnotations().get(source) != null) {
-          if (extractTag(reportPoint, reportPoint.getAnnotations().get(source)) && patternReplaceSource != null) {
-            reportPoint.getAnnotations().put(source,
-                compiledSearchPattern.matcher(reportPoint.getAnnotations().get(source)).
-                    replaceAll(PreprocessorUtil.expandPlaceholders(patternReplaceSource, reportPoint)));
-          }
-        }
+    if (extractTag(reportPoint, sourceAccessor.get(reportPoint)) && replaceSourceTemplate != null) {
+      sourceAccessor.set(reportPoint, compiledSearchPattern.matcher(sourceAccessor.get(reportPoint)).
+          replaceAll(replaceSourceTemplate.expand(reportPoint)));
     }
   }
 
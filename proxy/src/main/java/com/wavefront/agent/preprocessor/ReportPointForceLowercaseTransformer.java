@@ -5,8 +5,6 @@ import com.google.common.base.Preconditions;
 
 import com.yammer.metrics.core.Counter;
 
-import java.util.regex.Pattern;
-
 import javax.annotation.Nullable;
 import javax.annotation.Nonnull;
 
@@ -18,11 +16,12 @@ import wavefront.report.ReportPoint;
  *
  * @author vasily@wavefront.com
  */
-public class ReportPointForceLowercaseTransformer implements Function<ReportPoint, ReportPoint> {
+public class ReportPointForceLowercaseTransformer implements Function<ReportPoint, ReportPoint>,
+    TagScopedRule {
 
-  private final String scope;
+  private final ReportPointAccessor accessor;
   @Nullable
-  private final Pattern compiledMatchPattern;
+  private final PreprocessorRegex compiledMatchPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -35,9 +34,10 @@ public class ReportPointForceLowercaseTransformer implements Function<ReportPoin
   public ReportPointForceLowercaseTransformer(final String scope,
                                               @Nullable final String patternMatch,
                                               final PreprocessorRuleMetrics ruleMetrics) {
-    this.scope = Preconditions.checkNotNull(scope, "[scope] can't be null");
+    Preconditions.checkNotNull(scope, "[scope] can't be null");
     Preconditions.checkArgument(!scope.isEmpty(), "[scope] can't be blank");
-    this.compiledMatchPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.accessor = ReportPointAccessor.forScope(scope);
+    this.compiledMatchPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
   }
@@ -45,34 +45,19 @@ public class ReportPointForceLowercaseTransformer implements Function<ReportPoin
   @Override
   public ReportPoint apply(@Nonnull ReportPoint reportPoint) {
     long startNanos = ruleMetrics.ruleStart();
-    switch (scope) {
-      case "metricName":
-        if (compiledMatchPattern != null && !compiledMatchPattern.matcher(reportPoint.getMetric()).matches()) {
-          break;
-        }
-        reportPoint.setMetric(reportPoint.getMetric().toLowerCase());
-        ruleMetrics.incrementRuleAppliedCounter();
-        break;
-      case "sourceName": // source name is not case sensitive in Wavefront, but we'll do it anyway
-        if (compiledMatchPattern != null && !compiledMatchPattern.matcher(reportPoint.getHost()).matches()) {
-          break;
-        }
-        reportPoint.setHost(reportPoint.getHost().toLowerCase());
-        ruleMetrics.incrementRuleAppliedCounter();
-        break;
-      default:
-        if (reportPoint.getAnnotations() != null) {
-          String tagValue = reportPoint.getAnnotations().get(scope);
-          if (tagValue != null) {
-            if (compiledMatchPattern != null && !compiledMatchPattern.matcher(tagValue).matches()) {
-              break;
-            }
-            reportPoint.getAnnotations().put(scope, tagValue.toLowerCase());
-            ruleMetrics.incrementRuleAppliedCounter();
-          }
-        }
+    // source name is not case sensitive in Wavefront, but we'll do it anyway
+    String value = accessor.get(reportPoint);
+    if (value != null && (compiledMatchPattern == null || compiledMatchPattern.matcher(value).matches())) {
+      accessor.set(reportPoint, value.toLowerCase());
+      ruleMetrics.incrementRuleAppliedCounter();
     }
     ruleMetrics.ruleEnd(startNanos);
     return reportPoint;
   }
+
+  @Nullable
+  @Override
+  public String getScopeTagKey() {
+    return accessor.getTagKey();
+  }
 }
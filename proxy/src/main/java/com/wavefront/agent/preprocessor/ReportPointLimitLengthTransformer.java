@@ -3,20 +3,20 @@ package com.wavefront.agent.preprocessor;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 
-import java.util.regex.Pattern;
-
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import wavefront.report.ReportPoint;
 
-public class ReportPointLimitLengthTransformer implements Function<ReportPoint, ReportPoint> {
+public class ReportPointLimitLengthTransformer implements Function<ReportPoint, ReportPoint>,
+    TagScopedRule {
 
   private final String scope;
+  private final ReportPointAccessor accessor;
   private final int maxLength;
   private final LengthLimitActionType actionSubtype;
   @Nullable
-  private final Pattern compiledMatchPattern;
+  private final PreprocessorRegex compiledMatchPattern;
 
   private final PreprocessorRuleMetrics ruleMetrics;
 
@@ -27,6 +27,7 @@ public class ReportPointLimitLengthTransformer implements Function<ReportPoint,
                                            @Nonnull final PreprocessorRuleMetrics ruleMetrics) {
     this.scope = Preconditions.checkNotNull(scope, "[scope] can't be null");
     Preconditions.checkArgument(!scope.isEmpty(), "[scope] can't be blank");
+    this.accessor = ReportPointAccessor.forScope(scope);
     if (actionSubtype == LengthLimitActionType.DROP && (scope.equals("metricName") || scope.equals("sourceName"))) {
       throw new IllegalArgumentException("'drop' action type can't be used in metricName and sourceName scope!");
     }
@@ -36,7 +37,7 @@ public class ReportPointLimitLengthTransformer implements Function<ReportPoint,
     Preconditions.checkArgument(maxLength > 0, "[maxLength] needs to be > 0!");
     this.maxLength = maxLength;
     this.actionSubtype = actionSubtype;
-    this.compiledMatchPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledMatchPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     this.ruleMetrics = ruleMetrics;
   }
 
@@ -57,27 +58,23 @@ public class ReportPointLimitLengthTransformer implements Function<ReportPoint,
 
   public ReportPoint apply(@Nonnull ReportPoint reportPoint) {
     long startNanos = ruleMetrics.ruleStart();
-    switch (scope) {
-      case "metricName":
-        reportPoint.setMetric(truncate(reportPoint.getMetric()));
-        break;
-      case "sourceName":
-        reportPoint.setHost(truncate(reportPoint.getHost()));
-        break;
-      default:
-        if (reportPoint.getAnnotations() != null) {
-          String tagValue = reportPoint.getAnnotations().get(scope);
-          if (tagValue != null) {
-            if (actionSubtype == LengthLimitActionType.DROP && tagValue.length() > maxLength) {
-              reportPoint.getAnnotations().remove(scope);
-              ruleMetrics.incrementRuleAppliedCounter();
-            } else {
-              reportPoint.getAnnotations().put(scope, truncate(tagValue));
-            }
-          }
-        }
+    String value = accessor.get(reportPoint);
+    if (value != null) {
+      if (actionSubtype == LengthLimitActionType.DROP && value.length() > maxLength) {
+        // only allowed for point tags
+        reportPoint.getAnnotations().remove(scope);
+        ruleMetrics.incrementRuleAppliedCounter();
+      } else {
+        accessor.set(reportPoint, truncate(value));
+      }
     }
     ruleMetrics.ruleEnd(startNanos);
     return reportPoint;
   }
+
+  @Nullable
+  @Override
+  public String getScopeTagKey() {
+    return accessor.getTagKey();
+  }
 }
@@ -5,8 +5,6 @@ import com.google.common.base.Preconditions;
 
 import com.yammer.metrics.core.Counter;
 
-import java.util.regex.Pattern;
-
 import javax.annotation.Nullable;
 import javax.annotation.Nonnull;
 
@@ -22,7 +20,7 @@ public class ReportPointRenameTagTransformer implements Function<ReportPoint, Re
   private final String tag;
   private final String newTag;
   @Nullable
-  private final Pattern compiledPattern;
+  private final PreprocessorRegex compiledPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -41,7 +39,7 @@ public class ReportPointRenameTagTransformer implements Function<ReportPoint, Re
     this.newTag = Preconditions.checkNotNull(newTag, "[newtag] can't be null");
     Preconditions.checkArgument(!tag.isEmpty(), "[tag] can't be blank");
     Preconditions.checkArgument(!newTag.isEmpty(), "[newtag] can't be blank");
-    this.compiledPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
   }
@@ -5,9 +5,6 @@ import com.google.common.base.Preconditions;
 
 import com.yammer.metrics.core.Counter;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import javax.annotation.Nullable;
 import javax.annotation.Nonnull;
 
@@ -19,14 +16,16 @@ import wavefront.report.ReportPoint;
  *
  * Created by Vasily on 9/13/16.
  */
-public class ReportPointReplaceRegexTransformer implements Function<ReportPoint, ReportPoint> {
+public class ReportPointReplaceRegexTransformer implements Function<ReportPoint, ReportPoint>,
+    TagScopedRule {
 
   private final String patternReplace;
-  private final String scope;
-  private final Pattern compiledSearchPattern;
+  private final PlaceholderTemplate replaceTemplate;
+  private final ReportPointAccessor accessor;
+  private final PreprocessorRegex compiledSearchPattern;
   private final Integer maxIterations;
   @Nullable
-  private final Pattern compiledMatchPattern;
+  private final PreprocessorRegex compiledMatchPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   @Deprecated
@@ -45,12 +44,14 @@ public class ReportPointReplaceRegexTransformer implements Function<ReportPoint,
                                             @Nullable final String patternMatch,
                                             @Nullable final Integer maxIterations,
                                             final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledSearchPattern = Pattern.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
+    this.compiledSearchPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
     Preconditions.checkArgument(!patternSearch.isEmpty(), "[search] can't be blank");
-    this.scope = Preconditions.checkNotNull(scope, "[scope] can't be null");
+    Preconditions.checkNotNull(scope, "[scope] can't be null");
     Preconditions.checkArgument(!scope.isEmpty(), "[scope] can't be blank");
+    this.accessor = ReportPointAccessor.forScope(scope);
     this.patternReplace = Preconditions.checkNotNull(patternReplace, "[replace] can't be null");
-    this.compiledMatchPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.replaceTemplate = PlaceholderTemplate.compile(patternReplace);
+    this.compiledMatchPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     this.maxIterations = maxIterations != null ? maxIterations : 1;
     Preconditions.checkArgument(this.maxIterations > 0, "[iterations] must be > 0");
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
@@ -58,14 +59,14 @@ public class ReportPointReplaceRegexTransformer implements Function<ReportPoint,
   }
 
   private String replaceString(@Nonnull ReportPoint reportPoint, String content) {
-    Matcher patternMatcher;
+    PreprocessorRegex.Matcher patternMatcher;
     patternMatcher = compiledSearchPattern.matcher(content);
     if (!patternMatcher.find()) {
       return content;
     }
     ruleMetrics.incrementRuleAppliedCounter();
 
-    String replacement = PreprocessorUtil.expandPlaceholders(patternReplace, reportPoint);
+    String replacement = replaceTemplate.expand(reportPoint);
 
     int currentIteration = 0;
     while (currentIteration < maxIterations) {
@@ -82,31 +83,18 @@ public class ReportPointReplaceRegexTransformer implements Function<ReportPoint,
   @Override
   public ReportPoint apply(@Nonnull ReportPoint reportPoint) {
     long startNanos = ruleMetrics.ruleStart();
-    switch (scope) {
-      case "metricName":
-        if (compiledMatchPattern != null && !compiledMatchPattern.matcher(reportPoint.getMetric()).matches()) {
-          break;
-        }
-        reportPoint.setMetric(replaceString(reportPoint, reportPoint.getMetric()));
-        break;
-      case "sourceName":
-        if (compiledMatchPattern != null && !compiledMatchPattern.matcher(reportPoint.getHost()).matches()) {
-          break;
-        }
-        reportPoint.setHost(replaceString(reportPoint, reportPoint.getHost()));
-        break;
-      default:
-        if (reportPoint.getAnnotations() != null) {
-          String tagValue = reportPoint.getAnnotations().get(scope);
-          if (tagValue != null) {
-            if (compiledMatchPattern != null && !compiledMatchPattern.matcher(tagValue).matches()) {
-              break;
-            }
-           reportPoint.getAnnotations().put(scope, replaceString(reportPoint, tagValue));
-          }
-        }
+    String value = accessor.get(reportPoint);
+    if (value != null && (compiledMatchPattern == null || compiledMatchPattern.matcher(value).matches())) {
+      accessor.set(reportPoint, replaceString(reportPoint, value));
     }
     ruleMetrics.ruleEnd(startNanos);
     return reportPoint;
   }
+
+  @Nullable
+  @Override
+  public String getScopeTagKey() {
+    // placeholders may refer to other point tags
+    return replaceTemplate.isConstant() ? accessor.getTagKey() : null;
+  }
 }
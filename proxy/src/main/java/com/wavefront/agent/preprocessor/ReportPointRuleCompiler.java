@@ -0,0 +1,97 @@
+package com.wavefront.agent.preprocessor;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import wavefront.report.ReportPoint;
+
+/**
+ * Compiles a list of point transformation rules into an equivalent execution plan: consecutive
+ * rules that are scoped to a single point tag (see {@link TagScopedRule}) are grouped by tag
+ * key, so that a point only goes through the groups for tags that it actually has. Since such
+ * rules only touch their own tag, rules for different tags can be applied in any order, while
+ * rules for the same tag keep their relative order.
+ */
+final class ReportPointRuleCompiler {
+
+  private ReportPointRuleCompiler() {
+  }
+
+  /**
+   * @param transformers rules, in the order they need to be applied.
+   * @return rules to apply instead.
+   */
+  static List<Function<ReportPoint, ReportPoint>> compile(
+      @Nonnull List<Function<ReportPoint, ReportPoint>> transformers) {
+    List<Function<ReportPoint, ReportPoint>> result = new ArrayList<>(transformers.size());
+    List<Function<ReportPoint, ReportPoint>> tagScoped = new ArrayList<>();
+    for (Function<ReportPoint, ReportPoint> transformer : transformers) {
+      if (transformer instanceof TagScopedRule &&
+          ((TagScopedRule) transformer).getScopeTagKey() != null) {
+        tagScoped.add(transformer);
+      } else {
+        addTagScoped(tagScoped, result);
+        result.add(transformer);
+      }
+    }
+    addTagScoped(tagScoped, result);
+    return ImmutableList.copyOf(result);
+  }
+
+  private static void addTagScoped(List<Function<ReportPoint, ReportPoint>> tagScoped,
+                                   List<Function<ReportPoint, ReportPoint>> result) {
+    if (tagScoped.size() > 1) {
+      result.add(new TagIndexedTransformer(tagScoped));
+    } else {
+      result.addAll(tagScoped);
+    }
+    tagScoped.clear();
+  }
+
+  /**
+   * Applies groups of tag-scoped rules only for tags present in the point.
+   */
+  static final class TagIndexedTransformer implements Function<ReportPoint, ReportPoint> {
+    private final String[] tagKeys;
+    private final List<List<Function<ReportPoint, ReportPoint>>> rulesByTag;
+
+    TagIndexedTransformer(List<Function<ReportPoint, ReportPoint>> transformers) {
+      Map<String, List<Function<ReportPoint, ReportPoint>>> groups = new LinkedHashMap<>();
+      for (Function<ReportPoint, ReportPoint> transformer : transformers) {
+        groups.computeIfAbsent(((TagScopedRule) transformer).getScopeTagKey(),
+            x -> new ArrayList<>()).add(transformer);
+      }
+      this.tagKeys = groups.keySet().toArray(new String[0]);
+      this.rulesByTag = ImmutableList.copyOf(groups.values());
+    }
+
+    @Override
+    public ReportPoint apply(@Nonnull ReportPoint reportPoint) {
+      for (int i = 0; i < tagKeys.length; i++) {
+        Map<String, String> annotations = reportPoint.getAnnotations();
+        if (annotations == null || annotations.isEmpty()) {
+          break;
+        }
+        if (annotations.containsKey(tagKeys[i])) {
+          List<Function<ReportPoint, ReportPoint>> rules = rulesByTag.get(i);
+          for (int j = 0; j < rules.size(); j++) {
+            try {
+              reportPoint = rules.get(j).apply(reportPoint);
+            } catch (PreprocessorRegex.MatchTimeoutException e) {
+              e.setRuleIfAbsent(rules.get(j));
+              throw e;
+            }
+          }
+        }
+      }
+      return reportPoint;
+    }
+  }
+}
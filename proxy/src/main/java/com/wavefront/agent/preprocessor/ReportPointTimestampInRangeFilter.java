@@ -36,12 +36,7 @@ public class ReportPointTimestampInRangeFilter implements AnnotatedPredicate<Rep
 
   @Override
   public boolean test(@Nonnull ReportPoint point, @Nullable String[] messageHolder) {
-    long pointTime = point.getTimestamp();
-    long rightNow = Clock.now();
-
-    // within <hoursInPastAllowed> ago and within <hoursInFutureAllowed>
-    boolean pointInRange = (pointTime > (rightNow - this.hoursInPastAllowed * DateUtils.MILLIS_PER_HOUR)) &&
-        (pointTime < (rightNow + (this.hoursInFutureAllowed * DateUtils.MILLIS_PER_HOUR)));
+    boolean pointInRange = isInRange(point.getTimestamp());
     if (!pointInRange) {
       outOfRangePointTimes.inc();
       if (messageHolder != null && messageHolder.length > 0) {
@@ -51,4 +46,18 @@ public class ReportPointTimestampInRangeFilter implements AnnotatedPredicate<Rep
     return pointInRange;
   }
 
+  /**
+   * Check a timestamp without counting or reporting out of range points.
+   *
+   * @param pointTime timestamp in milliseconds.
+   * @return true if the timestamp is within the allowed range.
+   */
+  public boolean isInRange(long pointTime) {
+    long rightNow = Clock.now();
+
+    // within <hoursInPastAllowed> ago and within <hoursInFutureAllowed>
+    return (pointTime > (rightNow - this.hoursInPastAllowed * DateUtils.MILLIS_PER_HOUR)) &&
+        (pointTime < (rightNow + (this.hoursInFutureAllowed * DateUtils.MILLIS_PER_HOUR)));
+  }
+
 }
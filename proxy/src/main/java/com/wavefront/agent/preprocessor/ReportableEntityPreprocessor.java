@@ -19,7 +19,9 @@ public class ReportableEntityPreprocessor {
   private final Preprocessor<Span> spanPreprocessor;
 
   public ReportableEntityPreprocessor() {
-    this(new Preprocessor<>(), new Preprocessor<>(), new Preprocessor<>());
+    this(new Preprocessor<>(null, BlacklistFilterCompiler::compile),
+        new Preprocessor<>(ReportPointRuleCompiler::compile, BlacklistFilterCompiler::compile),
+        new Preprocessor<>(null, BlacklistFilterCompiler::compile));
   }
 
   private ReportableEntityPreprocessor(@Nonnull Preprocessor<String> pointLinePreprocessor,
@@ -42,6 +44,38 @@ public class ReportableEntityPreprocessor {
     return spanPreprocessor;
   }
 
+  /**
+   * Check whether point lines can be reported without decoding them into ReportPoint objects,
+   * i.e. there are no point-level rules other than timestamp range filters (point line rules
+   * are applied before decoding, so they don't matter).
+   *
+   * @return true if point lines can bypass decoding.
+   */
+  public boolean isPointPassThroughAllowed() {
+    if (reportPointPreprocessor.hasTransformers()) return false;
+    for (AnnotatedPredicate<ReportPoint> filter : reportPointPreprocessor.compiledFilters()) {
+      if (!(filter instanceof ReportPointTimestampInRangeFilter)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Apply point-level timestamp range filters to a point that bypasses decoding (see
+   * {@link #isPointPassThroughAllowed()}).
+   *
+   * @param timestamp point timestamp in milliseconds.
+   * @return true if the timestamp is accepted by all filters.
+   */
+  public boolean isTimestampAllowed(long timestamp) {
+    for (AnnotatedPredicate<ReportPoint> filter : reportPointPreprocessor.compiledFilters()) {
+      if (filter instanceof ReportPointTimestampInRangeFilter &&
+          !((ReportPointTimestampInRangeFilter) filter).isInRange(timestamp)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public boolean preprocessPointLine(String pointLine, ReportableEntityHandler handler) {
     pointLine = pointLinePreprocessor.transform(pointLine);
     String[] messageHolder = new String[1];
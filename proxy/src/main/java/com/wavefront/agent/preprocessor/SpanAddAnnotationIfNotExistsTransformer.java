@@ -28,7 +28,7 @@ public class SpanAddAnnotationIfNotExistsTransformer extends SpanAddAnnotationTr
       span.setAnnotations(Lists.newArrayList());
     }
     if (span.getAnnotations().stream().noneMatch(a -> a.getKey().equals(key))) {
-      span.getAnnotations().add(new Annotation(key, PreprocessorUtil.expandPlaceholders(value, span)));
+      span.getAnnotations().add(new Annotation(key, valueTemplate.expand(span)));
       ruleMetrics.incrementRuleAppliedCounter();
     }
     ruleMetrics.ruleEnd(startNanos);
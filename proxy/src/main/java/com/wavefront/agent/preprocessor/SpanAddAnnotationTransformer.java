@@ -18,6 +18,7 @@ public class SpanAddAnnotationTransformer implements Function<Span, Span> {
 
   protected final String key;
   protected final String value;
+  final PlaceholderTemplate valueTemplate;
   protected final PreprocessorRuleMetrics ruleMetrics;
 
   public SpanAddAnnotationTransformer(final String key,
@@ -27,6 +28,7 @@ public class SpanAddAnnotationTransformer implements Function<Span, Span> {
     this.value = Preconditions.checkNotNull(value, "[value] can't be null");
     Preconditions.checkArgument(!key.isEmpty(), "[key] can't be blank");
     Preconditions.checkArgument(!value.isEmpty(), "[value] can't be blank");
+    this.valueTemplate = PlaceholderTemplate.compile(value);
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
   }
@@ -37,7 +39,7 @@ public class SpanAddAnnotationTransformer implements Function<Span, Span> {
     if (span.getAnnotations() == null) {
       span.setAnnotations(Lists.newArrayList());
     }
-    span.getAnnotations().add(new Annotation(key, PreprocessorUtil.expandPlaceholders(value, span)));
+    span.getAnnotations().add(new Annotation(key, valueTemplate.expand(span)));
     ruleMetrics.incrementRuleAppliedCounter();
     ruleMetrics.ruleEnd(startNanos);
     return span;
@@ -2,8 +2,6 @@ package com.wavefront.agent.preprocessor;
 
 import com.google.common.base.Preconditions;
 
-import java.util.regex.Pattern;
-
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -16,16 +14,16 @@ import wavefront.report.Span;
  *
  * @author vasily@wavefront.com
  */
-public class SpanBlacklistRegexFilter implements AnnotatedPredicate<Span> {
+public class SpanBlacklistRegexFilter implements MergeableBlacklistFilter<Span> {
 
   private final String scope;
-  private final Pattern compiledPattern;
+  private final PreprocessorRegex compiledPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   public SpanBlacklistRegexFilter(final String scope,
                                   final String patternMatch,
                                   final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledPattern = Pattern.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
+    this.compiledPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
     Preconditions.checkArgument(!patternMatch.isEmpty(), "[match] can't be blank");
     this.scope = Preconditions.checkNotNull(scope, "[scope] can't be null");
     Preconditions.checkArgument(!scope.isEmpty(), "[scope] can't be blank");
@@ -65,4 +63,42 @@ public class SpanBlacklistRegexFilter implements AnnotatedPredicate<Span> {
     ruleMetrics.ruleEnd(startNanos);
     return true;
   }
+
+  @Override
+  public String getScope() {
+    return scope;
+  }
+
+  @Override
+  public String getPattern() {
+    return compiledPattern.pattern();
+  }
+
+  @Override
+  public PreprocessorRuleMetrics getRuleMetrics() {
+    return ruleMetrics;
+  }
+
+  @Override
+  public int firstMatch(@Nonnull Span span, @Nonnull MultiPatternMatcher matcher) {
+    switch (scope) {
+      case "spanName":
+        return matcher.firstMatch(span.getName());
+      case "sourceName":
+        return matcher.firstMatch(span.getSource());
+      default:
+        int result = -1;
+        if (span.getAnnotations() != null) {
+          for (Annotation annotation : span.getAnnotations()) {
+            if (annotation.getKey().equals(scope)) {
+              int match = matcher.firstMatch(annotation.getValue());
+              if (match != -1 && (result == -1 || match < result)) {
+                result = match;
+              }
+            }
+          }
+        }
+        return result;
+    }
+  }
 }
@@ -6,7 +6,6 @@ import com.google.common.base.Preconditions;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -22,9 +21,9 @@ import wavefront.report.Span;
 public class SpanDropAnnotationTransformer implements Function<Span, Span> {
 
   @Nullable
-  private final Pattern compiledKeyPattern;
+  private final PreprocessorRegex compiledKeyPattern;
   @Nullable
-  private final Pattern compiledValuePattern;
+  private final PreprocessorRegex compiledValuePattern;
   private final boolean firstMatchOnly;
   private final PreprocessorRuleMetrics ruleMetrics;
 
@@ -32,9 +31,9 @@ public class SpanDropAnnotationTransformer implements Function<Span, Span> {
                                        @Nullable final String patternMatch,
                                        final boolean firstMatchOnly,
                                        final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledKeyPattern = Pattern.compile(Preconditions.checkNotNull(key, "[key] can't be null"));
+    this.compiledKeyPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(key, "[key] can't be null"));
     Preconditions.checkArgument(!key.isEmpty(), "[key] can't be blank");
-    this.compiledValuePattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledValuePattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.firstMatchOnly = firstMatchOnly;
     this.ruleMetrics = ruleMetrics;
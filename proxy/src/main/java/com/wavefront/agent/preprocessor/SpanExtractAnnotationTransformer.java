@@ -4,9 +4,6 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -23,11 +20,14 @@ public class SpanExtractAnnotationTransformer implements Function<Span, Span>{
   protected final String key;
   protected final String input;
   protected final String patternReplace;
-  protected final Pattern compiledSearchPattern;
+  private final PlaceholderTemplate replaceTemplate;
+  protected final PreprocessorRegex compiledSearchPattern;
   @Nullable
-  protected final Pattern compiledMatchPattern;
+  protected final PreprocessorRegex compiledMatchPattern;
   @Nullable
   protected final String patternReplaceInput;
+  @Nullable
+  private final PlaceholderTemplate replaceInputTemplate;
   protected final boolean firstMatchOnly;
   protected final PreprocessorRuleMetrics ruleMetrics;
 
@@ -41,20 +41,23 @@ public class SpanExtractAnnotationTransformer implements Function<Span, Span>{
                                           final PreprocessorRuleMetrics ruleMetrics) {
     this.key = Preconditions.checkNotNull(key, "[key] can't be null");
     this.input = Preconditions.checkNotNull(input, "[input] can't be null");
-    this.compiledSearchPattern = Pattern.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
+    this.compiledSearchPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
     this.patternReplace = Preconditions.checkNotNull(patternReplace, "[replace] can't be null");
     Preconditions.checkArgument(!key.isEmpty(), "[key] can't be blank");
     Preconditions.checkArgument(!input.isEmpty(), "[input] can't be blank");
     Preconditions.checkArgument(!patternSearch.isEmpty(), "[search] can't be blank");
-    this.compiledMatchPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledMatchPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     this.patternReplaceInput = replaceInput;
+    this.replaceTemplate = PlaceholderTemplate.compile(patternReplace);
+    this.replaceInputTemplate = replaceInput == null ? null :
+        PlaceholderTemplate.compile(replaceInput);
     this.firstMatchOnly = firstMatchOnly;
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.ruleMetrics = ruleMetrics;
   }
 
   protected boolean extractAnnotation(@Nonnull Span span, final String extractFrom) {
-    Matcher patternMatcher;
+    PreprocessorRegex.Matcher patternMatcher;
     if (extractFrom == null || (compiledMatchPattern != null && !compiledMatchPattern.matcher(extractFrom).matches())) {
       return false;
     }
@@ -65,7 +68,7 @@ public class SpanExtractAnnotationTransformer implements Function<Span, Span>{
     if (span.getAnnotations() == null) {
       span.setAnnotations(Lists.newArrayList());
     }
-    String value = patternMatcher.replaceAll(PreprocessorUtil.expandPlaceholders(patternReplace, span));
+    String value = patternMatcher.replaceAll(replaceTemplate.expand(span));
     if (!value.isEmpty()) {
       span.getAnnotations().add(new Annotation(key, value));
       ruleMetrics.incrementRuleAppliedCounter();
@@ -78,13 +81,13 @@ public class SpanExtractAnnotationTransformer implements Function<Span, Span>{
       case "spanName":
         if (extractAnnotation(span, span.getName()) && patternReplaceInput != null) {
           span.setName(compiledSearchPattern.matcher(span.getName()).
-              replaceAll(PreprocessorUtil.expandPlaceholders(patternReplaceInput, span)));
+              replaceAll(replaceInputTemplate.expand(span)));
         }
         break;
       case "sourceName":
         if (extractAnnotation(span, span.getSource()) && patternReplaceInput != null) {
           span.setSource(compiledSearchPattern.matcher(span.getSource()).
-              replaceAll(PreprocessorUtil.expandPlaceholders(patternReplaceInput, span)));
+              replaceAll(replaceInputTemplate.expand(span)));
         }
         break;
       default:
@@ -93,7 +96,7 @@ public class SpanExtractAnnotationTransformer implements Function<Span, Span>{
             if (extractAnnotation(span, a.getValue())) {
               if (patternReplaceInput != null) {
                 a.setValue(compiledSearchPattern.matcher(a.getValue()).
-                    replaceAll(PreprocessorUtil.expandPlaceholders(patternReplaceInput, span)));
+                    replaceAll(replaceInputTemplate.expand(span)));
               }
               if (firstMatchOnly) {
                 break;
@@ -6,7 +6,6 @@ import com.google.common.base.Preconditions;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -20,7 +19,7 @@ public class SpanLimitLengthTransformer implements Function<Span, Span> {
   private final int maxLength;
   private final LengthLimitActionType actionSubtype;
   @Nullable
-  private final Pattern compiledMatchPattern;
+  private final PreprocessorRegex compiledMatchPattern;
   private final boolean firstMatchOnly;
   private final PreprocessorRuleMetrics ruleMetrics;
 
@@ -41,7 +40,7 @@ public class SpanLimitLengthTransformer implements Function<Span, Span> {
     Preconditions.checkArgument(maxLength > 0, "[maxLength] needs to be > 0!");
     this.maxLength = maxLength;
     this.actionSubtype = actionSubtype;
-    this.compiledMatchPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledMatchPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     this.firstMatchOnly = firstMatchOnly;
     this.ruleMetrics = ruleMetrics;
   }
@@ -6,7 +6,6 @@ import com.google.common.base.Preconditions;
 import com.yammer.metrics.core.Counter;
 
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -26,7 +25,7 @@ public class SpanRenameAnnotationTransformer implements Function<Span, Span> {
   private final String key;
   private final String newKey;
   @Nullable
-  private final Pattern compiledPattern;
+  private final PreprocessorRegex compiledPattern;
   private final boolean firstMatchOnly;
   private final PreprocessorRuleMetrics ruleMetrics;
 
@@ -39,7 +38,7 @@ public class SpanRenameAnnotationTransformer implements Function<Span, Span> {
     this.newKey = Preconditions.checkNotNull(newKey, "[newkey] can't be null");
     Preconditions.checkArgument(!key.isEmpty(), "[key] can't be blank");
     Preconditions.checkArgument(!newKey.isEmpty(), "[newkey] can't be blank");
-    this.compiledPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.compiledPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     Preconditions.checkNotNull(ruleMetrics, "PreprocessorRuleMetrics can't be null");
     this.firstMatchOnly = firstMatchOnly;
     this.ruleMetrics = ruleMetrics;
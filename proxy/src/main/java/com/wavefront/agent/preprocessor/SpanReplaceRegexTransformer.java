@@ -3,9 +3,6 @@ package com.wavefront.agent.preprocessor;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -21,11 +18,12 @@ import wavefront.report.Span;
 public class SpanReplaceRegexTransformer implements Function<Span, Span> {
 
   private final String patternReplace;
+  private final PlaceholderTemplate replaceTemplate;
   private final String scope;
-  private final Pattern compiledSearchPattern;
+  private final PreprocessorRegex compiledSearchPattern;
   private final Integer maxIterations;
   @Nullable
-  private final Pattern compiledMatchPattern;
+  private final PreprocessorRegex compiledMatchPattern;
   private final boolean firstMatchOnly;
   private final PreprocessorRuleMetrics ruleMetrics;
 
@@ -36,12 +34,13 @@ public class SpanReplaceRegexTransformer implements Function<Span, Span> {
                                      @Nullable final Integer maxIterations,
                                      final boolean firstMatchOnly,
                                      final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledSearchPattern = Pattern.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
+    this.compiledSearchPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternSearch, "[search] can't be null"));
     Preconditions.checkArgument(!patternSearch.isEmpty(), "[search] can't be blank");
     this.scope = Preconditions.checkNotNull(scope, "[scope] can't be null");
     Preconditions.checkArgument(!scope.isEmpty(), "[scope] can't be blank");
     this.patternReplace = Preconditions.checkNotNull(patternReplace, "[replace] can't be null");
-    this.compiledMatchPattern = patternMatch != null ? Pattern.compile(patternMatch) : null;
+    this.replaceTemplate = PlaceholderTemplate.compile(patternReplace);
+    this.compiledMatchPattern = patternMatch != null ? PreprocessorRegex.compile(patternMatch) : null;
     this.maxIterations = maxIterations != null ? maxIterations : 1;
     Preconditions.checkArgument(this.maxIterations > 0, "[iterations] must be > 0");
     this.firstMatchOnly = firstMatchOnly;
@@ -50,14 +49,14 @@ public class SpanReplaceRegexTransformer implements Function<Span, Span> {
   }
 
   private String replaceString(@Nonnull Span span, String content) {
-    Matcher patternMatcher;
+    PreprocessorRegex.Matcher patternMatcher;
     patternMatcher = compiledSearchPattern.matcher(content);
     if (!patternMatcher.find()) {
       return content;
     }
     ruleMetrics.incrementRuleAppliedCounter();
 
-    String replacement = PreprocessorUtil.expandPlaceholders(patternReplace, span);
+    String replacement = replaceTemplate.expand(span);
 
     int currentIteration = 0;
     while (currentIteration < maxIterations) {
@@ -2,8 +2,6 @@ package com.wavefront.agent.preprocessor;
 
 import com.google.common.base.Preconditions;
 
-import java.util.regex.Pattern;
-
 import javax.annotation.Nonnull;
 
 import wavefront.report.Annotation;
@@ -18,13 +16,13 @@ import wavefront.report.Span;
 public class SpanWhitelistRegexFilter implements AnnotatedPredicate<Span> {
 
   private final String scope;
-  private final Pattern compiledPattern;
+  private final PreprocessorRegex compiledPattern;
   private final PreprocessorRuleMetrics ruleMetrics;
 
   public SpanWhitelistRegexFilter(final String scope,
                                          final String patternMatch,
                                          final PreprocessorRuleMetrics ruleMetrics) {
-    this.compiledPattern = Pattern.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
+    this.compiledPattern = PreprocessorRegex.compile(Preconditions.checkNotNull(patternMatch, "[match] can't be null"));
     Preconditions.checkArgument(!patternMatch.isEmpty(), "[match] can't be blank");
     this.scope = Preconditions.checkNotNull(scope, "[scope] can't be null");
     Preconditions.checkArgument(!scope.isEmpty(), "[scope] can't be blank");
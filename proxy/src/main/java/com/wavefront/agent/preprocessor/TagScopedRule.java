@@ -0,0 +1,17 @@
+package com.wavefront.agent.preprocessor;
+
+import javax.annotation.Nullable;
+
+/**
+ * Implemented by point rules that may be scoped to a single point tag, so that they can be
+ * grouped by tag key and skipped altogether for points that don't have that tag.
+ */
+interface TagScopedRule {
+
+  /**
+   * @return point tag key if the rule only reads and modifies the value of that point tag and
+   *         does nothing when the point doesn't have it, null otherwise.
+   */
+  @Nullable
+  String getScopeTagKey();
+}
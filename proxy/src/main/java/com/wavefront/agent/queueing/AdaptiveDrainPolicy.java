@@ -0,0 +1,84 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Controls how aggressively a single retry queue is drained: the number of submissions that are
+ * allowed to be in flight at the same time, and the delay before the next drain attempt.
+ *
+ * The in-flight window follows AIMD: it grows by one after a full window's worth of successful
+ * submissions, and is cut in half on every failure. Retry delays use exponential backoff with
+ * decorrelated jitter, so queues that keep failing back off independently of each other instead
+ * of retrying in lockstep.
+ *
+ * Not thread-safe, every queue is expected to have its own instance.
+ */
+public class AdaptiveDrainPolicy {
+  private final int maxWindow;
+  private final DoubleSupplier baseDelaySeconds;
+
+  private int window;
+  private int acknowledged = 0;
+  private long backoffMillis = 0;
+
+  /**
+   * @param initialWindow    initial number of concurrent submissions.
+   * @param maxWindow        maximum number of concurrent submissions.
+   * @param baseDelaySeconds base delay between drain attempts, in seconds.
+   */
+  public AdaptiveDrainPolicy(int initialWindow, int maxWindow, DoubleSupplier baseDelaySeconds) {
+    Preconditions.checkArgument(maxWindow > 0, "maxWindow must be positive");
+    this.maxWindow = maxWindow;
+    this.window = Math.max(1, Math.min(initialWindow, maxWindow));
+    this.baseDelaySeconds = baseDelaySeconds;
+  }
+
+  /**
+   * @return current number of submissions allowed to be in flight.
+   */
+  public int getWindow() {
+    return window;
+  }
+
+  /**
+   * Record a successful submission.
+   */
+  public void onSuccess() {
+    if (++acknowledged >= window) {
+      acknowledged = 0;
+      window = Math.min(maxWindow, window + 1);
+    }
+  }
+
+  /**
+   * Record a failed submission.
+   */
+  public void onFailure() {
+    acknowledged = 0;
+    window = Math.max(1, window / 2);
+  }
+
+  /**
+   * Calculate the delay before the next drain attempt.
+   *
+   * @param failed whether the last attempt failed without making any progress.
+   * @return delay in milliseconds.
+   */
+  public long nextDelayMillis(boolean failed) {
+    double baseSeconds = baseDelaySeconds.getAsDouble();
+    long baseMillis = Math.max(1, (long) (baseSeconds * 1000));
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (!failed) {
+      backoffMillis = 0;
+      return baseMillis + random.nextLong(baseMillis);
+    }
+    // caps at 2*base^4, same as the previous fixed exponential schedule
+    long capMillis = Math.max(baseMillis, (long) (2000 * Math.pow(baseSeconds, 4)));
+    long upperBound = Math.max(baseMillis * 2, backoffMillis * 3);
+    backoffMillis = Math.min(capMillis, baseMillis + random.nextLong(upperBound - baseMillis));
+    return backoffMillis;
+  }
+}
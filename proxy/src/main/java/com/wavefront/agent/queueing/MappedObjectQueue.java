@@ -0,0 +1,181 @@
+package com.wavefront.agent.queueing;
+
+import com.squareup.tape.FileException;
+import com.squareup.tape.ObjectQueue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link ObjectQueue} backed by a {@link MappedSegmentLog}. Drop-in replacement for Tape's
+ * FileObjectQueue.
+ *
+ * @param <T> type of objects in the queue.
+ */
+public class MappedObjectQueue<T> implements ObjectQueue<T>, Closeable {
+  private static final Logger logger = Logger.getLogger(MappedObjectQueue.class.getCanonicalName());
+
+  private final File directory;
+  private final MappedSegmentLog log;
+  private final RecordConverter<T> converter;
+
+  @Nullable
+  private Listener<T> listener;
+  /**
+   * Decoded object at the head of the queue, so it's not deserialized on every peek().
+   */
+  @Nullable
+  private T head;
+
+  /**
+   * Converts objects to and from log records.
+   *
+   * @param <T> type of objects.
+   */
+  public interface RecordConverter<T> {
+    /**
+     * Serialize an object into a record.
+     */
+    MappedSegmentLog.Record toRecord(T entry) throws IOException;
+
+    /**
+     * Deserialize an object from a record.
+     *
+     * @return deserialized object or null if the record can't be decoded.
+     */
+    @Nullable
+    T fromRecord(MappedSegmentLog.Record record) throws IOException;
+  }
+
+  /**
+   * @param directory directory for segment files.
+   * @param converter record converter.
+   */
+  public MappedObjectQueue(File directory, RecordConverter<T> converter) throws IOException {
+    this(directory, MappedSegmentLog.DEFAULT_SEGMENT_SIZE, converter);
+  }
+
+  /**
+   * @param directory   directory for segment files.
+   * @param segmentSize segment size in bytes.
+   * @param converter   record converter.
+   */
+  public MappedObjectQueue(File directory, int segmentSize, RecordConverter<T> converter)
+      throws IOException {
+    this.directory = directory;
+    this.log = new MappedSegmentLog(directory, segmentSize);
+    this.converter = converter;
+  }
+
+  @Override
+  public int size() {
+    return log.size();
+  }
+
+  /**
+   * @return total number of points in all entries in the queue.
+   */
+  public long getPointCount() {
+    return log.getPointCount();
+  }
+
+  /**
+   * @return total size of the queue on disk (in bytes).
+   */
+  public long getByteCount() {
+    return log.getByteCount();
+  }
+
+  /**
+   * @return enqueue timestamp of the oldest entry in the queue or null if the queue is empty.
+   */
+  @Nullable
+  public Long getOldestEntryMillis() {
+    try {
+      return log.getOldestEnqueuedMillis();
+    } catch (IOException e) {
+      throw new FileException("Failed to peek.", e, directory);
+    }
+  }
+
+  @Override
+  public synchronized void add(T entry) {
+    try {
+      log.append(converter.toRecord(entry));
+    } catch (IOException e) {
+      throw new FileException("Failed to add entry.", e, directory);
+    }
+    if (listener != null) listener.onAdd(this, entry);
+  }
+
+  @Override
+  public synchronized T peek() {
+    if (head != null) return head;
+    try {
+      MappedSegmentLog.Record record;
+      while ((record = log.peek()) != null) {
+        head = converter.fromRecord(record);
+        if (head != null) return head;
+        logger.warning("Failed to read a single retry submission from buffer, ignoring");
+        log.remove();
+      }
+      return null;
+    } catch (IOException e) {
+      throw new FileException("Failed to peek.", e, directory);
+    }
+  }
+
+  /**
+   * Read up to {@code maxEntries} entries from the head of the queue without removing them.
+   *
+   * @param maxEntries maximum number of entries to return.
+   * @return entries in queue order.
+   */
+  public synchronized List<T> peek(int maxEntries) {
+    T first = peek();
+    if (first == null) return Collections.emptyList();
+    if (maxEntries <= 1) return Collections.singletonList(first);
+    try {
+      List<MappedSegmentLog.Record> records = log.peek(maxEntries);
+      List<T> entries = new ArrayList<>(records.size());
+      entries.add(first);
+      for (int i = 1; i < records.size(); i++) {
+        T entry = converter.fromRecord(records.get(i));
+        // undecodable entries are skipped once they reach the head of the queue
+        if (entry == null) break;
+        entries.add(entry);
+      }
+      return entries;
+    } catch (IOException e) {
+      throw new FileException("Failed to peek.", e, directory);
+    }
+  }
+
+  @Override
+  public synchronized void remove() {
+    try {
+      log.remove();
+      head = null;
+    } catch (IOException e) {
+      throw new FileException("Failed to remove.", e, directory);
+    }
+    if (listener != null) listener.onRemove(this);
+  }
+
+  @Override
+  public synchronized void setListener(Listener<T> listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void close() {
+    log.close();
+  }
+}
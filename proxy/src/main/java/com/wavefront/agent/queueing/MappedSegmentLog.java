@@ -0,0 +1,616 @@
+package com.wavefront.agent.queueing;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import com.wavefront.common.NamedThreadFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+/**
+ * Append-only FIFO log of binary records, stored as a sequence of memory-mapped segment files in
+ * a dedicated directory.
+ *
+ * Every record has a compact header (record type, flags, point count, enqueue time, format) that
+ * can be read without touching the body, and is protected by a CRC32 checksum. The record length
+ * is written last, so a record that was torn by a crash is detected (and discarded) on recovery.
+ * The head and tail positions, as well as the number of records, points and bytes between them,
+ * are persisted in a small checkpoint file, so opening a log only requires scanning records that
+ * were appended after the last checkpoint. Dirty pages are flushed to disk, the checkpoint is
+ * written and fully consumed segments are deleted by a shared background thread once a second,
+ * so neither producers nor consumers have to wait for fsync.
+ *
+ * Since the checkpoint is written asynchronously, a crash may cause records consumed within the
+ * last second to be delivered again (at-least-once semantics).
+ *
+ * Disk space is reclaimed one segment at a time: records are never rewritten, so space taken by
+ * consumed records in the segment at the head of the log is only released once the whole segment
+ * has been consumed. A log therefore occupies up to one segment (or one record, whichever is
+ * larger) more than its unconsumed records need.
+ */
+public class MappedSegmentLog implements Closeable {
+  private static final Logger logger = Logger.getLogger(MappedSegmentLog.class.getCanonicalName());
+
+  public static final int DEFAULT_SEGMENT_SIZE = 32 * 1024 * 1024;
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String CHECKPOINT_FILE = "checkpoint";
+  private static final int CHECKPOINT_VERSION = 2;
+  private static final int CHECKPOINT_SIZE = 64;
+
+  /**
+   * Record prefix: int length (of everything that follows the prefix) + int crc32.
+   */
+  private static final int PREFIX_SIZE = 8;
+  /**
+   * Fixed part of the record header: byte type, byte flags, int points, long enqueue time,
+   * short format length.
+   */
+  private static final int FIXED_HEADER_SIZE = 16;
+
+  private static final ScheduledExecutorService maintenanceExecutor =
+      Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("queue-maintenance"));
+  private static final Set<MappedSegmentLog> openLogs = ConcurrentHashMap.newKeySet();
+
+  static {
+    maintenanceExecutor.scheduleWithFixedDelay(() -> {
+      for (MappedSegmentLog log : openLogs) {
+        try {
+          log.maintain();
+        } catch (Throwable t) {
+          logger.log(Level.WARNING, "Queue maintenance failed for " + log.directory, t);
+        }
+      }
+    }, 1, 1, TimeUnit.SECONDS);
+  }
+
+  private final File directory;
+  private final int segmentSize;
+  private final MappedByteBuffer checkpoint;
+  private final Queue<File> retiredSegments = new ConcurrentLinkedQueue<>();
+  private final Queue<MappedByteBuffer> unflushedSegments = new ConcurrentLinkedQueue<>();
+
+  private long writeSegmentId;
+  private MappedByteBuffer writeBuffer;
+  private int writePos;
+
+  private long readSegmentId;
+  private MappedByteBuffer readBuffer;
+  private int readPos;
+
+  /**
+   * Mapping of the segment that follows the read segment, used for read-ahead.
+   */
+  private long lookaheadSegmentId = -1;
+  @Nullable
+  private MappedByteBuffer lookaheadBuffer;
+
+  private volatile int size;
+  private volatile long pointCount;
+  private volatile long byteCount;
+  private boolean dirty = false;
+  private boolean closed = false;
+
+  @Nullable
+  private Record head = null;
+
+  /**
+   * A single log record.
+   */
+  public static class Record {
+    private final byte type;
+    private final byte flags;
+    private final int pointCount;
+    private final long enqueuedMillis;
+    private final String format;
+    private final byte[] body;
+    private final int length;
+
+    public Record(byte type, byte flags, int pointCount, long enqueuedMillis, String format,
+                  byte[] body) {
+      this(type, flags, pointCount, enqueuedMillis, format, body, 0);
+    }
+
+    private Record(byte type, byte flags, int pointCount, long enqueuedMillis, String format,
+                   byte[] body, int length) {
+      this.type = type;
+      this.flags = flags;
+      this.pointCount = pointCount;
+      this.enqueuedMillis = enqueuedMillis;
+      this.format = format == null ? "" : format;
+      this.body = body;
+      this.length = length;
+    }
+
+    public byte getType() {
+      return type;
+    }
+
+    public byte getFlags() {
+      return flags;
+    }
+
+    public int getPointCount() {
+      return pointCount;
+    }
+
+    public long getEnqueuedMillis() {
+      return enqueuedMillis;
+    }
+
+    public String getFormat() {
+      return format;
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+  }
+
+  /**
+   * Open (or create) a log in the specified directory. Existing segments are scanned and validated.
+   *
+   * @param directory   directory for segment files.
+   * @param segmentSize size of a single segment file.
+   */
+  public MappedSegmentLog(File directory, int segmentSize) throws IOException {
+    Preconditions.checkArgument(segmentSize > PREFIX_SIZE + FIXED_HEADER_SIZE);
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create queue directory " + directory);
+    }
+    this.checkpoint = map(new File(directory, CHECKPOINT_FILE), CHECKPOINT_SIZE);
+    recover();
+    openLogs.add(this);
+  }
+
+  /**
+   * @return number of records in the log.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return total number of points in all records in the log.
+   */
+  public long getPointCount() {
+    return pointCount;
+  }
+
+  /**
+   * @return total size of all records in the log (in bytes).
+   */
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  /**
+   * Append a record to the tail of the log.
+   *
+   * @param record record to append.
+   */
+  public synchronized void append(Record record) throws IOException {
+    Preconditions.checkState(!closed, "Log is closed");
+    byte[] format = record.format.getBytes(StandardCharsets.UTF_8);
+    Preconditions.checkArgument(format.length <= Short.MAX_VALUE, "Format too long");
+    int recordSize = PREFIX_SIZE + FIXED_HEADER_SIZE + format.length + record.body.length;
+    if (writePos + recordSize + 4 > writeBuffer.capacity()) {
+      rollSegment(recordSize + 4);
+    }
+    ByteBuffer buffer = writeBuffer.duplicate();
+    buffer.position(writePos + PREFIX_SIZE);
+    buffer.put(record.type);
+    buffer.put(record.flags);
+    buffer.putInt(record.pointCount);
+    buffer.putLong(record.enqueuedMillis);
+    buffer.putShort((short) format.length);
+    buffer.put(format);
+    buffer.put(record.body);
+    writeBuffer.putInt(writePos + 4, checksum(writeBuffer, writePos + PREFIX_SIZE,
+        recordSize - PREFIX_SIZE));
+    // the length goes last, it marks the record as complete
+    writeBuffer.putInt(writePos, recordSize - PREFIX_SIZE);
+    writePos += recordSize;
+    size++;
+    pointCount += record.pointCount;
+    byteCount += recordSize;
+    dirty = true;
+  }
+
+  /**
+   * Read the record at the head of the log without removing it.
+   *
+   * @return record or null if the log is empty.
+   */
+  @Nullable
+  public synchronized Record peek() throws IOException {
+    Preconditions.checkState(!closed, "Log is closed");
+    if (head != null) return head;
+    while (true) {
+      if (readSegmentId == writeSegmentId && readPos >= writePos) {
+        return null;
+      }
+      int length = readPos + 4 > readBuffer.capacity() ? 0 : readBuffer.getInt(readPos);
+      if (length == 0) {
+        if (readSegmentId < writeSegmentId) {
+          advanceReadSegment();
+          continue;
+        }
+        return null;
+      }
+      Record record = readRecord(readBuffer, readPos);
+      if (record == null) {
+        logger.severe("Corrupted record in " + segmentFile(readSegmentId) + " at offset " +
+            readPos + ", skipping the rest of the segment");
+        if (readSegmentId < writeSegmentId) {
+          advanceReadSegment();
+        } else {
+          readPos = writePos;
+          dirty = true;
+        }
+        // we can't tell how many records have been skipped, so count what's left
+        recount();
+        continue;
+      }
+      head = record;
+      return record;
+    }
+  }
+
+  /**
+   * Read up to {@code maxRecords} records from the head of the log without removing them.
+   *
+   * @param maxRecords maximum number of records to return.
+   * @return records in log order (empty list if the log is empty).
+   */
+  public synchronized List<Record> peek(int maxRecords) throws IOException {
+    Record first = peek();
+    if (first == null || maxRecords <= 1) {
+      return first == null ? Collections.emptyList() : Collections.singletonList(first);
+    }
+    List<Record> records = new ArrayList<>(maxRecords);
+    records.add(first);
+    long segmentId = readSegmentId;
+    MappedByteBuffer buffer = readBuffer;
+    int pos = readPos + first.length;
+    while (records.size() < maxRecords) {
+      if (segmentId == writeSegmentId && pos >= writePos) break;
+      int length = pos + 4 > buffer.capacity() ? 0 : buffer.getInt(pos);
+      if (length == 0) {
+        if (segmentId == writeSegmentId) break;
+        segmentId++;
+        buffer = bufferFor(segmentId);
+        pos = 0;
+        continue;
+      }
+      Record record = readRecord(buffer, pos);
+      // corrupted records are dealt with once they reach the head of the log
+      if (record == null) break;
+      records.add(record);
+      pos += record.length;
+    }
+    return records;
+  }
+
+  /**
+   * Remove the record at the head of the log.
+   */
+  public synchronized void remove() throws IOException {
+    Record record = peek();
+    if (record == null) return;
+    readPos += record.length;
+    size = Math.max(0, size - 1);
+    pointCount = Math.max(0, pointCount - record.pointCount);
+    byteCount = Math.max(0, byteCount - record.length);
+    head = null;
+    dirty = true;
+  }
+
+  /**
+   * @return enqueue timestamp of the record at the head of the log or null if the log is empty.
+   */
+  @Nullable
+  public synchronized Long getOldestEnqueuedMillis() throws IOException {
+    Record record = peek();
+    return record == null ? null : record.enqueuedMillis;
+  }
+
+  /**
+   * Flush dirty pages to disk, persist the checkpoint and delete fully consumed segments.
+   */
+  @VisibleForTesting
+  synchronized void maintain() {
+    if (closed) return;
+    if (dirty) {
+      MappedByteBuffer buffer;
+      while ((buffer = unflushedSegments.poll()) != null) {
+        buffer.force();
+      }
+      writeBuffer.force();
+      // the checkpoint only ever points at data that is already on disk
+      writeCheckpoint();
+      checkpoint.force();
+      dirty = false;
+    }
+    File segment;
+    while ((segment = retiredSegments.poll()) != null) {
+      if (!segment.delete() && segment.exists()) {
+        logger.warning("Unable to delete consumed queue segment " + segment);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) return;
+    maintain();
+    openLogs.remove(this);
+    closed = true;
+  }
+
+  /**
+   * Delete all data for a log. The log must not be open.
+   *
+   * @param directory log directory.
+   * @return true if any data has been deleted.
+   */
+  public static boolean purge(File directory) {
+    File[] files = directory.listFiles();
+    if (files == null) return false;
+    for (File file : files) {
+      if (!file.delete()) {
+        logger.warning("Unable to delete " + file);
+      }
+    }
+    return directory.delete();
+  }
+
+  private void recover() throws IOException {
+    List<Long> segmentIds = listSegments();
+    boolean validCheckpoint = checkpoint.getInt(0) == CHECKPOINT_VERSION &&
+        checkpoint.getInt(CHECKPOINT_SIZE - 4) == checksum(checkpoint, 0, CHECKPOINT_SIZE - 4);
+    long checkpointSegmentId = validCheckpoint ? checkpoint.getLong(4) : -1;
+    // segments before the checkpoint have been consumed already
+    while (segmentIds.size() > 1 && segmentIds.get(0) < checkpointSegmentId) {
+      retiredSegments.add(segmentFile(segmentIds.remove(0)));
+    }
+    if (segmentIds.isEmpty()) {
+      segmentIds.add(checkpointSegmentId < 0 ? 0 : checkpointSegmentId);
+    }
+    readSegmentId = segmentIds.get(0);
+    readPos = readSegmentId == checkpointSegmentId ? checkpoint.getInt(12) : 0;
+    writeSegmentId = segmentIds.get(segmentIds.size() - 1);
+
+    // counters for all records between the head and the tail are persisted in the checkpoint,
+    // so we only need to scan records appended after the checkpoint had been written.
+    long scanSegmentId = readSegmentId;
+    int scanPos = readPos;
+    int records = 0;
+    long points = 0;
+    long bytes = 0;
+    if (readSegmentId == checkpointSegmentId) {
+      long tailSegmentId = checkpoint.getLong(16);
+      int tailPos = checkpoint.getInt(24);
+      if (segmentIds.contains(tailSegmentId) &&
+          (tailSegmentId > readSegmentId || tailPos >= readPos)) {
+        scanSegmentId = tailSegmentId;
+        scanPos = tailPos;
+        records = checkpoint.getInt(28);
+        points = checkpoint.getLong(32);
+        bytes = checkpoint.getLong(40);
+      }
+    }
+
+    for (long segmentId : segmentIds) {
+      if (segmentId < scanSegmentId) continue;
+      MappedByteBuffer buffer = mapSegment(segmentId, 0);
+      int pos = segmentId == scanSegmentId ? scanPos : 0;
+      while (pos + 4 <= buffer.capacity()) {
+        int length = buffer.getInt(pos);
+        if (length == 0) break;
+        Record record = readRecord(buffer, pos);
+        if (record == null) {
+          logger.warning("Discarding corrupted or incomplete data in " + segmentFile(segmentId) +
+              " starting at offset " + pos);
+          if (segmentId == writeSegmentId) {
+            // torn write at the tail - wipe it so new records can be appended safely
+            for (int i = pos; i < buffer.capacity(); i++) {
+              buffer.put(i, (byte) 0);
+            }
+          }
+          break;
+        }
+        records++;
+        points += record.pointCount;
+        bytes += record.length;
+        pos += record.length;
+      }
+      if (segmentId == readSegmentId) {
+        readBuffer = buffer;
+      }
+      if (segmentId == writeSegmentId) {
+        writeBuffer = buffer;
+        writePos = pos;
+      }
+    }
+    if (readBuffer == null) {
+      readBuffer = mapSegment(readSegmentId, 0);
+    }
+    this.size = records;
+    this.pointCount = points;
+    this.byteCount = bytes;
+    writeCheckpoint();
+    if (records > 0) {
+      logger.info("Recovered " + records + " records (" + points + " points) from " + directory);
+    }
+  }
+
+  private void rollSegment(int minSize) throws IOException {
+    unflushedSegments.add(writeBuffer);
+    writeSegmentId++;
+    writeBuffer = mapSegment(writeSegmentId, minSize);
+    writePos = 0;
+  }
+
+  /**
+   * Recompute counters by scanning all readable records between the head and the tail of the log,
+   * same as {@link #recover} does for records that are not reflected in the checkpoint.
+   */
+  private void recount() throws IOException {
+    int records = 0;
+    long points = 0;
+    long bytes = 0;
+    long segmentId = readSegmentId;
+    MappedByteBuffer buffer = readBuffer;
+    int pos = readPos;
+    while (segmentId < writeSegmentId || pos < writePos) {
+      int length = pos + 4 > buffer.capacity() ? 0 : buffer.getInt(pos);
+      Record record = length == 0 ? null : readRecord(buffer, pos);
+      if (record == null) {
+        // the rest of the segment is going to be skipped by peek() as well
+        if (segmentId == writeSegmentId) break;
+        segmentId++;
+        buffer = bufferFor(segmentId);
+        pos = 0;
+        continue;
+      }
+      records++;
+      points += record.pointCount;
+      bytes += record.length;
+      pos += record.length;
+    }
+    this.size = records;
+    this.pointCount = points;
+    this.byteCount = bytes;
+  }
+
+  private void advanceReadSegment() throws IOException {
+    retiredSegments.add(segmentFile(readSegmentId));
+    readSegmentId++;
+    readBuffer = bufferFor(readSegmentId);
+    readPos = 0;
+    head = null;
+    dirty = true;
+  }
+
+  private MappedByteBuffer bufferFor(long segmentId) throws IOException {
+    if (segmentId == writeSegmentId) return writeBuffer;
+    if (segmentId != lookaheadSegmentId || lookaheadBuffer == null) {
+      lookaheadBuffer = mapSegment(segmentId, 0);
+      lookaheadSegmentId = segmentId;
+    }
+    return lookaheadBuffer;
+  }
+
+  private void writeCheckpoint() {
+    checkpoint.putInt(0, CHECKPOINT_VERSION);
+    checkpoint.putLong(4, readSegmentId);
+    checkpoint.putInt(12, readPos);
+    checkpoint.putLong(16, writeSegmentId);
+    checkpoint.putInt(24, writePos);
+    checkpoint.putInt(28, size);
+    checkpoint.putLong(32, pointCount);
+    checkpoint.putLong(40, byteCount);
+    checkpoint.putInt(CHECKPOINT_SIZE - 4, checksum(checkpoint, 0, CHECKPOINT_SIZE - 4));
+  }
+
+  @Nullable
+  private Record readRecord(ByteBuffer buffer, int pos) {
+    int length = buffer.getInt(pos);
+    if (length < FIXED_HEADER_SIZE || pos + PREFIX_SIZE + length > buffer.capacity() ||
+        buffer.getInt(pos + 4) != checksum(buffer, pos + PREFIX_SIZE, length)) {
+      return null;
+    }
+    ByteBuffer view = buffer.duplicate();
+    view.position(pos + PREFIX_SIZE);
+    byte type = view.get();
+    byte flags = view.get();
+    int points = view.getInt();
+    long enqueuedMillis = view.getLong();
+    int formatLength = view.getShort();
+    if (formatLength < 0 || formatLength > length - FIXED_HEADER_SIZE) return null;
+    byte[] format = new byte[formatLength];
+    view.get(format);
+    byte[] body = new byte[length - FIXED_HEADER_SIZE - formatLength];
+    view.get(body);
+    return new Record(type, flags, points, enqueuedMillis,
+        new String(format, StandardCharsets.UTF_8), body, PREFIX_SIZE + length);
+  }
+
+  private List<Long> listSegments() {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+    List<Long> segmentIds = new ArrayList<>();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        try {
+          segmentIds.add(Long.parseLong(name.substring(0, name.length() -
+              SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          logger.warning("Ignoring unexpected file in the queue directory: " + file);
+        }
+      }
+    }
+    Collections.sort(segmentIds);
+    // segments are always consecutive, anything after a gap can't be trusted
+    for (int i = 1; i < segmentIds.size(); i++) {
+      if (segmentIds.get(i) != segmentIds.get(i - 1) + 1) {
+        logger.severe("Missing queue segment " + (segmentIds.get(i - 1) + 1) + " in " +
+            directory + ", data in subsequent segments is ignored");
+        segmentIds = new ArrayList<>(segmentIds.subList(0, i));
+        break;
+      }
+    }
+    return segmentIds;
+  }
+
+  private File segmentFile(long segmentId) {
+    return new File(directory, String.format("%020d", segmentId) + SEGMENT_SUFFIX);
+  }
+
+  private MappedByteBuffer mapSegment(long segmentId, int minSize) throws IOException {
+    File file = segmentFile(segmentId);
+    long size = file.exists() ? Math.max(file.length(), minSize) : Math.max(segmentSize, minSize);
+    return map(file, size);
+  }
+
+  private static MappedByteBuffer map(File file, long size) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         FileChannel channel = raf.getChannel()) {
+      return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, raf.length()));
+    }
+  }
+
+  private static int checksum(ByteBuffer buffer, int pos, int length) {
+    ByteBuffer view = buffer.duplicate();
+    view.limit(pos + length);
+    view.position(pos);
+    CRC32 crc = new CRC32();
+    crc.update(view);
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,154 @@
+package com.tdunning.math.stats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import wavefront.report.Histogram;
+
+/**
+ * Compares {@link AgentDigest} merge paths: digest into digest through {@link Centroid} objects
+ * (the generic {@link AbstractTDigest#add(TDigest)} approach) vs the single-pass primitive merge,
+ * boxed per-bin histogram ingestion vs bulk ingestion, and merging digests in their serialized
+ * form.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.tdunning.math.stats.AgentDigestMergeBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AgentDigestMergeBenchmark {
+  private static final int SAMPLES = 10000;
+  private static final int FIXED_SIZE = 10;
+
+  @Param({"32", "100", "200"})
+  public short compression;
+
+  private AgentDigest target;
+  private AgentDigest source;
+  private Histogram histogram;
+  private double[] means;
+  private int[] counts;
+  private ByteBuffer encodedTarget;
+  private ByteBuffer encodedSource;
+  private ByteBuffer mergeBuffer;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    target = new AgentDigest(compression, 0L);
+    source = new AgentDigest(compression, 0L);
+    for (int i = 0; i < SAMPLES; i++) {
+      target.add(random.nextGaussian() * 100);
+      source.add(random.nextGaussian() * 50 + 25);
+    }
+    histogram = source.toHistogram(60000);
+    int len = histogram.getBins().size();
+    means = new double[len];
+    counts = new int[len];
+    for (int i = 0; i < len; i++) {
+      means[i] = histogram.getBins().get(i);
+      counts[i] = histogram.getCounts().get(i);
+    }
+    encodedTarget = encode(target);
+    encodedSource = encode(source);
+    mergeBuffer = ByteBuffer.allocate(encodedTarget.capacity() + encodedSource.capacity());
+  }
+
+  @Benchmark
+  public AgentDigest mergeDigestViaCentroids() {
+    for (Centroid centroid : source.centroids()) {
+      target.add(centroid.mean(), centroid.count(), centroid);
+    }
+    target.compress();
+    return target;
+  }
+
+  @Benchmark
+  public AgentDigest mergeDigest() {
+    target.add(source);
+    return target;
+  }
+
+  @Benchmark
+  public AgentDigest mergeHistogramBoxed() {
+    List<Double> bins = histogram.getBins();
+    List<Integer> binCounts = histogram.getCounts();
+    for (int i = 0; i < bins.size(); i++) {
+      Integer count = binCounts.get(i);
+      Double mean = bins.get(i);
+      if (count != null && count > 0 && mean != null && Double.isFinite(mean)) {
+        target.add(mean, count);
+      }
+    }
+    target.compress();
+    return target;
+  }
+
+  @Benchmark
+  public AgentDigest mergeHistogram() {
+    target.add(histogram);
+    target.compress();
+    return target;
+  }
+
+  @Benchmark
+  public AgentDigest mergePrimitiveArrays() {
+    target.add(means, counts, means.length);
+    target.compress();
+    return target;
+  }
+
+  @Benchmark
+  public int mergeSerialized() {
+    mergeBuffer.clear();
+    return AgentDigest.AgentDigestMarshaller.merge(encodedTarget, encodedSource, mergeBuffer);
+  }
+
+  @Benchmark
+  public ByteBuffer mergeSerializedViaObjects() {
+    AgentDigest a = new AgentDigest(compression, 0L);
+    a.readCentroids(encodedTarget, FIXED_SIZE, (encodedTarget.capacity() - FIXED_SIZE) / 8, 0L);
+    AgentDigest b = new AgentDigest(compression, 0L);
+    b.readCentroids(encodedSource, FIXED_SIZE, (encodedSource.capacity() - FIXED_SIZE) / 8, 0L);
+    a.add(b);
+    mergeBuffer.clear();
+    a.writeCentroids(mergeBuffer, FIXED_SIZE);
+    return mergeBuffer;
+  }
+
+  private static ByteBuffer encode(AgentDigest digest) {
+    ByteBuffer buffer = ByteBuffer.allocate(FIXED_SIZE + digest.centroidCount() * 8);
+    buffer.putShort(0, (short) digest.compression());
+    buffer.putLong(2, digest.getDispatchTimeMillis());
+    digest.writeCentroids(buffer, FIXED_SIZE);
+    return buffer;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().
+        include(AgentDigestMergeBenchmark.class.getSimpleName()).
+        build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,133 @@
+package com.tdunning.math.stats;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import wavefront.report.Histogram;
+import wavefront.report.HistogramType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests around bulk merge paths of {@link AgentDigest}
+ */
+public class AgentDigestTest {
+  private static final short COMPRESSION = 100;
+  private static final int FIXED_SIZE = 10;
+
+  @Test
+  public void testMergeDigests() {
+    Random random = new Random(42);
+    AgentDigest target = new AgentDigest(COMPRESSION, 1000L);
+    AgentDigest source = new AgentDigest(COMPRESSION, 2000L);
+    double expectedSum = 0;
+    for (int i = 0; i < 10000; i++) {
+      double a = random.nextGaussian() * 100;
+      double b = random.nextGaussian() * 10 + 50;
+      target.add(a);
+      source.add(b);
+      expectedSum += a + b;
+    }
+    target.add(source);
+    assertEquals(20000, target.size());
+    assertEquals(0, target.checkWeights());
+    assertTrue(target.centroidCount() <= Math.PI * COMPRESSION / 2 + 1);
+    assertEquals(expectedSum, weightedSum(target), 1e-6 * 20000 * 100);
+    // merging into an empty digest keeps centroids intact
+    AgentDigest empty = new AgentDigest(COMPRESSION, 1000L);
+    empty.add(source);
+    assertEquals(source.centroidCount(), empty.centroidCount());
+    assertEquals(10000, empty.size());
+  }
+
+  @Test
+  public void testAddPrimitiveArrays() {
+    double[] means = new double[] {1.0, 2.0, Double.NaN, 3.0, 4.0, Double.POSITIVE_INFINITY, 5.0};
+    int[] counts = new int[] {1, 2, 3, 0, -1, 5, 6};
+    AgentDigest digest = new AgentDigest(COMPRESSION, 1000L);
+    digest.add(means, counts, 6);
+    assertEquals(3, digest.size());
+    digest.add(means, counts, means.length);
+    assertEquals(12, digest.size());
+    assertEquals(1.0 + 4.0 + 1.0 + 4.0 + 30.0, weightedSum(digest), 1e-9);
+  }
+
+  @Test
+  public void testAddHistogram() {
+    List<Double> bins = new ArrayList<>();
+    List<Integer> counts = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      bins.add((double) (i % 100));
+      counts.add(i % 3);
+    }
+    bins.add(null);
+    counts.add(1);
+    AgentDigest digest = new AgentDigest(COMPRESSION, 1000L);
+    digest.add(Histogram.newBuilder()
+        .setType(HistogramType.TDIGEST)
+        .setDuration(60000)
+        .setBins(bins)
+        .setCounts(counts)
+        .build());
+    long expectedSize = 0;
+    double expectedSum = 0;
+    for (int i = 0; i < 500; i++) {
+      expectedSize += i % 3;
+      expectedSum += (i % 100) * (i % 3);
+    }
+    assertEquals(expectedSize, digest.size());
+    assertEquals(expectedSum, weightedSum(digest), 1e-6 * expectedSum);
+  }
+
+  @Test
+  public void testMergeSerializedDigests() {
+    Random random = new Random(17);
+    AgentDigest a = new AgentDigest(COMPRESSION, 5000L);
+    AgentDigest b = new AgentDigest(COMPRESSION, 3000L);
+    for (int i = 0; i < 5000; i++) {
+      a.add(random.nextDouble() * 1000);
+      b.add(random.nextDouble() * 500 + 250);
+    }
+    ByteBuffer encodedA = encode(a);
+    ByteBuffer encodedB = encode(b);
+    ByteBuffer out = ByteBuffer.allocate(encodedA.remaining() + encodedB.remaining());
+    int size = AgentDigest.AgentDigestMarshaller.merge(encodedA, encodedB, out);
+    assertEquals(COMPRESSION, out.getShort(0));
+    assertEquals(3000L, out.getLong(2));
+
+    AgentDigest merged = new AgentDigest(COMPRESSION, 0L);
+    merged.readCentroids(out, FIXED_SIZE, (size - FIXED_SIZE) / 8, out.getLong(2));
+    assertEquals(10000, merged.size());
+    assertEquals(0, merged.checkWeights());
+    a.add(b);
+    assertEquals(a.centroidCount(), merged.centroidCount(), 2);
+    assertEquals(weightedSum(a), weightedSum(merged), 1e-4 * weightedSum(a));
+    // merging with an empty digest
+    AgentDigest empty = new AgentDigest(COMPRESSION, 1000L);
+    out.clear();
+    size = AgentDigest.AgentDigestMarshaller.merge(encode(empty), encodedB, out);
+    assertEquals(encodedB.remaining(), size);
+    assertEquals(1000L, out.getLong(2));
+  }
+
+  private static ByteBuffer encode(AgentDigest digest) {
+    ByteBuffer buffer = ByteBuffer.allocate(FIXED_SIZE + digest.centroidCount() * 8);
+    buffer.putShort(0, (short) digest.compression());
+    buffer.putLong(2, digest.getDispatchTimeMillis());
+    digest.writeCentroids(buffer, FIXED_SIZE);
+    return buffer;
+  }
+
+  private static double weightedSum(AgentDigest digest) {
+    double sum = 0;
+    for (Centroid centroid : digest.centroids()) {
+      sum += centroid.mean() * centroid.count();
+    }
+    return sum;
+  }
+}
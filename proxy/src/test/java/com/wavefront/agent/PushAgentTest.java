@@ -212,14 +212,14 @@ public class PushAgentTest {
   @Test
   public void testWavefrontUnifiedPortHandlerPlaintextOverHttp() throws Exception {
     reset(mockPointHandler);
-    mockPointHandler.report(ReportPoint.newBuilder().setTable("dummy").
-        setMetric("metric3.test").setHost("test1").setTimestamp(startTime * 1000).setValue(0.0d).build());
-    expectLastCall();
-    mockPointHandler.report(ReportPoint.newBuilder().setTable("dummy").
-        setMetric("metric3.test").setHost("test2").setTimestamp((startTime + 1) * 1000).setValue(1.0d).build());
-    expectLastCall();
-    mockPointHandler.report(ReportPoint.newBuilder().setTable("dummy").
-        setMetric("metric3.test").setHost("test3").setTimestamp((startTime + 2) * 1000).setValue(2.0d).build());
+    // points received over HTTP are handed over in a single batch
+    mockPointHandler.reportBatch(ImmutableList.of(
+        ReportPoint.newBuilder().setTable("dummy").setMetric("metric3.test").setHost("test1").
+            setTimestamp(startTime * 1000).setValue(0.0d).build(),
+        ReportPoint.newBuilder().setTable("dummy").setMetric("metric3.test").setHost("test2").
+            setTimestamp((startTime + 1) * 1000).setValue(1.0d).build(),
+        ReportPoint.newBuilder().setTable("dummy").setMetric("metric3.test").setHost("test3").
+            setTimestamp((startTime + 2) * 1000).setValue(2.0d).build()));
     expectLastCall();
     replay(mockPointHandler);
 
@@ -243,14 +243,14 @@ public class PushAgentTest {
   @Test
   public void testWavefrontUnifiedPortHandlerHttpGzipped() throws Exception {
     reset(mockPointHandler);
-    mockPointHandler.report(ReportPoint.newBuilder().setTable("dummy").
-        setMetric("metric4.test").setHost("test1").setTimestamp(startTime * 1000).setValue(0.0d).build());
-    expectLastCall();
-    mockPointHandler.report(ReportPoint.newBuilder().setTable("dummy").
-        setMetric("metric4.test").setHost("test2").setTimestamp((startTime + 1) * 1000).setValue(1.0d).build());
-    expectLastCall();
-    mockPointHandler.report(ReportPoint.newBuilder().setTable("dummy").
-        setMetric("metric4.test").setHost("test3").setTimestamp((startTime + 2) * 1000).setValue(2.0d).build());
+    // points received over HTTP are handed over in a single batch
+    mockPointHandler.reportBatch(ImmutableList.of(
+        ReportPoint.newBuilder().setTable("dummy").setMetric("metric4.test").setHost("test1").
+            setTimestamp(startTime * 1000).setValue(0.0d).build(),
+        ReportPoint.newBuilder().setTable("dummy").setMetric("metric4.test").setHost("test2").
+            setTimestamp((startTime + 1) * 1000).setValue(1.0d).build(),
+        ReportPoint.newBuilder().setTable("dummy").setMetric("metric4.test").setHost("test3").
+            setTimestamp((startTime + 2) * 1000).setValue(2.0d).build()));
     expectLastCall();
     replay(mockPointHandler);
 
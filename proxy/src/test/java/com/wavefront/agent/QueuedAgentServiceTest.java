@@ -6,7 +6,10 @@ import com.google.common.util.concurrent.RecyclableRateLimiter;
 import com.squareup.tape.TaskInjector;
 import com.wavefront.agent.QueuedAgentService.PostPushDataResultTask;
 import com.wavefront.agent.handlers.LineDelimitedUtils;
+import com.wavefront.agent.api.BinaryPushDataCodec;
+import com.wavefront.agent.api.PushDataPayload;
 import com.wavefront.agent.api.WavefrontV2API;
+import com.wavefront.api.agent.Constants;
 
 import net.jcip.annotations.NotThreadSafe;
 
@@ -17,20 +20,30 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ws.rs.core.Response;
 
 import io.netty.util.internal.StringUtil;
+import wavefront.report.ReportPoint;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -52,7 +65,7 @@ public class QueuedAgentServiceTest {
 
     int retryThreads = 1;
     QueuedAgentService.setMinSplitBatchSize(2);
-    queuedAgentService = new QueuedAgentService(mockAgentAPI, "unitTestBuffer", retryThreads,
+    queuedAgentService = new QueuedAgentService(mockAgentAPI, "unitTestBuffer", retryThreads, 4,
         Executors.newScheduledThreadPool(retryThreads + 1, new ThreadFactory() {
 
           private AtomicLong counter = new AtomicLong();
@@ -66,6 +79,94 @@ public class QueuedAgentServiceTest {
         }), true, newAgentId, false, (RecyclableRateLimiter) null, StringUtil.EMPTY_STRING);
     queuedAgentService.start();
   }
+
+  @Test
+  public void testCompletedTasksAreNotResentWhenWindowStops() throws Exception {
+    Map<String, AtomicInteger> accepted = new ConcurrentHashMap<>();
+    AtomicBoolean rejected = new AtomicBoolean();
+    WavefrontV2API api = (WavefrontV2API) Proxy.newProxyInstance(
+        WavefrontV2API.class.getClassLoader(), new Class<?>[] {WavefrontV2API.class},
+        (proxy, method, args) -> {
+          if (!method.getName().equals("proxyReport")) {
+            return Response.ok().build();
+          }
+          Object data = args[args.length - 1];
+          String pushData = data instanceof PushDataPayload ?
+              ((PushDataPayload) data).toPushDataString() : (String) data;
+          if (pushData.equals("metric 4") && rejected.compareAndSet(false, true)) {
+            return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+          }
+          accepted.computeIfAbsent(pushData, x -> new AtomicInteger()).incrementAndGet();
+          return Response.ok().build();
+        });
+    String bufferFile = Files.createTempDirectory("window").resolve("buffer").toString();
+    ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+    QueuedAgentService service = new QueuedAgentService(api, bufferFile, 1, 4, executor, true,
+        UUID.randomUUID(), false, null, null);
+    for (int i = 1; i <= 6; i++) {
+      service.proxyReport(null, "wavefront", "metric " + i, true);
+    }
+    // metric 1-3 grow the window to 3, metric 4 is rejected and stops the window,
+    // metric 5 and 6 are submitted together with it and succeed, they stay in the queue
+    // behind metric 4 until it's delivered
+    service.start();
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+    while (service.getQueuedTasksCount() > 0 && System.currentTimeMillis() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    service.shutdown();
+    executor.shutdownNow();
+    assertTrue(rejected.get());
+    assertEquals(0, service.getQueuedTasksCount());
+    assertEquals(6, accepted.size());
+    for (AtomicInteger count : accepted.values()) {
+      assertEquals(1, count.get());
+    }
+  }
+
+  @Test
+  public void testRateLimitedTaskKeepsItsPlaceInQueue() throws Exception {
+    List<String> accepted = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger rejections = new AtomicInteger(2);
+    WavefrontV2API api = (WavefrontV2API) Proxy.newProxyInstance(
+        WavefrontV2API.class.getClassLoader(), new Class<?>[] {WavefrontV2API.class},
+        (proxy, method, args) -> {
+          if (!method.getName().equals("proxyReport")) {
+            return Response.ok().build();
+          }
+          Object data = args[args.length - 1];
+          String pushData = data instanceof PushDataPayload ?
+              ((PushDataPayload) data).toPushDataString() : (String) data;
+          // HTTP 406: rate limited, the task stays at the head of the queue
+          if (pushData.equals("metric 4") && rejections.getAndDecrement() > 0) {
+            return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+          }
+          accepted.add(pushData);
+          return Response.ok().build();
+        });
+    String bufferFile = Files.createTempDirectory("window").resolve("buffer").toString();
+    ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+    QueuedAgentService service = new QueuedAgentService(api, bufferFile, 1, 4, executor, true,
+        UUID.randomUUID(), false, null, null);
+    for (int i = 1; i <= 10; i++) {
+      service.proxyReport(null, "wavefront", "metric " + i, true);
+    }
+    service.start();
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+    while (service.getQueuedTasksCount() > 0 && System.currentTimeMillis() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    service.shutdown();
+    executor.shutdownNow();
+    assertEquals(-1, rejections.get());
+    assertEquals(0, service.getQueuedTasksCount());
+    // tasks delivered in the same window as the rejected one are not re-sent, and the rejected
+    // task is retried before any task that was behind it in the queue
+    assertEquals(10, accepted.size());
+    assertEquals(10, new HashSet<>(accepted).size());
+    assertTrue(accepted.indexOf("metric 4") < accepted.indexOf("metric 10"));
+  }
+
   // post sourcetag metadata
 
   /**
@@ -584,6 +685,35 @@ public class QueuedAgentServiceTest {
 
   }
 
+  @Test
+  public void postPushDataResultTaskSplitsBinaryPayload() throws Exception {
+    UUID agentId = UUID.randomUUID();
+    long now = System.currentTimeMillis();
+    String format = BinaryPushDataCodec.binaryFormat(Constants.PUSH_FORMAT_WAVEFRONT);
+
+    List<ReportPoint> points = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      points.add(ReportPoint.newBuilder().setTable("dummy").setMetric("metric" + i).
+          setHost("host").setTimestamp(now).setValue(i * 1.0d).
+          setAnnotations(Collections.singletonMap("tag", "value")).build());
+    }
+    PostPushDataResultTask task = new PostPushDataResultTask(agentId, now, format,
+        BinaryPushDataCodec.POINTS.encode(points));
+
+    List<PostPushDataResultTask> splitTasks = task.splitTask();
+    assertEquals(2, splitTasks.size());
+    assertEquals(2, splitTasks.get(0).size());
+    assertEquals(3, splitTasks.get(1).size());
+    List<ReportPoint> decoded = new ArrayList<>();
+    for (PostPushDataResultTask splitTask : splitTasks) {
+      assertEquals(format, splitTask.getFormat());
+      byte[] payload = splitTask.getPayloadBytes();
+      decoded.addAll(BinaryPushDataCodec.POINTS.decode(
+          new PushDataPayload(payload, payload.length, splitTask.size(), false)));
+    }
+    assertEquals(points, decoded);
+  }
+
   @Test
   public void postPushDataResultTaskSplitsRoundsUpToLastElement() {
     /* its probably sufficient to test that all the points get included in the split
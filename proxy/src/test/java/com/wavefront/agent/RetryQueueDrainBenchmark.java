@@ -0,0 +1,161 @@
+package com.wavefront.agent;
+
+import com.sun.net.httpserver.HttpServer;
+import com.wavefront.agent.api.PushDataPayload;
+import com.wavefront.agent.api.WavefrontV2API;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Measures how long it takes to drain a retry queue backlog of 2000 tasks (100 points each) to a
+ * local stub server with a fixed 20ms response latency with a single retry thread, depending on
+ * the maximum number of in-flight submissions per queue.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.RetryQueueDrainBenchmark}
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RetryQueueDrainBenchmark {
+  private static final int TASKS = 2000;
+  private static final int POINTS_PER_TASK = 100;
+  private static final int SERVER_LATENCY_MILLIS = 20;
+
+  @Param({"1", "2", "4", "8", "16", "32"})
+  public int window;
+
+  private ExecutorService serverExecutor;
+  private HttpServer server;
+  private URL url;
+  private String pushData;
+  private ScheduledExecutorService executor;
+  private QueuedAgentService service;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    serverExecutor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(serverExecutor);
+    server.createContext("/report", exchange -> {
+      try (InputStream inputStream = exchange.getRequestBody()) {
+        byte[] buffer = new byte[8192];
+        //noinspection StatementWithEmptyBody
+        while (inputStream.read(buffer) != -1) {
+        }
+        TimeUnit.MILLISECONDS.sleep(SERVER_LATENCY_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+    url = new URL("http://localhost:" + server.getAddress().getPort() + "/report");
+
+    StringBuilder data = new StringBuilder();
+    for (int i = 0; i < POINTS_PER_TASK; i++) {
+      if (i > 0) data.append('\n');
+      data.append("request.count ").append(i).append(" 1574290124 source=app-1 env=prod");
+    }
+    pushData = data.toString();
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() {
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Setup(Level.Iteration)
+  public void fillQueue() throws Exception {
+    String bufferFile = Files.createTempDirectory("drain").resolve("buffer").toString();
+    executor = Executors.newScheduledThreadPool(2);
+    service = new QueuedAgentService(stubApi(url), bufferFile, 1, window, executor, true,
+        UUID.randomUUID(), false, null, null);
+    for (int i = 0; i < TASKS; i++) {
+      service.proxyReport(null, "wavefront", pushData, true);
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void shutdownService() {
+    service.shutdown();
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public void drain() throws InterruptedException {
+    service.start();
+    while (service.getQueuedTasksCount() > 0) {
+      TimeUnit.MILLISECONDS.sleep(1);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().
+        include(RetryQueueDrainBenchmark.class.getSimpleName()).
+        build();
+    new Runner(options).run();
+  }
+
+  /**
+   * @return API stub that posts push data to the specified URL and returns everything else as OK.
+   */
+  private static WavefrontV2API stubApi(URL url) {
+    return (WavefrontV2API) Proxy.newProxyInstance(WavefrontV2API.class.getClassLoader(),
+        new Class<?>[] {WavefrontV2API.class}, (proxy, method, args) -> {
+          if (!method.getName().equals("proxyReport")) {
+            return Response.ok().build();
+          }
+          HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+          connection.setDoOutput(true);
+          connection.setRequestMethod("POST");
+          try (OutputStream outputStream = connection.getOutputStream()) {
+            Object pushData = args[args.length - 1];
+            if (pushData instanceof PushDataPayload) {
+              ((PushDataPayload) pushData).writeTo(outputStream);
+            } else {
+              outputStream.write(((String) pushData).getBytes(StandardCharsets.UTF_8));
+            }
+          }
+          int status = connection.getResponseCode();
+          connection.disconnect();
+          return Response.status(status).build();
+        });
+  }
+}
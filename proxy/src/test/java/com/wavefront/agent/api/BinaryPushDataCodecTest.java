@@ -0,0 +1,148 @@
+package com.wavefront.agent.api;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import wavefront.report.ReportPoint;
+import wavefront.report.Span;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryPushDataCodecTest {
+  private static final int MAGIC = ('W' << 24) | ('F' << 16) | ('B' << 8) | 1;
+  private static final long POINT_FINGERPRINT =
+      SchemaNormalization.parsingFingerprint64(ReportPoint.getClassSchema());
+
+  private final List<ReportPoint> points = ImmutableList.of(ReportPoint.newBuilder().
+      setTable("dummy").setMetric("metric.name").setHost("host").setTimestamp(1574290124000L).
+      setValue(1.0d).setAnnotations(ImmutableMap.of("tag", "value")).build());
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    assertEquals(points, BinaryPushDataCodec.POINTS.decode(
+        BinaryPushDataCodec.POINTS.encode(points)));
+  }
+
+  @Test
+  public void testRejectsInvalidLengths() {
+    assertRejected(payload(1, POINT_FINGERPRINT, Integer.MAX_VALUE, new byte[0]));
+    assertRejected(payload(1, POINT_FINGERPRINT, -1, new byte[0]));
+    assertRejected(payload(Integer.MAX_VALUE, POINT_FINGERPRINT, 0, new byte[0]));
+    assertRejected(payload(-1, POINT_FINGERPRINT, 0, new byte[0]));
+  }
+
+  @Test
+  public void testRejectsHugeDeclaredLengths() throws Exception {
+    byte[] schema = ReportPoint.getClassSchema().toString().getBytes(StandardCharsets.UTF_8);
+    // a record with a 1GB metric name
+    byte[] payload = payload(1, POINT_FINGERPRINT, schema.length, schema, longs(1L << 30));
+    assertTrue(payload.length < 4096);
+    assertRejected(payload);
+    assertRejected(payload(1, POINT_FINGERPRINT, schema.length, schema, longs(-2)));
+  }
+
+  @Test
+  public void testBoundedDecoderRejectsHugeCounts() throws Exception {
+    byte[] data = longs(3, 1L << 30, 1L << 30, 1L << 30, 1L << 30, 1L << 30);
+    BinaryPushDataCodec.BoundedDecoder decoder = new BinaryPushDataCodec.BoundedDecoder(
+        new ByteArrayInputStream(data), data.length);
+    assertEquals(3, decoder.readArrayStart());
+    try {
+      decoder.arrayNext();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    for (ThrowingRunnable read : ImmutableList.<ThrowingRunnable>of(decoder::readMapStart,
+        decoder::readString, () -> decoder.readString(null), () -> decoder.readBytes(null))) {
+      try {
+        read.run();
+        fail();
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testRejectsSchemaFingerprintMismatch() throws Exception {
+    byte[] spanSchema = Span.getClassSchema().toString().getBytes(StandardCharsets.UTF_8);
+    // known fingerprint, different schema
+    assertRejected(payload(1, POINT_FINGERPRINT, spanSchema.length, spanSchema));
+    // unknown fingerprint
+    assertRejected(payload(1, POINT_FINGERPRINT + 1, spanSchema.length, spanSchema));
+    assertRejected(payload(1, POINT_FINGERPRINT + 1, 2, "{}".getBytes(StandardCharsets.UTF_8)));
+    // valid payloads are not affected
+    assertEquals(points, BinaryPushDataCodec.POINTS.decode(
+        BinaryPushDataCodec.POINTS.encode(points)));
+  }
+
+  private static void assertRejected(byte[] payload) {
+    try {
+      BinaryPushDataCodec.POINTS.decode(new ByteArrayInputStream(payload), payload.length,
+          x -> fail());
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private static byte[] payload(int count, long fingerprint, int schemaLength, byte[] schema) {
+    return payload(count, fingerprint, schemaLength, schema, new byte[0]);
+  }
+
+  private static byte[] payload(int count, long fingerprint, int schemaLength, byte[] schema,
+                                byte[] records) {
+    try {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      DataOutputStream header = new DataOutputStream(outputStream);
+      header.writeInt(MAGIC);
+      header.writeInt(count);
+      header.writeLong(fingerprint);
+      header.flush();
+      LZ4BlockOutputStream lz4OutputStream = new LZ4BlockOutputStream(outputStream);
+      DataOutputStream body = new DataOutputStream(lz4OutputStream);
+      body.writeInt(schemaLength);
+      body.write(schema);
+      body.write(records);
+      body.flush();
+      lz4OutputStream.close();
+      return outputStream.toByteArray();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Avro-encode a sequence of longs (lengths and counts are all variable-length zig-zag ints).
+   */
+  private static byte[] longs(long... values) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(outputStream, null);
+    for (long value : values) {
+      encoder.writeLong(value);
+    }
+    encoder.flush();
+    return outputStream.toByteArray();
+  }
+
+  private interface ThrowingRunnable {
+    void run() throws IOException;
+  }
+}
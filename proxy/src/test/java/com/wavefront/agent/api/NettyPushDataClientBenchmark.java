@@ -0,0 +1,111 @@
+package com.wavefront.agent.api;
+
+import com.google.common.io.ByteStreams;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares batch throughput of a single sender thread waiting for every round trip (which is
+ * what synchronous submission amounts to) with keeping several batches in flight, against a
+ * local stub server that takes 5ms to respond.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.api.NettyPushDataClientBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NettyPushDataClientBenchmark {
+  private static final int BATCHES = 16;
+
+  private final UUID proxyId = UUID.randomUUID();
+  private ExecutorService serverExecutor;
+  private HttpServer server;
+  private NettyPushDataClient client;
+  private PushDataPayload payload;
+
+  @Setup
+  public void setup() throws Exception {
+    serverExecutor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(serverExecutor);
+    server.createContext("/api/v2/wfproxy/report", exchange -> {
+      ByteStreams.exhaust(exchange.getRequestBody());
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException e) {
+        // ignore
+      }
+      exchange.sendResponseHeaders(202, -1);
+      exchange.close();
+    });
+    server.start();
+    client = new NettyPushDataClient("http://localhost:" + server.getAddress().getPort() +
+        "/api/", "token", "benchmark", 4, 5000, 10000);
+    StringBuilder pushData = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      pushData.append("request.count ").append(i).append(" 1574290124 source=app env=prod\n");
+    }
+    byte[] data = pushData.toString().getBytes(StandardCharsets.UTF_8);
+    payload = new PushDataPayload(data, data.length, 1000, false);
+  }
+
+  @TearDown
+  public void teardown() {
+    client.shutdown();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCHES)
+  public void oneAtATime() {
+    for (int i = 0; i < BATCHES; i++) {
+      client.proxyReport(proxyId, "wavefront", payload).join();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCHES)
+  public void inFlight() {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[BATCHES];
+    for (int i = 0; i < BATCHES; i++) {
+      futures[i] = client.proxyReport(proxyId, "wavefront", payload);
+    }
+    CompletableFuture.allOf(futures).join();
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().
+        include(NettyPushDataClientBenchmark.class.getSimpleName()).
+        build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,180 @@
+package com.wavefront.agent.api;
+
+import com.google.common.io.ByteStreams;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link NettyPushDataClient} against a local stub server.
+ */
+public class NettyPushDataClientTest {
+  private final UUID proxyId = UUID.randomUUID();
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger maxActive = new AtomicInteger();
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+  private final List<String> received = new ArrayList<>();
+  private final List<String> contentHeaders = new ArrayList<>();
+  private volatile int responseStatus = 202;
+  private volatile long responseDelayMillis = 20;
+  private volatile String responseBody = null;
+
+  private ExecutorService serverExecutor;
+  private HttpServer server;
+  private NettyPushDataClient client;
+
+  @Before
+  public void setup() throws Exception {
+    serverExecutor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(serverExecutor);
+    server.createContext("/api/v2/wfproxy/report", exchange -> {
+      maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+      try {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        String body = new String(ByteStreams.toByteArray(exchange.getRequestBody()),
+            StandardCharsets.UTF_8);
+        synchronized (received) {
+          received.add(exchange.getRequestURI().getQuery() + "|" +
+              exchange.getRequestHeaders().getFirst("Authorization") + "|" +
+              exchange.getRequestHeaders().getFirst("X-WF-PROXY-ID") + "|" + body);
+          contentHeaders.add(exchange.getRequestHeaders().getFirst("Content-Type") + "|" +
+              exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        }
+        Thread.sleep(responseDelayMillis);
+      } catch (InterruptedException e) {
+        // ignore
+      } finally {
+        active.decrementAndGet();
+      }
+      if (responseBody == null) {
+        exchange.sendResponseHeaders(responseStatus, -1);
+      } else {
+        byte[] bytes = responseBody.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(responseStatus, bytes.length);
+        exchange.getResponseBody().write(bytes);
+      }
+      exchange.close();
+    });
+    server.start();
+    client = new NettyPushDataClient("http://localhost:" + server.getAddress().getPort() +
+        "/api/", "token", "test-agent", 2, 5000, 1000);
+  }
+
+  @After
+  public void teardown() {
+    client.shutdown();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testRequestsShareConnectionPool() throws Exception {
+    List<CompletableFuture<Response>> futures = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      futures.add(client.proxyReport(proxyId, "wavefront", payload("metric " + i)));
+    }
+    for (CompletableFuture<Response> future : futures) {
+      assertEquals(202, future.get(10, TimeUnit.SECONDS).getStatus());
+    }
+    assertEquals(20, received.size());
+    assertTrue(received.contains("format=wavefront|Bearer token|" + proxyId + "|metric 7"));
+    assertEquals(2, maxActive.get());
+    assertTrue("Connections used: " + clientPorts, clientPorts.size() <= 2);
+  }
+
+  @Test
+  public void testContentHeaders() throws Exception {
+    // only the used part of the backing array is sent
+    byte[] data = "metric 1\nunused".getBytes(StandardCharsets.UTF_8);
+    client.proxyReport(proxyId, "wavefront", new PushDataPayload(data, 8, 1, false)).
+        get(10, TimeUnit.SECONDS);
+    client.proxyReport(proxyId, "wavefront", new PushDataPayload(data, 8, 1, true)).
+        get(10, TimeUnit.SECONDS);
+    client.proxyReport(proxyId, "wavefront-binary", new PushDataPayload(data, 8, 1, false)).
+        get(10, TimeUnit.SECONDS);
+    assertEquals("format=wavefront|Bearer token|" + proxyId + "|metric 1", received.get(0));
+    assertEquals("text/plain|null", contentHeaders.get(0));
+    assertEquals("text/plain|gzip", contentHeaders.get(1));
+    assertEquals("application/octet-stream|null", contentHeaders.get(2));
+  }
+
+  @Test
+  public void testErrorStatus() throws Exception {
+    responseStatus = 413;
+    assertEquals(413, client.proxyReport(proxyId, "wavefront", payload("metric 1")).
+        get(10, TimeUnit.SECONDS).getStatus());
+  }
+
+  @Test
+  public void testResponseBodyIsReadable() throws Exception {
+    responseStatus = 407;
+    responseBody = "{\"code\":407}";
+    Response response = client.proxyReport(proxyId, "wavefront", payload("metric 1")).
+        get(10, TimeUnit.SECONDS);
+    assertEquals(407, response.getStatus());
+    assertEquals("application/json", response.getHeaderString("content-type"));
+    assertEquals("{\"code\":407}", response.readEntity(String.class));
+  }
+
+  @Test
+  public void testRequestTimeoutIncludesWaitingForConnection() throws Exception {
+    // 2 connections: the last two requests can't finish before their deadline
+    responseDelayMillis = 800;
+    List<CompletableFuture<Response>> futures = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      futures.add(client.proxyReport(proxyId, "wavefront", payload("metric " + i)));
+    }
+    int timedOut = 0;
+    for (CompletableFuture<Response> future : futures) {
+      try {
+        assertEquals(202, future.get(10, TimeUnit.SECONDS).getStatus());
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof TimeoutException);
+        timedOut++;
+      }
+    }
+    assertEquals(2, timedOut);
+  }
+
+  @Test
+  public void testRequestTimeout() throws Exception {
+    responseDelayMillis = 3000;
+    try {
+      client.proxyReport(proxyId, "wavefront", payload("metric 1")).get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+  }
+
+  private static PushDataPayload payload(String pushData) {
+    byte[] data = pushData.getBytes(StandardCharsets.UTF_8);
+    return new PushDataPayload(data, data.length, 1, false);
+  }
+}
@@ -22,7 +22,7 @@ public class HttpGetTokenIntrospectionAuthenticatorTest {
     HttpClient client = EasyMock.createMock(HttpClient.class);
     AtomicLong fakeClock = new AtomicLong(1_000_000);
     TokenAuthenticator authenticator = new HttpGetTokenIntrospectionAuthenticator(client,
-        "http://acme.corp/{{token}}/something", null, 300, 600, fakeClock::get);
+        "http://acme.corp/{{token}}/something", null, 300, 600, 4, fakeClock::get);
 
     String uuid = UUID.randomUUID().toString();
     EasyMock.expect(client.execute(httpEq(new HttpGet("http://acme.corp/" + uuid + "/something")))).
@@ -62,7 +62,7 @@ public class HttpGetTokenIntrospectionAuthenticatorTest {
     HttpClient client = EasyMock.createMock(HttpClient.class);
     AtomicLong fakeClock = new AtomicLong(1_000_000);
     TokenAuthenticator authenticator = new HttpGetTokenIntrospectionAuthenticator(client,
-        "http://acme.corp/{{token}}/something", null, 300, 600, fakeClock::get);
+        "http://acme.corp/{{token}}/something", null, 300, 600, 4, fakeClock::get);
 
     String uuid = UUID.randomUUID().toString();
     EasyMock.expect(client.execute(httpEq(new HttpGet("http://acme.corp/" + uuid + "/something")))).
@@ -27,7 +27,7 @@ public class Oauth2TokenIntrospectionAuthenticatorTest {
 
     AtomicLong fakeClock = new AtomicLong(1_000_000);
     TokenAuthenticator authenticator = new Oauth2TokenIntrospectionAuthenticator(client,
-        "http://acme.corp/oauth", null, 300, 600, fakeClock::get);
+        "http://acme.corp/oauth", null, 300, 600, 4, fakeClock::get);
 
     String uuid = UUID.randomUUID().toString();
 
@@ -78,7 +78,7 @@ public class Oauth2TokenIntrospectionAuthenticatorTest {
     HttpClient client = EasyMock.createMock(HttpClient.class);
     AtomicLong fakeClock = new AtomicLong(1_000_000);
     TokenAuthenticator authenticator = new Oauth2TokenIntrospectionAuthenticator(client,
-        "http://acme.corp/oauth", null, 300, 600, fakeClock::get);
+        "http://acme.corp/oauth", null, 300, 600, 4, fakeClock::get);
 
     String uuid = UUID.randomUUID().toString();
 
@@ -0,0 +1,105 @@
+package com.wavefront.agent.auth;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenIntrospectionAuthenticatorTest {
+
+  @Test
+  public void testConcurrentValidationsAreCoalesced() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    StubAuthenticator authenticator = new StubAuthenticator(4, release);
+
+    CompletableFuture<Boolean> first = authenticator.authorizeAsync("valid-token");
+    CompletableFuture<Boolean> second = authenticator.authorizeAsync("valid-token");
+    CompletableFuture<Boolean> third = authenticator.authorizeAsync("invalid-token");
+    // callers are not blocked while the service is stalled
+    assertFalse(first.isDone());
+    assertFalse(second.isDone());
+    assertFalse(third.isDone());
+
+    release.countDown();
+    assertTrue(first.get(10, TimeUnit.SECONDS));
+    assertTrue(second.get(10, TimeUnit.SECONDS));
+    assertFalse(third.get(10, TimeUnit.SECONDS));
+    assertEquals(2, authenticator.calls.get());
+
+    // cached, completes right away
+    assertTrue(authenticator.authorizeAsync("valid-token").isDone());
+    assertTrue(authenticator.authorize("valid-token"));
+    assertFalse(authenticator.authorizeAsync(null).get());
+    assertEquals(2, authenticator.calls.get());
+    authenticator.close();
+  }
+
+  @Test
+  public void testConcurrencyIsBounded() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    StubAuthenticator authenticator = new StubAuthenticator(2, release);
+
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[10];
+    for (int i = 0; i < futures.length; i++) {
+      futures[i] = authenticator.authorizeAsync("valid-token" + i);
+    }
+    assertTrue(authenticator.started.await(10, TimeUnit.SECONDS));
+    assertEquals(2, authenticator.active.get());
+    assertEquals(10, authenticator.getPendingCalls());
+    release.countDown();
+    CompletableFuture.allOf(futures).get(10, TimeUnit.SECONDS);
+    assertEquals(10, authenticator.calls.get());
+    assertEquals(2, authenticator.maxActive.get());
+    assertEquals(0, authenticator.getPendingCalls());
+    authenticator.close();
+  }
+
+  @Test
+  public void testCloseStopsServiceCalls() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    StubAuthenticator authenticator = new StubAuthenticator(1, release);
+    CompletableFuture<Boolean> pending = authenticator.authorizeAsync("valid-token");
+    assertTrue(authenticator.started.await(10, TimeUnit.SECONDS));
+
+    // the thread waiting on the stalled service call is interrupted
+    authenticator.close();
+    assertFalse(pending.get(10, TimeUnit.SECONDS));
+    assertEquals(1, release.getCount());
+  }
+
+  private static class StubAuthenticator extends TokenIntrospectionAuthenticator {
+    private final CountDownLatch release;
+    final CountDownLatch started;
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger maxActive = new AtomicInteger();
+
+    StubAuthenticator(int maxConcurrentRequests, CountDownLatch release) {
+      super(300, 600, maxConcurrentRequests, new AtomicLong(1_000_000)::get);
+      this.release = release;
+      this.started = new CountDownLatch(maxConcurrentRequests);
+    }
+
+    @Override
+    boolean callAuthService(@Nonnull String token) throws Exception {
+      calls.incrementAndGet();
+      maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+      started.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } finally {
+        active.decrementAndGet();
+      }
+      return token.startsWith("valid-token");
+    }
+  }
+}
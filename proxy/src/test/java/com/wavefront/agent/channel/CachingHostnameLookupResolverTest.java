@@ -0,0 +1,91 @@
+package com.wavefront.agent.channel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachingHostnameLookupResolverTest {
+  private Queue<Runnable> tasks;
+  private Executor executor;
+  private AtomicInteger lookups;
+
+  @Before
+  public void setup() {
+    tasks = new ArrayDeque<>();
+    executor = tasks::add;
+    lookups = new AtomicInteger();
+  }
+
+  @Test
+  public void testReturnsAddressWhileLookupIsPending() throws Exception {
+    InetAddress addr = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    CachingHostnameLookupResolver resolver = resolver(x -> {
+      lookups.incrementAndGet();
+      return "host1.example.com";
+    });
+    assertEquals("10.0.0.1", resolver.apply(addr));
+    assertEquals("10.0.0.1", resolver.apply(addr));
+    runTasks();
+    assertEquals("host1.example.com", resolver.apply(addr));
+    assertEquals("host1.example.com", resolver.apply(addr));
+    // concurrent requests for the same address are coalesced into a single lookup
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  public void testFailedLookupsAreCached() throws Exception {
+    InetAddress addr = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+    CachingHostnameLookupResolver resolver = resolver(x -> {
+      lookups.incrementAndGet();
+      return x.getHostAddress();
+    });
+    assertEquals("10.0.0.2", resolver.apply(addr));
+    runTasks();
+    assertEquals("10.0.0.2", resolver.apply(addr));
+    assertEquals("10.0.0.2", resolver.apply(addr));
+    runTasks();
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  public void testLookupExceptionIsTreatedAsFailure() throws Exception {
+    InetAddress addr = InetAddress.getByAddress(new byte[] {10, 0, 0, 3});
+    CachingHostnameLookupResolver resolver = resolver(x -> {
+      lookups.incrementAndGet();
+      throw new SecurityException();
+    });
+    assertEquals("10.0.0.3", resolver.apply(addr));
+    runTasks();
+    assertEquals("10.0.0.3", resolver.apply(addr));
+    runTasks();
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  public void testDisabledLookup() throws Exception {
+    InetAddress addr = InetAddress.getByAddress(new byte[] {10, 0, 0, 4});
+    CachingHostnameLookupResolver resolver = new CachingHostnameLookupResolver(true, null);
+    assertEquals("10.0.0.4", resolver.apply(addr));
+  }
+
+  private CachingHostnameLookupResolver resolver(Function<InetAddress, String> lookup) {
+    return new CachingHostnameLookupResolver(false, null, 100, Duration.ofMinutes(5),
+        Duration.ofHours(1), Duration.ofMinutes(1), lookup, executor);
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      task.run();
+    }
+  }
+}
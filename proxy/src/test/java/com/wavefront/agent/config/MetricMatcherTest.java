@@ -0,0 +1,30 @@
+package com.wavefront.agent.config;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MetricMatcherTest {
+
+  @Test
+  public void testRequiredLiteral() {
+    assertEquals("operation ", MetricMatcher.requiredLiteral("operation %{WORD:op} took"));
+    assertEquals(" succeeded in ", MetricMatcher.requiredLiteral(
+        "op %{WORD:op} succeeded in %{NUMBER:value} ms"));
+    assertEquals("[metrics] ", MetricMatcher.requiredLiteral("\\[metrics\\] %{GREEDYDATA:x}"));
+    // characters made optional by quantifiers are excluded
+    assertEquals("request", MetricMatcher.requiredLiteral("requests? %{NUMBER:value}"));
+    assertEquals("abc", MetricMatcher.requiredLiteral("abcd{0,1}%{NUMBER:value}"));
+    assertEquals("bc", MetricMatcher.requiredLiteral("a*bc%{NUMBER:value}"));
+    // text inside groups and character classes is not required
+    assertEquals("total", MetricMatcher.requiredLiteral("(?:foo|bar)[a-z]+total"));
+    assertEquals(" ms", MetricMatcher.requiredLiteral("\\d+ ms"));
+    // patterns without a usable literal
+    assertNull(MetricMatcher.requiredLiteral("%{NUMBER:value}"));
+    assertNull(MetricMatcher.requiredLiteral("a%{NUMBER:value}"));
+    assertNull(MetricMatcher.requiredLiteral("foo|bar"));
+    assertNull(MetricMatcher.requiredLiteral("(?i)operation %{WORD:op}"));
+    assertNull(MetricMatcher.requiredLiteral("\\Qoperation\\E %{WORD:op}"));
+  }
+}
@@ -0,0 +1,65 @@
+package com.wavefront.agent.handlers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveFlushControllerTest {
+
+  @Test
+  public void testFlushInterval() {
+    AdaptiveFlushController controller = new AdaptiveFlushController(100, 5000, 2000);
+    // backlog: flush as soon as possible
+    assertEquals(100, controller.nextFlushDelay(1000, 1000, 1000, 5000));
+    assertEquals(100, controller.getCurrentIntervalMillis());
+    // steady load: converge back to the configured interval
+    assertEquals(550, controller.nextFlushDelay(1000, 1000, 500, 0));
+    assertEquals(775, controller.nextFlushDelay(1000, 1000, 500, 0));
+    // low load: back off up to the max interval
+    assertEquals(1500, controller.nextFlushDelay(1000, 1000, 0, 0));
+    assertEquals(2250, controller.nextFlushDelay(1000, 1000, 50, 0));
+    assertEquals(3375, controller.nextFlushDelay(1000, 1000, 0, 0));
+    assertEquals(5000, controller.nextFlushDelay(1000, 1000, 0, 0));
+    assertEquals(5000, controller.nextFlushDelay(1000, 1000, 0, 0));
+    assertEquals(3000, controller.nextFlushDelay(1000, 1000, 500, 0));
+    // configured interval outside of min/max range
+    assertEquals(5000, new AdaptiveFlushController(100, 5000, 2000).
+        nextFlushDelay(10000, 1000, 500, 0));
+  }
+
+  @Test
+  public void testPushback() {
+    AdaptiveFlushController controller = new AdaptiveFlushController(100, 5000, 2000);
+    assertEquals(1000, controller.getBatchSize(1000));
+    controller.onResponse(10, true);
+    assertEquals(500, controller.getBatchSize(1000));
+    assertEquals(500, controller.getCurrentBatchSize());
+    // pushback takes precedence over the backlog
+    assertEquals(2000, controller.nextFlushDelay(1000, 500, 500, 10000));
+    assertEquals(100, controller.nextFlushDelay(1000, 500, 500, 10000));
+    for (int i = 0; i < 10; i++) {
+      controller.onResponse(10, true);
+    }
+    assertEquals(50, controller.getBatchSize(1000));
+    assertEquals(1, controller.getBatchSize(10));
+  }
+
+  @Test
+  public void testLatency() {
+    AdaptiveFlushController controller = new AdaptiveFlushController(100, 5000, 2000);
+    controller.onResponse(3000, false);
+    assertEquals(750, controller.getBatchSize(1000));
+    controller.onResponse(3000, false);
+    assertEquals(562, controller.getBatchSize(1000));
+    // within target latency: no change
+    controller.onResponse(1500, false);
+    assertEquals(562, controller.getBatchSize(1000));
+    // well within target latency: grow back up to the max batch size
+    controller.onResponse(500, false);
+    assertEquals(662, controller.getBatchSize(1000));
+    for (int i = 0; i < 10; i++) {
+      controller.onResponse(500, false);
+    }
+    assertEquals(1000, controller.getBatchSize(1000));
+  }
+}
@@ -0,0 +1,89 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.wavefront.agent.api.BinaryPushDataCodec;
+import com.wavefront.agent.api.PushDataPayload;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import wavefront.report.Annotation;
+import wavefront.report.Histogram;
+import wavefront.report.ReportPoint;
+import wavefront.report.Span;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class BinaryPushDataPayloadBuilderTest {
+
+  @Test
+  public void testPoints() throws Exception {
+    PushDataPayload payload = BinaryPushDataPayloadBuilder.forPoints().build(ImmutableList.of(
+        "\"metric.name\" 1.0 1574290124 source=\"host\" \"tag\"=\"value\"",
+        "\"metric.name\" 2.5 1574290125 source=\"host2\""));
+    assertEquals(2, payload.getLineCount());
+    assertFalse(payload.isCompressed());
+    assertEquals(ImmutableList.of(
+        ReportPoint.newBuilder().setTable("dummy").setMetric("metric.name").setHost("host").
+            setTimestamp(1574290124000L).setValue(1.0d).
+            setAnnotations(ImmutableMap.of("tag", "value")).build(),
+        ReportPoint.newBuilder().setTable("dummy").setMetric("metric.name").setHost("host2").
+            setTimestamp(1574290125000L).setValue(2.5d).setAnnotations(ImmutableMap.of()).build()),
+        BinaryPushDataCodec.POINTS.decode(payload));
+  }
+
+  @Test
+  public void testRecordsAreEncodedAsIs() throws Exception {
+    ReportPoint point = ReportPoint.newBuilder().setTable("dummy").setMetric("metric.name").
+        setHost("host").setTimestamp(1574290124000L).setValue(1.0d).
+        setAnnotations(ImmutableMap.of("tag", "value")).build();
+    String line = "\"metric.name\" 2.5 1574290125 source=\"host2\"";
+    BinaryPushDataPayloadBuilder<ReportPoint> builder = BinaryPushDataPayloadBuilder.forPoints();
+    List<Object> items = ImmutableList.of(point, line);
+    List<ReportPoint> points = BinaryPushDataCodec.POINTS.decode(builder.build(items));
+    assertEquals(2, points.size());
+    assertEquals(point, points.get(0));
+    assertEquals("host2", points.get(1).getHost());
+    assertEquals(ImmutableList.of(
+        "\"metric.name\" 1.0 1574290124 source=\"host\" \"tag\"=\"value\"", line),
+        builder.toLines(items));
+  }
+
+  @Test
+  public void testHistograms() throws Exception {
+    PushDataPayload payload = BinaryPushDataPayloadBuilder.forHistograms().build(ImmutableList.of(
+        "!M 1574290080 #5 10.0 #10 100.0 \"metric.histo\" source=\"host\""));
+    List<ReportPoint> points = BinaryPushDataCodec.POINTS.decode(payload);
+    assertEquals(1, points.size());
+    assertEquals("metric.histo", points.get(0).getMetric());
+    Histogram histogram = (Histogram) points.get(0).getValue();
+    assertEquals(60000, (int) histogram.getDuration());
+    assertEquals(ImmutableList.of(10.0d, 100.0d), histogram.getBins());
+    assertEquals(ImmutableList.of(5, 10), histogram.getCounts());
+  }
+
+  @Test
+  public void testSpans() throws Exception {
+    String traceId = UUID.randomUUID().toString();
+    PushDataPayload payload = BinaryPushDataPayloadBuilder.forSpans().build(ImmutableList.of(
+        "testSpanName source=testsource spanId=testspanid traceId=\"" + traceId +
+            "\" parent=parent1 1574290124000 1000"));
+    assertEquals(ImmutableList.of(Span.newBuilder().setCustomer("dummy").
+            setStartMillis(1574290124000L).setDuration(1000).setName("testSpanName").
+            setSource("testsource").setSpanId("testspanid").setTraceId(traceId).
+            setAnnotations(ImmutableList.of(new Annotation("parent", "parent1"))).build()),
+        BinaryPushDataCodec.SPANS.decode(payload));
+  }
+
+  @Test
+  public void testFallsBackToTextOnUnparseableLines() {
+    assertNull(BinaryPushDataPayloadBuilder.forPoints().build(ImmutableList.of(
+        "\"metric.name\" 1.0 1574290124 source=\"host\"", "not a point")));
+  }
+}
@@ -0,0 +1,84 @@
+package com.wavefront.agent.handlers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static com.wavefront.agent.handlers.LineDelimitedUtils.splitPushData;
+
+/**
+ * Compares splitting a 16MB relay payload by decoding the whole request body into a String and
+ * splitting it into an array up front (previous implementation) with lazily decoding lines
+ * straight from the request buffer. Run with {@code -prof gc} to compare allocation rates.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.handlers.LineDelimitedUtilsBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Thread)
+public class LineDelimitedUtilsBenchmark {
+  private static final int PAYLOAD_SIZE = 16 * 1024 * 1024;
+
+  private ByteBuf content;
+
+  @Setup
+  public void setup() {
+    StringBuilder payload = new StringBuilder(PAYLOAD_SIZE + 256);
+    int i = 0;
+    while (payload.length() < PAYLOAD_SIZE) {
+      payload.append("request.count ").append(i % 1000).append(" 1574290124 source=app-").
+          append(i % 100).append(" env=prod dc=us-west-2 service=checkout\n");
+      i++;
+    }
+    content = Unpooled.directBuffer(PAYLOAD_SIZE + 256).writeBytes(
+        payload.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @TearDown
+  public void teardown() {
+    content.release();
+  }
+
+  @Benchmark
+  public void splitString(Blackhole blackhole) {
+    for (String line : splitPushData(content.toString(StandardCharsets.UTF_8))) {
+      blackhole.consume(line.trim());
+    }
+  }
+
+  @Benchmark
+  public void splitBuffer(Blackhole blackhole) {
+    for (String line : splitPushData(content)) {
+      blackhole.consume(line);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().
+        include(LineDelimitedUtilsBenchmark.class.getSimpleName()).
+        build();
+    new Runner(options).run();
+  }
+}
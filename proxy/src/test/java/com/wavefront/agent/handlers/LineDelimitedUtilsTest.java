@@ -0,0 +1,81 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static com.wavefront.agent.handlers.LineDelimitedUtils.countLines;
+import static com.wavefront.agent.handlers.LineDelimitedUtils.splitPushData;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class LineDelimitedUtilsTest {
+
+  @Test
+  public void testSplitBufferSameAsString() {
+    for (String payload : ImmutableList.of("", "\n", "\n\n\n", "metric 1", "metric 1\n",
+        "\nmetric 1\n\nmetric 2", "metric 1\r\nmetric 2\r\n", "  metric 1  \n \t \nmetric 2",
+        "metric.\u00e9\u4e2d 1 source=\u00fc\n\u00e9 2")) {
+      List<String> expected = Arrays.stream(splitPushData(payload)).map(String::trim).
+          collect(Collectors.toList());
+      ByteBuf buffer = Unpooled.copiedBuffer(payload, StandardCharsets.UTF_8);
+      assertEquals(expected, Lists.newArrayList(splitPushData(buffer)));
+      // can be iterated more than once, the buffer is left intact
+      assertEquals(expected, Lists.newArrayList(splitPushData(buffer)));
+      assertEquals(payload.getBytes(StandardCharsets.UTF_8).length, buffer.readableBytes());
+      // untrimmed lines are the same as with the string version
+      assertEquals(Arrays.asList(splitPushData(payload)),
+          Lists.newArrayList(splitPushData(buffer, false)));
+      assertEquals(expected.size(), countLines(buffer));
+    }
+  }
+
+  @Test
+  public void testCountLinesRespectsReaderIndex() {
+    ByteBuf buffer = Unpooled.copiedBuffer("skipped
+metric 1
+
+metric 2
+", StandardCharsets.UTF_8);
+    buffer.readerIndex(8);
+    assertEquals(2, countLines(buffer));
+    buffer.readerIndex(7);
+    assertEquals(2, countLines(buffer));
+    buffer.readerIndex(3);
+    assertEquals(3, countLines(buffer));
+  }
+
+  @Test
+  public void testSplitBufferRespectsReaderIndex() {
+    ByteBuf buffer = Unpooled.copiedBuffer("skipped\nmetric 1\nmetric 2", StandardCharsets.UTF_8);
+    buffer.readerIndex(8);
+    assertEquals(ImmutableList.of("metric 1", "metric 2"),
+        Lists.newArrayList(splitPushData(buffer)));
+  }
+
+  @Test
+  public void testSplitBufferIterator() {
+    Iterator<String> iterator = splitPushData(
+        Unpooled.copiedBuffer("metric 1\n\n", StandardCharsets.UTF_8)).iterator();
+    assertEquals("metric 1", iterator.next());
+    assertFalse(iterator.hasNext());
+    try {
+      iterator.next();
+      fail();
+    } catch (NoSuchElementException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.collect.ImmutableList;
+import com.wavefront.data.Validation;
+import com.wavefront.ingester.GraphiteDecoder;
+import com.wavefront.ingester.ReportPointSerializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import wavefront.report.ReportPoint;
+
+import static com.wavefront.data.Validation.validatePoint;
+
+/**
+ * Compares handling typical wavefront-format point lines by decoding them into ReportPoint
+ * objects, validating and serializing them again (regular path) with validating and
+ * canonicalizing them in a single scan (pass-through path). Run with {@code -prof gc} to compare
+ * allocation rates.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.handlers.PointLineValidatorBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PointLineValidatorBenchmark {
+  private static final int LINES = 10_000;
+
+  private final GraphiteDecoder decoder = new GraphiteDecoder("unknown", ImmutableList.of());
+  private final ReportPointSerializer serializer = new ReportPointSerializer();
+  private final long[] timestampHolder = new long[1];
+  private List<String> lines;
+
+  @Setup
+  public void setup() {
+    lines = new ArrayList<>(LINES);
+    for (int i = 0; i < LINES; i++) {
+      lines.add("request.count " + (i % 1000) + "." + (i % 7) + " 1574290124 source=app-" +
+          (i % 100) + " env=prod dc=us-west-2 service=checkout");
+    }
+  }
+
+  @Benchmark
+  public void decodeValidateAndSerialize(Blackhole blackhole) {
+    List<ReportPoint> points = new ArrayList<>(1);
+    for (String line : lines) {
+      points.clear();
+      decoder.decodeReportPoints(line, points, "dummy");
+      ReportPoint point = points.get(0);
+      validatePoint(point, "benchmark", Validation.Level.NUMERIC_ONLY);
+      blackhole.consume(serializer.apply(point));
+    }
+  }
+
+  @Benchmark
+  public void canonicalize(Blackhole blackhole) {
+    for (String line : lines) {
+      blackhole.consume(PointLineValidator.canonicalize(line, null, timestampHolder));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().
+        include(PointLineValidatorBenchmark.class.getSimpleName()).
+        build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,199 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.wavefront.api.agent.ValidationConfiguration;
+import com.wavefront.data.Validation;
+import com.wavefront.ingester.GraphiteDecoder;
+import com.wavefront.ingester.ReportPointSerializer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import wavefront.report.ReportPoint;
+
+import static com.wavefront.data.Validation.validatePoint;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PointLineValidatorTest {
+
+  private final long[] timestamp = new long[1];
+  private final GraphiteDecoder decoder = new GraphiteDecoder("unknown", ImmutableList.of());
+  private final ReportPointSerializer serializer = new ReportPointSerializer();
+
+  @Test
+  public void testCanonicalForm() {
+    assertEquals("\"metric.name\" 1.5 1574290124 source=\"host1\" \"env\"=\"prod\" " +
+            "\"dc\"=\"us-west 2\"",
+        PointLineValidator.canonicalize("metric.name  1.5 1574290124 source=host1 " +
+            "env=prod \"dc\"=\"us-west 2\"", null, timestamp));
+    assertEquals(1574290124000L, timestamp[0]);
+    assertEquals("\"metric.name\" -2e10 1574290124 source=\"host1\" \"env\"=\"prod\"",
+        PointLineValidator.canonicalize("\"metric.name\" -2e10 1574290124 env=\"prod\" " +
+            "source=\"host1\"", null, timestamp));
+    assertEquals("\"metric\" 0 1574290124 source=\"host1\"",
+        PointLineValidator.canonicalize("metric 0 1574290124 source=host1 ", null, timestamp));
+  }
+
+  @Test
+  public void testMissingTimestamp() {
+    long start = System.currentTimeMillis();
+    String result = PointLineValidator.canonicalize("metric 1 source=host1 env=prod", null,
+        timestamp);
+    assertTrue(timestamp[0] >= start - 1000);
+    assertEquals("\"metric\" 1 " + timestamp[0] / 1000 + " source=\"host1\" \"env\"=\"prod\"",
+        result);
+  }
+
+  @Test
+  public void testFallbacks() {
+    String[] lines = {
+        "",
+        "metric",
+        "metric 1 1574290124",
+        "metric 1 1574290124 host=host1",
+        "metric 1 1574290124 source=host1 host=host2",
+        "metric 1 1574290124 Source=host1",
+        "metric 1 1574290124 source=host1 source=host2",
+        "metric 1 1574290124 source=host1 env=prod env=dev",
+        "metric 1 1574290124 source=host1 env=\"pr\\\"od\"",
+        "metric 1 1574290124000 source=host1",
+        "metric 1 15742901 source=host1",
+        "metric NaN 1574290124 source=host1",
+        "metric 1e100 1574290124 source=host1",
+        "metric 0x10 1574290124 source=host1",
+        "metric 1. 1574290124 source=host1",
+        "met\"ric 1 1574290124 source=host1",
+        "\u2206metric 1 1574290124 source=host1",
+        "metric 1 1574290124 source=h\u00f6st",
+        "metric 1 1574290124 source=host1 env=",
+        "metric 1 1574290124 source=host1 env=\"prod",
+        "metric 1 1574290124 source=host1 env",
+        "metric 1 1574290124 source=host1\tenv=prod",
+        "metric 1 1574290124 source=host1 env=a+b",
+        "metric 1 1574290124 source=\"  \"",
+        "metric 1 1574290124 source=host1 env=\" \"",
+        "metric 1 1574290124 source=" + Strings.repeat("h", 1024),
+        Strings.repeat("m", 1024) + " 1 1574290124 source=host1",
+        "metric 1 1574290124 source=host1 env=" + Strings.repeat("v", 252),
+        "metric 1 1574290124 source=host1 " + Strings.repeat("k", 254) + "=v",
+        tags(PointLineValidator.MAX_TAGS + 1),
+    };
+    for (String line : lines) {
+      assertNull(line, PointLineValidator.canonicalize(line, null, timestamp));
+    }
+  }
+
+  @Test
+  public void testLegacyLimits() {
+    String[] lines = {
+        "metric 1 1574290124 source=" + Strings.repeat("h", 1023),
+        Strings.repeat("m", 1023) + " 1 1574290124 source=host1",
+        "metric 1 1574290124 source=host1 env=" + Strings.repeat("v", 251),
+        "metric 1 1574290124 source=host1 " + Strings.repeat("k", 253) + "=v",
+        tags(PointLineValidator.MAX_TAGS),
+    };
+    for (String line : lines) {
+      assertNotNull(line, PointLineValidator.canonicalize(line, null, timestamp));
+    }
+  }
+
+  @Test
+  public void testConfigurationLimits() {
+    ValidationConfiguration config = new ValidationConfiguration();
+    String[] lines = {
+        "metric 1 1574290124 source=" + Strings.repeat("h", config.getHostLengthLimit() + 1),
+        Strings.repeat("m", config.getMetricLengthLimit() + 1) + " 1 1574290124 source=host1",
+        "metric 1 1574290124 source=host1 env=" +
+            Strings.repeat("v", config.getAnnotationsValueLengthLimit() + 1),
+        "metric 1 1574290124 source=host1 " +
+            Strings.repeat("k", config.getAnnotationsKeyLengthLimit() + 1) + "=v",
+        tags(config.getAnnotationsCountLimit() + 1),
+    };
+    for (String line : lines) {
+      assertNull(line, PointLineValidator.canonicalize(line, config, timestamp));
+    }
+    assertNotNull(PointLineValidator.canonicalize(tags(config.getAnnotationsCountLimit()), config,
+        timestamp));
+  }
+
+  @Test
+  public void testAgreesWithFullPath() {
+    String[] lines = {
+        "metric.name 1.5 1574290124 source=host1 env=prod \"dc\"=\"us-west 2\"",
+        "\"metric.name\" -2e10 1574290124 env=\"prod\" source=\"host1\"",
+        "metric 0 1574290124 source=host1 ",
+        "metric/with,punctuation 007 1574290124 source=host-1.example.com tag_1=a/b,c",
+        "metric 1.25E-3 1574290124 source=host1 env=\"a = b\"",
+        "metric -0 1574290124 source=\"host 1\" env=\" prod\"",
+        "metric 1 1574290124 source=host1 env=prod env=dev",
+        "metric 1 1574290124 host=host1 env=prod",
+        "metric 1 1574290124 Source=host1",
+        "metric 1 1574290124 source=\"  \"",
+        "metric NaN 1574290124 source=host1",
+        "metric 1 1574290124 source=" + Strings.repeat("h", 1023),
+        "metric 1 1574290124 source=" + Strings.repeat("h", 1024),
+        Strings.repeat("m", 1023) + " 1 1574290124 source=host1",
+        Strings.repeat("m", 1024) + " 1 1574290124 source=host1",
+        "metric 1 1574290124 source=host1 env=" + Strings.repeat("v", 250),
+        "metric 1 1574290124 source=host1 env=" + Strings.repeat("v", 251),
+        "metric 1 1574290124 source=host1 env=" + Strings.repeat("v", 252),
+        "metric 1 1574290124 source=host1 " + Strings.repeat("k", 253) + "=v",
+        "metric 1 1574290124 source=host1 " + Strings.repeat("k", 254) + "=v",
+        tags(PointLineValidator.MAX_TAGS),
+    };
+    int accepted = 0;
+    for (String line : lines) {
+      String expected = decodeValidateAndSerialize(line);
+      String actual = PointLineValidator.canonicalize(line, null, timestamp);
+      if (expected == null) {
+        assertNull(line, actual);
+      } else if (actual != null) {
+        accepted++;
+        // values are passed through as is, so compare the decoded form of both outputs
+        assertEquals(line, decode(expected), decode(actual));
+        assertEquals(line, decode(expected).getTimestamp().longValue(), timestamp[0]);
+      }
+    }
+    assertEquals(12, accepted);
+  }
+
+  /**
+   * Regular path: decode, validate with legacy rules and serialize.
+   */
+  @Nullable
+  private String decodeValidateAndSerialize(String line) {
+    try {
+      List<ReportPoint> points = new ArrayList<>();
+      decoder.decodeReportPoints(line, points, "dummy");
+      if (points.size() != 1) return null;
+      ReportPoint point = points.get(0);
+      validatePoint(point, "test", Validation.Level.NUMERIC_ONLY);
+      return serializer.apply(point);
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private ReportPoint decode(String line) {
+    List<ReportPoint> points = new ArrayList<>();
+    decoder.decodeReportPoints(line, points, "dummy");
+    assertEquals(1, points.size());
+    return points.get(0);
+  }
+
+  private static String tags(int count) {
+    StringBuilder line = new StringBuilder("metric 1 1574290124 source=host1");
+    for (int i = 0; i < count; i++) {
+      line.append(" tag").append(i).append("=value");
+    }
+    return line.toString();
+  }
+}
@@ -0,0 +1,71 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.collect.ImmutableList;
+
+import com.wavefront.agent.api.PushDataPayload;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PushDataPayloadBuilderTest {
+
+  private static final List<String> LINES = ImmutableList.of(
+      "metric.name 1.0 1574290124 source=host tag=value",
+      "\"métric.中文\" 2.0 source=\"höst\" emoji=\"😀\"",
+      "");
+
+  @Test
+  public void testUncompressedPayload() {
+    PushDataPayloadBuilder builder = new PushDataPayloadBuilder(false);
+    String expected = LineDelimitedUtils.joinPushData(LINES);
+    PushDataPayload payload = builder.build(LINES);
+    assertFalse(payload.isCompressed());
+    assertNull(payload.getContentEncoding());
+    assertEquals(3, payload.getLineCount());
+    assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), payload.toByteArray());
+    assertEquals(expected, payload.toPushDataString());
+  }
+
+  @Test
+  public void testByteArrayIsACopy() {
+    // backing array is fully used, so the payload spans all of it
+    byte[] data = "metric.name 1.0".getBytes(StandardCharsets.UTF_8);
+    PushDataPayload payload = new PushDataPayload(data, data.length, 1, false);
+    byte[] copy = payload.toByteArray();
+    assertArrayEquals(data, copy);
+    data[0] = 'x';
+    assertEquals('m', copy[0]);
+  }
+
+  @Test
+  public void testCompressedPayload() {
+    PushDataPayloadBuilder builder = new PushDataPayloadBuilder(true);
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      lines.add("metric.name." + i + " " + i + " 1574290124 source=host tag=value");
+    }
+    PushDataPayload payload = builder.build(lines);
+    assertTrue(payload.isCompressed());
+    assertEquals("gzip", payload.getContentEncoding());
+    assertEquals(10000, payload.getLineCount());
+    assertEquals(LineDelimitedUtils.joinPushData(lines), payload.toPushDataString());
+
+    // buffer is reused for the next batch
+    payload = builder.build(LINES);
+    assertEquals(3, payload.getLineCount());
+    assertEquals(LineDelimitedUtils.joinPushData(LINES), payload.toPushDataString());
+
+    payload = builder.build(ImmutableList.of());
+    assertEquals(0, payload.getLineCount());
+    assertEquals("", payload.toPushDataString());
+  }
+}
@@ -39,7 +39,7 @@ public class ReportSourceTagHandlerTest {
     mockAgentAPI = EasyMock.createMock(ForceQueueEnabledProxyAPI.class);
     newAgentId = UUID.randomUUID();
     senderTaskFactory = new SenderTaskFactoryImpl(mockAgentAPI, newAgentId, null, new AtomicInteger(100),
-        new AtomicInteger(10), new AtomicInteger(1000));
+        new AtomicInteger(10), new AtomicInteger(1000), false);
     sourceTagHandler = new ReportSourceTagHandlerImpl("4878", 10, senderTaskFactory.createSenderTasks(
         HandlerKey.of(ReportableEntityType.SOURCE_TAG, "4878"), 2), blockedLogger);
   }
@@ -0,0 +1,143 @@
+package com.wavefront.agent.handlers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the lock-free {@link SenderTaskBuffer} used by {@link LineDelimitedSenderTask} with
+ * the previous implementation (ArrayList guarded by a mutex, remaining items copied on every
+ * batch), with many producer threads and a single flush thread.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.handlers.SenderTaskBufferBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SenderTaskBufferBenchmark {
+  private static final String POINT = "request.count 1.0 1574290124 source=app-1 env=prod " +
+      "dc=us-west-2 service=checkout";
+  private static final int ITEMS_PER_BATCH = 40000;
+  private static final int MEMORY_BUFFER_LIMIT = 32 * ITEMS_PER_BATCH;
+
+  /**
+   * Replica of the original ArrayList + mutex memory buffer.
+   */
+  static class MutexBuffer {
+    List<String> datum = new ArrayList<>();
+    final Object mutex = new Object();
+
+    void add(String item) {
+      synchronized (mutex) {
+        datum.add(item);
+      }
+    }
+
+    List<String> createBatch(int itemsPerBatch) {
+      List<String> current;
+      synchronized (mutex) {
+        int blockSize = Math.min(datum.size(), itemsPerBatch);
+        current = datum.subList(0, blockSize);
+        datum = new ArrayList<>(datum.subList(blockSize, datum.size()));
+      }
+      return current;
+    }
+
+    int size() {
+      return datum.size();
+    }
+  }
+
+  @State(Scope.Group)
+  public static class MutexState {
+    MutexBuffer buffer;
+
+    @Setup
+    public void setup() {
+      buffer = new MutexBuffer();
+    }
+  }
+
+  @State(Scope.Group)
+  public static class RingState {
+    SenderTaskBuffer<String> buffer;
+    final AtomicInteger itemsPerBatch = new AtomicInteger(ITEMS_PER_BATCH);
+
+    @Setup
+    public void setup() {
+      buffer = new SenderTaskBuffer<>(4 * ITEMS_PER_BATCH);
+    }
+
+    @TearDown
+    public void tearDown() {
+      while (!buffer.drain(Integer.MAX_VALUE).isEmpty()) {
+        // discard
+      }
+    }
+  }
+
+  @Benchmark
+  @Group("mutex")
+  @GroupThreads(8)
+  public void mutexAdd(MutexState state) {
+    state.buffer.add(POINT);
+  }
+
+  @Benchmark
+  @Group("mutex")
+  @GroupThreads(1)
+  public void mutexFlush(MutexState state, Blackhole blackhole) {
+    // emulate drainBuffersToQueue() so that the heap doesn't blow up if the flush thread lags
+    int batchSize = state.buffer.size() > MEMORY_BUFFER_LIMIT ? Integer.MAX_VALUE : ITEMS_PER_BATCH;
+    blackhole.consume(state.buffer.createBatch(batchSize));
+  }
+
+  @Benchmark
+  @Group("ring")
+  @GroupThreads(8)
+  public void ringAdd(RingState state) {
+    state.buffer.add(POINT);
+  }
+
+  @Benchmark
+  @Group("ring")
+  @GroupThreads(1)
+  public void ringFlush(RingState state, Blackhole blackhole) {
+    int batchSize = state.buffer.size() > MEMORY_BUFFER_LIMIT ? Integer.MAX_VALUE :
+        state.itemsPerBatch.get();
+    blackhole.consume(state.buffer.drain(batchSize));
+  }
+
+  public static void main(String[] args) throws Exception {
+    for (int producers : new int[] {8, 16, 32, 64}) {
+      // each group runs `producers` threads adding items and a single flush thread
+      Options options = new OptionsBuilder().
+          include(SenderTaskBufferBenchmark.class.getSimpleName()).
+          threadGroups(producers, 1).
+          build();
+      new Runner(options).run();
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.wavefront.agent.handlers;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SenderTaskBufferTest {
+
+  @Test
+  public void testDrainPreservesOrder() {
+    SenderTaskBuffer<String> buffer = new SenderTaskBuffer<>(4);
+    assertEquals(4, buffer.capacity());
+    for (int i = 0; i < 10; i++) {
+      buffer.add("item" + i);
+    }
+    assertEquals(10, buffer.size());
+    assertEquals(ImmutableList.of("item0", "item1", "item2"), buffer.drain(3));
+    assertEquals(7, buffer.size());
+    // ring is drained before the overflow queue
+    assertEquals(ImmutableList.of("item3", "item4", "item5", "item6", "item7"), buffer.drain(5));
+    assertEquals(ImmutableList.of("item8", "item9"), buffer.drain(100));
+    assertEquals(0, buffer.size());
+    assertTrue(buffer.drain(100).isEmpty());
+  }
+
+  @Test
+  public void testAddAll() {
+    SenderTaskBuffer<String> buffer = new SenderTaskBuffer<>(4);
+    buffer.addAll(ImmutableList.of("item0", "item1", "item2"));
+    // doesn't fit into the ring, spills over
+    buffer.addAll(ImmutableList.of("item3", "item4"));
+    buffer.add("item5");
+    assertEquals(6, buffer.size());
+    assertEquals(ImmutableList.of("item0", "item1"), buffer.drain(2));
+    buffer.addAll(ImmutableList.of("item6", "item7"));
+    assertEquals(ImmutableList.of("item2", "item3", "item4", "item5", "item6", "item7"),
+        buffer.drain(100));
+    buffer.addAll(ImmutableList.of("item8", "item9", "item10", "item11"));
+    assertEquals(ImmutableList.of("item8", "item9", "item10", "item11"), buffer.drain(100));
+    assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testPushBack() {
+    SenderTaskBuffer<String> buffer = new SenderTaskBuffer<>(16);
+    buffer.add("item0");
+    buffer.add("item1");
+    buffer.add("item2");
+    List<String> batch = buffer.drain(2);
+    buffer.add("item3");
+    buffer.pushBack(batch);
+    assertEquals(4, buffer.size());
+    assertEquals(ImmutableList.of("item0"), buffer.drain(1));
+    assertEquals(ImmutableList.of("item1", "item2", "item3"), buffer.drain(10));
+  }
+
+  @Test
+  public void testConcurrentProducers() throws Exception {
+    SenderTaskBuffer<Integer> buffer = new SenderTaskBuffer<>(1024);
+    int producers = 8;
+    int itemsPerProducer = 50000;
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    for (int p = 0; p < producers; p++) {
+      final int base = p * itemsPerProducer;
+      executor.submit(() -> {
+        for (int i = 0; i < itemsPerProducer; i++) {
+          buffer.add(base + i);
+        }
+      });
+    }
+    Set<Integer> received = new HashSet<>();
+    long deadline = System.currentTimeMillis() + 30000;
+    while (received.size() < producers * itemsPerProducer &&
+        System.currentTimeMillis() < deadline) {
+      for (Integer item : buffer.drain(1000)) {
+        assertTrue("Duplicate item " + item, received.add(item));
+      }
+    }
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+    assertEquals(producers * itemsPerProducer, received.size());
+    assertEquals(0, buffer.size());
+  }
+}
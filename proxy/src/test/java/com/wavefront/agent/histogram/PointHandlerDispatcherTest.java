@@ -6,13 +6,17 @@ import com.wavefront.agent.handlers.ReportableEntityHandler;
 import com.wavefront.agent.histogram.accumulator.AccumulationCache;
 
 import com.wavefront.agent.histogram.accumulator.AgentDigestFactory;
+import com.wavefront.agent.histogram.accumulator.ShardedAccumulator;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
@@ -34,6 +38,7 @@ public class PointHandlerDispatcherTest {
   private List<String> debugLineOut;
   private List<ReportPoint> blockedOut;
   private AtomicLong timeMillis;
+  private ReportableEntityHandler<ReportPoint> handler;
   private PointHandlerDispatcher subject;
 
   private Utils.HistogramKey keyA = TestUtils.makeKey("keyA");
@@ -48,12 +53,12 @@ public class PointHandlerDispatcherTest {
     backingStore = new ConcurrentHashMap<>();
     AgentDigestFactory agentDigestFactory = new AgentDigestFactory(COMPRESSION, 100L);
     in = new AccumulationCache(backingStore, agentDigestFactory, 0, "", timeMillis::get);
-    pointOut = new LinkedList<>();
+    pointOut = Collections.synchronizedList(new LinkedList<>());
     debugLineOut = new LinkedList<>();
     blockedOut = new LinkedList<>();
     digestA = new AgentDigest(COMPRESSION, 100L);
     digestB = new AgentDigest(COMPRESSION, 1000L);
-    subject = new PointHandlerDispatcher(in, new ReportableEntityHandler<ReportPoint>() {
+    handler = new ReportableEntityHandler<ReportPoint>() {
 
       @Override
       public void report(ReportPoint reportPoint) {
@@ -89,7 +94,8 @@ public class PointHandlerDispatcherTest {
       public void reject(String t, @Nullable String message) {
       }
 
-    }, timeMillis::get, null, null);
+    };
+    subject = new PointHandlerDispatcher(in, handler, timeMillis::get, null, null);
   }
 
   @Test
@@ -127,4 +133,62 @@ public class PointHandlerDispatcherTest {
 
     TestUtils.testKeyPointMatch(keyA, point);
   }
+
+  @Test
+  public void testShardedDispatch() throws Exception {
+    AgentDigestFactory agentDigestFactory = new AgentDigestFactory(COMPRESSION, 100L,
+        timeMillis::get);
+    ShardedAccumulator sharded = ShardedAccumulator.ofAccumulationCaches(backingStore,
+        agentDigestFactory, 0, "", 4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      PointHandlerDispatcher dispatcher = new PointHandlerDispatcher(sharded, handler,
+          timeMillis::get, null, null, executor);
+      for (int i = 0; i < 100; i++) {
+        sharded.put(TestUtils.makeKey("key" + i), 1D);
+      }
+      sharded.flush();
+      assertThat(sharded.size()).isEqualTo(100L);
+
+      dispatcher.run();
+      assertThat(pointOut).isEmpty();
+
+      timeMillis.set(101L);
+      dispatcher.run();
+      sharded.flush();
+      assertThat(pointOut).hasSize(100);
+      assertThat(backingStore).isEmpty();
+      assertThat(sharded.size()).isEqualTo(0L);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testShardedDispatchLimit() throws Exception {
+    AgentDigestFactory agentDigestFactory = new AgentDigestFactory(COMPRESSION, 100L,
+        timeMillis::get);
+    ShardedAccumulator sharded = ShardedAccumulator.ofAccumulationCaches(backingStore,
+        agentDigestFactory, 0, "", 4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      PointHandlerDispatcher dispatcher = new PointHandlerDispatcher(sharded, handler,
+          timeMillis::get, 30, null, executor);
+      for (int i = 0; i < 100; i++) {
+        sharded.put(TestUtils.makeKey("key" + i), 1D);
+      }
+      sharded.flush();
+      timeMillis.set(101L);
+      int dispatched = 0;
+      for (int run = 0; run < 10 && dispatched < 100; run++) {
+        dispatcher.run();
+        assertThat(pointOut.size() - dispatched).isAtMost(30);
+        dispatched = pointOut.size();
+      }
+      assertThat(pointOut).hasSize(100);
+      assertThat(backingStore).isEmpty();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 }
@@ -11,6 +11,9 @@ import net.openhft.chronicle.map.ChronicleMap;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -96,6 +99,21 @@ public class AccumulationCacheTest {
     assertThat(backingStore.size()).isAtLeast(1);
   }
 
+  @Test
+  public void testRipeDigestsIterator() {
+    ac.put(keyA, digestA);
+    ac.put(keyB, digestB);
+    ac.put(keyC, digestC);
+    // lower keyC's dispatch time, the original schedule becomes stale
+    ac.put(keyC, new AgentDigest(COMPRESSION, 500L));
+    assertThat(ripeKeys(101L, false)).containsExactly(keyA);
+    // not removed, so it's returned again
+    assertThat(ripeKeys(101L, true)).containsExactly(keyA);
+    assertThat(ripeKeys(501L, true)).containsExactly(keyC);
+    assertThat(ripeKeys(1001L, true)).containsExactly(keyB);
+    assertThat(ripeKeys(20000L, true)).isEmpty();
+  }
+
   @Test
   public void testChronicleMapOverflow() {
     ConcurrentMap<HistogramKey, AgentDigest> chronicleMap = ChronicleMap.of(HistogramKey.class, AgentDigest.class).
@@ -121,4 +139,14 @@ public class AccumulationCacheTest {
     }
     assertThat(hasFailed.get()).isTrue();
   }
+
+  private List<HistogramKey> ripeKeys(long nowMillis, boolean remove) {
+    List<HistogramKey> keys = new ArrayList<>();
+    Iterator<HistogramKey> iterator = ac.getRipeDigestsIterator(() -> nowMillis);
+    while (iterator.hasNext()) {
+      keys.add(iterator.next());
+      if (remove) iterator.remove();
+    }
+    return keys;
+  }
 }
@@ -0,0 +1,144 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LongTimerWheelTest {
+  private static final long START = 1_500_000_000_000L;
+
+  private Map<Long, Long> scheduled;
+  private LongTimerWheel wheel;
+
+  @Before
+  public void setup() {
+    scheduled = new HashMap<>();
+    wheel = new LongTimerWheel("test");
+  }
+
+  @Test
+  public void testIdsScheduledBeforeFirstPoll() {
+    schedule(1, START + 100);
+    schedule(2, START + 5000);
+    assertEquals(Collections.emptyList(), drain(START));
+    assertEquals(Collections.singletonList(1L), drain(START + 101));
+    assertEquals(Collections.singletonList(2L), drain(START + 5001));
+    assertTrue(drain(START + 10000).isEmpty());
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testOverdueIds() {
+    drain(START);
+    schedule(1, START - TimeUnit.HOURS.toMillis(1));
+    schedule(2, START + 500);
+    assertEquals(Collections.singletonList(1L), drain(START + 1));
+    assertEquals(Collections.singletonList(2L), drain(START + 501));
+  }
+
+  @Test
+  public void testIdsDueLaterWithinTheSameTick() {
+    drain(START);
+    schedule(1, START + 600);
+    schedule(2, START + 100);
+    schedule(3, START + 700);
+    assertEquals(-1, wheel.poll(START + 50));
+    assertEquals(2, wheel.poll(START + 101));
+    assertEquals(START + 100, wheel.lastPolledDueMillis());
+    // ids skipped by the previous scan of the same bucket are picked up once they're due
+    List<Long> ids = drain(START + 701);
+    Collections.sort(ids);
+    assertEquals(Arrays.asList(1L, 3L), ids);
+  }
+
+  @Test
+  public void testFarFutureIdsCascade() {
+    drain(START);
+    long hour = TimeUnit.HOURS.toMillis(1);
+    long day = TimeUnit.DAYS.toMillis(1);
+    schedule(1, START + hour);
+    schedule(2, START + day);
+    schedule(3, START + 8 * day);
+    List<Long> dispatched = new ArrayList<>();
+    for (long now = START; now <= START + 9 * day; now += TimeUnit.MINUTES.toMillis(1)) {
+      for (long id : drain(now)) {
+        dispatched.add(id);
+        // dispatched by the first poll after the id became due
+        assertTrue(now > scheduled.get(id));
+        assertTrue(now - TimeUnit.MINUTES.toMillis(1) <= scheduled.get(id));
+      }
+    }
+    assertEquals(Arrays.asList(1L, 2L, 3L), dispatched);
+  }
+
+  @Test
+  public void testFarFutureIdsAreNotRescanned() {
+    LongTimerWheel wheel = new LongTimerWheel("test.rescan");
+    wheel.poll(START);
+    for (int i = 0; i < 1000; i++) {
+      wheel.schedule(i, START + TimeUnit.DAYS.toMillis(1));
+    }
+    long start = scanned("test.rescan");
+    // two full rotations of the fine wheel
+    for (long now = START; now <= START + TimeUnit.HOURS.toMillis(2);
+         now += TimeUnit.SECONDS.toMillis(10)) {
+      assertEquals(-1, wheel.poll(now));
+    }
+    assertEquals(0, scanned("test.rescan") - start);
+  }
+
+  @Test
+  public void testStaleEntriesAreReturned() {
+    drain(START);
+    schedule(1, START + TimeUnit.HOURS.toMillis(2));
+    schedule(1, START + 30000);
+    assertTrue(drain(START + 20000).isEmpty());
+    assertEquals(1, wheel.poll(START + 30001));
+    assertEquals(START + 30000, wheel.lastPolledDueMillis());
+    assertEquals(-1, wheel.poll(START + 30001));
+    // callers are expected to discard the superseded entry
+    assertEquals(1, wheel.poll(START + TimeUnit.HOURS.toMillis(3)));
+    assertEquals(START + TimeUnit.HOURS.toMillis(2), wheel.lastPolledDueMillis());
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testLargeClockJump() {
+    drain(START);
+    for (int i = 0; i < 100; i++) {
+      schedule(i, START + i * 60000L);
+    }
+    assertEquals(100, drain(START + TimeUnit.DAYS.toMillis(30)).size());
+  }
+
+  private long scanned(String prefix) {
+    return Metrics.newCounter(new MetricName(prefix + ".ripe_index", "", "scanned")).count();
+  }
+
+  private void schedule(long id, long dueMillis) {
+    scheduled.put(id, dueMillis);
+    wheel.schedule(id, dueMillis);
+  }
+
+  private List<Long> drain(long nowMillis) {
+    List<Long> ids = new ArrayList<>();
+    long id;
+    while ((id = wheel.poll(nowMillis)) != -1) {
+      ids.add(id);
+    }
+    return ids;
+  }
+}
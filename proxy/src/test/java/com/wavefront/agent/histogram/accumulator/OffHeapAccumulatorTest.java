@@ -0,0 +1,199 @@
+package com.wavefront.agent.histogram.accumulator;
+
+import com.tdunning.math.stats.AgentDigest;
+import com.wavefront.agent.histogram.Utils;
+import com.wavefront.agent.histogram.Utils.HistogramKey;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import wavefront.report.Histogram;
+import wavefront.report.HistogramType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests around {@link OffHeapAccumulator}
+ */
+public class OffHeapAccumulatorTest {
+  private static final short COMPRESSION = 100;
+  private static final long TTL_MILLIS = 10000L;
+
+  private AtomicLong time;
+  private OffHeapAccumulator accumulator;
+
+  @Before
+  public void setup() {
+    time = new AtomicLong(1_000_000L);
+    accumulator = new OffHeapAccumulator(new AgentDigestFactory(COMPRESSION, TTL_MILLIS,
+        time::get), 4, "test.accumulator");
+  }
+
+  @Test
+  public void testPutValuesAndDispatch() {
+    HistogramKey keyA = key("metric.a", "host", "env", "prod");
+    HistogramKey keyB = key("metric.b", null);
+    for (int i = 0; i < 1000; i++) {
+      accumulator.put(keyA, (double) i);
+    }
+    accumulator.put(keyB, 42D);
+    assertEquals(2, accumulator.size());
+
+    assertFalse(accumulator.getRipeDigestsIterator(time::get).hasNext());
+    time.addAndGet(TTL_MILLIS + 1);
+    List<HistogramKey> ripe = ripeKeys();
+    assertEquals(2, ripe.size());
+    assertTrue(ripe.contains(keyA));
+    assertTrue(ripe.contains(keyB));
+    // ripe keys are only returned once
+    assertTrue(ripeKeys().isEmpty());
+
+    AgentDigest digestA = accumulator.compute(keyA, (k, v) -> v);
+    assertNotNull(digestA);
+    assertEquals(1000, digestA.size());
+    assertEquals(1_000_000L + TTL_MILLIS, digestA.getDispatchTimeMillis());
+    assertNull(accumulator.compute(keyA, (k, v) -> null));
+    assertNull(accumulator.compute(keyB, (k, v) -> null));
+    assertEquals(0, accumulator.size());
+    assertNull(accumulator.compute(keyA, (k, v) -> {
+      assertNull(v);
+      return null;
+    }));
+  }
+
+  @Test
+  public void testPutDigestKeepsEarliestDispatchTime() {
+    HistogramKey key = key("metric", "host");
+    accumulator.put(key, 1D);
+    AgentDigest digest = new AgentDigest(COMPRESSION, time.get() + 10);
+    digest.add(2D, 3);
+    accumulator.put(key, digest);
+    accumulator.put(key, Histogram.newBuilder()
+        .setType(HistogramType.TDIGEST)
+        .setDuration(60000)
+        .setBins(Arrays.asList(5D, 6D))
+        .setCounts(Arrays.asList(1, 2))
+        .build());
+    AgentDigest result = accumulator.compute(key, (k, v) -> v);
+    assertNotNull(result);
+    assertEquals(7, result.size());
+    assertEquals(time.get() + 10, result.getDispatchTimeMillis());
+    time.addAndGet(11);
+    assertEquals(Arrays.asList(key), ripeKeys());
+  }
+
+  @Test
+  public void testHistogramWithoutBinsDoesNotCreateBin() {
+    Histogram histogram = new Histogram();
+    histogram.setType(HistogramType.TDIGEST);
+    histogram.setDuration(60000);
+    accumulator.put(key("metric", "host"), histogram);
+    assertEquals(0, accumulator.size());
+    time.addAndGet(TTL_MILLIS + 1);
+    assertTrue(ripeKeys().isEmpty());
+  }
+
+  @Test
+  public void testRescheduledKeyIsDispatchedOnce() {
+    HistogramKey key = key("metric", "host");
+    long dispatchTime = time.get() + TTL_MILLIS;
+    accumulator.put(key, 1D);
+    AgentDigest digest = new AgentDigest(COMPRESSION, time.get() + 10);
+    digest.add(2D, 1);
+    accumulator.put(key, digest);
+    // back to the original dispatch time, so that two schedule entries share the same due time
+    accumulator.compute(key, (k, v) -> {
+      AgentDigest result = new AgentDigest(COMPRESSION, dispatchTime);
+      result.add(v);
+      return result;
+    });
+    time.addAndGet(11);
+    assertTrue(ripeKeys().isEmpty());
+    time.addAndGet(TTL_MILLIS);
+    assertEquals(Arrays.asList(key), ripeKeys());
+    assertTrue(ripeKeys().isEmpty());
+  }
+
+  @Test
+  public void testFailedDispatchIsRetried() {
+    HistogramKey key = key("metric", "host");
+    accumulator.put(key, 1D);
+    time.addAndGet(TTL_MILLIS + 1);
+    Iterator<HistogramKey> iterator = accumulator.getRipeDigestsIterator(time::get);
+    assertTrue(iterator.hasNext());
+    assertEquals(key, iterator.next());
+    try {
+      accumulator.compute(key, (k, v) -> {
+        throw new IllegalStateException();
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertFalse(iterator.hasNext());
+    assertEquals(1, accumulator.size());
+    assertEquals(Arrays.asList(key), ripeKeys());
+    assertNull(accumulator.compute(key, (k, v) -> null));
+    assertTrue(ripeKeys().isEmpty());
+  }
+
+  @Test
+  public void testManyKeysWithRemoval() {
+    for (int i = 0; i < 10000; i++) {
+      HistogramKey key = key("metric." + i, "host-" + (i % 17), "idx", String.valueOf(i));
+      for (int j = 0; j <= i % 50; j++) {
+        accumulator.put(key, (double) j);
+      }
+    }
+    assertEquals(10000, accumulator.size());
+    for (int i = 0; i < 10000; i += 2) {
+      accumulator.compute(key("metric." + i, "host-" + (i % 17), "idx", String.valueOf(i)),
+          (k, v) -> null);
+    }
+    assertEquals(5000, accumulator.size());
+    for (int i = 0; i < 10000; i++) {
+      HistogramKey key = key("metric." + i, "host-" + (i % 17), "idx", String.valueOf(i));
+      int expected = i % 2 == 0 ? 0 : i % 50 + 1;
+      AgentDigest digest = accumulator.compute(key, (k, v) -> v);
+      assertEquals(expected, digest == null ? 0 : digest.size());
+    }
+    time.addAndGet(TTL_MILLIS + 1);
+    assertEquals(5000, ripeKeys().size());
+  }
+
+  @Test
+  public void testKeyRoundTrip() {
+    HistogramKey key = key("métric.ünïcode", null, "tag", "välue", "empty", "");
+    accumulator.put(key, 1D);
+    time.addAndGet(TTL_MILLIS + 1);
+    List<HistogramKey> ripe = ripeKeys();
+    assertEquals(1, ripe.size());
+    HistogramKey decoded = ripe.get(0);
+    assertEquals(key, decoded);
+    assertNull(decoded.getSource());
+  }
+
+  private List<HistogramKey> ripeKeys() {
+    List<HistogramKey> keys = new ArrayList<>();
+    Iterator<HistogramKey> iterator = accumulator.getRipeDigestsIterator(time::get);
+    while (iterator.hasNext()) {
+      keys.add(iterator.next());
+    }
+    return keys;
+  }
+
+  private static HistogramKey key(String metric, String source, String... tags) {
+    return Utils.makeKey((byte) 0, 1, metric, source, tags);
+  }
+}
@@ -0,0 +1,183 @@
+package com.wavefront.agent.listeners;
+
+import com.google.common.collect.ImmutableList;
+import com.wavefront.agent.auth.TokenAuthenticator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import static com.wavefront.agent.channel.ChannelUtils.writeHttpResponse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests holding on to HTTP requests while their tokens are validated remotely.
+ */
+public class AbstractPortUnificationHandlerTest {
+  private final CompletableFuture<Boolean> authorized = new CompletableFuture<>();
+  private final List<String> handled = new ArrayList<>();
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setup() {
+    TokenAuthenticator tokenAuthenticator = new TokenAuthenticator() {
+      @Override
+      public boolean authorize(@Nullable String token) {
+        return authorized.join();
+      }
+
+      @Override
+      public CompletableFuture<Boolean> authorizeAsync(@Nullable String token) {
+        return authorized;
+      }
+
+      @Override
+      public boolean authRequired() {
+        return true;
+      }
+    };
+    channel = new EmbeddedChannel(new AbstractPortUnificationHandler(tokenAuthenticator, null,
+        "2878") {
+      @Override
+      protected void handleHttpMessage(ChannelHandlerContext ctx, FullHttpRequest request) {
+        String body = request.content().toString(StandardCharsets.UTF_8);
+        handled.add(body);
+        writeHttpResponse(ctx, HttpResponseStatus.ACCEPTED, body, request);
+      }
+
+      @Override
+      protected void handlePlainTextMessage(ChannelHandlerContext ctx, String message) {
+        fail();
+      }
+    });
+  }
+
+  @Test
+  public void testRequestIsHeldUntilTokenIsValidated() {
+    FullHttpRequest request = request("metric 1 source=host");
+    channel.writeInbound(request);
+    // not handled yet, and no more requests are read from this connection
+    assertTrue(handled.isEmpty());
+    assertNull(channel.readOutbound());
+    assertFalse(channel.config().isAutoRead());
+    assertEquals(1, request.refCnt());
+
+    authorized.complete(true);
+    channel.runPendingTasks();
+    assertEquals(ImmutableList.of("metric 1 source=host"), handled);
+    FullHttpResponse response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.ACCEPTED, response.status());
+    assertTrue(channel.config().isAutoRead());
+    assertEquals(0, request.refCnt());
+  }
+
+  @Test
+  public void testHeldRequestIsRejectedWhenTokenIsInvalid() {
+    FullHttpRequest request = request("metric 1 source=host");
+    channel.writeInbound(request);
+    assertFalse(channel.config().isAutoRead());
+
+    authorized.complete(false);
+    channel.runPendingTasks();
+    assertTrue(handled.isEmpty());
+    FullHttpResponse response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+    assertTrue(channel.config().isAutoRead());
+    assertEquals(0, request.refCnt());
+  }
+
+  @Test
+  public void testHeldRequestIsRejectedWhenValidationFails() {
+    FullHttpRequest request = request("metric 1 source=host");
+    channel.writeInbound(request);
+    assertFalse(channel.config().isAutoRead());
+
+    authorized.completeExceptionally(new RuntimeException("Service unavailable"));
+    channel.runPendingTasks();
+    assertTrue(handled.isEmpty());
+    FullHttpResponse response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+    assertTrue(channel.config().isAutoRead());
+    assertEquals(0, request.refCnt());
+  }
+
+  @Test
+  public void testPipelinedRequestsAreHandledInOrder() {
+    FullHttpRequest first = request("metric 1 source=host");
+    FullHttpRequest second = request("metric 2 source=host");
+    // both requests are decoded from the same read, before auto-read can be turned off
+    channel.writeInbound(first, second);
+    assertTrue(handled.isEmpty());
+    assertNull(channel.readOutbound());
+    assertEquals(1, first.refCnt());
+    assertEquals(1, second.refCnt());
+
+    authorized.complete(true);
+    channel.runPendingTasks();
+    assertEquals(ImmutableList.of("metric 1 source=host", "metric 2 source=host"), handled);
+    FullHttpResponse response = channel.readOutbound();
+    assertEquals("metric 1 source=host", response.content().toString(StandardCharsets.UTF_8));
+    response = channel.readOutbound();
+    assertEquals("metric 2 source=host", response.content().toString(StandardCharsets.UTF_8));
+    assertNull(channel.readOutbound());
+    assertTrue(channel.config().isAutoRead());
+    assertEquals(0, first.refCnt());
+    assertEquals(0, second.refCnt());
+  }
+
+  @Test
+  public void testPipelinedRequestsAreDroppedWhenTokenIsInvalid() {
+    FullHttpRequest first = request("metric 1 source=host");
+    FullHttpRequest second = request("metric 2 source=host");
+    channel.writeInbound(first, second);
+
+    authorized.complete(false);
+    channel.runPendingTasks();
+    // the connection is closed after 401, the request behind it is never handled
+    assertTrue(handled.isEmpty());
+    FullHttpResponse response = channel.readOutbound();
+    assertEquals(HttpResponseStatus.UNAUTHORIZED, response.status());
+    assertFalse(channel.isOpen());
+    assertEquals(0, first.refCnt());
+    assertEquals(0, second.refCnt());
+  }
+
+  @Test
+  public void testPendingRequestsAreReleasedWhenChannelCloses() {
+    FullHttpRequest first = request("metric 1 source=host");
+    FullHttpRequest second = request("metric 2 source=host");
+    channel.writeInbound(first, second);
+    channel.close();
+    assertEquals(0, second.refCnt());
+
+    authorized.complete(true);
+    channel.runPendingTasks();
+    assertEquals(0, first.refCnt());
+    assertFalse(handled.contains("metric 2 source=host"));
+  }
+
+  private static FullHttpRequest request(String body) {
+    return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        "/report?t=token", Unpooled.copiedBuffer(body, StandardCharsets.UTF_8));
+  }
+}
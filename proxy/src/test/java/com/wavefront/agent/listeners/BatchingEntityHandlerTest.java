@@ -0,0 +1,108 @@
+package com.wavefront.agent.listeners;
+
+import com.google.common.collect.ImmutableList;
+import com.wavefront.agent.handlers.ReportableEntityHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingEntityHandlerTest {
+  private static final int MAX_BATCH_SIZE = 10;
+
+  private final List<String> delivered = new ArrayList<>();
+  private final List<Integer> batchSizes = new ArrayList<>();
+  private BatchingEntityHandler<String> handler;
+
+  @Before
+  public void setup() {
+    handler = new BatchingEntityHandler<>(new ReportableEntityHandler<String>() {
+      @Override
+      public void report(String s) {
+        delivered.add(s);
+      }
+
+      @Override
+      public void report(String s, @Nullable Object messageObject,
+                         @NotNull Function<Object, String> messageSerializer) {
+        delivered.add(s);
+      }
+
+      @Override
+      public void reportBatch(List<String> items) {
+        batchSizes.add(items.size());
+        delivered.addAll(items);
+      }
+
+      @Override
+      public void block(String s) {
+      }
+
+      @Override
+      public void block(@Nullable String s, @Nullable String message) {
+      }
+
+      @Override
+      public void reject(String s) {
+      }
+
+      @Override
+      public void reject(@Nullable String s, @Nullable String message) {
+      }
+    }, MAX_BATCH_SIZE);
+  }
+
+  @Test
+  public void testLargePayloadIsHandedOverInBoundedBatches() {
+    List<String> items = items(0, 1005);
+    handler.startBatch();
+    for (int i = 0; i < items.size(); i++) {
+      handler.report(items.get(i));
+      // never more than MAX_BATCH_SIZE items pending
+      assertTrue(i + 1 - delivered.size() < MAX_BATCH_SIZE);
+    }
+    handler.flushBatch();
+    assertEquals(items, delivered);
+    assertTrue(batchSizes.stream().allMatch(size -> size <= MAX_BATCH_SIZE));
+    assertEquals(101, batchSizes.size());
+  }
+
+  @Test
+  public void testReportBatchKeepsOrder() {
+    handler.startBatch();
+    handler.reportBatch(items(0, 5));
+    handler.reportBatch(items(5, 25));
+    assertEquals(items(0, 25), delivered);
+    handler.reportBatch(items(25, 30));
+    handler.reportBatch(items(30, 34));
+    assertEquals(25, delivered.size());
+    handler.reportBatch(items(34, 36));
+    assertEquals(34, delivered.size());
+    handler.flushBatch();
+    assertEquals(items(0, 36), delivered);
+    assertEquals(ImmutableList.of(5, 20, 9, 2), batchSizes);
+  }
+
+  @Test
+  public void testItemsArePassedThroughOutsideOfBatch() {
+    handler.report("item");
+    handler.reportBatch(items(0, 3));
+    assertEquals(ImmutableList.of("item", "item0", "item1", "item2"), delivered);
+    assertEquals(ImmutableList.of(3), batchSizes);
+  }
+
+  private static List<String> items(int from, int to) {
+    return IntStream.range(from, to).mapToObj(i -> "item" + i).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,149 @@
+package com.wavefront.agent.listeners;
+
+import com.google.common.io.Resources;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.wavefront.agent.handlers.ReportableEntityHandler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import wavefront.report.ReportPoint;
+
+/**
+ * Compares decoding DataDog payloads into a full Jackson tree (request body copied into a String
+ * first) with streaming them from the request buffer, using recorded agent payloads. The series
+ * payload is also replicated into a multi-megabyte one, comparable to what a busy agent sends.
+ * Run with {@code -prof gc} to compare allocation rates.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.listeners.DataDogPayloadBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DataDogPayloadBenchmark {
+  private static final int LARGE_SERIES_COPIES = 20000;
+
+  @Param({"series", "series-large", "intake"})
+  public String payload;
+
+  private DataDogPortUnificationHandler handler;
+  private ObjectMapper objectMapper;
+  private String path;
+  private ByteBuf content;
+
+  @Setup
+  public void setup() throws Exception {
+    objectMapper = new ObjectMapper();
+    handler = new DataDogPortUnificationHandler("4998", null, new CountingHandler(), true, true,
+        null, false, null);
+    String json;
+    switch (payload) {
+      case "series":
+        path = "/api/v1/series/";
+        json = resource("ddTestTimeseries.json");
+        break;
+      case "series-large":
+        path = "/api/v1/series/";
+        ObjectNode recorded = (ObjectNode) objectMapper.readTree(
+            resource("ddTestTimeseries.json"));
+        ArrayNode series = (ArrayNode) recorded.get("series");
+        ArrayNode largeSeries = objectMapper.createArrayNode();
+        for (int i = 0; i < LARGE_SERIES_COPIES; i++) {
+          for (JsonNode metric : series) {
+            ObjectNode copy = metric.deepCopy();
+            copy.put("host", "host" + i);
+            largeSeries.add(copy);
+          }
+        }
+        recorded.set("series", largeSeries);
+        json = objectMapper.writeValueAsString(recorded);
+        break;
+      case "intake":
+        path = "/intake/";
+        json = resource("ddTestSystem.json");
+        break;
+      default:
+        throw new IllegalArgumentException(payload);
+    }
+    content = Unpooled.directBuffer().writeBytes(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Benchmark
+  public boolean treeModel() throws Exception {
+    return handler.reportPayload(path,
+        objectMapper.readTree(content.toString(StandardCharsets.UTF_8)), null);
+  }
+
+  @Benchmark
+  public boolean streaming() throws Exception {
+    return handler.reportPayload(path, content, null);
+  }
+
+  private static String resource(String name) throws Exception {
+    return Resources.toString(Resources.getResource("com.wavefront.agent/" + name),
+        StandardCharsets.UTF_8);
+  }
+
+  private static class CountingHandler implements ReportableEntityHandler<ReportPoint> {
+    private long reported = 0;
+
+    @Override
+    public void report(ReportPoint point) {
+      reported++;
+    }
+
+    @Override
+    public void report(ReportPoint point, @Nullable Object messageObject,
+                       Function<Object, String> messageSerializer) {
+      reported++;
+    }
+
+    @Override
+    public void block(ReportPoint point) {
+    }
+
+    @Override
+    public void block(@Nullable ReportPoint point, @Nullable String message) {
+    }
+
+    @Override
+    public void reject(ReportPoint point) {
+    }
+
+    @Override
+    public void reject(@Nullable ReportPoint point, @Nullable String message) {
+    }
+
+    @Override
+    public void reject(String line, @Nullable String message) {
+    }
+  }
+}
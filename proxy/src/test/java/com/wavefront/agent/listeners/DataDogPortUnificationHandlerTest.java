@@ -0,0 +1,134 @@
+package com.wavefront.agent.listeners;
+
+import com.google.common.io.Resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wavefront.agent.handlers.ReportableEntityHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import wavefront.report.ReportPoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that streaming decoding of DataDog payloads produces the same points as the tree
+ * model.
+ */
+public class DataDogPortUnificationHandlerTest {
+  private CapturingHandler pointHandler;
+  private DataDogPortUnificationHandler handler;
+
+  @Before
+  public void setup() {
+    pointHandler = new CapturingHandler();
+    handler = new DataDogPortUnificationHandler("4999", null, pointHandler, true, true, null,
+        false, null);
+  }
+
+  @Test
+  public void testSeries() throws Exception {
+    assertSameAsTreeModel("/api/v1/series/", resource("ddTestTimeseries.json"), 3);
+  }
+
+  @Test
+  public void testSystemMetrics() throws Exception {
+    assertSameAsTreeModel("/intake/", resource("ddTestSystem.json"), 46);
+  }
+
+  @Test
+  public void testServiceChecks() throws Exception {
+    assertSameAsTreeModel("/api/v1/check_run/", resource("ddTestServiceCheck.json"), 1);
+    assertSameAsTreeModel("/api/v1/check_run/", resource("ddTestMultipleServiceChecks.json"), 2);
+  }
+
+  @Test
+  public void testInvalidSeriesPayloads() throws Exception {
+    assertFalse(handler.reportPayload("/api/v1/series/", buffer("{\"other\":[1,2,3]}"), null));
+    assertFalse(handler.reportPayload("/api/v1/series/", buffer("{\"series\":{}}"), null));
+    assertFalse(handler.reportPayload("/api/v1/series/", buffer("[]"), null));
+    assertFalse(handler.reportPayload("/api/v1/series/", buffer(""), null));
+    assertEquals(4, pointHandler.rejected);
+    assertTrue(pointHandler.reported.isEmpty());
+  }
+
+  private void assertSameAsTreeModel(String path, String payload, int expectedPoints)
+      throws Exception {
+    ByteBuf content = buffer(payload);
+    AtomicInteger pointCounter = new AtomicInteger();
+    assertTrue(handler.reportPayload(path, content, pointCounter));
+    assertEquals(expectedPoints, pointCounter.get());
+    // the buffer is left intact for relaying
+    assertEquals(payload.length(), content.readableBytes());
+    List<ReportPoint> streamed = new ArrayList<>(pointHandler.reported);
+    pointHandler.reported.clear();
+
+    assertTrue(handler.reportPayload(path, new ObjectMapper().readTree(payload), null));
+    assertEquals(pointHandler.reported.size(), streamed.size());
+    for (ReportPoint point : pointHandler.reported) {
+      assertTrue(point.toString(), streamed.contains(point));
+    }
+    pointHandler.reported.clear();
+  }
+
+  private static ByteBuf buffer(String payload) {
+    return Unpooled.copiedBuffer(payload, StandardCharsets.UTF_8);
+  }
+
+  private static String resource(String name) throws Exception {
+    return Resources.toString(Resources.getResource("com.wavefront.agent/" + name),
+        StandardCharsets.UTF_8);
+  }
+
+  private static class CapturingHandler implements ReportableEntityHandler<ReportPoint> {
+    final List<ReportPoint> reported = new ArrayList<>();
+    int rejected = 0;
+
+    @Override
+    public void report(ReportPoint point) {
+      reported.add(point);
+    }
+
+    @Override
+    public void report(ReportPoint point, @Nullable Object messageObject,
+                       Function<Object, String> messageSerializer) {
+      reported.add(point);
+    }
+
+    @Override
+    public void block(ReportPoint point) {
+    }
+
+    @Override
+    public void block(@Nullable ReportPoint point, @Nullable String message) {
+    }
+
+    @Override
+    public void reject(ReportPoint point) {
+      rejected++;
+    }
+
+    @Override
+    public void reject(@Nullable ReportPoint point, @Nullable String message) {
+      rejected++;
+    }
+
+    @Override
+    public void reject(String line, @Nullable String message) {
+      rejected++;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.wavefront.agent.listeners;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link HttpRequestRelay} against a stub HTTP server standing in for DataDog.
+ */
+public class HttpRequestRelayTest {
+  private HttpServer server;
+  private HttpClient httpClient;
+  private String target;
+  private final AtomicReference<String> lastRequest = new AtomicReference<>();
+  private volatile int responseCode = 202;
+  private volatile CountDownLatch release = new CountDownLatch(0);
+
+  @Before
+  public void setup() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/", exchange -> {
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      lastRequest.set(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " +
+          exchange.getRequestHeaders().getFirst("Content-Type") + " " +
+          readFully(exchange.getRequestBody()));
+      byte[] response = ("response " + responseCode).getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(responseCode, response.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(response);
+      }
+    });
+    server.start();
+    httpClient = HttpClientBuilder.create().setMaxConnPerRoute(10).build();
+    target = "http://localhost:" + server.getAddress().getPort() + "/";
+  }
+
+  @After
+  public void teardown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testRelay() throws Exception {
+    HttpRequestRelay relay = new HttpRequestRelay(httpClient, target, 2, "test1");
+    CompletableFuture<HttpRequestRelay.Response> future = relay.relay(
+        "/api/v1/series?api_key=123", "application/json", buffer("{\"series\":[]}"));
+    assertNotNull(future);
+    HttpRequestRelay.Response response = future.get(10, TimeUnit.SECONDS);
+    assertEquals(202, response.statusCode);
+    assertTrue(response.isSuccessful());
+    assertEquals("", response.body);
+    assertEquals("POST /api/v1/series?api_key=123 application/json {\"series\":[]}",
+        lastRequest.get());
+
+    // response body is only returned for non-2xx responses
+    responseCode = 403;
+    response = relay.relay("/intake/", null, buffer("{}")).get(10, TimeUnit.SECONDS);
+    assertEquals(403, response.statusCode);
+    assertFalse(response.isSuccessful());
+    assertEquals("response 403", response.body);
+  }
+
+  @Test
+  public void testMaxInFlight() throws Exception {
+    release = new CountDownLatch(1);
+    HttpRequestRelay relay = new HttpRequestRelay(httpClient, target, 2, "test2");
+    CompletableFuture<HttpRequestRelay.Response> first = relay.relay("/intake/", null,
+        buffer("1"));
+    CompletableFuture<HttpRequestRelay.Response> second = relay.relay("/intake/", null,
+        buffer("2"));
+    assertNotNull(first);
+    assertNotNull(second);
+    // the caller is not blocked while the remote end is stalled, requests over the limit are
+    // rejected right away
+    assertNull(relay.relay("/intake/", null, buffer("3")));
+    assertFalse(first.isDone());
+    release.countDown();
+    assertEquals(202, first.get(10, TimeUnit.SECONDS).statusCode);
+    assertEquals(202, second.get(10, TimeUnit.SECONDS).statusCode);
+    CompletableFuture<HttpRequestRelay.Response> third = relay.relay("/intake/", null,
+        buffer("3"));
+    assertNotNull(third);
+    assertEquals(202, third.get(10, TimeUnit.SECONDS).statusCode);
+  }
+
+  @Test
+  public void testUnreachableTarget() throws Exception {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    HttpRequestRelay relay = new HttpRequestRelay(httpClient, "http://localhost:" + port, 1,
+        "test3");
+    CompletableFuture<HttpRequestRelay.Response> future = relay.relay("/intake/", null,
+        buffer("{}"));
+    assertNotNull(future);
+    try {
+      future.get(10, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertNotNull(HttpRequestRelay.getMessage(e));
+    }
+    // the permit is released on failure
+    assertNotNull(relay.relay("/intake/", null, buffer("{}")));
+  }
+
+  private static ByteBuf buffer(String payload) {
+    return Unpooled.copiedBuffer(payload, StandardCharsets.UTF_8);
+  }
+
+  private static String readFully(InputStream stream) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    byte[] chunk = new byte[4096];
+    int read;
+    while ((read = stream.read(chunk)) != -1) {
+      buffer.write(chunk, 0, read);
+    }
+    return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
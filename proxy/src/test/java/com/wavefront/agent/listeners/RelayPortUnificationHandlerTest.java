@@ -0,0 +1,133 @@
+package com.wavefront.agent.listeners;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.wavefront.agent.api.BinaryPushDataCodec;
+import com.wavefront.agent.api.PushDataPayload;
+import com.wavefront.agent.auth.TokenAuthenticatorBuilder;
+import com.wavefront.agent.handlers.MockReportableEntityHandlerFactory;
+import com.wavefront.agent.handlers.ReportPointHandlerImpl;
+import com.wavefront.agent.handlers.SpanHandlerImpl;
+import com.wavefront.api.agent.Constants;
+import com.wavefront.data.ReportableEntityType;
+import com.wavefront.ingester.GraphiteDecoder;
+import com.wavefront.ingester.HistogramDecoder;
+import com.wavefront.ingester.ReportPointDecoderWrapper;
+import com.wavefront.ingester.ReportableEntityDecoder;
+import com.wavefront.ingester.SpanDecoder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import wavefront.report.Histogram;
+import wavefront.report.HistogramType;
+import wavefront.report.ReportPoint;
+import wavefront.report.Span;
+
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that binary payloads sent by another proxy are handed over to handlers as is.
+ */
+public class RelayPortUnificationHandlerTest {
+  private final ReportPoint point = ReportPoint.newBuilder().setTable("dummy").
+      setMetric("metric.name").setHost("host").setTimestamp(1574290124000L).setValue(1.0d).
+      setAnnotations(ImmutableMap.of("tag", "value")).build();
+  private final ReportPoint histogram = ReportPoint.newBuilder().setTable("dummy").
+      setMetric("metric.histo").setHost("host").setTimestamp(1574290080000L).
+      setValue(Histogram.newBuilder().setType(HistogramType.TDIGEST).setDuration(60000).
+          setBins(ImmutableList.of(10.0d, 100.0d)).setCounts(ImmutableList.of(5, 10)).build()).
+      setAnnotations(ImmutableMap.of()).build();
+  private final Span span = Span.newBuilder().setCustomer("dummy").setStartMillis(1574290124000L).
+      setDuration(1000).setName("testSpanName").setSource("testsource").setSpanId("testspanid").
+      setTraceId("testtraceid").setAnnotations(ImmutableList.of()).build();
+
+  private final ReportPointHandlerImpl mockPointHandler =
+      MockReportableEntityHandlerFactory.getMockReportPointHandler();
+  private final ReportPointHandlerImpl mockHistogramHandler =
+      MockReportableEntityHandlerFactory.getMockHistogramHandler();
+  private final SpanHandlerImpl mockTraceHandler =
+      MockReportableEntityHandlerFactory.getMockTraceHandler();
+  private final AtomicBoolean histogramDisabled = new AtomicBoolean(false);
+
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setup() {
+    ImmutableMap<ReportableEntityType, ReportableEntityDecoder> decoders = ImmutableMap.of(
+        ReportableEntityType.POINT, new ReportPointDecoderWrapper(
+            new GraphiteDecoder("unknown", ImmutableList.of())),
+        ReportableEntityType.HISTOGRAM, new ReportPointDecoderWrapper(
+            new HistogramDecoder("unknown")),
+        ReportableEntityType.TRACE, new SpanDecoder("unknown"));
+    channel = new EmbeddedChannel(new RelayPortUnificationHandler("2978",
+        TokenAuthenticatorBuilder.create().build(), null, decoders,
+        MockReportableEntityHandlerFactory.createMockHandlerFactory(mockPointHandler, null,
+            mockHistogramHandler, mockTraceHandler, null),
+        null, null, histogramDisabled::get, () -> false, () -> false));
+  }
+
+  @Test
+  public void testBinaryPoints() {
+    mockPointHandler.reportBatch(ImmutableList.of(point));
+    expectLastCall();
+    mockHistogramHandler.reportBatch(ImmutableList.of(histogram));
+    expectLastCall();
+    replay(mockPointHandler, mockHistogramHandler);
+
+    assertEquals(HttpResponseStatus.OK, post(BinaryPushDataCodec.binaryFormat(
+        Constants.PUSH_FORMAT_WAVEFRONT), BinaryPushDataCodec.POINTS.encode(
+            ImmutableList.of(point, histogram))));
+    verify(mockPointHandler, mockHistogramHandler);
+  }
+
+  @Test
+  public void testBinaryHistogramsDisabled() {
+    replay(mockPointHandler, mockHistogramHandler);
+    histogramDisabled.set(true);
+    assertEquals(HttpResponseStatus.FORBIDDEN, post(BinaryPushDataCodec.binaryFormat(
+        Constants.PUSH_FORMAT_HISTOGRAM), BinaryPushDataCodec.POINTS.encode(
+            ImmutableList.of(histogram))));
+    verify(mockPointHandler, mockHistogramHandler);
+  }
+
+  @Test
+  public void testBinarySpans() {
+    mockTraceHandler.reportBatch(ImmutableList.of(span));
+    expectLastCall();
+    replay(mockTraceHandler);
+
+    assertEquals(HttpResponseStatus.OK, post(BinaryPushDataCodec.binaryFormat(
+        Constants.PUSH_FORMAT_TRACING), BinaryPushDataCodec.SPANS.encode(ImmutableList.of(span))));
+    verify(mockTraceHandler);
+  }
+
+  @Test
+  public void testMalformedBinaryPayload() {
+    replay(mockPointHandler, mockHistogramHandler);
+    byte[] data = "\"metric.name\" 1.0 source=host".getBytes();
+    assertEquals(HttpResponseStatus.BAD_REQUEST, post(BinaryPushDataCodec.binaryFormat(
+        Constants.PUSH_FORMAT_WAVEFRONT), new PushDataPayload(data, data.length, 1, false)));
+    verify(mockPointHandler, mockHistogramHandler);
+  }
+
+  private HttpResponseStatus post(String format, PushDataPayload payload) {
+    channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        "/api/v2/wfproxy/report?format=" + format, Unpooled.wrappedBuffer(payload.toByteArray())));
+    FullHttpResponse response = channel.readOutbound();
+    return response.status();
+  }
+}
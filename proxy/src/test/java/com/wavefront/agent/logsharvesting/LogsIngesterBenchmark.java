@@ -0,0 +1,144 @@
+package com.wavefront.agent.logsharvesting;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.wavefront.agent.config.LogsIngestionConfig;
+import com.wavefront.agent.config.MetricMatcher;
+import com.yammer.metrics.core.MetricName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import wavefront.report.TimeSeries;
+
+/**
+ * Compares the cost of keying harvested metrics by Avro JSON {@link MetricName}s (serialized on
+ * every matched line, parsed back on every flush) with {@link TimeSeriesKey}, using the
+ * {@link LogsIngesterTest} fixtures. Also measures end-to-end {@link LogsIngester#ingestLog}
+ * throughput.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.logsharvesting.LogsIngesterBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LogsIngesterBenchmark {
+  private static final int SERIES = 50;
+
+  private LogsIngester logsIngester;
+  private List<LogsMessage> messages;
+  private List<TimeSeries> timeSeries;
+  private Map<MetricName, Object> legacyIndex;
+  private Map<TimeSeriesKey, Object> internedIndex;
+  private List<MetricName> legacyNames;
+  private List<MetricName> internedNames;
+  private int index = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    File configFile = new File(LogsIngesterBenchmark.class.getClassLoader().
+        getResource("test.yml").getPath());
+    LogsIngestionConfig config = new ObjectMapper(new YAMLFactory()).readValue(configFile,
+        LogsIngestionConfig.class);
+    config.aggregationIntervalSeconds = 10000; // never flush automatically
+    config.verifyAndInit();
+    // handlers are only used on flush
+    logsIngester = new LogsIngester(handlerKey -> null, () -> config, null);
+
+    messages = new ArrayList<>();
+    timeSeries = new ArrayList<>();
+    legacyIndex = new HashMap<>();
+    internedIndex = new HashMap<>();
+    legacyNames = new ArrayList<>();
+    internedNames = new ArrayList<>();
+    for (int i = 0; i < SERIES; i++) {
+      String line = "operation op" + i + " took 2 seconds in DC=dc" + (i % 3) + " AZ=az" + (i % 5);
+      LogsMessage message = new LogsMessage() {
+        @Override
+        public String getLogLine() {
+          return line;
+        }
+
+        @Override
+        public String hostOrDefault(String fallbackHost) {
+          return "testHost";
+        }
+      };
+      messages.add(message);
+      for (MetricMatcher matcher : config.counters) {
+        TimeSeries series = matcher.timeSeries(message, new Double[] {null});
+        if (series != null) {
+          timeSeries.add(series);
+          MetricName legacyName = TimeSeriesUtils.toMetricName(series);
+          legacyIndex.put(legacyName, series);
+          legacyNames.add(legacyName);
+          TimeSeriesKey key = new TimeSeriesKey(series);
+          internedIndex.put(key, series);
+          internedNames.add(key.toMetricName());
+          break;
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void ingestLog() {
+    logsIngester.ingestLog(messages.get(next(messages.size())));
+  }
+
+  @Benchmark
+  public Object lookupByAvroJsonName() {
+    return legacyIndex.get(TimeSeriesUtils.toMetricName(timeSeries.get(next(timeSeries.size()))));
+  }
+
+  @Benchmark
+  public Object lookupByTimeSeriesKey() {
+    return internedIndex.get(new TimeSeriesKey(timeSeries.get(next(timeSeries.size()))));
+  }
+
+  @Benchmark
+  public TimeSeries flushParseAvroJsonName() throws Exception {
+    return TimeSeriesUtils.fromMetricName(legacyNames.get(next(legacyNames.size())));
+  }
+
+  @Benchmark
+  public TimeSeries flushTimeSeriesKeyName() throws Exception {
+    MetricName name = internedNames.get(next(internedNames.size()));
+    return name instanceof TimeSeriesKey.Name ? ((TimeSeriesKey.Name) name).getTimeSeries() :
+        TimeSeriesUtils.fromMetricName(name);
+  }
+
+  private int next(int size) {
+    index = index + 1 >= size ? 0 : index + 1;
+    return index;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().
+        include(LogsIngesterBenchmark.class.getSimpleName()).
+        build();
+    new Runner(options).run();
+  }
+}
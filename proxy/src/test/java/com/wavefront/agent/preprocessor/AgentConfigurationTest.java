@@ -1,14 +1,25 @@
 package com.wavefront.agent.preprocessor;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.function.Supplier;
 
 import wavefront.report.ReportPoint;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class AgentConfigurationTest {
@@ -46,4 +57,55 @@ public class AgentConfigurationTest {
     config.get("2878").get().forReportPoint().transform(point);
     assertEquals("barFighters.barmetric", point.getMetric());
   }
+
+  @Test
+  public void testReloadOnFileChange() throws Exception {
+    // a separate directory, so that changes to unrelated files don't trigger reloads
+    File directory = Files.createTempDirectory("preprocessor").toFile();
+    directory.deleteOnExit();
+    File file = new File(directory, "preprocessor_rules.yaml");
+    file.deleteOnExit();
+    Files.write(file.toPath(), addTagRule("bar").getBytes(StandardCharsets.UTF_8));
+    try (PreprocessorConfigManager config = new PreprocessorConfigManager(file.getPath())) {
+      Supplier<ReportableEntityPreprocessor> supplier = config.get("2878");
+      ReportableEntityPreprocessor preprocessor = supplier.get();
+      assertEquals("bar", transform(preprocessor).getAnnotations().get("foo"));
+      assertSame(preprocessor, supplier.get());
+      assertEquals(0, config.get("4242").get().forReportPoint().getTransformers().size());
+
+      // same contents: snapshot is retained
+      Counter unchangedReloads = Metrics.newCounter(
+          new MetricName("preprocessor", "", "config-reloads.unchanged"));
+      long unchanged = unchangedReloads.count();
+      Files.write(file.toPath(), addTagRule("bar").getBytes(StandardCharsets.UTF_8));
+      long deadline = System.currentTimeMillis() + 10000;
+      while (unchangedReloads.count() == unchanged && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertTrue(unchangedReloads.count() > unchanged);
+      assertSame(preprocessor, supplier.get());
+
+      Files.write(file.toPath(), addTagRule("baz").getBytes(StandardCharsets.UTF_8));
+      deadline = System.currentTimeMillis() + 10000;
+      while (supplier.get() == preprocessor && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertNotSame(preprocessor, supplier.get());
+      assertEquals("baz", transform(supplier.get()).getAnnotations().get("foo"));
+    }
+  }
+
+  private static String addTagRule(String value) {
+    return "'2878':\n" +
+        "  - rule: test-addtag\n" +
+        "    action: addTag\n" +
+        "    tag: foo\n" +
+        "    value: " + value + "\n";
+  }
+
+  private static ReportPoint transform(ReportableEntityPreprocessor preprocessor) {
+    ReportPoint point = new ReportPoint("metric", System.currentTimeMillis(), 10L, "host",
+        "table", new HashMap<>());
+    return preprocessor.forReportPoint().transform(point);
+  }
 }
@@ -0,0 +1,81 @@
+package com.wavefront.agent.preprocessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares evaluating blacklist rules on the same scope one by one with evaluating them through
+ * a merged multi-pattern matcher (see {@link BlacklistFilterCompiler}), for a point line that
+ * doesn't match any of the rules.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.preprocessor.BlacklistFilterBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BlacklistFilterBenchmark {
+  private static final String POINT_LINE = "request.latency.p99 12.5 1574290124 source=app-1 " +
+      "env=production dc=us-west-2 service=checkout";
+
+  @Param({"10", "100", "1000"})
+  public int rules;
+
+  private Preprocessor<String> compiled;
+  private Preprocessor<String> sequential;
+
+  @Setup
+  public void setup() {
+    compiled = new Preprocessor<>(null, BlacklistFilterCompiler::compile);
+    PreprocessorRuleMetrics metrics = new PreprocessorRuleMetrics(null, null, null);
+    for (int i = 0; i < rules; i++) {
+      String pattern;
+      switch (i % 3) {
+        case 0:
+          pattern = "legacy\\.metric" + i + "\\..*";
+          break;
+        case 1:
+          pattern = ".*service=deprecated-" + i + ".*";
+          break;
+        default:
+          pattern = ".*env=test" + i;
+      }
+      compiled.addFilter(new PointLineBlacklistRegexFilter(pattern, metrics));
+    }
+    sequential = new Preprocessor<>(compiled.getTransformers(), compiled.getFilters());
+  }
+
+  @Benchmark
+  public boolean sequential() {
+    return sequential.filter(POINT_LINE);
+  }
+
+  @Benchmark
+  public boolean compiled() {
+    return compiled.filter(POINT_LINE);
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().
+        include(BlacklistFilterBenchmark.class.getSimpleName()).
+        build();
+    new Runner(options).run();
+  }
+}
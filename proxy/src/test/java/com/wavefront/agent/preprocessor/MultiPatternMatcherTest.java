@@ -0,0 +1,113 @@
+package com.wavefront.agent.preprocessor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import wavefront.report.ReportPoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultiPatternMatcherTest {
+
+  private final List<String> patterns = ImmutableList.of(
+      "^metric\\.exact$",
+      "metric\\..*",
+      ".*\\.count",
+      ".*bar.*",
+      "me.*c",
+      "foo",
+      ".*ba",
+      "[a-z]+\\.[a-z]+",
+      "foo.*",
+      "\\Qa.b\\E",
+      ".*",
+      "");
+
+  @Test
+  public void testFirstMatchIsSameAsSequential() {
+    List<String> values = ImmutableList.of("metric.exact", "metric.count", "my.count", "foobar",
+        "foo", "fooba", "mec", "abc.def", "a.b", "axb", "", "bar", "xbarx", "ba", "metric\n.x",
+        "foo\nbar", "line\u2028bar", "COUNT.count", "\\Qa.b\\E");
+    for (int skip = 0; skip < patterns.size(); skip++) {
+      List<String> subset = ImmutableList.<String>builder().
+          addAll(patterns.subList(skip, patterns.size())).
+          addAll(patterns.subList(0, skip)).build();
+      MultiPatternMatcher matcher = new MultiPatternMatcher(subset);
+      for (String value : values) {
+        assertEquals("pattern set " + subset + ", value " + value, sequentialMatch(subset, value),
+            matcher.firstMatch(value));
+      }
+    }
+  }
+
+  @Test
+  public void testLiteralPatternsAreNotEvaluatedAsRegexes() {
+    assertEquals(3, new MultiPatternMatcher(patterns).getRegexCount());
+  }
+
+  @Test
+  public void testAhoCorasickOverlappingLiterals() {
+    MultiPatternMatcher matcher = new MultiPatternMatcher(ImmutableList.of(".*abcd.*", ".*bce.*",
+        ".*c.*", ".*bc.*"));
+    assertEquals(1, matcher.firstMatch("xabcex"));
+    assertEquals(2, matcher.firstMatch("abc"));
+    assertEquals(0, matcher.firstMatch("aabcd"));
+    assertEquals(-1, matcher.firstMatch("abde"));
+  }
+
+  @Test
+  public void testMergedBlacklistFilterMetrics() {
+    Counter[] applied = new Counter[3];
+    Counter[] checked = new Counter[3];
+    Preprocessor<ReportPoint> preprocessor = new Preprocessor<>(null,
+        BlacklistFilterCompiler::compile);
+    List<String> rules = ImmutableList.of("foo", "bar.*", "foo.*");
+    for (int i = 0; i < 3; i++) {
+      applied[i] = Metrics.newCounter(new MetricName("test", "", "merged-applied-" + i));
+      checked[i] = Metrics.newCounter(new MetricName("test", "", "merged-checked-" + i));
+      preprocessor.addFilter(new ReportPointBlacklistRegexFilter("env", rules.get(i),
+          new PreprocessorRuleMetrics(applied[i], null, checked[i])));
+    }
+    preprocessor.addFilter(new ReportPointWhitelistRegexFilter("metricName", "metric",
+        new PreprocessorRuleMetrics(null, null, null)));
+    assertTrue(preprocessor.filter(point("baz")));
+    assertFalse(preprocessor.filter(point("foo")));
+    assertFalse(preprocessor.filter(point("foobar")));
+    assertFalse(preprocessor.filter(point("bar")));
+    assertEquals(1, applied[0].count());
+    assertEquals(1, applied[1].count());
+    assertEquals(1, applied[2].count());
+    assertEquals(4, checked[0].count());
+    assertEquals(3, checked[1].count());
+    assertEquals(2, checked[2].count());
+
+    List<AnnotatedPredicate<ReportPoint>> compiled = BlacklistFilterCompiler.compile(
+        preprocessor.getFilters());
+    assertEquals(2, compiled.size());
+    assertTrue(compiled.get(0) instanceof BlacklistFilterCompiler.MergedBlacklistFilter);
+  }
+
+  private static int sequentialMatch(List<String> patterns, String value) {
+    for (int i = 0; i < patterns.size(); i++) {
+      if (Pattern.compile(patterns.get(i)).matcher(value).matches()) return i;
+    }
+    return -1;
+  }
+
+  private static ReportPoint point(String env) {
+    return new ReportPoint("metric", System.currentTimeMillis(), 10L, "host", "table",
+        new HashMap<>(ImmutableMap.of("env", env)));
+  }
+}
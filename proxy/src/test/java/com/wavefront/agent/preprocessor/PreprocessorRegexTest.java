@@ -0,0 +1,118 @@
+package com.wavefront.agent.preprocessor;
+
+import com.google.common.base.Strings;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PreprocessorRegexTest {
+
+  private static final String RUNAWAY_PATTERN = "(.*a){20}";
+  private static final String RUNAWAY_INPUT = Strings.repeat("a", 25) + "!";
+
+  @After
+  public void tearDown() {
+    PreprocessorRegex.setDefaultEngine(PreprocessorRegex.Engine.JAVA);
+    PreprocessorRegex.setMaxMatchMillis(0);
+    PreprocessorRegex.setFailOpenOnTimeout(false);
+  }
+
+  @Test
+  public void testEnginesAreEquivalent() {
+    for (PreprocessorRegex.Engine engine : PreprocessorRegex.Engine.values()) {
+      PreprocessorRegex.setDefaultEngine(engine);
+      PreprocessorRegex regex = PreprocessorRegex.compile("([a-z]+)-([0-9]+)");
+      assertTrue(regex.matcher("abc-123").matches());
+      assertFalse(regex.matcher("abc-123-").matches());
+      assertTrue(regex.matcher("xyz abc-123-").find());
+      assertEquals("123_abc 4_de", regex.matcher("abc-123 de-4").replaceAll("$2_$1"));
+      assertEquals("([a-z]+)-([0-9]+)", regex.pattern());
+    }
+  }
+
+  @Test
+  public void testCheckLinearTime() {
+    assertNull(PreprocessorRegex.checkLinearTime("^metric\\.(foo|bar)[0-9]*$"));
+    assertNotNull(PreprocessorRegex.checkLinearTime("(a)\\1"));
+    assertNotNull(PreprocessorRegex.checkLinearTime("foo(?!bar)"));
+
+    // patterns re2j doesn't support still work
+    PreprocessorRegex.setDefaultEngine(PreprocessorRegex.Engine.RE2J);
+    assertTrue(PreprocessorRegex.compile("(a)\\1").matcher("aa").matches());
+  }
+
+  @Test
+  public void testMatchTimeout() {
+    PreprocessorRegex.setMaxMatchMillis(10);
+    try {
+      PreprocessorRegex.compile(RUNAWAY_PATTERN).matcher(RUNAWAY_INPUT).matches();
+      fail();
+    } catch (PreprocessorRegex.MatchTimeoutException e) {
+      assertEquals(RUNAWAY_PATTERN, e.getPattern());
+    }
+  }
+
+  @Test
+  public void testTimedOutFiltersRejectByDefault() {
+    PreprocessorRegex.setMaxMatchMillis(10);
+    Counter disabled = Metrics.newCounter(new MetricName("preprocessor", "", "rules-disabled"));
+    long disabledBefore = disabled.count();
+    Preprocessor<String> preprocessor = newPreprocessor(new PreprocessorRuleMetrics(null, null,
+        null));
+    String[] messageHolder = new String[1];
+    for (int i = 0; i < Preprocessor.MAX_RULE_TIMEOUTS + 1; i++) {
+      assertFalse(preprocessor.filter(RUNAWAY_INPUT, messageHolder));
+      assertNotNull(messageHolder[0]);
+    }
+    // the rule stays enabled
+    assertEquals(disabledBefore, disabled.count());
+    assertTrue(preprocessor.filter("abc"));
+    assertFalse(preprocessor.filter("foo"));
+  }
+
+  @Test
+  public void testRunawayRulesAreDisabledWhenFailingOpen() {
+    PreprocessorRegex.setMaxMatchMillis(10);
+    PreprocessorRegex.setFailOpenOnTimeout(true);
+    Counter disabled = Metrics.newCounter(new MetricName("preprocessor", "", "rules-disabled"));
+    long disabledBefore = disabled.count();
+    Counter applied = Metrics.newCounter(new MetricName("test", "", "regex-applied"));
+    long appliedBefore = applied.count();
+    Preprocessor<String> preprocessor = newPreprocessor(new PreprocessorRuleMetrics(applied, null,
+        null));
+
+    assertFalse(preprocessor.filter("foo"));
+    for (int i = 0; i < Preprocessor.MAX_RULE_TIMEOUTS - 1; i++) {
+      assertTrue(preprocessor.filter(RUNAWAY_INPUT));
+      assertEquals(disabledBefore, disabled.count());
+    }
+    assertTrue(preprocessor.filter(RUNAWAY_INPUT));
+    assertEquals(disabledBefore + 1, disabled.count());
+    // remaining rules are still applied
+    assertFalse(preprocessor.filter("foo"));
+    assertFalse(preprocessor.filter("bar"));
+    assertTrue(preprocessor.filter(RUNAWAY_INPUT));
+    assertEquals(disabledBefore + 1, disabled.count());
+    assertEquals(appliedBefore + 1, applied.count());
+  }
+
+  private static Preprocessor<String> newPreprocessor(PreprocessorRuleMetrics whitelistMetrics) {
+    PreprocessorRuleMetrics metrics = new PreprocessorRuleMetrics(null, null, null);
+    Preprocessor<String> preprocessor = new Preprocessor<>(null, BlacklistFilterCompiler::compile);
+    preprocessor.addFilter(new PointLineBlacklistRegexFilter("foo.*", metrics));
+    preprocessor.addFilter(new PointLineBlacklistRegexFilter(RUNAWAY_PATTERN, metrics));
+    preprocessor.addFilter(new PointLineWhitelistRegexFilter("a.*", whitelistMetrics));
+    return preprocessor;
+  }
+}
@@ -0,0 +1,104 @@
+package com.wavefront.agent.preprocessor;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import wavefront.report.ReportPoint;
+
+/**
+ * Compares applying a port's point rules one by one with applying the compiled execution plan
+ * (see {@link ReportPointRuleCompiler}), using a rule set of 200 rules spread across 40 point
+ * tags, loaded the same way as in {@link PreprocessorRulesTest}.
+ *
+ * Run with: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.wavefront.agent.preprocessor.PreprocessorRuleCompilerBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PreprocessorRuleCompilerBenchmark {
+  private static final int RULES = 200;
+  private static final int TAG_KEYS = 40;
+
+  private final Map<String, String> tags = ImmutableMap.of("env", "Production",
+      "dc", "us-west-2", "service", "checkout", "tag1", "FooBar", "tag7", "foo-baz");
+
+  private Preprocessor<ReportPoint> compiled;
+  private Preprocessor<ReportPoint> sequential;
+
+  @Setup
+  public void setup() {
+    StringBuilder rules = new StringBuilder("'2878':\n");
+    for (int i = 0; i < RULES; i++) {
+      rules.append("  - rule: benchmark-").append(i).append("\n");
+      if (i % 50 == 3) {
+        rules.append("    action: replaceRegex\n    scope: metricName\n" +
+            "    search: \"^legacy\\\\.\"\n    replace: \"\"\n");
+      } else if (i % 50 == 4) {
+        rules.append("    action: addTag\n    tag: origin\n    value: \"{{sourceName}}\"\n");
+      } else {
+        String scope = "tag" + (i % TAG_KEYS);
+        switch (i % 3) {
+          case 0:
+            rules.append("    action: forceLowercase\n    scope: ").append(scope).append("\n");
+            break;
+          case 1:
+            rules.append("    action: replaceRegex\n    scope: ").append(scope).
+                append("\n    search: foo\n    replace: bar\n");
+            break;
+          default:
+            rules.append("    action: limitLength\n    scope: ").append(scope).
+                append("\n    actionSubtype: truncate\n    maxLength: 64\n");
+        }
+      }
+    }
+    Map<String, ReportableEntityPreprocessor> preprocessors = new PreprocessorConfigManager().
+        loadFromStream(new ByteArrayInputStream(rules.toString().getBytes(StandardCharsets.UTF_8)));
+    compiled = preprocessors.get("2878").forReportPoint();
+    sequential = new Preprocessor<>(compiled.getTransformers(), compiled.getFilters());
+  }
+
+  @Benchmark
+  public ReportPoint sequential() {
+    return sequential.transform(point());
+  }
+
+  @Benchmark
+  public ReportPoint compiled() {
+    return compiled.transform(point());
+  }
+
+  private ReportPoint point() {
+    return new ReportPoint("legacy.request.count", 1574290124000L, 10.0d, "app-1", "table",
+        new HashMap<>(tags));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder().
+        include(PreprocessorRuleCompilerBenchmark.class.getSimpleName()).
+        build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,111 @@
+package com.wavefront.agent.preprocessor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import wavefront.report.ReportPoint;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReportPointRuleCompilerTest {
+  private final PreprocessorRuleMetrics metrics = new PreprocessorRuleMetrics(null, null, null);
+
+  private final List<Function<ReportPoint, ReportPoint>> rules = ImmutableList.of(
+      new ReportPointForceLowercaseTransformer("env", null, metrics),
+      new ReportPointReplaceRegexTransformer("dc", "^us-", "", null, null, metrics),
+      new ReportPointLimitLengthTransformer("env", 4, LengthLimitActionType.TRUNCATE, null,
+          metrics),
+      new ReportPointAddTagTransformer("dc", "{{env}}-dc", metrics),
+      new ReportPointForceLowercaseTransformer("metricName", null, metrics),
+      new ReportPointLimitLengthTransformer("dc", 6, LengthLimitActionType.DROP, null, metrics),
+      new ReportPointReplaceRegexTransformer("env", "o", "{{dc}}", null, null, metrics),
+      new ReportPointReplaceRegexTransformer("dc", "-", "_", null, null, metrics));
+
+  @Test
+  public void testCompile() {
+    List<Function<ReportPoint, ReportPoint>> compiled = ReportPointRuleCompiler.compile(rules);
+    // [env, dc, env] -> group, addTag, metricName, dc, replace w/placeholder, dc
+    assertEquals(6, compiled.size());
+    assertTrue(compiled.get(0) instanceof ReportPointRuleCompiler.TagIndexedTransformer);
+    assertEquals(rules.get(3), compiled.get(1));
+    assertEquals(rules.get(4), compiled.get(2));
+    assertEquals(rules.get(5), compiled.get(3));
+    assertEquals(rules.get(6), compiled.get(4));
+    assertEquals(rules.get(7), compiled.get(5));
+  }
+
+  @Test
+  public void testCompiledRulesAreEquivalent() {
+    List<Map<String, String>> tagSets = ImmutableList.of(
+        ImmutableMap.of(),
+        ImmutableMap.of("env", "PRODUCTION"),
+        ImmutableMap.of("dc", "us-west-2"),
+        ImmutableMap.of("env", "Dev", "dc", "us-east"),
+        ImmutableMap.of("env", "staging", "dc", "eu-central-1", "foo", "bar"));
+    List<Function<ReportPoint, ReportPoint>> compiled = ReportPointRuleCompiler.compile(rules);
+    for (Map<String, String> tags : tagSets) {
+      ReportPoint expected = point(tags);
+      for (Function<ReportPoint, ReportPoint> rule : rules) {
+        expected = rule.apply(expected);
+      }
+      ReportPoint actual = point(tags);
+      for (Function<ReportPoint, ReportPoint> rule : compiled) {
+        actual = rule.apply(actual);
+      }
+      assertEquals(expected.getMetric(), actual.getMetric());
+      assertEquals(expected.getAnnotations(), actual.getAnnotations());
+    }
+  }
+
+  @Test
+  public void testRulesForMissingTagsAreSkipped() {
+    Counter checked = Metrics.newCounter(new MetricName("test", "", "compiler-checked"));
+    PreprocessorRuleMetrics ruleMetrics = new PreprocessorRuleMetrics(null, null, checked);
+    Preprocessor<ReportPoint> preprocessor = new Preprocessor<>(ReportPointRuleCompiler::compile);
+    preprocessor.addTransformer(new ReportPointForceLowercaseTransformer("env", null, ruleMetrics));
+    preprocessor.addTransformer(new ReportPointForceLowercaseTransformer("dc", null, ruleMetrics));
+    preprocessor.transform(point(ImmutableMap.of("foo", "bar")));
+    assertEquals(0, checked.count());
+    ReportPoint point = preprocessor.transform(point(ImmutableMap.of("dc", "US-West")));
+    assertEquals(1, checked.count());
+    assertEquals("us-west", point.getAnnotations().get("dc"));
+
+    // rules added after the first transformation are applied as well
+    preprocessor.addTransformer(new ReportPointAddTagTransformer("env", "PROD", ruleMetrics));
+    point = preprocessor.transform(point(ImmutableMap.of("dc", "US-West")));
+    assertEquals("PROD", point.getAnnotations().get("env"));
+  }
+
+  @Test
+  public void testPlaceholderTemplate() {
+    ReportPoint point = point(ImmutableMap.of("foo", "b$r\\"));
+    PlaceholderTemplate template = PlaceholderTemplate.compile(
+        "{{metricName}}.{{}}.{{foo}}-{{sourceName}}-{{missing}}{{foo");
+    assertEquals("Metric.{{}}.b$r\\-host-{{missing}}{{foo", template.expand(point));
+    assertTrue(PlaceholderTemplate.compile("{{}} no placeholders").isConstant());
+    assertEquals("prefix-host", PreprocessorUtil.expandPlaceholders("prefix-{{sourceName}}",
+        point));
+    point.setAnnotations(null);
+    assertEquals("Metric-{{foo}}", PlaceholderTemplate.compile("{{metricName}}-{{foo}}").
+        expand(point));
+    assertNull(point.getAnnotations());
+  }
+
+  private static ReportPoint point(Map<String, String> tags) {
+    return new ReportPoint("Metric", System.currentTimeMillis(), 10L, "host", "table",
+        new HashMap<>(tags));
+  }
+}
@@ -0,0 +1,48 @@
+package com.wavefront.agent.queueing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveDrainPolicyTest {
+
+  @Test
+  public void testWindow() {
+    AdaptiveDrainPolicy policy = new AdaptiveDrainPolicy(1, 4, () -> 2.0);
+    assertEquals(1, policy.getWindow());
+    policy.onSuccess();
+    assertEquals(2, policy.getWindow());
+    policy.onSuccess();
+    policy.onSuccess();
+    assertEquals(3, policy.getWindow());
+    for (int i = 0; i < 100; i++) {
+      policy.onSuccess();
+    }
+    assertEquals(4, policy.getWindow());
+    policy.onFailure();
+    assertEquals(2, policy.getWindow());
+    policy.onFailure();
+    policy.onFailure();
+    assertEquals(1, policy.getWindow());
+  }
+
+  @Test
+  public void testBackoff() {
+    AdaptiveDrainPolicy policy = new AdaptiveDrainPolicy(1, 4, () -> 2.0);
+    for (int i = 0; i < 100; i++) {
+      long delay = policy.nextDelayMillis(false);
+      assertTrue(delay >= 2000 && delay < 4000);
+    }
+    long maxDelay = 0;
+    for (int i = 0; i < 100; i++) {
+      long delay = policy.nextDelayMillis(true);
+      assertTrue(delay >= 2000 && delay <= 32000);
+      maxDelay = Math.max(maxDelay, delay);
+    }
+    assertTrue(maxDelay > 4000);
+    // back to normal after a successful attempt
+    long delay = policy.nextDelayMillis(false);
+    assertTrue(delay >= 2000 && delay < 4000);
+  }
+}
@@ -0,0 +1,257 @@
+package com.wavefront.agent.queueing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedSegmentLogTest {
+  private static final int SEGMENT_SIZE = 4096;
+
+  private File directory;
+
+  @Before
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("queue").toFile();
+  }
+
+  @After
+  public void teardown() {
+    MappedSegmentLog.purge(directory);
+  }
+
+  @Test
+  public void testAppendPeekRemove() throws IOException {
+    MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    assertEquals(0, log.size());
+    assertNull(log.peek());
+    log.append(record(1, "first"));
+    log.append(record(2, "second"));
+    assertEquals(2, log.size());
+    assertEquals(3, log.getPointCount());
+    MappedSegmentLog.Record record = log.peek();
+    assertNotNull(record);
+    assertEquals("first", body(record));
+    assertEquals("wavefront", record.getFormat());
+    assertEquals(1, record.getPointCount());
+    assertEquals(1234567890L, record.getEnqueuedMillis());
+    log.remove();
+    assertEquals("second", body(log.peek()));
+    log.remove();
+    assertEquals(0, log.size());
+    assertEquals(0, log.getPointCount());
+    assertEquals(0, log.getByteCount());
+    assertNull(log.peek());
+    log.close();
+  }
+
+  @Test
+  public void testSegmentRollAndRetirement() throws IOException {
+    MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    for (int i = 0; i < 1000; i++) {
+      log.append(record(1, "record number " + i));
+    }
+    // a record larger than the segment size goes into its own oversized segment
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < SEGMENT_SIZE; i++) {
+      large.append('x');
+    }
+    log.append(record(10, large.toString()));
+    assertTrue(segmentCount() > 2);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("record number " + i, body(log.peek()));
+      log.remove();
+    }
+    assertEquals(large.toString(), body(log.peek()));
+    log.remove();
+    assertNull(log.peek());
+    log.maintain();
+    assertEquals(1, segmentCount());
+    log.close();
+  }
+
+  @Test
+  public void testPeekMultiple() throws IOException {
+    MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    assertTrue(log.peek(10).isEmpty());
+    for (int i = 0; i < 500; i++) {
+      log.append(record(1, "record number " + i));
+    }
+    int expected = 0;
+    while (log.size() > 0) {
+      List<MappedSegmentLog.Record> records = log.peek(7);
+      assertEquals(Math.min(7, log.size()), records.size());
+      for (MappedSegmentLog.Record record : records) {
+        assertEquals("record number " + (expected + records.indexOf(record)), body(record));
+      }
+      for (int i = 0; i < records.size(); i++) {
+        log.remove();
+      }
+      expected += records.size();
+    }
+    assertEquals(500, expected);
+    log.close();
+  }
+
+  @Test
+  public void testRecovery() throws IOException {
+    MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    for (int i = 0; i < 100; i++) {
+      log.append(record(2, "record number " + i));
+    }
+    for (int i = 0; i < 40; i++) {
+      log.remove();
+    }
+    log.close();
+
+    log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    assertEquals(60, log.size());
+    assertEquals(120, log.getPointCount());
+    assertEquals("record number 40", body(log.peek()));
+    log.append(record(2, "record number 100"));
+    for (int i = 40; i <= 100; i++) {
+      assertEquals("record number " + i, body(log.peek()));
+      log.remove();
+    }
+    assertNull(log.peek());
+    log.close();
+  }
+
+  @Test
+  public void testCountersRecoveredFromCheckpoint() throws IOException {
+    MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    for (int i = 0; i < 100; i++) {
+      log.append(record(3, "record number " + i));
+    }
+    log.remove();
+    log.maintain();
+    long bytes = log.getByteCount();
+    File checkpoint = new File(directory, "checkpoint");
+    byte[] checkpointSnapshot = Files.readAllBytes(checkpoint.toPath());
+    // these are not reflected in the checkpoint snapshot
+    log.append(record(5, "record number 100"));
+    log.remove();
+    log.close();
+    // simulate a crash right after the snapshot
+    Files.write(checkpoint.toPath(), checkpointSnapshot);
+
+    log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    assertEquals(100, log.size());
+    assertEquals(302, log.getPointCount());
+    assertTrue(log.getByteCount() > bytes);
+    assertEquals(1234567890L, (long) log.getOldestEnqueuedMillis());
+    // consumed records after the last checkpoint are delivered again
+    assertEquals("record number 1", body(log.peek()));
+    log.close();
+  }
+
+  @Test
+  public void testRecoveryDiscardsTornRecord() throws IOException {
+    MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    log.append(record(1, "good"));
+    log.maintain();
+    File checkpoint = new File(directory, "checkpoint");
+    byte[] checkpointSnapshot = Files.readAllBytes(checkpoint.toPath());
+    log.append(record(1, "torn"));
+    log.close();
+    Files.write(checkpoint.toPath(), checkpointSnapshot);
+
+    // corrupt the last byte of the second record's body
+    File segment = new File(directory, String.format("%020d", 0) + ".seg");
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      int firstRecordLength = file.readInt() + 8;
+      file.seek(firstRecordLength);
+      int secondRecordLength = file.readInt() + 8;
+      file.seek(firstRecordLength + secondRecordLength - 1);
+      file.write('X');
+    }
+
+    log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    assertEquals(1, log.size());
+    assertEquals("good", body(log.peek()));
+    log.append(record(1, "new"));
+    log.remove();
+    assertEquals("new", body(log.peek()));
+    log.remove();
+    assertNull(log.peek());
+    log.close();
+  }
+
+  @Test
+  public void testCountersAfterSkippingCorruptedRecords() throws IOException {
+    MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    for (int i = 0; i < 500; i++) {
+      log.append(record(2, "record number " + i));
+    }
+    log.close();
+    assertTrue(segmentCount() > 2);
+
+    // corrupt the last byte of the second record's body
+    File segment = new File(directory, String.format("%020d", 0) + ".seg");
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      int firstRecordLength = file.readInt() + 8;
+      file.seek(firstRecordLength);
+      int secondRecordLength = file.readInt() + 8;
+      file.seek(firstRecordLength + secondRecordLength - 1);
+      file.write('X');
+    }
+
+    log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    assertEquals(500, log.size());
+    assertEquals("record number 0", body(log.peek()));
+    log.remove();
+    // the rest of the first segment is skipped
+    String next = body(log.peek());
+    assertFalse(next.equals("record number 1"));
+    int size = log.size();
+    long points = log.getPointCount();
+    assertTrue(size < 499);
+    assertEquals(size * 2, points);
+    int records = 0;
+    while (log.peek() != null) {
+      records++;
+      log.remove();
+    }
+    assertEquals(size, records);
+    assertEquals(0, log.size());
+    assertEquals(0, log.getPointCount());
+    assertEquals(0, log.getByteCount());
+    log.close();
+  }
+
+  @Test
+  public void testPurge() throws IOException {
+    MappedSegmentLog log = new MappedSegmentLog(directory, SEGMENT_SIZE);
+    log.append(record(1, "data"));
+    log.close();
+    assertTrue(MappedSegmentLog.purge(directory));
+    assertFalse(directory.exists());
+  }
+
+  private int segmentCount() {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+    return files == null ? 0 : files.length;
+  }
+
+  private static MappedSegmentLog.Record record(int points, String body) {
+    return new MappedSegmentLog.Record((byte) 1, (byte) 0, points, 1234567890L, "wavefront",
+        body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String body(MappedSegmentLog.Record record) {
+    assertNotNull(record);
+    return new String(record.getBody(), StandardCharsets.UTF_8);
+  }
+}